@@ -0,0 +1,201 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.database.model.ConversationAnchor;
+import org.thoughtcrime.securesms.database.model.MessageId;
+import org.thoughtcrime.securesms.util.CursorUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares loading a page of a 100k message conversation by offset against seeking from an anchor,
+ * at increasing depths into the conversation, using {@link MmsSmsDatabase#getConversation(long, long, long)}
+ * and the seek queries on the real sms, mms and part tables in an in-memory SQLCipher database.
+ *
+ * Results are logged rather than asserted on, since timings vary from device to device, so it's
+ * ignored by default. Remove the annotation to run it.
+ */
+@Ignore("Benchmark, run manually")
+@RunWith(AndroidJUnit4.class)
+public final class ConversationSeekBenchmark {
+
+  private static final String TAG = Log.tag(ConversationSeekBenchmark.class);
+
+  private static final long  THREAD_ID     = 1;
+  private static final int   MESSAGE_COUNT = 100_000;
+  private static final int   PAGE_SIZE     = 25;
+  private static final int   RUNS          = 5;
+  private static final int[] DEPTHS        = { 0, 10_000, 50_000, 99_000 };
+
+  private net.sqlcipher.database.SQLiteDatabase db;
+  private MmsSmsDatabase                        mmsSmsDatabase;
+
+  @Before
+  public void setUp() {
+    Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    net.sqlcipher.database.SQLiteDatabase.loadLibs(context);
+
+    db = net.sqlcipher.database.SQLiteDatabase.create(null, "");
+
+    db.execSQL(SmsDatabase.CREATE_TABLE);
+    db.execSQL(MmsDatabase.CREATE_TABLE);
+    db.execSQL(AttachmentDatabase.CREATE_TABLE);
+    execute(SmsDatabase.CREATE_INDEXS);
+    execute(MmsDatabase.CREATE_INDEXS);
+    execute(AttachmentDatabase.CREATE_INDEXS);
+
+    mmsSmsDatabase = new MmsSmsDatabase(context, new InMemoryOpenHelper(context, db));
+
+    Random random = new Random(1);
+    String body   = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor incididunt ut labore";
+
+    db.beginTransaction();
+    try {
+      for (int i = 0; i < MESSAGE_COUNT; i++) {
+        // Several messages share a timestamp, to exercise the tie-breakers
+        long          date   = i / 3;
+        ContentValues values = new ContentValues();
+
+        values.put(MmsSmsColumns.THREAD_ID, THREAD_ID);
+        values.put(MmsSmsColumns.BODY, body);
+
+        if (random.nextInt(5) == 0) {
+          values.put(MmsDatabase.DATE_RECEIVED, date);
+          values.put(MmsDatabase.DATE_SENT, date);
+          long mmsId = db.insert(MmsDatabase.TABLE_NAME, null, values);
+
+          ContentValues part = new ContentValues();
+          part.put(AttachmentDatabase.MMS_ID, mmsId);
+          part.put(AttachmentDatabase.UNIQUE_ID, i);
+          db.insert(AttachmentDatabase.TABLE_NAME, null, part);
+        } else {
+          values.put(SmsDatabase.DATE_RECEIVED, date);
+          values.put(SmsDatabase.DATE_SENT, date);
+          db.insert(SmsDatabase.TABLE_NAME, null, values);
+        }
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  @After
+  public void tearDown() {
+    db.close();
+  }
+
+  @Test
+  public void pageLoadTimeByDepth() {
+    for (int depth : DEPTHS) {
+      ConversationAnchor newerAnchor = depth > 0 ? toAnchor(read(mmsSmsDatabase.getConversation(THREAD_ID, depth - 1, 1)).get(0)) : null;
+      ConversationAnchor olderAnchor = toAnchor(read(mmsSmsDatabase.getConversation(THREAD_ID, depth + PAGE_SIZE, 1)).get(0));
+
+      List<Row> byOffset     = null;
+      List<Row> seekingOlder = null;
+      List<Row> seekingNewer = null;
+      long      offsetNanos  = 0;
+      long      olderNanos   = 0;
+      long      newerNanos   = 0;
+
+      for (int i = 0; i < RUNS; i++) {
+        long start = System.nanoTime();
+        byOffset = read(mmsSmsDatabase.getConversation(THREAD_ID, depth, PAGE_SIZE));
+        offsetNanos += System.nanoTime() - start;
+
+        start = System.nanoTime();
+        seekingOlder = newerAnchor != null ? read(mmsSmsDatabase.getConversationAfter(THREAD_ID, newerAnchor, 0, PAGE_SIZE))
+                                           : read(mmsSmsDatabase.getConversation(THREAD_ID, 0, PAGE_SIZE));
+        olderNanos += System.nanoTime() - start;
+
+        start = System.nanoTime();
+        seekingNewer = read(mmsSmsDatabase.getConversationBefore(THREAD_ID, olderAnchor, 0, PAGE_SIZE));
+        newerNanos += System.nanoTime() - start;
+      }
+
+      Collections.reverse(seekingNewer);
+
+      assertEquals(byOffset, seekingOlder);
+      assertEquals(byOffset, seekingNewer);
+
+      Log.i(TAG, String.format(Locale.US, "[Page at %d] Offset: %.2f ms, Seek older: %.2f ms, Seek newer: %.2f ms",
+                               depth, offsetNanos / 1_000_000f / RUNS, olderNanos / 1_000_000f / RUNS, newerNanos / 1_000_000f / RUNS));
+    }
+  }
+
+  private static @NonNull List<Row> read(@NonNull Cursor cursor) {
+    List<Row> rows = new ArrayList<>();
+
+    try {
+      while (cursor.moveToNext()) {
+        rows.add(new Row(CursorUtil.requireLong(cursor, MmsSmsColumns.NORMALIZED_DATE_RECEIVED),
+                         CursorUtil.requireLong(cursor, MmsSmsColumns.ID),
+                         MmsSmsDatabase.MMS_TRANSPORT.equals(CursorUtil.requireString(cursor, MmsSmsDatabase.TRANSPORT))));
+      }
+    } finally {
+      cursor.close();
+    }
+
+    return rows;
+  }
+
+  private void execute(@NonNull String[] statements) {
+    for (String statement : statements) {
+      db.execSQL(statement);
+    }
+  }
+
+  private static @NonNull ConversationAnchor toAnchor(@NonNull Row row) {
+    return new ConversationAnchor(row.dateReceived, new MessageId(row.id, row.mms));
+  }
+
+  private static final class Row {
+    private final long    dateReceived;
+    private final long    id;
+    private final boolean mms;
+
+    private Row(long dateReceived, long id, boolean mms) {
+      this.dateReceived = dateReceived;
+      this.id           = id;
+      this.mms          = mms;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Row row = (Row) o;
+      return dateReceived == row.dateReceived && id == row.id && mms == row.mms;
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (dateReceived * 31 + id * 2 + (mms ? 1 : 0));
+    }
+
+    @Override
+    public @NonNull String toString() {
+      return (mms ? "MMS::" : "SMS::") + id + "::" + dateReceived;
+    }
+  }
+}
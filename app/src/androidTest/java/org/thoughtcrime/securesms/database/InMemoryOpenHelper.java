@@ -0,0 +1,31 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import org.thoughtcrime.securesms.crypto.DatabaseSecret;
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+
+/**
+ * Hands out an in-memory database instead of opening the app's.
+ */
+final class InMemoryOpenHelper extends SQLCipherOpenHelper {
+
+  private final SQLiteDatabase database;
+
+  InMemoryOpenHelper(@NonNull Context context, @NonNull net.sqlcipher.database.SQLiteDatabase database) {
+    super(context, new DatabaseSecret(new byte[32]));
+    this.database = new SQLiteDatabase(database);
+  }
+
+  @Override
+  public SQLiteDatabase getReadableDatabase() {
+    return database;
+  }
+
+  @Override
+  public SQLiteDatabase getWritableDatabase() {
+    return database;
+  }
+}
@@ -0,0 +1,274 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.thoughtcrime.securesms.util.SqlUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the recipient searches against the real recipient table, its search index and triggers, in
+ * an in-memory SQLCipher database. This is an instrumentation test because the SQLite that
+ * Robolectric uses is too old to have FTS5.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class RecipientDatabaseTest_search {
+
+  private static final int RECIPIENT_COUNT = 10_000;
+
+  private net.sqlcipher.database.SQLiteDatabase db;
+  private RecipientDatabase                     recipientDatabase;
+
+  @Before
+  public void setUp() {
+    Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    net.sqlcipher.database.SQLiteDatabase.loadLibs(context);
+
+    db = net.sqlcipher.database.SQLiteDatabase.create(null, "");
+
+    db.execSQL(RecipientDatabase.CREATE_TABLE);
+    execute(RecipientDatabase.CREATE_FTS_TABLE);
+    execute(RecipientDatabase.CREATE_TRIGGERS);
+    execute(RecipientDatabase.CREATE_INDEXS);
+
+    recipientDatabase = new RecipientDatabase(context, new InMemoryOpenHelper(context, db));
+  }
+
+  @After
+  public void tearDown() {
+    db.close();
+  }
+
+  @Test
+  public void insert_isIndexed() {
+    long alice = insert(systemContact("Alice Cooper"));
+
+    assertEquals(Collections.singletonList(alice), queryAllContacts("alic"));
+    assertEquals(Collections.singletonList(alice), queryAllContacts("coo"));
+    assertIndexInSync();
+  }
+
+  @Test
+  public void update_isReindexed() {
+    long alice = insert(systemContact("Alice Cooper"));
+
+    ContentValues values = new ContentValues();
+    values.put(RecipientDatabase.SYSTEM_JOINED_NAME, "Alicia Keys");
+    db.update(RecipientDatabase.TABLE_NAME, values, RecipientDatabase.ID + " = ?", SqlUtil.buildArgs(alice));
+
+    assertTrue(queryAllContacts("cooper").isEmpty());
+    assertEquals(Collections.singletonList(alice), queryAllContacts("keys"));
+    assertIndexInSync();
+  }
+
+  @Test
+  public void update_ofUnindexedColumn_leavesIndexAlone() {
+    long alice = insert(systemContact("Alice Cooper"));
+
+    ContentValues values = new ContentValues();
+    values.put("blocked", 0);
+    db.update(RecipientDatabase.TABLE_NAME, values, RecipientDatabase.ID + " = ?", SqlUtil.buildArgs(alice));
+
+    assertEquals(Collections.singletonList(alice), queryAllContacts("alice"));
+    assertIndexInSync();
+  }
+
+  @Test
+  public void delete_isRemovedFromIndex() {
+    long alice = insert(systemContact("Alice Cooper"));
+    long bob   = insert(systemContact("Bob Cooper"));
+
+    db.delete(RecipientDatabase.TABLE_NAME, RecipientDatabase.ID + " = ?", SqlUtil.buildArgs(alice));
+
+    assertEquals(Collections.singletonList(bob), queryAllContacts("cooper"));
+    assertIndexInSync();
+  }
+
+  @Test
+  public void querySignalContacts_matchesRegisteredContactsByAnyName() {
+    long alice = insert(signalContact("+15555550001", "Alice Cooper", null));
+    long bob   = insert(signalContact("+15555550002", null, "Bob Marley"));
+    insert(smsContact("+15555550003", "Alice Smith"));
+
+    assertEquals(Collections.singletonList(alice), ids(recipientDatabase.querySignalContacts("alice", true)));
+    assertEquals(Collections.singletonList(bob), ids(recipientDatabase.querySignalContacts("marl", true)));
+    assertEquals(Collections.singletonList(bob), ids(recipientDatabase.querySignalContacts("5550002", true)));
+  }
+
+  @Test
+  public void queryNonSignalContacts_matchesUnregisteredContactsByNameAndNumber() {
+    insert(signalContact("+15555550001", "Carol Signal", null));
+    long carol = insert(smsContact("+15555550123", "Carol King"));
+
+    assertEquals(Collections.singletonList(carol), ids(recipientDatabase.queryNonSignalContacts("carol")));
+    assertEquals(Collections.singletonList(carol), ids(recipientDatabase.queryNonSignalContacts("0123")));
+  }
+
+  @Test
+  public void queryAllContacts_matchesUsernameAndEmail() {
+    ContentValues dave = new ContentValues();
+    dave.put("username", "davey");
+    dave.put(RecipientDatabase.EMAIL, "dave@example.com");
+
+    long id = insert(dave);
+
+    assertEquals(Collections.singletonList(id), queryAllContacts("dave"));
+    assertEquals(Collections.singletonList(id), queryAllContacts("example"));
+  }
+
+  @Test
+  public void querySignalContacts_startOfNameSortsFirst() {
+    long cooper = insert(signalContact("+15555550001", "Alice Cooper", null));
+    long cook   = insert(signalContact("+15555550002", "Cook Smith", null));
+
+    assertEquals(Arrays.asList(cook, cooper), ids(recipientDatabase.querySignalContacts("coo", true)));
+    assertEquals(Arrays.asList(cook, cooper), mentionIds("coo", null));
+  }
+
+  @Test
+  public void queryRecipientIdsForMentions_withMembers_matchesAcrossSpacesAndWithinWords() {
+    long john  = insert(signalContact("+15555550001", "John Smith", null));
+    long alice = insert(signalContact("+15555550002", "Alice Cooper", null));
+    long other = insert(signalContact("+15555550003", "John Smithers", null));
+
+    List<RecipientId> members = Arrays.asList(RecipientId.from(john), RecipientId.from(alice));
+
+    assertEquals(Collections.singletonList(john), mentionIds("johnsm", members));
+    assertEquals(Collections.singletonList(john), mentionIds("ohn", members));
+    assertEquals(Arrays.asList(alice, john), mentionIds("", members));
+    assertFalse(mentionIds("johnsm", members).contains(other));
+  }
+
+  @Test
+  public void queryRecipientIdsForMentions_withoutMembers_usesIndex() {
+    long john = insert(signalContact("+15555550001", "John Smith", null));
+    insert(signalContact("+15555550002", "Alice Cooper", null));
+
+    assertEquals(Collections.singletonList(john), mentionIds("smi", null));
+  }
+
+  @Test
+  public void search_withManyRecipients_doesNotScanRecipientTable() {
+    db.beginTransaction();
+    try {
+      for (int i = 0; i < RECIPIENT_COUNT; i++) {
+        insert(signalContact("+1555" + (1_000_000 + i), "Person" + i + " Surname" + (i % 100), null));
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    SqlUtil.Query search = RecipientDatabase.buildSearchQuery("surname42", RecipientDatabase.PHONE);
+    List<String>  plan   = queryPlan("SELECT " + RecipientDatabase.ID + " FROM " + RecipientDatabase.TABLE_NAME + " WHERE " + search.getWhere(), search.getWhereArgs());
+
+    for (String step : plan) {
+      assertFalse(plan.toString(), step.matches("SCAN (TABLE )?" + RecipientDatabase.TABLE_NAME + "( .*)?"));
+    }
+
+    assertEquals(RECIPIENT_COUNT / 100, queryAllContacts("surname42").size());
+    assertIndexInSync();
+  }
+
+  private @NonNull List<Long> queryAllContacts(@NonNull String query) {
+    return ids(recipientDatabase.queryAllContacts(query));
+  }
+
+  private @NonNull List<Long> mentionIds(@NonNull String query, @Nullable List<RecipientId> members) {
+    List<Long> ids = new ArrayList<>();
+
+    for (RecipientId id : recipientDatabase.queryRecipientIdsForMentions(query, members)) {
+      ids.add(id.toLong());
+    }
+
+    return ids;
+  }
+
+  private static @NonNull List<Long> ids(Cursor cursor) {
+    List<Long> ids = new ArrayList<>();
+
+    try {
+      while (cursor.moveToNext()) {
+        ids.add(cursor.getLong(cursor.getColumnIndexOrThrow(RecipientDatabase.ID)));
+      }
+    } finally {
+      cursor.close();
+    }
+
+    return ids;
+  }
+
+  private @NonNull List<String> queryPlan(@NonNull String sql, @NonNull String[] args) {
+    List<String> plan = new ArrayList<>();
+
+    try (Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args)) {
+      while (cursor.moveToNext()) {
+        plan.add(cursor.getString(cursor.getColumnIndexOrThrow("detail")));
+      }
+    }
+
+    return plan;
+  }
+
+  /**
+   * Throws if the index doesn't match the recipient table.
+   */
+  private void assertIndexInSync() {
+    db.execSQL("INSERT INTO " + RecipientDatabase.FTS_TABLE_NAME + "(" + RecipientDatabase.FTS_TABLE_NAME + ") VALUES ('integrity-check')");
+  }
+
+  private long insert(@NonNull ContentValues values) {
+    return db.insertOrThrow(RecipientDatabase.TABLE_NAME, null, values);
+  }
+
+  private void execute(@NonNull String[] statements) {
+    for (String statement : statements) {
+      db.execSQL(statement);
+    }
+  }
+
+  private static @NonNull ContentValues systemContact(@NonNull String name) {
+    ContentValues values = new ContentValues();
+    values.put(RecipientDatabase.SYSTEM_JOINED_NAME, name);
+    return values;
+  }
+
+  private static @NonNull ContentValues signalContact(@NonNull String phone, @Nullable String systemName, @Nullable String profileName) {
+    ContentValues values = new ContentValues();
+    values.put(RecipientDatabase.PHONE, phone);
+    values.put(RecipientDatabase.SYSTEM_JOINED_NAME, systemName);
+    values.put("profile_joined_name", profileName);
+    values.put("profile_sharing", 1);
+    values.put(RecipientDatabase.REGISTERED, RecipientDatabase.RegisteredState.REGISTERED.getId());
+    return values;
+  }
+
+  private static @NonNull ContentValues smsContact(@NonNull String phone, @NonNull String systemName) {
+    ContentValues values = new ContentValues();
+    values.put(RecipientDatabase.PHONE, phone);
+    values.put(RecipientDatabase.SYSTEM_JOINED_NAME, systemName);
+    values.put("system_contact_uri", "content://com.android.contacts/contacts/lookup/" + phone);
+    values.put(RecipientDatabase.REGISTERED, RecipientDatabase.RegisteredState.NOT_REGISTERED.getId());
+    return values;
+  }
+}
@@ -80,6 +80,7 @@ import org.webrtc.voiceengine.WebRtcAudioManager;
 import org.webrtc.voiceengine.WebRtcAudioUtils;
 import org.whispersystems.libsignal.logging.SignalProtocolLoggerProvider;
 
+import java.io.File;
 import java.security.Security;
 import java.util.concurrent.TimeUnit;
 
@@ -190,6 +191,7 @@ public class ApplicationContext extends MultiDexApplication implements AppForegr
     ApplicationDependencies.getMessageNotifier().clearVisibleThread();
     ApplicationDependencies.getFrameRateTracker().end();
     ApplicationDependencies.getShakeToReport().disable();
+    ApplicationDependencies.getRecipientCache().saveSnapshot();
   }
 
   public PersistentLogger getPersistentLogger() {
@@ -228,9 +230,15 @@ public class ApplicationContext extends MultiDexApplication implements AppForegr
   }
 
   private void initializeLogging() {
-    persistentLogger = new PersistentLogger(this, LogSecretProvider.getOrCreateAttachmentSecret(this), BuildConfig.VERSION_NAME);
+    byte[] logSecret = LogSecretProvider.getOrCreateAttachmentSecret(this);
+
+    persistentLogger = new PersistentLogger(this, logSecret, BuildConfig.VERSION_NAME);
     org.signal.core.util.logging.Log.initialize(FeatureFlags::internalUser, new AndroidLogger(), persistentLogger);
 
+    if (FeatureFlags.internalUser()) {
+      SignalExecutors.BOUNDED.execute(() -> Tracer.getInstance().enableStreaming(new File(getCacheDir(), "trace"), logSecret));
+    }
+
     SignalProtocolLoggerProvider.setProvider(new CustomSignalProtocolLogger());
   }
 
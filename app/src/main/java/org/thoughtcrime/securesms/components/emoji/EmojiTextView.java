@@ -48,7 +48,8 @@ public class EmojiTextView extends AppCompatTextView {
   private CharSequence previousOverflowText;
   private boolean      renderMentions;
 
-  private MentionRendererDelegate mentionRendererDelegate;
+  private MentionRendererDelegate     mentionRendererDelegate;
+  private EmojiParser.CandidateBuffer candidates;
 
   public EmojiTextView(Context context) {
     this(context, null);
@@ -92,10 +93,10 @@ public class EmojiTextView extends AppCompatTextView {
   }
 
   @Override public void setText(@Nullable CharSequence text, BufferType type) {
-    EmojiProvider             provider   = EmojiProvider.getInstance(getContext());
-    EmojiParser.CandidateList candidates = provider.getCandidates(text);
+    EmojiProvider               provider   = EmojiProvider.getInstance(getContext());
+    EmojiParser.CandidateBuffer candidates = findCandidates(text);
 
-    if (scaleEmojis && candidates != null && candidates.allEmojis) {
+    if (scaleEmojis && candidates.isAllEmojis()) {
       int   emojis = candidates.size();
       float scale  = 1.0f;
 
@@ -118,7 +119,7 @@ public class EmojiTextView extends AppCompatTextView {
     previousBufferType   = type;
     useSystemEmoji       = useSystemEmoji();
 
-    if (useSystemEmoji || candidates == null || candidates.size() == 0) {
+    if (useSystemEmoji || candidates.size() == 0) {
       super.setText(new SpannableStringBuilder(Optional.fromNullable(text).or("")).append(Optional.fromNullable(overflowText).or("")), BufferType.NORMAL);
 
       if (getEllipsize() == TextUtils.TruncateAt.END && maxLength > 0) {
@@ -166,9 +167,9 @@ public class EmojiTextView extends AppCompatTextView {
                 .append(ELLIPSIS)
                 .append(Util.emptyIfNull(overflowText));
 
-      EmojiParser.CandidateList newCandidates = EmojiProvider.getInstance(getContext()).getCandidates(newContent);
+      EmojiParser.CandidateBuffer newCandidates = findCandidates(newContent);
 
-      if (useSystemEmoji || newCandidates == null || newCandidates.size() == 0) {
+      if (useSystemEmoji || newCandidates.size() == 0) {
         super.setText(newContent, BufferType.NORMAL);
       } else {
         CharSequence emojified = EmojiProvider.getInstance(getContext()).emojify(newCandidates, newContent, this);
@@ -200,14 +201,29 @@ public class EmojiTextView extends AppCompatTextView {
                   .append(ellipsized.subSequence(0, ellipsized.length()))
                   .append(Optional.fromNullable(overflowText).or(""));
 
-        EmojiParser.CandidateList newCandidates = EmojiProvider.getInstance(getContext()).getCandidates(newContent);
-        CharSequence              emojified     = EmojiProvider.getInstance(getContext()).emojify(newCandidates, newContent, this);
+        EmojiParser.CandidateBuffer newCandidates = findCandidates(newContent);
+        CharSequence                emojified     = EmojiProvider.getInstance(getContext()).emojify(newCandidates, newContent, this);
 
         super.setText(emojified, BufferType.SPANNABLE);
       }
     });
   }
 
+  /**
+   * Parses into a buffer this view keeps, since text is set on every bind. The buffer is only good
+   * until the next call.
+   */
+  private @NonNull EmojiParser.CandidateBuffer findCandidates(@Nullable CharSequence text) {
+    // TextView's constructor sets text before our fields are initialized.
+    if (candidates == null) {
+      candidates = new EmojiParser.CandidateBuffer();
+    }
+
+    EmojiProvider.getInstance(getContext()).findCandidates(text, candidates);
+
+    return candidates;
+  }
+
   private boolean unchanged(CharSequence text, CharSequence overflowText, BufferType bufferType) {
     return Util.equals(previousText, text)                 &&
            Util.equals(previousOverflowText, overflowText) &&
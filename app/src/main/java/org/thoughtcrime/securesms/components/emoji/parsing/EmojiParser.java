@@ -24,8 +24,9 @@ package org.thoughtcrime.securesms.components.emoji.parsing;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -40,16 +41,34 @@ public class EmojiParser {
   }
 
   public @NonNull CandidateList findCandidates(@Nullable CharSequence text) {
-    List<Candidate> results = new LinkedList<>();
+    CandidateBuffer buffer = new CandidateBuffer();
+
+    findCandidates(text, buffer);
+
+    List<Candidate> results = new ArrayList<>(buffer.size());
+
+    for (int i = 0; i < buffer.size(); i++) {
+      results.add(new Candidate(buffer.getStartIndex(i), buffer.getEndIndex(i), buffer.getDrawInfo(i)));
+    }
+
+    return new CandidateList(results, buffer.isAllEmojis());
+  }
+
+  /**
+   * Finds the emoji in the text and writes them into the buffer, replacing whatever it held. Once
+   * the buffer has grown to fit the text, this doesn't allocate anything.
+   */
+  public void findCandidates(@Nullable CharSequence text, @NonNull CandidateBuffer out) {
+    out.clear();
 
     if (text == null) {
-      return new CandidateList(results, false);
+      return;
     }
 
     boolean allEmojis = text.length() > 0;
 
     for (int i = 0; i < text.length(); i++) {
-      int emojiEnd = getEmojiEndPos(text, i);
+      int emojiEnd = emojiTree.findEmojiEnd(text, i);
 
       if (emojiEnd != -1) {
         EmojiDrawInfo drawInfo = emojiTree.getEmoji(text, i, emojiEnd);
@@ -60,7 +79,7 @@ public class EmojiParser {
           }
         }
 
-        results.add(new Candidate(i, emojiEnd, drawInfo));
+        out.add(i, emojiEnd, drawInfo);
 
         i = emojiEnd - 1;
       } else if (text.charAt(i) != ' '){
@@ -68,25 +87,63 @@ public class EmojiParser {
       }
     }
 
-    allEmojis &= !results.isEmpty();
-
-    return new CandidateList(results, allEmojis);
+    out.allEmojis = allEmojis && out.size() > 0;
   }
 
-  private int getEmojiEndPos(CharSequence text, int startPos) {
-    int best = -1;
+  /**
+   * Holds the emoji found in a piece of text as parallel arrays, so that one buffer can be reused
+   * for every parse. Not thread safe.
+   */
+  public static final class CandidateBuffer {
 
-    for (int j = startPos + 1; j <= text.length(); j++) {
-      EmojiTree.Matches status = emojiTree.isEmoji(text, startPos, j);
+    private static final int INITIAL_CAPACITY = 8;
 
-      if (status.exactMatch()) {
-        best = j;
-      } else if (status.impossibleMatch()) {
-        return best;
-      }
+    private int[]           startIndexes = new int[INITIAL_CAPACITY];
+    private int[]           endIndexes   = new int[INITIAL_CAPACITY];
+    private EmojiDrawInfo[] drawInfos    = new EmojiDrawInfo[INITIAL_CAPACITY];
+    private int             size;
+    private boolean         allEmojis;
+
+    public int size() {
+      return size;
+    }
+
+    public int getStartIndex(int position) {
+      return startIndexes[position];
+    }
+
+    public int getEndIndex(int position) {
+      return endIndexes[position];
+    }
+
+    public @Nullable EmojiDrawInfo getDrawInfo(int position) {
+      return drawInfos[position];
+    }
+
+    /**
+     * @return True if the text had at least one emoji and nothing else but spaces.
+     */
+    public boolean isAllEmojis() {
+      return allEmojis;
+    }
+
+    private void clear() {
+      size      = 0;
+      allEmojis = false;
     }
 
-    return best;
+    private void add(int startIndex, int endIndex, @Nullable EmojiDrawInfo drawInfo) {
+      if (size == startIndexes.length) {
+        startIndexes = Arrays.copyOf(startIndexes, size * 2);
+        endIndexes   = Arrays.copyOf(endIndexes, size * 2);
+        drawInfos    = Arrays.copyOf(drawInfos, size * 2);
+      }
+
+      startIndexes[size] = startIndex;
+      endIndexes[size]   = endIndex;
+      drawInfos[size]    = drawInfo;
+      size++;
+    }
   }
 
   public static class Candidate {
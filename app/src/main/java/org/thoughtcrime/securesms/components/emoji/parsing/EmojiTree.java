@@ -20,119 +20,201 @@
 
 package org.thoughtcrime.securesms.components.emoji.parsing;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Based in part on code from emoji-java
+ *
+ * An immutable trie of every emoji we can draw, stored as arrays rather than as node objects. Each
+ * node is an index into the arrays, nodes are numbered breadth first, and the children of a node
+ * are contiguous and sorted by the character that leads to them, so finding a child is a binary
+ * search. Build one with {@link Builder}.
  */
-public class EmojiTree {
-
-  private final EmojiTreeNode root = new EmojiTreeNode();
+public final class EmojiTree {
 
   private static final char TERMINATOR = '\ufe0f';
+  private static final int  ROOT       = 0;
+  private static final int  NO_NODE    = -1;
+
+  /** The character that leads to each node. Unused for the root. */
+  private final char[]          keys;
+  /** The children of node n are the nodes from firstChild[n] up to, but not including, firstChild[n + 1]. */
+  private final int[]           firstChild;
+  /** The emoji that ends at each node, or null. */
+  private final EmojiDrawInfo[] emoji;
+
+  private EmojiTree(@NonNull char[] keys, @NonNull int[] firstChild, @NonNull EmojiDrawInfo[] emoji) {
+    this.keys       = keys;
+    this.firstChild = firstChild;
+    this.emoji      = emoji;
+  }
+
+  /**
+   * @return The end of the longest emoji that starts at the given position, or -1 if there isn't
+   *         one. An emoji missing its trailing variation selector still counts.
+   */
+  public int findEmojiEnd(@NonNull CharSequence text, int startPosition) {
+    int node = ROOT;
+    int best = -1;
+
+    for (int i = startPosition, length = text.length(); i < length; i++) {
+      char character = text.charAt(i);
 
-  public void add(String emojiEncoding, EmojiDrawInfo emoji) {
-    EmojiTreeNode tree = root;
+      node = getChild(node, character);
 
-    for (char c: emojiEncoding.toCharArray()) {
-      if (!tree.hasChild(c)) {
-        tree.addChild(c);
+      if (node == NO_NODE) {
+        break;
       }
 
-      tree = tree.getChild(c);
+      if (emoji[node] != null || (character != TERMINATOR && hasEmojiChild(node, TERMINATOR))) {
+        best = i + 1;
+      }
     }
 
-    tree.setEmoji(emoji);
+    return best;
   }
 
-  public Matches isEmoji(CharSequence sequence, int startPosition, int endPosition) {
-    if (sequence == null) {
-      return Matches.POSSIBLY;
-    }
+  public @Nullable EmojiDrawInfo getEmoji(@NonNull CharSequence unicode, int startPosition, int endPosition) {
+    int node = find(unicode, startPosition, endPosition);
 
-    EmojiTreeNode tree = root;
+    if (node == NO_NODE) {
+      return null;
+    } else if (emoji[node] != null) {
+      return emoji[node];
+    } else if (unicode.charAt(endPosition - 1) != TERMINATOR) {
+      int terminated = getChild(node, TERMINATOR);
+      return terminated != NO_NODE ? emoji[terminated] : null;
+    } else {
+      return null;
+    }
+  }
 
-    for (int i=startPosition; i<endPosition; i++) {
-      char character = sequence.charAt(i);
+  /**
+   * @return The number of nodes in the tree, including the root.
+   */
+  public int size() {
+    return emoji.length;
+  }
 
-      if (!tree.hasChild(character)) {
-        return Matches.IMPOSSIBLE;
-      }
+  private int find(@NonNull CharSequence unicode, int startPosition, int endPosition) {
+    int node = ROOT;
 
-      tree = tree.getChild(character);
+    for (int i = startPosition; i < endPosition && node != NO_NODE; i++) {
+      node = getChild(node, unicode.charAt(i));
     }
 
-    if (tree.isEndOfEmoji()) {
-      return Matches.EXACTLY;
-    } else if (sequence.charAt(endPosition-1) != TERMINATOR && tree.hasChild(TERMINATOR) && tree.getChild(TERMINATOR).isEndOfEmoji()) {
-      return Matches.EXACTLY;
-    } else {
-      return Matches.POSSIBLY;
-    }
+    return node;
   }
 
-  public @Nullable EmojiDrawInfo getEmoji(CharSequence unicode, int startPosition, int endPostiion) {
-    EmojiTreeNode tree = root;
+  private boolean hasEmojiChild(int node, char character) {
+    int child = getChild(node, character);
+    return child != NO_NODE && emoji[child] != null;
+  }
 
-    for (int i=startPosition; i<endPostiion; i++) {
-      char character = unicode.charAt(i);
+  private int getChild(int node, char character) {
+    int low  = firstChild[node];
+    int high = firstChild[node + 1] - 1;
 
-      if (!tree.hasChild(character)) {
-        return null;
-      }
+    while (low <= high) {
+      int  middle = (low + high) >>> 1;
+      char key    = keys[middle];
 
-      tree = tree.getChild(character);
+      if (key < character) {
+        low = middle + 1;
+      } else if (key > character) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
     }
 
-    if      (tree.getEmoji() != null)                                                  return tree.getEmoji();
-    else if (unicode.charAt(endPostiion-1) != TERMINATOR && tree.hasChild(TERMINATOR)) return tree.getChild(TERMINATOR).getEmoji();
-    else    return null;
+    return NO_NODE;
   }
 
+  /**
+   * Collects emoji into a tree of nodes, then flattens it into an {@link EmojiTree}.
+   */
+  public static final class Builder {
 
-  private static class EmojiTreeNode {
+    private final Node root = new Node();
 
-    private Map<Character, EmojiTreeNode> children = new HashMap<>();
-    private EmojiDrawInfo emoji;
+    private int size = 1;
 
-    public void setEmoji(EmojiDrawInfo emoji) {
-      this.emoji = emoji;
-    }
+    public void add(@NonNull String emojiEncoding, @Nullable EmojiDrawInfo emoji) {
+      Node node = root;
 
-    public @Nullable EmojiDrawInfo getEmoji() {
-      return emoji;
-    }
+      for (char c : emojiEncoding.toCharArray()) {
+        Node child = node.children.get(c);
 
-    boolean hasChild(char child) {
-      return children.containsKey(child);
-    }
+        if (child == null) {
+          child = new Node();
+          node.children.put(c, child);
+          size++;
+        }
 
-    void addChild(char child) {
-      children.put(child, new EmojiTreeNode());
-    }
+        node = child;
+      }
 
-    EmojiTreeNode getChild(char child) {
-      return children.get(child);
+      node.emoji = emoji;
     }
 
-    boolean isEndOfEmoji() {
-      return emoji != null;
+    /**
+     * @return The emoji added for the given encoding so far, matching the same way
+     *         {@link EmojiTree#getEmoji(CharSequence, int, int)} does.
+     */
+    public @Nullable EmojiDrawInfo getEmoji(@NonNull String unicode) {
+      Node node = root;
+
+      for (int i = 0; i < unicode.length() && node != null; i++) {
+        node = node.children.get(unicode.charAt(i));
+      }
+
+      if (node == null) {
+        return null;
+      } else if (node.emoji != null) {
+        return node.emoji;
+      } else if (unicode.charAt(unicode.length() - 1) != TERMINATOR && node.children.containsKey(TERMINATOR)) {
+        return node.children.get(TERMINATOR).emoji;
+      } else {
+        return null;
+      }
     }
-  }
 
-  public enum Matches {
-    EXACTLY, POSSIBLY, IMPOSSIBLE;
+    public @NonNull EmojiTree build() {
+      char[]          keys       = new char[size];
+      int[]           firstChild = new int[size + 1];
+      EmojiDrawInfo[] emoji      = new EmojiDrawInfo[size];
+      Node[]          order      = new Node[size];
+
+      order[0] = root;
+
+      int next = 1;
+
+      for (int i = 0; i < size; i++) {
+        Node node = order[i];
+
+        firstChild[i] = next;
+        emoji[i]      = node.emoji;
 
-    public boolean exactMatch() {
-      return this == EXACTLY;
+        for (Map.Entry<Character, Node> child : node.children.entrySet()) {
+          keys[next]  = child.getKey();
+          order[next] = child.getValue();
+          next++;
+        }
+      }
+
+      firstChild[size] = next;
+
+      return new EmojiTree(keys, firstChild, emoji);
     }
 
-    public boolean impossibleMatch() {
-      return this == IMPOSSIBLE;
+    private static final class Node {
+      private final Map<Character, Node> children = new TreeMap<>();
+      private       EmojiDrawInfo        emoji;
     }
   }
-
 }
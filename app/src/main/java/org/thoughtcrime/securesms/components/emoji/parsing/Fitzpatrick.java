@@ -27,6 +27,11 @@ public enum Fitzpatrick {
    */
   TYPE_6("\uD83C\uDFFF");
 
+  /**
+   * Cached, since {@link #values()} copies the array every time it's called.
+   */
+  private static final Fitzpatrick[] VALUES = values();
+
   /**
    * The unicode representation of the Fitzpatrick modifier
    */
@@ -38,11 +43,11 @@ public enum Fitzpatrick {
 
 
   public static Fitzpatrick fitzpatrickFromUnicode(CharSequence unicode, int index) {
-    for (Fitzpatrick v : values()) {
+    for (Fitzpatrick v : VALUES) {
       boolean match = true;
 
-      for (int i=0;i<v.unicode.toCharArray().length;i++) {
-        if (v.unicode.toCharArray()[i] != unicode.charAt(index + i)) {
+      for (int i = 0; i < v.unicode.length() && match; i++) {
+        if (v.unicode.charAt(i) != unicode.charAt(index + i)) {
           match = false;
         }
       }
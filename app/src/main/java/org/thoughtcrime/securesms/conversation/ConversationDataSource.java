@@ -1,7 +1,9 @@
 package org.thoughtcrime.securesms.conversation;
 
 import android.content.Context;
+import android.database.Cursor;
 
+import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
@@ -11,35 +13,74 @@ import org.signal.core.util.logging.Log;
 import org.signal.paging.PagedDataSource;
 import org.thoughtcrime.securesms.conversation.ConversationMessage.ConversationMessageFactory;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.database.MessageDatabase;
 import org.thoughtcrime.securesms.database.MmsSmsDatabase;
+import org.thoughtcrime.securesms.database.NoSuchMessageException;
+import org.thoughtcrime.securesms.database.model.ConversationAnchor;
 import org.thoughtcrime.securesms.database.model.Mention;
+import org.thoughtcrime.securesms.database.model.MessageId;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.util.Stopwatch;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Core data source for loading an individual conversation.
+ *
+ * Pages are loaded by seeking from the first or last message of a page that's already been loaded
+ * (an anchor), rather than by offset, so loading a page deep into a large conversation doesn't
+ * require reading every message before it. Anchors are only valid as long as positions don't
+ * shift, so they're cleared whenever the conversation is reloaded or a message is added or removed.
+ *
+ * That only helps when the page is next to one that's been loaded. A page further away, like one
+ * jumped to from search, is read by skipping messages from the nearest anchor, or from the start of
+ * the conversation if there's none closer, so it still costs time proportional to that distance.
  */
-class ConversationDataSource implements PagedDataSource<ConversationMessage> {
+class ConversationDataSource implements PagedDataSource.Keyed<MessageId, ConversationMessage> {
 
   private static final String TAG = Log.tag(ConversationDataSource.class);
 
   private final Context             context;
   private final long                threadId;
 
+  @GuardedBy("anchors")
+  private final TreeMap<Integer, ConversationAnchor> anchors;
+
+  @GuardedBy("anchors")
+  private int anchorVersion;
+
   ConversationDataSource(@NonNull Context context, long threadId) {
     this.context  = context;
     this.threadId = threadId;
+    this.anchors  = new TreeMap<>();
+  }
+
+  long getThreadId() {
+    return threadId;
+  }
+
+  /**
+   * Call when messages have been added to or removed from the conversation, since that shifts the
+   * position of every message after them.
+   */
+  void invalidateAnchors() {
+    synchronized (anchors) {
+      anchors.clear();
+      anchorVersion++;
+    }
   }
 
   @Override
   public int size() {
+    invalidateAnchors();
+
     long startTime = System.currentTimeMillis();
     int  size      = DatabaseFactory.getMmsSmsDatabase(context).getConversationCount(threadId);
 
@@ -54,8 +95,9 @@ class ConversationDataSource implements PagedDataSource<ConversationMessage> {
     MmsSmsDatabase      db            = DatabaseFactory.getMmsSmsDatabase(context);
     List<MessageRecord> records       = new ArrayList<>(length);
     MentionHelper       mentionHelper = new MentionHelper();
+    PageQuery           query         = getPageQuery(start, length);
 
-    try (MmsSmsDatabase.Reader reader = db.readerFor(db.getConversation(threadId, start, length))) {
+    try (MmsSmsDatabase.Reader reader = db.readerFor(query.run(db, threadId))) {
       MessageRecord record;
       while ((record = reader.getNext()) != null && !cancellationSignal.isCanceled()) {
         records.add(record);
@@ -63,8 +105,23 @@ class ConversationDataSource implements PagedDataSource<ConversationMessage> {
       }
     }
 
+    if (query.reversed) {
+      Collections.reverse(records);
+    }
+
     stopwatch.split("messages");
 
+    boolean aligned = !query.reversed || records.size() == length;
+
+    if (!records.isEmpty() && aligned && !cancellationSignal.isCanceled()) {
+      synchronized (anchors) {
+        if (anchorVersion == query.anchorVersion) {
+          anchors.put(start, ConversationAnchor.from(records.get(0)));
+          anchors.put(start + records.size() - 1, ConversationAnchor.from(records.get(records.size() - 1)));
+        }
+      }
+    }
+
     mentionHelper.fetchMentions(context);
 
     stopwatch.split("mentions");
@@ -79,6 +136,80 @@ class ConversationDataSource implements PagedDataSource<ConversationMessage> {
     return messages;
   }
 
+  @Override
+  public @Nullable ConversationMessage load(@NonNull MessageId messageId) {
+    MessageDatabase db = messageId.isMms() ? DatabaseFactory.getMmsDatabase(context) : DatabaseFactory.getSmsDatabase(context);
+    MessageRecord   record;
+
+    try {
+      record = db.getMessageRecord(messageId.getId());
+    } catch (NoSuchMessageException e) {
+      Log.w(TAG, "Message no longer exists: " + messageId);
+      return null;
+    }
+
+    if (record.getThreadId() != threadId) {
+      return null;
+    }
+
+    List<Mention> mentions = messageId.isMms() ? DatabaseFactory.getMentionDatabase(context).getMentionsForMessage(messageId.getId()) : null;
+
+    return ConversationMessageFactory.createWithUnresolvedData(context, record, mentions);
+  }
+
+  @Override
+  public @NonNull MessageId getKey(@NonNull ConversationMessage conversationMessage) {
+    return new MessageId(conversationMessage.getMessageRecord().getId(), conversationMessage.getMessageRecord().isMms());
+  }
+
+  /**
+   * Picks whichever known anchor is closest to the requested page, falling back to an offset query
+   * if there isn't one closer than the start of the conversation.
+   */
+  private @NonNull PageQuery getPageQuery(int start, int length) {
+    synchronized (anchors) {
+      Map.Entry<Integer, ConversationAnchor> before = start > 0 ? anchors.floorEntry(start - 1) : null;
+      Map.Entry<Integer, ConversationAnchor> after  = anchors.ceilingEntry(start + length);
+
+      int beforeDistance = before != null ? start - 1 - before.getKey() : Integer.MAX_VALUE;
+      int afterDistance  = after != null ? after.getKey() - (start + length) : Integer.MAX_VALUE;
+
+      if (beforeDistance <= afterDistance && beforeDistance < start) {
+        return new PageQuery(before.getValue(), false, beforeDistance, length, anchorVersion);
+      } else if (afterDistance < start) {
+        return new PageQuery(after.getValue(), true, afterDistance, length, anchorVersion);
+      } else {
+        return new PageQuery(null, false, start, length, anchorVersion);
+      }
+    }
+  }
+
+  private static final class PageQuery {
+    private final ConversationAnchor anchor;
+    private final boolean            reversed;
+    private final int                offset;
+    private final int                limit;
+    private final int                anchorVersion;
+
+    private PageQuery(@Nullable ConversationAnchor anchor, boolean reversed, int offset, int limit, int anchorVersion) {
+      this.anchor        = anchor;
+      this.reversed      = reversed;
+      this.offset        = offset;
+      this.limit         = limit;
+      this.anchorVersion = anchorVersion;
+    }
+
+    @NonNull Cursor run(@NonNull MmsSmsDatabase db, long threadId) {
+      if (anchor == null) {
+        return db.getConversation(threadId, offset, limit);
+      } else if (reversed) {
+        return db.getConversationBefore(threadId, anchor, offset, limit);
+      } else {
+        return db.getConversationAfter(threadId, anchor, offset, limit);
+      }
+    }
+  }
+
   private static class MentionHelper {
 
     private Collection<Long>         messageIds          = new LinkedList<>();
@@ -15,7 +15,9 @@ import org.signal.paging.PagedData;
 import org.signal.paging.PagingConfig;
 import org.signal.paging.PagingController;
 import org.signal.paging.ProxyPagingController;
+import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.DatabaseObserver;
+import org.thoughtcrime.securesms.database.model.MessageId;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.mediasend.Media;
 import org.thoughtcrime.securesms.mediasend.MediaRepository;
@@ -51,6 +53,8 @@ class ConversationViewModel extends ViewModel {
   private ConversationIntents.Args args;
   private int                      jumpToPosition;
 
+  private volatile ConversationDataSource dataSource;
+
   private ConversationViewModel() {
     this.context                = ApplicationDependencies.getApplication();
     this.mediaRepository        = new MediaRepository();
@@ -61,7 +65,38 @@ class ConversationViewModel extends ViewModel {
     this.hasUnreadMentions      = new MutableLiveData<>(false);
     this.recipientId            = new MutableLiveData<>();
     this.pagingController       = new ProxyPagingController();
-    this.messageObserver        = pagingController::onDataInvalidated;
+    this.messageObserver        = new DatabaseObserver.MessageObserver() {
+      @Override
+      public void onChanged() {
+        pagingController.onDataInvalidated();
+      }
+
+      @Override
+      public void onMessageInserted(@NonNull MessageId messageId) {
+        invalidateAnchors();
+
+        // Most new messages land at the bottom of the conversation, but some (e.g. MMS with a
+        // carrier-provided date, or several inserted at once) don't, and then we reload instead
+        ConversationDataSource dataSource = ConversationViewModel.this.dataSource;
+
+        if (dataSource != null && DatabaseFactory.getMmsSmsDatabase(context).getMessagePosition(dataSource.getThreadId(), messageId) == 0) {
+          pagingController.onDataItemInserted(messageId, 0);
+        } else {
+          pagingController.onDataInvalidated();
+        }
+      }
+
+      @Override
+      public void onMessageChanged(@NonNull MessageId messageId) {
+        pagingController.onDataItemChanged(messageId);
+      }
+
+      @Override
+      public void onMessageRemoved(@NonNull MessageId messageId) {
+        invalidateAnchors();
+        pagingController.onDataItemRemoved(messageId);
+      }
+    };
 
     LiveData<ConversationData> metadata = Transformations.switchMap(threadId, thread -> {
       LiveData<ConversationData> conversationData = conversationRepository.getConversationData(thread, jumpToPosition);
@@ -90,9 +125,13 @@ class ConversationViewModel extends ViewModel {
       PagingConfig           config     = new PagingConfig.Builder()
                                                           .setPageSize(25)
                                                           .setBufferPages(3)
+                                                          .setMaxPrefetchPages(8)
+                                                          .setMaxResidentPages(40)
                                                           .setStartIndex(Math.max(startPosition, 0))
                                                           .build();
 
+      this.dataSource = dataSource;
+
       Log.d(TAG, "Starting at position: " + startPosition + " || jumpToPosition: " + data.getJumpToPosition() + ", lastSeenPosition: " + data.getLastSeenPosition() + ", lastScrolledPosition: " + data.getLastScrolledPosition());
       return new Pair<>(data.getThreadId(), PagedData.create(dataSource, config));
     });
@@ -189,6 +228,14 @@ class ConversationViewModel extends ViewModel {
     ApplicationDependencies.getDatabaseObserver().unregisterObserver(messageObserver);
   }
 
+  private void invalidateAnchors() {
+    ConversationDataSource dataSource = this.dataSource;
+
+    if (dataSource != null) {
+      dataSource.invalidateAnchors();
+    }
+  }
+
   static class Factory extends ViewModelProvider.NewInstanceFactory {
     @Override
     public @NonNull<T extends ViewModel> T create(@NonNull Class<T> modelClass) {
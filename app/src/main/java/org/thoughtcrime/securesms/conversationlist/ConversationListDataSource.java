@@ -6,6 +6,7 @@ import android.database.MatrixCursor;
 import android.database.MergeCursor;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 
 import org.signal.core.util.logging.Log;
@@ -20,10 +21,11 @@ import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.util.Stopwatch;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
-abstract class ConversationListDataSource implements PagedDataSource<Conversation> {
+abstract class ConversationListDataSource implements PagedDataSource.Keyed<Long, Conversation> {
 
   private static final String TAG = Log.tag(ConversationListDataSource.class);
 
@@ -53,6 +55,24 @@ abstract class ConversationListDataSource implements PagedDataSource<Conversatio
 
     List<Conversation> conversations  = new ArrayList<>(length);
     List<Recipient>    recipients     = new LinkedList<>();
+    List<ThreadRecord> cached         = getCachedRecords(start, length);
+
+    if (cached != null) {
+      for (ThreadRecord record : cached) {
+        conversations.add(new Conversation(record));
+        recipients.add(record.getRecipient());
+      }
+
+      stopwatch.split("summary-cache");
+
+      ApplicationDependencies.getRecipientCache().addToCacheIfAbsent(recipients);
+
+      stopwatch.split("cache-recipients");
+
+      stopwatch.stop(TAG);
+
+      return conversations;
+    }
 
     try (ConversationReader reader = new ConversationReader(getCursor(start, length))) {
       ThreadRecord record;
@@ -73,15 +93,49 @@ abstract class ConversationListDataSource implements PagedDataSource<Conversatio
     return conversations;
   }
 
+  @Override
+  public @Nullable Conversation load(@NonNull Long threadId) {
+    ThreadRecord record = threadDatabase.getThreadRecord(threadId);
+
+    if (record == null || record.getCount() == 0 || record.isArchived() != isArchived()) {
+      return null;
+    }
+
+    ApplicationDependencies.getRecipientCache().addToCache(Collections.singletonList(record.getRecipient()));
+
+    return new Conversation(record);
+  }
+
+  @Override
+  public @NonNull Long getKey(@NonNull Conversation conversation) {
+    return conversation.getThreadRecord().getThreadId();
+  }
+
+  protected abstract boolean isArchived();
   protected abstract int getTotalCount();
   protected abstract Cursor getCursor(long offset, long limit);
 
+  /**
+   * The same rows as {@link #getCursor(long, long)}, if they can be had without querying the
+   * database. The recipients on them may be stale, so they're only used to seed the recipient cache.
+   *
+   * @return Null to fall back to the cursor.
+   */
+  protected @Nullable List<ThreadRecord> getCachedRecords(long offset, long limit) {
+    return null;
+  }
+
   private static class ArchivedConversationListDataSource extends ConversationListDataSource {
 
     ArchivedConversationListDataSource(@NonNull Context context) {
       super(context);
     }
 
+    @Override
+    protected boolean isArchived() {
+      return true;
+    }
+
     @Override
     protected int getTotalCount() {
       return threadDatabase.getArchivedConversationListCount();
@@ -105,6 +159,11 @@ abstract class ConversationListDataSource implements PagedDataSource<Conversatio
       super(context);
     }
 
+    @Override
+    protected boolean isArchived() {
+      return false;
+    }
+
     @Override
     protected int getTotalCount() {
       int unarchivedCount = threadDatabase.getUnarchivedConversationListCount();
@@ -165,6 +224,46 @@ abstract class ConversationListDataSource implements PagedDataSource<Conversatio
       return new MergeCursor(cursors.toArray(new Cursor[]{}));
     }
 
+    @Override
+    protected @Nullable List<ThreadRecord> getCachedRecords(long offset, long limit) {
+      List<ThreadRecord> records       = new ArrayList<>();
+      long               originalLimit = limit;
+
+      if (offset == 0 && hasPinnedHeader()) {
+        records.add(ConversationReader.buildThreadRecordForHeader(Conversation.Type.PINNED_HEADER, 0));
+        limit--;
+      }
+
+      List<ThreadRecord> pinned = threadDatabase.getCachedUnarchivedConversationList(true, offset, limit);
+
+      if (pinned == null) {
+        return null;
+      }
+
+      records.addAll(pinned);
+      limit -= pinned.size();
+
+      if (offset == 0 && hasUnpinnedHeader()) {
+        records.add(ConversationReader.buildThreadRecordForHeader(Conversation.Type.UNPINNED_HEADER, 0));
+        limit--;
+      }
+
+      long               unpinnedOffset = Math.max(0, offset - pinnedCount - getHeaderOffset());
+      List<ThreadRecord> unpinned       = threadDatabase.getCachedUnarchivedConversationList(false, unpinnedOffset, limit);
+
+      if (unpinned == null) {
+        return null;
+      }
+
+      records.addAll(unpinned);
+
+      if (offset + originalLimit >= totalCount && hasArchivedFooter()) {
+        records.add(ConversationReader.buildThreadRecordForHeader(Conversation.Type.ARCHIVED_FOOTER, archivedCount));
+      }
+
+      return records;
+    }
+
     @VisibleForTesting
     int getHeaderOffset() {
       return (hasPinnedHeader() ? 1 : 0) + (hasUnpinnedHeader() ? 1 : 0);
@@ -72,13 +72,25 @@ class ConversationListViewModel extends ViewModel {
                                                          .setBufferPages(2)
                                                          .build());
     this.unreadPaymentsLiveData   = new UnreadPaymentsLiveData();
-    this.observer                 = () -> {
-      updateDebouncer.publish(() -> {
+    this.observer                 = new DatabaseObserver.ThreadObserver() {
+      @Override
+      public void onChanged() {
+        updateDebouncer.publish(() -> {
+          if (!TextUtils.isEmpty(getLastQuery())) {
+            searchRepository.query(getLastQuery(), searchResult::postValue);
+          }
+          pagedData.getController().onDataInvalidated();
+        });
+      }
+
+      @Override
+      public void onThreadChanged(long threadId) {
         if (!TextUtils.isEmpty(getLastQuery())) {
-          searchRepository.query(getLastQuery(), searchResult::postValue);
+          onChanged();
+        } else {
+          pagedData.getController().onDataItemChanged(threadId);
         }
-        pagedData.getController().onDataInvalidated();
-      });
+      }
     };
 
     this.hasNoConversations = LiveDataUtil.mapAsync(pagedData.getData(), conversations -> {
@@ -23,8 +23,11 @@ import android.database.Cursor;
 import androidx.annotation.NonNull;
 
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.database.model.MessageId;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Set;
 
 public abstract class Database {
@@ -54,6 +57,18 @@ public abstract class Database {
     notifyVerboseConversationListeners(threadId);
   }
 
+  protected void notifyMessageInsertListeners(long threadId, @NonNull MessageId messageId) {
+    ApplicationDependencies.getDatabaseObserver().notifyMessageInsertListeners(threadId, messageId);
+  }
+
+  protected void notifyMessageUpdateListeners(long threadId, @NonNull MessageId messageId) {
+    ApplicationDependencies.getDatabaseObserver().notifyMessageUpdateListeners(threadId, messageId);
+  }
+
+  protected void notifyMessageRemoveListeners(long threadId, @NonNull MessageId messageId) {
+    ApplicationDependencies.getDatabaseObserver().notifyMessageRemoveListeners(threadId, messageId);
+  }
+
   protected void notifyVerboseConversationListeners(long threadId) {
     ApplicationDependencies.getDatabaseObserver().notifyVerboseConversationListeners(threadId);
     context.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getVerboseUriForThread(threadId), null);
@@ -63,6 +78,14 @@ public abstract class Database {
     ApplicationDependencies.getDatabaseObserver().notifyConversationListListeners();
   }
 
+  protected void notifyConversationListItemListeners(long threadId) {
+    notifyConversationListItemListeners(Collections.singleton(threadId));
+  }
+
+  protected void notifyConversationListItemListeners(@NonNull Collection<Long> threadIds) {
+    ApplicationDependencies.getDatabaseObserver().notifyConversationListItemListeners(threadIds);
+  }
+
   protected void notifyStickerListeners() {
     context.getContentResolver().notifyChange(DatabaseContentProviders.Sticker.CONTENT_URI, null);
   }
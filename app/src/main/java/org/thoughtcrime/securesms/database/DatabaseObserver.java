@@ -1,122 +1,160 @@
 package org.thoughtcrime.securesms.database;
 
 import android.app.Application;
+import android.os.Handler;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 
 import org.signal.core.util.concurrent.SignalExecutors;
+import org.thoughtcrime.securesms.database.model.MessageId;
 import org.thoughtcrime.securesms.util.concurrent.SerialExecutor;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Allows listening to database changes to varying degrees of specificity.
  *
  * A replacement for the observer system in {@link Database}. We should move to this over time.
+ *
+ * Observers that implement {@link MessageObserver} or {@link ThreadObserver} are told exactly
+ * which message or thread changed when that's known. Plain {@link Observer}s just hear that
+ * something changed.
+ *
+ * Conversation and conversation list notifications are coalesced: everything that comes in during
+ * a {@link #COALESCE_WINDOW_MS} window is merged per thread and delivered once at the end of it,
+ * so a burst of writes to the same thread causes one reload instead of one per write. The windows
+ * are timed on a background thread of their own, so they keep ticking while the main thread is
+ * busy and never add work to it.
+ *
+ * Observers can be registered and unregistered from any thread, and take effect immediately.
  */
 public final class DatabaseObserver {
 
+  /**
+   * A few frames. Short enough that changes still show up right away.
+   */
+  private static final long COALESCE_WINDOW_MS = 50;
+
   private final Application application;
   private final Executor    executor;
+  private final Handler     handler;
+  private final Runnable    flushRunnable;
+  private final AtomicLong  rawNotifications;
+  private final AtomicLong  deliveredNotifications;
+  private final AtomicLong  windows;
 
-  private final Set<Observer>            conversationListObservers;
-  private final Map<Long, Set<Observer>> conversationObservers;
-  private final Map<Long, Set<Observer>> verboseConversationObservers;
-  private final Map<UUID, Set<Observer>> paymentObservers;
-  private final Set<Observer>            allPaymentsObservers;
+  private PendingChanges pending;
+  private boolean        flushScheduled;
+
+  private final Set<Observer>          conversationListObservers;
+  private final ObserverRegistry<Long> conversationObservers;
+  private final ObserverRegistry<Long> verboseConversationObservers;
+  private final ObserverRegistry<UUID> paymentObservers;
+  private final Set<Observer>          allPaymentsObservers;
 
   public DatabaseObserver(Application application) {
+    this(application, new SerialExecutor(SignalExecutors.BOUNDED), new Handler(SignalExecutors.getAndStartHandlerThread("signal-DatabaseObserver").getLooper()));
+  }
+
+  @VisibleForTesting
+  DatabaseObserver(@NonNull Application application, @NonNull Executor executor, @NonNull Handler handler) {
     this.application                  = application;
-    this.executor                     = new SerialExecutor(SignalExecutors.BOUNDED);
-    this.conversationListObservers    = new HashSet<>();
-    this.conversationObservers        = new HashMap<>();
-    this.verboseConversationObservers = new HashMap<>();
-    this.paymentObservers             = new HashMap<>();
-    this.allPaymentsObservers         = new HashSet<>();
+    this.executor                     = executor;
+    this.handler                      = handler;
+    this.flushRunnable                = () -> executor.execute(this::flush);
+    this.rawNotifications             = new AtomicLong();
+    this.deliveredNotifications       = new AtomicLong();
+    this.windows                      = new AtomicLong();
+    this.pending                      = new PendingChanges();
+    this.conversationListObservers    = new CopyOnWriteArraySet<>();
+    this.conversationObservers        = new ObserverRegistry<>();
+    this.verboseConversationObservers = new ObserverRegistry<>();
+    this.paymentObservers             = new ObserverRegistry<>();
+    this.allPaymentsObservers         = new CopyOnWriteArraySet<>();
   }
 
   public void registerConversationListObserver(@NonNull Observer listener) {
-    executor.execute(() -> {
-      conversationListObservers.add(listener);
-    });
+    conversationListObservers.add(listener);
   }
 
   public void registerConversationObserver(long threadId, @NonNull Observer listener) {
-    executor.execute(() -> {
-      registerMapped(conversationObservers, threadId, listener);
-    });
+    conversationObservers.register(threadId, listener);
   }
 
   public void registerVerboseConversationObserver(long threadId, @NonNull Observer listener) {
-    executor.execute(() -> {
-      registerMapped(verboseConversationObservers, threadId, listener);
-    });
+    verboseConversationObservers.register(threadId, listener);
   }
 
   public void registerPaymentObserver(@NonNull UUID paymentId, @NonNull Observer listener) {
-    executor.execute(() -> {
-      registerMapped(paymentObservers, paymentId, listener);
-    });
+    paymentObservers.register(paymentId, listener);
   }
 
   public void registerAllPaymentsObserver(@NonNull Observer listener) {
-    executor.execute(() -> {
-      allPaymentsObservers.add(listener);
-    });
+    allPaymentsObservers.add(listener);
   }
 
   public void unregisterObserver(@NonNull Observer listener) {
-    executor.execute(() -> {
-      conversationListObservers.remove(listener);
-      unregisterMapped(conversationObservers, listener);
-      unregisterMapped(verboseConversationObservers, listener);
-      unregisterMapped(paymentObservers, listener);
-    });
+    conversationListObservers.remove(listener);
+    conversationObservers.unregister(listener);
+    verboseConversationObservers.unregister(listener);
+    paymentObservers.unregister(listener);
+    allPaymentsObservers.remove(listener);
   }
 
   public void notifyConversationListeners(Set<Long> threadIds) {
-    executor.execute(() -> {
-      for (long threadId : threadIds) {
-        notifyMapped(conversationObservers, threadId);
-        notifyMapped(verboseConversationObservers, threadId);
-      }
-    });
-
-    for (long threadId : threadIds) {
-      application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getUriForThread(threadId), null);
-      application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getVerboseUriForThread(threadId), null);
-    }
+    enqueue(pending -> pending.conversations.addAll(threadIds), threadIds.size());
   }
 
   public void notifyConversationListeners(long threadId) {
-    executor.execute(() -> {
-      notifyMapped(conversationObservers, threadId);
-      notifyMapped(verboseConversationObservers, threadId);
-    });
+    enqueue(pending -> pending.conversations.add(threadId), 1);
+  }
 
-    application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getUriForThread(threadId), null);
-    application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getVerboseUriForThread(threadId), null);
+  /**
+   * A single message was inserted into the thread.
+   */
+  public void notifyMessageInsertListeners(long threadId, @NonNull MessageId messageId) {
+    enqueue(pending -> pending.addMessageChange(threadId, new MessageChange(MessageChange.Type.INSERTED, messageId)), 1);
   }
 
-  public void notifyVerboseConversationListeners(long threadId) {
-    executor.execute(() -> {
-      notifyMapped(verboseConversationObservers, threadId);
-    });
+  /**
+   * A single message in the thread changed in a way that doesn't affect its position.
+   */
+  public void notifyMessageUpdateListeners(long threadId, @NonNull MessageId messageId) {
+    enqueue(pending -> pending.addMessageChange(threadId, new MessageChange(MessageChange.Type.CHANGED, messageId)), 1);
+  }
+
+  /**
+   * A single message was deleted from the thread.
+   */
+  public void notifyMessageRemoveListeners(long threadId, @NonNull MessageId messageId) {
+    enqueue(pending -> pending.addMessageChange(threadId, new MessageChange(MessageChange.Type.REMOVED, messageId)), 1);
+  }
 
-    application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getVerboseUriForThread(threadId), null);
+  public void notifyVerboseConversationListeners(long threadId) {
+    enqueue(pending -> pending.verboseConversations.add(threadId), 1);
   }
 
   public void notifyConversationListListeners() {
-    executor.execute(() -> {
-      for (Observer listener : conversationListObservers) {
-        listener.onChanged();
-      }
-    });
+    enqueue(pending -> pending.conversationList = true, 1);
+  }
+
+  /**
+   * The specified threads changed in a way that doesn't affect which threads are in the list or
+   * what order they're in, like their read state.
+   */
+  public void notifyConversationListItemListeners(@NonNull Collection<Long> threadIds) {
+    enqueue(pending -> pending.conversationListItems.addAll(threadIds), threadIds.size());
   }
 
   public void notifyPaymentListeners(@NonNull UUID paymentId) {
@@ -131,39 +169,221 @@ public final class DatabaseObserver {
     });
   }
 
-  private <K> void registerMapped(@NonNull Map<K, Set<Observer>> map, @NonNull K key, @NonNull Observer listener) {
-    Set<Observer> listeners = map.get(key);
+  /**
+   * @return How many notifications have come in, and how many were left after coalescing.
+   */
+  public @NonNull NotificationCounts getNotificationCounts() {
+    return new NotificationCounts(rawNotifications.get(), deliveredNotifications.get(), windows.get());
+  }
 
-    if (listeners == null) {
-      listeners = new HashSet<>();
-    }
+  private void enqueue(@NonNull PendingChange change, int count) {
+    rawNotifications.addAndGet(count);
 
-    listeners.add(listener);
-    map.put(key, listeners);
+    synchronized (this) {
+      change.apply(pending);
+
+      if (!flushScheduled) {
+        flushScheduled = true;
+        handler.postDelayed(flushRunnable, COALESCE_WINDOW_MS);
+      }
+    }
   }
 
-  private <K> void unregisterMapped(@NonNull Map<K, Set<Observer>> map, @NonNull Observer listener) {
-    for (Map.Entry<K, Set<Observer>> entry : map.entrySet()) {
-      entry.getValue().remove(listener);
+  /**
+   * Delivers everything that came in during the last window. Runs on the executor.
+   */
+  @VisibleForTesting
+  void flush() {
+    PendingChanges changes;
+
+    synchronized (this) {
+      changes        = pending;
+      pending        = new PendingChanges();
+      flushScheduled = false;
+    }
+
+    if (changes.isEmpty()) {
+      return;
+    }
+
+    windows.incrementAndGet();
+
+    Set<Long> conversationThreadIds = new LinkedHashSet<>(changes.conversations);
+    conversationThreadIds.addAll(changes.messageChanges.keySet());
+
+    Set<Long> verboseThreadIds = new LinkedHashSet<>(conversationThreadIds);
+    verboseThreadIds.addAll(changes.verboseConversations);
+
+    for (long threadId : conversationThreadIds) {
+      if (changes.conversations.contains(threadId)) {
+        notifyMapped(conversationObservers, threadId);
+      } else {
+        notifyMessageChanges(threadId, changes.messageChanges.get(threadId));
+      }
+
+      application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getUriForThread(threadId), null);
+    }
+
+    for (long threadId : verboseThreadIds) {
+      notifyMapped(verboseConversationObservers, threadId);
+      application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getVerboseUriForThread(threadId), null);
+    }
+
+    deliveredNotifications.addAndGet(verboseThreadIds.size());
+
+    if (changes.conversationList) {
+      notifySet(conversationListObservers);
+      deliveredNotifications.incrementAndGet();
+    } else if (!changes.conversationListItems.isEmpty()) {
+      for (Observer listener : conversationListObservers) {
+        if (listener instanceof ThreadObserver) {
+          for (long threadId : changes.conversationListItems) {
+            ((ThreadObserver) listener).onThreadChanged(threadId);
+          }
+        } else {
+          listener.onChanged();
+        }
+      }
+      deliveredNotifications.addAndGet(changes.conversationListItems.size());
     }
   }
 
-  private static <K> void notifyMapped(@NonNull Map<K, Set<Observer>> map, @NonNull K key) {
-    Set<Observer> listeners = map.get(key);
+  private void notifyMessageChanges(long threadId, @NonNull Set<MessageChange> changes) {
+    for (Observer listener : conversationObservers.get(threadId)) {
+      if (listener instanceof MessageObserver) {
+        MessageObserver messageObserver = (MessageObserver) listener;
 
-    if (listeners != null) {
-      for (Observer listener : listeners) {
+        for (MessageChange change : changes) {
+          switch (change.type) {
+            case INSERTED: messageObserver.onMessageInserted(change.messageId); break;
+            case CHANGED:  messageObserver.onMessageChanged(change.messageId);  break;
+            case REMOVED:  messageObserver.onMessageRemoved(change.messageId);  break;
+          }
+        }
+      } else {
         listener.onChanged();
       }
     }
   }
 
+  private static <K> void notifyMapped(@NonNull ObserverRegistry<K> registry, @NonNull K key) {
+    notifySet(registry.get(key));
+  }
+
   public static void notifySet(@NonNull Set<Observer> set) {
     for (final Observer observer : set) {
       observer.onChanged();
     }
   }
 
+  public static final class NotificationCounts {
+
+    private final long raw;
+    private final long delivered;
+    private final long windows;
+
+    private NotificationCounts(long raw, long delivered, long windows) {
+      this.raw       = raw;
+      this.delivered = delivered;
+      this.windows   = windows;
+    }
+
+    /**
+     * @return The number of notifications requested, counting each thread separately.
+     */
+    public long getRaw() {
+      return raw;
+    }
+
+    /**
+     * @return The number of notifications left after merging each window, counting each thread
+     *         separately.
+     */
+    public long getDelivered() {
+      return delivered;
+    }
+
+    /**
+     * @return The number of windows that had anything to deliver.
+     */
+    public long getWindows() {
+      return windows;
+    }
+
+    @Override
+    public @NonNull String toString() {
+      return String.format(Locale.US, "raw: %d, delivered: %d, windows: %d", raw, delivered, windows);
+    }
+  }
+
+  private interface PendingChange {
+    void apply(@NonNull PendingChanges pending);
+  }
+
+  /**
+   * Everything that's changed since the last flush. A full reload of a thread makes any individual
+   * message changes in it redundant, and a full reload of the conversation list does the same for
+   * individual items in it.
+   */
+  private static final class PendingChanges {
+
+    private final Set<Long>                     conversations         = new LinkedHashSet<>();
+    private final Set<Long>                     verboseConversations  = new LinkedHashSet<>();
+    private final Map<Long, Set<MessageChange>> messageChanges        = new LinkedHashMap<>();
+    private final Set<Long>                     conversationListItems = new LinkedHashSet<>();
+
+    private boolean conversationList;
+
+    void addMessageChange(long threadId, @NonNull MessageChange change) {
+      if (conversations.contains(threadId)) {
+        return;
+      }
+
+      Set<MessageChange> changes = messageChanges.get(threadId);
+
+      if (changes == null) {
+        changes = new LinkedHashSet<>();
+        messageChanges.put(threadId, changes);
+      }
+
+      changes.add(change);
+    }
+
+    boolean isEmpty() {
+      return conversations.isEmpty()         &&
+             verboseConversations.isEmpty()  &&
+             messageChanges.isEmpty()        &&
+             conversationListItems.isEmpty() &&
+             !conversationList;
+    }
+  }
+
+  private static final class MessageChange {
+
+    private enum Type { INSERTED, CHANGED, REMOVED }
+
+    private final Type      type;
+    private final MessageId messageId;
+
+    private MessageChange(@NonNull Type type, @NonNull MessageId messageId) {
+      this.type      = type;
+      this.messageId = messageId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      MessageChange that = (MessageChange) o;
+      return type == that.type && messageId.equals(that.messageId);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(type, messageId);
+    }
+  }
+
   public interface Observer {
     /**
      * Called when the relevant data changes. Executed on a serial executor, so don't do any
@@ -171,4 +391,22 @@ public final class DatabaseObserver {
      */
     void onChanged();
   }
+
+  /**
+   * An {@link Observer} for a single conversation that would like to know which message changed.
+   * {@link #onChanged()} is still called for changes that can't be pinned to a single message.
+   */
+  public interface MessageObserver extends Observer {
+    void onMessageInserted(@NonNull MessageId messageId);
+    void onMessageChanged(@NonNull MessageId messageId);
+    void onMessageRemoved(@NonNull MessageId messageId);
+  }
+
+  /**
+   * An {@link Observer} for the conversation list that would like to know which thread changed.
+   * {@link #onChanged()} is still called for changes that can't be pinned to individual threads.
+   */
+  public interface ThreadObserver extends Observer {
+    void onThreadChanged(long threadId);
+  }
 }
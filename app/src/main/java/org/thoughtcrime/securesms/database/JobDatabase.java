@@ -27,7 +27,7 @@ public class JobDatabase extends SQLiteOpenHelper implements SignalDatabase {
 
   private static final String TAG = Log.tag(JobDatabase.class);
 
-  private static final int    DATABASE_VERSION = 1;
+  private static final int    DATABASE_VERSION = 2;
   private static final String DATABASE_NAME    = "signal-jobmanager.db";
 
   private static final class Jobs {
@@ -44,6 +44,7 @@ public class JobDatabase extends SQLiteOpenHelper implements SignalDatabase {
     private static final String SERIALIZED_DATA       = "serialized_data";
     private static final String SERIALIZED_INPUT_DATA = "serialized_input_data";
     private static final String IS_RUNNING            = "is_running";
+    private static final String PRIORITY              = "priority";
 
     private static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + "(" + ID                    + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
                                                                                     JOB_SPEC_ID           + " TEXT UNIQUE, " +
@@ -56,7 +57,8 @@ public class JobDatabase extends SQLiteOpenHelper implements SignalDatabase {
                                                                                     LIFESPAN              + " INTEGER, " +
                                                                                     SERIALIZED_DATA       + " TEXT, " +
                                                                                     SERIALIZED_INPUT_DATA + " TEXT DEFAULT NULL, " +
-                                                                                    IS_RUNNING            + " INTEGER)";
+                                                                                    IS_RUNNING            + " INTEGER, " +
+                                                                                    PRIORITY              + " INTEGER DEFAULT 0)";
   }
 
   private static final class Constraints {
@@ -134,6 +136,10 @@ public class JobDatabase extends SQLiteOpenHelper implements SignalDatabase {
   @Override
   public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
     Log.i(TAG, "onUpgrade(" + oldVersion + ", " + newVersion + ")");
+
+    if (oldVersion < 2) {
+      db.execSQL("ALTER TABLE " + Jobs.TABLE_NAME + " ADD COLUMN " + Jobs.PRIORITY + " INTEGER DEFAULT 0");
+    }
   }
 
   @Override
@@ -167,6 +173,23 @@ public class JobDatabase extends SQLiteOpenHelper implements SignalDatabase {
     }
   }
 
+  /**
+   * Runs the provided writes inside of a single transaction. The individual write methods on this
+   * class can be called from within it, and will simply join the outer transaction.
+   */
+  public synchronized void runInTransaction(@NonNull Runnable writes) {
+    SQLiteDatabase db = getWritableDatabase();
+
+    db.beginTransaction();
+
+    try {
+      writes.run();
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
   public synchronized @NonNull List<JobSpec> getAllJobSpecs() {
     List<JobSpec> jobs = new LinkedList<>();
 
@@ -234,6 +257,7 @@ public class JobDatabase extends SQLiteOpenHelper implements SignalDatabase {
               values.put(Jobs.SERIALIZED_DATA, job.getSerializedData());
               values.put(Jobs.SERIALIZED_INPUT_DATA, job.getSerializedInputData());
               values.put(Jobs.IS_RUNNING, job.isRunning() ? 1 : 0);
+              values.put(Jobs.PRIORITY, job.getPriority());
 
               String   query = Jobs.JOB_SPEC_ID + " = ?";
               String[] args  = new String[]{ job.getId() };
@@ -309,6 +333,7 @@ public class JobDatabase extends SQLiteOpenHelper implements SignalDatabase {
     contentValues.put(Jobs.SERIALIZED_DATA, job.getSerializedData());
     contentValues.put(Jobs.SERIALIZED_INPUT_DATA, job.getSerializedInputData());
     contentValues.put(Jobs.IS_RUNNING, job.isRunning() ? 1 : 0);
+    contentValues.put(Jobs.PRIORITY, job.getPriority());
 
     db.insertWithOnConflict(Jobs.TABLE_NAME, null, contentValues, SQLiteDatabase.CONFLICT_IGNORE);
   }
@@ -347,7 +372,8 @@ public class JobDatabase extends SQLiteOpenHelper implements SignalDatabase {
                        cursor.getString(cursor.getColumnIndexOrThrow(Jobs.SERIALIZED_DATA)),
                        cursor.getString(cursor.getColumnIndexOrThrow(Jobs.SERIALIZED_INPUT_DATA)),
                        cursor.getInt(cursor.getColumnIndexOrThrow(Jobs.IS_RUNNING)) == 1,
-                       false);
+                       false,
+                       cursor.getInt(cursor.getColumnIndexOrThrow(Jobs.PRIORITY)));
   }
 
   private @NonNull ConstraintSpec constraintSpecFromCursor(@NonNull Cursor cursor) {
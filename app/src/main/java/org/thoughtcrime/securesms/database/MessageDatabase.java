@@ -34,6 +34,7 @@ import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.revealable.ViewOnceExpirationInfo;
 import org.thoughtcrime.securesms.sms.IncomingTextMessage;
 import org.thoughtcrime.securesms.sms.OutgoingTextMessage;
+import org.thoughtcrime.securesms.util.CursorUtil;
 import org.thoughtcrime.securesms.util.JsonUtils;
 import org.thoughtcrime.securesms.util.SqlUtil;
 import org.thoughtcrime.securesms.util.Util;
@@ -270,32 +271,68 @@ public abstract class MessageDatabase extends Database implements MmsSmsColumns
     return String.format(Locale.ENGLISH, "(%s OR %s) AND %s", isSent, isReceived, isSecure);
   }
 
-  public void setReactionsSeen(long threadId, long sinceTimestamp) {
-    SQLiteDatabase db          = databaseHelper.getWritableDatabase();
-    ContentValues  values      = new ContentValues();
-    String         whereClause = THREAD_ID + " = ? AND " + REACTIONS_UNREAD + " = ?";
-    String[]       whereArgs   = new String[]{String.valueOf(threadId), "1"};
+  /**
+   * Marks messages read in a single update, and returns the secure ones that need read receipts
+   * and sync messages, ordered so that each thread's messages from a sender are next to each other.
+   *
+   * @param receiptWhere Selects the messages to return. Only secure messages are ever returned.
+   * @param updateWhere  Selects the messages to mark read and clear unread reactions on. Should
+   *                     match at least everything the receipt clause does.
+   */
+  protected @NonNull List<MarkedMessageInfo> setMessagesRead(@NonNull String receiptWhere, @NonNull String updateWhere, @Nullable String[] arguments, boolean mms) {
+    SQLiteDatabase          database   = databaseHelper.getWritableDatabase();
+    String[]                projection = new String[] { ID, RECIPIENT_ID, getDateSentColumnName(), EXPIRES_IN, EXPIRE_STARTED, THREAD_ID };
+    String                  secure     = "(" + getTypeField() + " & " + Types.SECURE_MESSAGE_BIT + ") != 0";
+    String                  orderBy    = THREAD_ID + ", " + RECIPIENT_ID + ", " + getDateSentColumnName();
+    List<MarkedMessageInfo> results;
 
-    if (sinceTimestamp > -1) {
-      whereClause +=  " AND " + getDateReceivedColumnName() + " <= " + sinceTimestamp;
-    }
+    database.beginTransaction();
+    try {
+      try (Cursor cursor = database.query(getTableName(), projection, "(" + receiptWhere + ") AND " + secure, arguments, null, null, orderBy)) {
+        results = new ArrayList<>(cursor.getCount());
+
+        while (cursor.moveToNext()) {
+          long           threadId       = CursorUtil.requireLong(cursor, THREAD_ID);
+          RecipientId    recipientId    = RecipientId.from(CursorUtil.requireLong(cursor, RECIPIENT_ID));
+          long           dateSent       = CursorUtil.requireLong(cursor, getDateSentColumnName());
+          long           messageId      = CursorUtil.requireLong(cursor, ID);
+          long           expiresIn      = CursorUtil.requireLong(cursor, EXPIRES_IN);
+          long           expireStarted  = CursorUtil.requireLong(cursor, EXPIRE_STARTED);
+          SyncMessageId  syncMessageId  = new SyncMessageId(recipientId, dateSent);
+          ExpirationInfo expirationInfo = new ExpirationInfo(messageId, expiresIn, expireStarted, mms);
+
+          results.add(new MarkedMessageInfo(threadId, syncMessageId, expirationInfo));
+        }
+      }
 
-    values.put(REACTIONS_UNREAD, 0);
-    values.put(REACTIONS_LAST_SEEN, System.currentTimeMillis());
+      ContentValues contentValues = new ContentValues(3);
+      contentValues.put(READ, 1);
+      contentValues.put(REACTIONS_UNREAD, 0);
+      contentValues.put(REACTIONS_LAST_SEEN, System.currentTimeMillis());
 
-    db.update(getTableName(), values, whereClause, whereArgs);
-  }
+      database.update(getTableName(), contentValues, updateWhere, arguments);
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+    }
 
-  public void setAllReactionsSeen() {
-    SQLiteDatabase db     = databaseHelper.getWritableDatabase();
-    ContentValues  values = new ContentValues();
-    String         query  = REACTIONS_UNREAD + " != ?";
-    String[]       args   = new String[] { "0" };
+    return results;
+  }
 
-    values.put(REACTIONS_UNREAD, 0);
-    values.put(REACTIONS_LAST_SEEN, System.currentTimeMillis());
+  /**
+   * The messages {@link #setMessagesReadSince(long, long)} and {@link #setAllMessagesRead()} send
+   * receipts for: unread ones, plus outgoing ones with unread reactions.
+   */
+  protected @NonNull String getUnreadReceiptClause() {
+    return READ + " = 0 OR (" + REACTIONS_UNREAD + " = 1 AND (" + getOutgoingTypeClause() + "))";
+  }
 
-    db.update(getTableName(), values, query, args);
+  /**
+   * The messages {@link #setMessagesReadSince(long, long)} and {@link #setAllMessagesRead()} mark
+   * read: anything unread or with unread reactions.
+   */
+  protected @NonNull String getUnreadUpdateClause() {
+    return READ + " = 0 OR " + REACTIONS_UNREAD + " = 1";
   }
 
   public void addReaction(long messageId, @NonNull ReactionRecord reaction) {
@@ -47,6 +47,7 @@ import org.thoughtcrime.securesms.database.documents.NetworkFailureList;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.database.model.MediaMmsMessageRecord;
 import org.thoughtcrime.securesms.database.model.Mention;
+import org.thoughtcrime.securesms.database.model.MessageId;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.database.model.NotificationMmsMessageRecord;
 import org.thoughtcrime.securesms.database.model.Quote;
@@ -195,6 +196,7 @@ public class MmsDatabase extends MessageDatabase {
     "CREATE INDEX IF NOT EXISTS mms_date_sent_index ON " + TABLE_NAME + " (" + DATE_SENT + ");",
     "CREATE INDEX IF NOT EXISTS mms_date_server_index ON " + TABLE_NAME + " (" + DATE_SERVER + ");",
     "CREATE INDEX IF NOT EXISTS mms_thread_date_index ON " + TABLE_NAME + " (" + THREAD_ID + ", " + DATE_RECEIVED + ");",
+    "CREATE INDEX IF NOT EXISTS mms_thread_date_sent_recipient_index ON " + TABLE_NAME + " (" + THREAD_ID + ", " + DATE_SENT + ", " + RECIPIENT_ID + ");",
     "CREATE INDEX IF NOT EXISTS mms_reactions_unread_index ON " + TABLE_NAME + " (" + REACTIONS_UNREAD + ");"
   };
 
@@ -764,35 +766,35 @@ public class MmsDatabase extends MessageDatabase {
   public void markAsForcedSms(long messageId) {
     long threadId = getThreadIdForMessage(messageId);
     updateMailboxBitmask(messageId, Types.PUSH_MESSAGE_BIT, Types.MESSAGE_FORCE_SMS_BIT, Optional.of(threadId));
-    notifyConversationListeners(threadId);
+    notifyMessageUpdateListeners(threadId, new MessageId(messageId, true));
   }
 
   @Override
   public void markAsPendingInsecureSmsFallback(long messageId) {
     long threadId = getThreadIdForMessage(messageId);
     updateMailboxBitmask(messageId, Types.BASE_TYPE_MASK, Types.BASE_PENDING_INSECURE_SMS_FALLBACK, Optional.of(threadId));
-    notifyConversationListeners(threadId);
+    notifyMessageUpdateListeners(threadId, new MessageId(messageId, true));
   }
 
   @Override
   public void markAsSending(long messageId) {
     long threadId = getThreadIdForMessage(messageId);
     updateMailboxBitmask(messageId, Types.BASE_TYPE_MASK, Types.BASE_SENDING_TYPE, Optional.of(threadId));
-    notifyConversationListeners(threadId);
+    notifyMessageUpdateListeners(threadId, new MessageId(messageId, true));
   }
 
   @Override
   public void markAsSentFailed(long messageId) {
     long threadId = getThreadIdForMessage(messageId);
     updateMailboxBitmask(messageId, Types.BASE_TYPE_MASK, Types.BASE_SENT_FAILED_TYPE, Optional.of(threadId));
-    notifyConversationListeners(threadId);
+    notifyMessageUpdateListeners(threadId, new MessageId(messageId, true));
   }
 
   @Override
   public void markAsSent(long messageId, boolean secure) {
     long threadId = getThreadIdForMessage(messageId);
     updateMailboxBitmask(messageId, Types.BASE_TYPE_MASK, Types.BASE_SENT_TYPE | (secure ? Types.PUSH_MESSAGE_BIT | Types.SECURE_MESSAGE_BIT : 0), Optional.of(threadId));
-    notifyConversationListeners(threadId);
+    notifyMessageUpdateListeners(threadId, new MessageId(messageId, true));
   }
 
   @Override
@@ -816,7 +818,7 @@ public class MmsDatabase extends MessageDatabase {
 
     long threadId = getThreadIdForMessage(messageId);
     DatabaseFactory.getThreadDatabase(context).update(threadId, false);
-    notifyConversationListeners(threadId);
+    notifyMessageUpdateListeners(threadId, new MessageId(messageId, true));
   }
 
   @Override
@@ -826,7 +828,7 @@ public class MmsDatabase extends MessageDatabase {
     contentValues.put(STATUS, state);
 
     database.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {messageId + ""});
-    notifyConversationListeners(getThreadIdForMessage(messageId));
+    notifyMessageUpdateListeners(getThreadIdForMessage(messageId), new MessageId(messageId, true));
   }
 
   @Override
@@ -894,61 +896,31 @@ public class MmsDatabase extends MessageDatabase {
 
   @Override
   public List<MarkedMessageInfo> setMessagesReadSince(long threadId, long sinceTimestamp) {
+    String   where;
+    String[] args;
+
     if (sinceTimestamp == -1) {
-      return setMessagesRead(THREAD_ID + " = ? AND (" + READ + " = 0 OR (" + REACTIONS_UNREAD + " = 1 AND (" + getOutgoingTypeClause() + ")))", new String[] {String.valueOf(threadId)});
+      where = THREAD_ID + " = ?";
+      args  = new String[] {String.valueOf(threadId)};
     } else {
-      return setMessagesRead(THREAD_ID + " = ? AND (" + READ + " = 0 OR (" + REACTIONS_UNREAD + " = 1 AND ( " + getOutgoingTypeClause() + " ))) AND " + DATE_RECEIVED + " <= ?", new String[]{String.valueOf(threadId), String.valueOf(sinceTimestamp)});
+      where = THREAD_ID + " = ? AND " + DATE_RECEIVED + " <= ?";
+      args  = new String[] {String.valueOf(threadId), String.valueOf(sinceTimestamp)};
     }
+
+    return setMessagesRead(where + " AND (" + getUnreadReceiptClause() + ")", where + " AND (" + getUnreadUpdateClause() + ")", args, true);
   }
 
   @Override
   public List<MarkedMessageInfo> setEntireThreadRead(long threadId) {
-    return setMessagesRead(THREAD_ID + " = ?", new String[] {String.valueOf(threadId)});
+    String   where = THREAD_ID + " = ?";
+    String[] args  = new String[] {String.valueOf(threadId)};
+
+    return setMessagesRead(where, where, args, true);
   }
 
   @Override
   public List<MarkedMessageInfo> setAllMessagesRead() {
-    return setMessagesRead(READ + " = 0 OR (" + REACTIONS_UNREAD + " = 1 AND (" + getOutgoingTypeClause() + "))", null);
-  }
-
-  private List<MarkedMessageInfo> setMessagesRead(String where, String[] arguments) {
-    SQLiteDatabase          database = databaseHelper.getWritableDatabase();
-    List<MarkedMessageInfo> result   = new LinkedList<>();
-    Cursor                  cursor   = null;
-
-    database.beginTransaction();
-
-    try {
-      cursor = database.query(TABLE_NAME, new String[] {ID, RECIPIENT_ID, DATE_SENT, MESSAGE_BOX, EXPIRES_IN, EXPIRE_STARTED, THREAD_ID }, where, arguments, null, null, null);
-
-      while(cursor != null && cursor.moveToNext()) {
-        if (Types.isSecureType(CursorUtil.requireLong(cursor, MESSAGE_BOX))) {
-          long           threadId       = CursorUtil.requireLong(cursor, THREAD_ID);
-          RecipientId    recipientId    = RecipientId.from(CursorUtil.requireLong(cursor, RECIPIENT_ID));
-          long           dateSent       = CursorUtil.requireLong(cursor, DATE_SENT);
-          long           messageId      = CursorUtil.requireLong(cursor, ID);
-          long           expiresIn      = CursorUtil.requireLong(cursor, EXPIRES_IN);
-          long           expireStarted  = CursorUtil.requireLong(cursor, EXPIRE_STARTED);
-          SyncMessageId  syncMessageId  = new SyncMessageId(recipientId, dateSent);
-          ExpirationInfo expirationInfo = new ExpirationInfo(messageId, expiresIn, expireStarted, true);
-
-          result.add(new MarkedMessageInfo(threadId, syncMessageId, expirationInfo));
-        }
-      }
-
-      ContentValues contentValues = new ContentValues();
-      contentValues.put(READ, 1);
-      contentValues.put(REACTIONS_UNREAD, 0);
-      contentValues.put(REACTIONS_LAST_SEEN, System.currentTimeMillis());
-
-      database.update(TABLE_NAME, contentValues, where, arguments);
-      database.setTransactionSuccessful();
-    } finally {
-      if (cursor != null) cursor.close();
-      database.endTransaction();
-    }
-
-    return result;
+    return setMessagesRead(getUnreadReceiptClause(), getUnreadUpdateClause(), null, true);
   }
 
   @Override
@@ -1307,8 +1279,6 @@ public class MmsDatabase extends MessageDatabase {
       DatabaseFactory.getThreadDatabase(context).update(threadId, true);
     }
 
-    notifyConversationListeners(threadId);
-
     return Optional.of(new InsertResult(messageId, threadId));
   }
 
@@ -1532,9 +1502,12 @@ public class MmsDatabase extends MessageDatabase {
     contentValues.put(PART_COUNT, allAttachments.size());
     contentValues.put(MENTIONS_SELF, mentionsSelf ? 1 : 0);
 
+    long    messageId = -1;
+    boolean inserted  = false;
+
     db.beginTransaction();
     try {
-      long messageId = db.insert(TABLE_NAME, null, contentValues);
+      messageId = db.insert(TABLE_NAME, null, contentValues);
 
       mentionDatabase.insert(threadId, messageId, mentions);
 
@@ -1567,6 +1540,7 @@ public class MmsDatabase extends MessageDatabase {
       }
 
       db.setTransactionSuccessful();
+      inserted = true;
       return messageId;
     } finally {
       db.endTransaction();
@@ -1575,7 +1549,11 @@ public class MmsDatabase extends MessageDatabase {
         insertListener.onComplete();
       }
 
-      notifyConversationListeners(contentValues.getAsLong(THREAD_ID));
+      if (inserted) {
+        notifyMessageInsertListeners(contentValues.getAsLong(THREAD_ID), new MessageId(messageId, true));
+      } else {
+        notifyConversationListeners(contentValues.getAsLong(THREAD_ID));
+      }
       DatabaseFactory.getThreadDatabase(context).update(contentValues.getAsLong(THREAD_ID), true);
     }
   }
@@ -1597,7 +1575,7 @@ public class MmsDatabase extends MessageDatabase {
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
     database.delete(TABLE_NAME, ID_WHERE, new String[] {messageId+""});
     boolean threadDeleted = DatabaseFactory.getThreadDatabase(context).update(threadId, false);
-    notifyConversationListeners(threadId);
+    notifyMessageRemoveListeners(threadId, new MessageId(messageId, true));
     notifyStickerListeners();
     notifyStickerPackListeners();
     return threadDeleted;
@@ -30,11 +30,14 @@ import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.database.MessageDatabase.SyncMessageId;
 import org.thoughtcrime.securesms.database.MessageDatabase.ThreadUpdate;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.database.model.ConversationAnchor;
+import org.thoughtcrime.securesms.database.model.MessageId;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.notifications.v2.MessageNotifierV2;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.util.CursorUtil;
+import org.thoughtcrime.securesms.util.SqlUtil;
 import org.whispersystems.libsignal.util.Pair;
 
 import java.io.Closeable;
@@ -53,6 +56,13 @@ public class MmsSmsDatabase extends Database {
   public static final String MMS_TRANSPORT = "mms";
   public static final String SMS_TRANSPORT = "sms";
 
+  /**
+   * Messages received at the same time are ordered by transport and then ID, so that every message
+   * has a distinct place in the conversation that can be seeked to.
+   */
+  private static final String CONVERSATION_ORDER         = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC, " + TRANSPORT + " DESC, " + MmsSmsColumns.ID + " DESC";
+  private static final String CONVERSATION_ORDER_REVERSE = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " ASC, " + TRANSPORT + " ASC, " + MmsSmsColumns.ID + " ASC";
+
   private static final String[] PROJECTION = {MmsSmsColumns.ID,
                                               MmsSmsColumns.UNIQUE_ROW_ID,
                                               SmsDatabase.BODY,
@@ -180,17 +190,104 @@ public class MmsSmsDatabase extends Database {
   }
 
 
+  /**
+   * Note: SQLite has to step through every message before the offset to find where to start, so
+   * prefer {@link #getConversationAfter(long, ConversationAnchor, long, long)} when paging through
+   * a conversation.
+   */
   public Cursor getConversation(long threadId, long offset, long limit) {
-    String order     = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC";
     String selection = MmsSmsColumns.THREAD_ID + " = " + threadId;
     String limitStr  = limit > 0 || offset > 0 ? offset + ", " + limit : null;
 
-    Cursor cursor = queryTables(PROJECTION, selection, order, limitStr);
+    Cursor cursor = queryTables(PROJECTION, selection, CONVERSATION_ORDER, limitStr);
+    setNotifyConversationListeners(cursor, threadId);
+
+    return cursor;
+  }
+
+  /**
+   * Returns the messages that come after the anchor in the ordering used by
+   * {@link #getConversation(long, long, long)} (i.e. older messages), newest first. Finding the
+   * anchor is an index seek, so this costs the same no matter how far into the conversation the
+   * anchor is.
+   *
+   * @param offset The number of messages after the anchor to skip.
+   */
+  public Cursor getConversationAfter(long threadId, @NonNull ConversationAnchor anchor, long offset, long limit) {
+    Cursor cursor = queryTables(PROJECTION,
+                                getSmsSeekSelection(threadId, anchor, true, offset + limit),
+                                getMmsSeekSelection(threadId, anchor, true, offset + limit),
+                                CONVERSATION_ORDER,
+                                offset + ", " + limit);
+    setNotifyConversationListeners(cursor, threadId);
+
+    return cursor;
+  }
+
+  /**
+   * Returns the messages that come before the anchor in the ordering used by
+   * {@link #getConversation(long, long, long)} (i.e. newer messages), starting with the one closest
+   * to the anchor. In other words, the results are in the reverse of the conversation order.
+   *
+   * @param offset The number of messages before the anchor to skip.
+   */
+  public Cursor getConversationBefore(long threadId, @NonNull ConversationAnchor anchor, long offset, long limit) {
+    Cursor cursor = queryTables(PROJECTION,
+                                getSmsSeekSelection(threadId, anchor, false, offset + limit),
+                                getMmsSeekSelection(threadId, anchor, false, offset + limit),
+                                CONVERSATION_ORDER_REVERSE,
+                                offset + ", " + limit);
     setNotifyConversationListeners(cursor, threadId);
 
     return cursor;
   }
 
+  private static @NonNull String getSmsSeekSelection(long threadId, @NonNull ConversationAnchor anchor, boolean older, long count) {
+    return getSeekSelection(SmsDatabase.TABLE_NAME, SmsDatabase.DATE_RECEIVED, false, threadId, anchor, older, count);
+  }
+
+  private static @NonNull String getMmsSeekSelection(long threadId, @NonNull ConversationAnchor anchor, boolean older, long count) {
+    return getSeekSelection(MmsDatabase.TABLE_NAME, MmsDatabase.DATE_RECEIVED, true, threadId, anchor, older, count);
+  }
+
+  /**
+   * Builds a selection for one of the tables that matches the {@code count} messages closest to the
+   * anchor on one side of it, following {@link #CONVERSATION_ORDER}.
+   *
+   * The messages are picked out by a subquery that only touches the (thread, date) index, and the
+   * outer query then looks them up by ID. Otherwise, SQLite would read every message on that side of
+   * the anchor in order to sort the union, which is just as slow as an offset.
+   */
+  private static @NonNull String getSeekSelection(@NonNull String table, @NonNull String dateColumn, boolean mmsTable, long threadId, @NonNull ConversationAnchor anchor, boolean older, long count) {
+    String date      = table + "." + dateColumn;
+    String id        = table + "." + MmsSmsColumns.ID;
+    String direction = older ? " DESC" : " ASC";
+    String seek      = getSideOfAnchorSelection(table, dateColumn, mmsTable, threadId, anchor, older);
+
+    return id + " IN (SELECT " + id + " FROM " + table + " WHERE " + seek + " ORDER BY " + date + direction + ", " + id + direction + " LIMIT " + count + ")";
+  }
+
+  /**
+   * Matches every message in one of the tables that's on one side of the anchor, following
+   * {@link #CONVERSATION_ORDER}. Only uses the (thread, date) index.
+   */
+  private static @NonNull String getSideOfAnchorSelection(@NonNull String table, @NonNull String dateColumn, boolean mmsTable, long threadId, @NonNull ConversationAnchor anchor, boolean older) {
+    String thread     = table + "." + MmsSmsColumns.THREAD_ID + " = " + threadId;
+    String date       = table + "." + dateColumn;
+    String id         = table + "." + MmsSmsColumns.ID;
+    String comparison = older ? " < " : " > ";
+
+    if (anchor.getMessageId().isMms() == mmsTable) {
+      return thread + " AND (" + date + comparison + anchor.getDateReceived() + " OR (" + date + " = " + anchor.getDateReceived() + " AND " + id + comparison + anchor.getMessageId().getId() + "))";
+    }
+
+    // SMS sorts before MMS in the conversation order, so when the anchor is in the other table, the
+    // messages received at the same time are either all on this side of it or none of them are.
+    boolean includeTies = older == mmsTable;
+
+    return thread + " AND " + date + (includeTies ? comparison.trim() + "= " : comparison) + anchor.getDateReceived();
+  }
+
   public Cursor getConversation(long threadId) {
     return getConversation(threadId, 0, 0);
   }
@@ -462,51 +559,127 @@ public class MmsSmsDatabase extends Database {
     return threadUpdates;
   }
 
+  /**
+   * @return The position of the newest message in the thread with the provided sent timestamp and
+   *         author, or -1 if there isn't one or it's been remotely deleted.
+   */
   public int getQuotedMessagePosition(long threadId, long quoteId, @NonNull RecipientId recipientId) {
-    String order     = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC";
-    String selection = MmsSmsColumns.THREAD_ID + " = " + threadId;
-
-    try (Cursor cursor = queryTables(new String[]{ MmsSmsColumns.NORMALIZED_DATE_SENT, MmsSmsColumns.RECIPIENT_ID, MmsSmsColumns.REMOTE_DELETED}, selection, order, null)) {
-      boolean isOwnNumber = Recipient.resolved(recipientId).isSelf();
+    return getMessagePosition(threadId, SmsDatabase.DATE_SENT, MmsDatabase.DATE_SENT, quoteId, recipientId, Recipient.resolved(recipientId).isSelf());
+  }
 
-      while (cursor != null && cursor.moveToNext()) {
-        boolean quoteIdMatches     = cursor.getLong(0) == quoteId;
-        boolean recipientIdMatches = recipientId.equals(RecipientId.from(cursor.getLong(1)));
+  /**
+   * @return The position of the newest message in the thread with the provided received timestamp
+   *         and author, or -1 if there isn't one or it's been remotely deleted.
+   */
+  public int getMessagePositionInConversation(long threadId, long receivedTimestamp, @NonNull RecipientId recipientId) {
+    return getMessagePosition(threadId, SmsDatabase.DATE_RECEIVED, MmsDatabase.DATE_RECEIVED, receivedTimestamp, recipientId, Recipient.resolved(recipientId).isSelf());
+  }
 
-        if (quoteIdMatches && (recipientIdMatches || isOwnNumber)) {
-          if (CursorUtil.requireBoolean(cursor, MmsSmsColumns.REMOTE_DELETED)) {
-            return -1;
-          } else {
-            return cursor.getPosition();
-          }
-        }
+  /**
+   * @return The position of the message in its thread, or -1 if it isn't in the thread.
+   */
+  public int getMessagePosition(long threadId, @NonNull MessageId messageId) {
+    SQLiteDatabase db         = databaseHelper.getReadableDatabase();
+    String         table      = messageId.isMms() ? MmsDatabase.TABLE_NAME : SmsDatabase.TABLE_NAME;
+    String         dateColumn = messageId.isMms() ? MmsDatabase.DATE_RECEIVED : SmsDatabase.DATE_RECEIVED;
+    String         selection  = MmsSmsColumns.ID + " = ? AND " + MmsSmsColumns.THREAD_ID + " = ?";
+    String[]       args       = SqlUtil.buildArgs(messageId.getId(), threadId);
+    long           dateReceived;
+
+    try (Cursor cursor = db.query(table, new String[] { dateColumn }, selection, args, null, null, null)) {
+      if (cursor == null || !cursor.moveToFirst()) {
+        return -1;
       }
+      dateReceived = cursor.getLong(0);
     }
-    return -1;
+
+    ConversationAnchor anchor = new ConversationAnchor(dateReceived, messageId);
+
+    return countNewer(db, SmsDatabase.TABLE_NAME, SmsDatabase.DATE_RECEIVED, false, threadId, anchor) +
+           countNewer(db, MmsDatabase.TABLE_NAME, MmsDatabase.DATE_RECEIVED, true, threadId, anchor);
   }
 
-  public int getMessagePositionInConversation(long threadId, long receivedTimestamp, @NonNull RecipientId recipientId) {
-    String order     = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC";
-    String selection = MmsSmsColumns.THREAD_ID + " = " + threadId;
+  /**
+   * Finds the first matching message in {@link #CONVERSATION_ORDER} with an index lookup in each
+   * table, and then counts the messages ahead of it, rather than walking the whole conversation.
+   *
+   * @param anyRecipient If true, the recipient doesn't need to match. Used when the author is
+   *                     ourselves, since our outgoing messages are stored with the recipient they
+   *                     were sent to.
+   */
+  private int getMessagePosition(long threadId, @NonNull String smsTimestampColumn, @NonNull String mmsTimestampColumn, long timestamp, @NonNull RecipientId recipientId, boolean anyRecipient) {
+    SQLiteDatabase db    = databaseHelper.getReadableDatabase();
+    PositionMatch  sms   = findFirstMatch(db, SmsDatabase.TABLE_NAME, SmsDatabase.DATE_RECEIVED, smsTimestampColumn, false, threadId, timestamp, recipientId, anyRecipient);
+    PositionMatch  mms   = findFirstMatch(db, MmsDatabase.TABLE_NAME, MmsDatabase.DATE_RECEIVED, mmsTimestampColumn, true, threadId, timestamp, recipientId, anyRecipient);
+    PositionMatch  match;
+
+    if (sms == null) {
+      match = mms;
+    } else if (mms == null) {
+      match = sms;
+    } else {
+      // SMS sorts first among messages received at the same time
+      match = mms.anchor.getDateReceived() > sms.anchor.getDateReceived() ? mms : sms;
+    }
 
-    try (Cursor cursor = queryTables(new String[]{ MmsSmsColumns.NORMALIZED_DATE_RECEIVED, MmsSmsColumns.RECIPIENT_ID, MmsSmsColumns.REMOTE_DELETED}, selection, order, null)) {
-      boolean isOwnNumber = Recipient.resolved(recipientId).isSelf();
+    if (match == null || match.remoteDeleted) {
+      return -1;
+    }
 
-      while (cursor != null && cursor.moveToNext()) {
-        boolean timestampMatches   = cursor.getLong(0) == receivedTimestamp;
-        boolean recipientIdMatches = recipientId.equals(RecipientId.from(cursor.getLong(1)));
+    return countNewer(db, SmsDatabase.TABLE_NAME, SmsDatabase.DATE_RECEIVED, false, threadId, match.anchor) +
+           countNewer(db, MmsDatabase.TABLE_NAME, MmsDatabase.DATE_RECEIVED, true, threadId, match.anchor);
+  }
+
+  private static @Nullable PositionMatch findFirstMatch(@NonNull SQLiteDatabase db,
+                                                        @NonNull String table,
+                                                        @NonNull String dateReceivedColumn,
+                                                        @NonNull String timestampColumn,
+                                                        boolean mms,
+                                                        long threadId,
+                                                        long timestamp,
+                                                        @NonNull RecipientId recipientId,
+                                                        boolean anyRecipient)
+  {
+    String[] projection = new String[] { MmsSmsColumns.ID, dateReceivedColumn, MmsSmsColumns.REMOTE_DELETED };
+    String   selection  = MmsSmsColumns.THREAD_ID + " = ? AND " + timestampColumn + " = ?";
+    String[] args       = SqlUtil.buildArgs(threadId, timestamp);
+    String   order      = dateReceivedColumn + " DESC, " + MmsSmsColumns.ID + " DESC";
+
+    if (!anyRecipient) {
+      selection += " AND " + MmsSmsColumns.RECIPIENT_ID + " = ?";
+      args       = SqlUtil.appendArg(args, recipientId.serialize());
+    }
 
+    try (Cursor cursor = db.query(table, projection, selection, args, null, null, order, "1")) {
+      if (cursor != null && cursor.moveToFirst()) {
+        MessageId messageId = new MessageId(CursorUtil.requireLong(cursor, MmsSmsColumns.ID), mms);
+        return new PositionMatch(new ConversationAnchor(cursor.getLong(1), messageId), CursorUtil.requireBoolean(cursor, MmsSmsColumns.REMOTE_DELETED));
+      }
+    }
 
-        if (timestampMatches && (recipientIdMatches || isOwnNumber)) {
-          if (CursorUtil.requireBoolean(cursor, MmsSmsColumns.REMOTE_DELETED)) {
-            return -1;
-          } else {
-            return cursor.getPosition();
-          }
-        }
+    return null;
+  }
+
+  private static int countNewer(@NonNull SQLiteDatabase db, @NonNull String table, @NonNull String dateReceivedColumn, boolean mms, long threadId, @NonNull ConversationAnchor anchor) {
+    String selection = getSideOfAnchorSelection(table, dateReceivedColumn, mms, threadId, anchor, false);
+
+    try (Cursor cursor = db.query(table, new String[] { "COUNT(*)" }, selection, null, null, null, null)) {
+      if (cursor != null && cursor.moveToFirst()) {
+        return cursor.getInt(0);
       }
     }
-    return -1;
+
+    return 0;
+  }
+
+  private static final class PositionMatch {
+    private final ConversationAnchor anchor;
+    private final boolean            remoteDeleted;
+
+    private PositionMatch(@NonNull ConversationAnchor anchor, boolean remoteDeleted) {
+      this.anchor        = anchor;
+      this.remoteDeleted = remoteDeleted;
+    }
   }
 
   boolean hasReceivedAnyCallsSince(long threadId, long timestamp) {
@@ -565,6 +738,10 @@ public class MmsSmsDatabase extends Database {
   }
 
   private Cursor queryTables(String[] projection, String selection, String order, String limit) {
+    return queryTables(projection, selection, selection, order, limit);
+  }
+
+  private Cursor queryTables(String[] projection, String smsSelection, String mmsSelection, String order, String limit) {
     String[] mmsProjection = {MmsDatabase.DATE_SENT + " AS " + MmsSmsColumns.NORMALIZED_DATE_SENT,
                               MmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED,
                               MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " AS " + MmsSmsColumns.ID,
@@ -749,9 +926,9 @@ public class MmsSmsDatabase extends Database {
     smsColumnsPresent.add(MmsSmsColumns.NOTIFIED_TIMESTAMP);
 
     @SuppressWarnings("deprecation")
-    String mmsSubQuery = mmsQueryBuilder.buildUnionSubQuery(TRANSPORT, mmsProjection, mmsColumnsPresent, 4, MMS_TRANSPORT, selection, null, MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID, null);
+    String mmsSubQuery = mmsQueryBuilder.buildUnionSubQuery(TRANSPORT, mmsProjection, mmsColumnsPresent, 4, MMS_TRANSPORT, mmsSelection, null, MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID, null);
     @SuppressWarnings("deprecation")
-    String smsSubQuery = smsQueryBuilder.buildUnionSubQuery(TRANSPORT, smsProjection, smsColumnsPresent, 4, SMS_TRANSPORT, selection, null, null, null);
+    String smsSubQuery = smsQueryBuilder.buildUnionSubQuery(TRANSPORT, smsProjection, smsColumnsPresent, 4, SMS_TRANSPORT, smsSelection, null, null, null);
 
     SQLiteQueryBuilder unionQueryBuilder = new SQLiteQueryBuilder();
     String unionQuery = unionQueryBuilder.buildUnionQuery(new String[] {smsSubQuery, mmsSubQuery}, order, limit);
@@ -0,0 +1,79 @@
+package org.thoughtcrime.securesms.database;
+
+import androidx.annotation.NonNull;
+
+import org.thoughtcrime.securesms.database.DatabaseObserver.Observer;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * {@link Observer}s grouped by key, safe to use from any thread.
+ *
+ * Lookups don't lock and never see a set that's being modified: each key's observers are kept in a
+ * copy-on-write set. Changes are serialized, and keep a reverse index from each observer to the
+ * keys it's registered under, so unregistering only touches those keys rather than all of them.
+ */
+final class ObserverRegistry<K> {
+
+  private final Map<K, Set<Observer>> observers = new ConcurrentHashMap<>();
+  private final Map<Observer, Set<K>> keys      = new HashMap<>();
+
+  synchronized void register(@NonNull K key, @NonNull Observer observer) {
+    Set<Observer> keyObservers = observers.get(key);
+
+    if (keyObservers == null) {
+      keyObservers = new CopyOnWriteArraySet<>();
+      observers.put(key, keyObservers);
+    }
+
+    keyObservers.add(observer);
+
+    Set<K> observerKeys = keys.get(observer);
+
+    if (observerKeys == null) {
+      observerKeys = new HashSet<>();
+      keys.put(observer, observerKeys);
+    }
+
+    observerKeys.add(key);
+  }
+
+  synchronized void unregister(@NonNull Observer observer) {
+    Set<K> observerKeys = keys.remove(observer);
+
+    if (observerKeys == null) {
+      return;
+    }
+
+    for (K key : observerKeys) {
+      Set<Observer> keyObservers = observers.get(key);
+
+      if (keyObservers != null) {
+        keyObservers.remove(observer);
+
+        if (keyObservers.isEmpty()) {
+          observers.remove(key);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return The observers registered under the key. Safe to iterate while observers are being
+   *         added or removed.
+   */
+  @NonNull Set<Observer> get(@NonNull K key) {
+    Set<Observer> keyObservers = observers.get(key);
+    return keyObservers != null ? keyObservers : Collections.emptySet();
+  }
+
+  synchronized int getKeyCount() {
+    return observers.size();
+  }
+}
@@ -3,12 +3,15 @@ package org.thoughtcrime.securesms.database;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.net.Uri;
 import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
+import com.annimon.stream.Collectors;
 import com.annimon.stream.Stream;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
@@ -95,6 +98,8 @@ public class RecipientDatabase extends Database {
 
   private static final String TAG = Log.tag(RecipientDatabase.class);
 
+  private static final int MAX_SETTINGS_QUERY_SIZE = 500;
+
           static final String TABLE_NAME                = "recipient";
   public  static final String ID                        = "_id";
   private static final String UUID                      = "uuid";
@@ -144,12 +149,15 @@ public class RecipientDatabase extends Database {
   private static final String WALLPAPER_URI             = "wallpaper_file";
   public  static final String ABOUT                     = "about";
   public  static final String ABOUT_EMOJI               = "about_emoji";
+          static final String CHECKED_NAME              = "checked_name";
 
   public  static final String SEARCH_PROFILE_NAME      = "search_signal_profile";
   private static final String SORT_NAME                = "sort_name";
   private static final String IDENTITY_STATUS          = "identity_status";
   private static final String IDENTITY_KEY             = "identity_key";
 
+  public  static final String FTS_TABLE_NAME           = "recipient_fts";
+
   private static final class Capabilities {
     static final int BIT_LENGTH = 2;
 
@@ -187,6 +195,47 @@ public class RecipientDatabase extends Database {
   public static final String[] CREATE_INDEXS = new String[] {
       "CREATE INDEX IF NOT EXISTS recipient_dirty_index ON " + TABLE_NAME + " (" + DIRTY + ");",
       "CREATE INDEX IF NOT EXISTS recipient_group_type_index ON " + TABLE_NAME + " (" + GROUP_TYPE + ");",
+      "CREATE INDEX IF NOT EXISTS recipient_checked_name_index ON " + TABLE_NAME + " (" + CHECKED_NAME + ");",
+  };
+
+  private static final String NEW_CHECKED_NAME = "COALESCE(" + nullIfEmpty("new." + SYSTEM_JOINED_NAME) + ", " + nullIfEmpty("new." + PROFILE_JOINED_NAME) + ")";
+
+  /**
+   * Keeps {@link #CHECKED_NAME} up to date with the names it's made from, so that finding
+   * recipients who share a name is an index lookup.
+   */
+  public static final String[] CREATE_TRIGGERS = new String[] {
+      "CREATE TRIGGER recipient_checked_name_ai AFTER INSERT ON " + TABLE_NAME + " BEGIN\n" +
+          "  UPDATE " + TABLE_NAME + " SET " + CHECKED_NAME + " = " + NEW_CHECKED_NAME + " WHERE " + ID + " = new." + ID + ";\n" +
+          "END;",
+      "CREATE TRIGGER recipient_checked_name_au AFTER UPDATE OF " + SYSTEM_JOINED_NAME + ", " + PROFILE_JOINED_NAME + " ON " + TABLE_NAME + " BEGIN\n" +
+          "  UPDATE " + TABLE_NAME + " SET " + CHECKED_NAME + " = " + NEW_CHECKED_NAME + " WHERE " + ID + " = new." + ID + ";\n" +
+          "END;"
+  };
+
+  private static final String   FTS_ID      = "rowid";
+  private static final String[] FTS_COLUMNS = new String[] { SYSTEM_JOINED_NAME, SYSTEM_GIVEN_NAME, PROFILE_JOINED_NAME, PROFILE_GIVEN_NAME, USERNAME, PHONE, EMAIL };
+  private static final String   FTS_ALL     = Stream.of(FTS_COLUMNS).collect(Collectors.joining(", "));
+  private static final String   FTS_NEW     = Stream.of(FTS_COLUMNS).map(column -> "new." + column).collect(Collectors.joining(", "));
+  private static final String   FTS_OLD     = Stream.of(FTS_COLUMNS).map(column -> "old." + column).collect(Collectors.joining(", "));
+
+  /**
+   * An index of every name we search recipients by, kept up to date by triggers, so that searches
+   * only have to look at the rows that match instead of pattern matching against the whole table.
+   */
+  public static final String[] CREATE_FTS_TABLE = new String[] {
+      "CREATE VIRTUAL TABLE " + FTS_TABLE_NAME + " USING fts5(" + FTS_ALL + ", content=" + TABLE_NAME + ", content_rowid=" + ID + ", prefix='1 2 3');",
+
+      "CREATE TRIGGER recipient_ai AFTER INSERT ON " + TABLE_NAME + " BEGIN\n" +
+          "  INSERT INTO " + FTS_TABLE_NAME + "(" + FTS_ID + ", " + FTS_ALL + ") VALUES (new." + ID + ", " + FTS_NEW + ");\n" +
+          "END;",
+      "CREATE TRIGGER recipient_ad AFTER DELETE ON " + TABLE_NAME + " BEGIN\n" +
+          "  INSERT INTO " + FTS_TABLE_NAME + "(" + FTS_TABLE_NAME + ", " + FTS_ID + ", " + FTS_ALL + ") VALUES('delete', old." + ID + ", " + FTS_OLD + ");\n" +
+          "END;",
+      "CREATE TRIGGER recipient_au AFTER UPDATE OF " + FTS_ALL + " ON " + TABLE_NAME + " BEGIN\n" +
+          "  INSERT INTO " + FTS_TABLE_NAME + "(" + FTS_TABLE_NAME + ", " + FTS_ID + ", " + FTS_ALL + ") VALUES('delete', old." + ID + ", " + FTS_OLD + ");\n" +
+          "  INSERT INTO " + FTS_TABLE_NAME + "(" + FTS_ID + ", " + FTS_ALL + ") VALUES (new." + ID + ", " + FTS_NEW + ");\n" +
+          "END;"
   };
 
   public enum VibrateState {
@@ -371,7 +420,8 @@ public class RecipientDatabase extends Database {
                                             WALLPAPER                 + " BLOB DEFAULT NULL, " +
                                             WALLPAPER_URI             + " TEXT DEFAULT NULL, " +
                                             ABOUT                     + " TEXT DEFAULT NULL, " +
-                                            ABOUT_EMOJI               + " TEXT DEFAULT NULL);";
+                                            ABOUT_EMOJI               + " TEXT DEFAULT NULL, " +
+                                            CHECKED_NAME              + " TEXT DEFAULT NULL);";
 
   private static final String INSIGHTS_INVITEE_LIST = "SELECT " + TABLE_NAME + "." + ID +
       " FROM " + TABLE_NAME +
@@ -713,6 +763,31 @@ public class RecipientDatabase extends Database {
     }
   }
 
+  /**
+   * Reads many recipients with a handful of queries rather than one each.
+   *
+   * @return The settings for each ID that was found. IDs that are missing, including ones that
+   *         have been remapped, are left out; use {@link #getRecipientSettings(RecipientId)} for
+   *         those.
+   */
+  public @NonNull Map<RecipientId, RecipientSettings> getRecipientSettings(@NonNull Collection<RecipientId> ids) {
+    SQLiteDatabase                      database = databaseHelper.getReadableDatabase();
+    Map<RecipientId, RecipientSettings> results  = new HashMap<>(ids.size());
+
+    for (List<RecipientId> chunk : Util.chunk(new ArrayList<>(ids), MAX_SETTINGS_QUERY_SIZE)) {
+      SqlUtil.Query query = SqlUtil.buildCollectionQuery(ID, Stream.of(chunk).map(RecipientId::serialize).toList());
+
+      try (Cursor cursor = database.query(TABLE_NAME, RECIPIENT_PROJECTION, query.getWhere(), query.getWhereArgs(), null, null, null)) {
+        while (cursor != null && cursor.moveToNext()) {
+          RecipientSettings settings = getRecipientSettings(context, cursor);
+          results.put(settings.getId(), settings);
+        }
+      }
+    }
+
+    return results;
+  }
+
   public @NonNull DirtyState getDirtyState(@NonNull RecipientId recipientId) {
     SQLiteDatabase db = databaseHelper.getReadableDatabase();
 
@@ -1924,13 +1999,11 @@ public class RecipientDatabase extends Database {
   }
 
   public @NonNull List<RecipientId> getSimilarRecipientIds(@NonNull Recipient recipient) {
-    SQLiteDatabase db   = databaseHelper.getReadableDatabase();
-    String[] projection = SqlUtil.buildArgs(ID, "COALESCE(" + nullIfEmpty(SYSTEM_JOINED_NAME) + ", " + nullIfEmpty(PROFILE_JOINED_NAME) + ") AS checked_name");
-    String   where      =  "checked_name = ?";
+    SQLiteDatabase db        = databaseHelper.getReadableDatabase();
+    String         where     = CHECKED_NAME + " = ?";
+    String[]       arguments = SqlUtil.buildArgs(recipient.getProfileName().toString());
 
-    String[] arguments = SqlUtil.buildArgs(recipient.getProfileName().toString());
-
-    try (Cursor cursor = db.query(TABLE_NAME, projection, where, arguments, null, null, null)) {
+    try (Cursor cursor = db.query(TABLE_NAME, ID_PROJECTION, where, arguments, null, null, null)) {
       if (cursor == null || cursor.getCount() == 0) {
         return Collections.emptyList();
       }
@@ -2483,27 +2556,21 @@ public class RecipientDatabase extends Database {
   }
 
   public @Nullable Cursor querySignalContacts(@NonNull String query, boolean includeSelf) {
-    query = buildCaseInsensitiveGlobPattern(query);
+    SqlUtil.Query search = buildSearchQuery(query, PHONE, SORT_NAME, USERNAME);
 
     String   selection = BLOCKED     + " = ? AND " +
                          REGISTERED  + " = ? AND " +
                          GROUP_ID    + " IS NULL AND " +
                          "(" + SYSTEM_JOINED_NAME + " NOT NULL OR " + PROFILE_SHARING + " = ?) AND " +
-                         "(" +
-                           PHONE     + " GLOB ? OR " +
-                           SORT_NAME + " GLOB ? OR " +
-                           USERNAME  + " GLOB ?" +
-                         ")";
-    String[] args;
+                         search.getWhere();
+    String[] args      = SqlUtil.appendArgs(new String[] { "0", String.valueOf(RegisteredState.REGISTERED.getId()), "1" }, search.getWhereArgs());
 
-    if (includeSelf) {
-      args = new String[]{"0", String.valueOf(RegisteredState.REGISTERED.getId()), "1", query, query, query};
-    } else {
+    if (!includeSelf) {
       selection += " AND " + ID + " != ?";
-      args       = new String[] { "0", String.valueOf(RegisteredState.REGISTERED.getId()), "1", query, query, query, String.valueOf(Recipient.self().getId().toLong()) };
+      args       = SqlUtil.appendArg(args, String.valueOf(Recipient.self().getId().toLong()));
     }
 
-    String   orderBy   = SORT_NAME + ", " + SYSTEM_JOINED_NAME + ", " + SEARCH_PROFILE_NAME + ", " + PHONE;
+    String   orderBy   = buildSearchOrder(query) + SORT_NAME + ", " + SYSTEM_JOINED_NAME + ", " + SEARCH_PROFILE_NAME + ", " + PHONE;
 
     return databaseHelper.getReadableDatabase().query(TABLE_NAME, SEARCH_PROJECTION, selection, args, null, null, orderBy);
   }
@@ -2521,35 +2588,25 @@ public class RecipientDatabase extends Database {
   }
 
   public @Nullable Cursor queryNonSignalContacts(@NonNull String query) {
-    query = buildCaseInsensitiveGlobPattern(query);
+    SqlUtil.Query search = buildSearchQuery(query, PHONE, EMAIL, SYSTEM_JOINED_NAME);
 
     String   selection = BLOCKED    + " = ? AND " +
                          REGISTERED + " != ? AND " +
                          GROUP_ID   + " IS NULL AND " +
                          SYSTEM_CONTACT_URI + " NOT NULL AND " +
                          "(" + PHONE + " NOT NULL OR " + EMAIL + " NOT NULL) AND " +
-                         "(" +
-                           PHONE              + " GLOB ? OR " +
-                           EMAIL              + " GLOB ? OR " +
-                           SYSTEM_JOINED_NAME + " GLOB ?" +
-                         ")";
-    String[] args      = new String[] { "0", String.valueOf(RegisteredState.REGISTERED.getId()), query, query, query };
+                         search.getWhere();
+    String[] args      = SqlUtil.appendArgs(new String[] { "0", String.valueOf(RegisteredState.REGISTERED.getId()) }, search.getWhereArgs());
     String   orderBy   = SYSTEM_JOINED_NAME + ", " + PHONE;
 
     return databaseHelper.getReadableDatabase().query(TABLE_NAME, SEARCH_PROJECTION, selection, args, null, null, orderBy);
   }
 
   public @Nullable Cursor queryAllContacts(@NonNull String query) {
-    query = buildCaseInsensitiveGlobPattern(query);
+    SqlUtil.Query search = buildSearchQuery(query, SORT_NAME, USERNAME, PHONE, EMAIL);
 
-    String   selection = BLOCKED + " = ? AND " +
-                         "(" +
-                           SORT_NAME + " GLOB ? OR " +
-                           USERNAME  + " GLOB ? OR " +
-                           PHONE     + " GLOB ? OR " +
-                           EMAIL     + " GLOB ?" +
-                         ")";
-    String[] args      = new String[] { "0", query, query, query, query };
+    String   selection = BLOCKED + " = ? AND " + search.getWhere();
+    String[] args      = SqlUtil.appendArgs(new String[] { "0" }, search.getWhereArgs());
 
     return databaseHelper.getReadableDatabase().query(TABLE_NAME, SEARCH_PROJECTION, selection, args, null, null, null);
   }
@@ -2558,26 +2615,91 @@ public class RecipientDatabase extends Database {
     return queryRecipientsForMentions(query, null);
   }
 
+  /**
+   * When limited to a set of recipients, like a group's members, this matches the query anywhere in
+   * the recipient's name with the whitespace removed, so that "johnsm" still finds "John Smith".
+   * There are only ever a handful of rows to check, so it doesn't need the index. Otherwise it
+   * searches {@link #FTS_TABLE_NAME}.
+   */
   public @NonNull List<Recipient> queryRecipientsForMentions(@NonNull String query, @Nullable List<RecipientId> recipientIds) {
-    query = buildCaseInsensitiveGlobPattern(query);
+    return Recipient.resolvedList(queryRecipientIdsForMentions(query, recipientIds));
+  }
+
+  @VisibleForTesting
+  @NonNull List<RecipientId> queryRecipientIdsForMentions(@NonNull String query, @Nullable List<RecipientId> recipientIds) {
+    SqlUtil.Query search;
 
     String ids = null;
     if (Util.hasItems(recipientIds)) {
-      ids = TextUtils.join(",", Stream.of(recipientIds).map(RecipientId::serialize).toList());
+      ids    = TextUtils.join(",", Stream.of(recipientIds).map(RecipientId::serialize).toList());
+      search = new SqlUtil.Query(SORT_NAME + " GLOB ?", SqlUtil.buildArgs(buildCaseInsensitiveGlobPattern(query)));
+    } else {
+      search = buildSearchQuery(query, SORT_NAME);
     }
 
     String   selection = BLOCKED + " = 0 AND " +
                          (ids != null ? ID + " IN (" + ids + ") AND " : "") +
-                         SORT_NAME  + " GLOB ?";
+                         search.getWhere();
+    String   orderBy   = buildSearchOrder(query) + SORT_NAME;
 
-    List<Recipient> recipients = new ArrayList<>();
-    try (RecipientDatabase.RecipientReader reader = new RecipientReader(databaseHelper.getReadableDatabase().query(TABLE_NAME, MENTION_SEARCH_PROJECTION, selection, SqlUtil.buildArgs(query), null, null, SORT_NAME))) {
-      Recipient recipient;
-      while ((recipient = reader.getNext()) != null) {
-        recipients.add(recipient);
+    List<RecipientId> results = new ArrayList<>();
+    try (Cursor cursor = databaseHelper.getReadableDatabase().query(TABLE_NAME, MENTION_SEARCH_PROJECTION, selection, search.getWhereArgs(), null, null, orderBy)) {
+      while (cursor != null && cursor.moveToNext()) {
+        results.add(RecipientId.from(CursorUtil.requireLong(cursor, ID)));
       }
     }
-    return recipients;
+    return results;
+  }
+
+  /**
+   * Builds a clause matching recipients that have a name, username, phone number or email with a
+   * word starting with each word of the query, using {@link #FTS_TABLE_NAME} rather than scanning
+   * the table. Phone numbers are still matched anywhere in the number when the query has a digit
+   * in it. Queries the index can't match, like empty ones or punctuation, fall back to a GLOB on
+   * the given columns.
+   */
+  @VisibleForTesting
+  static @NonNull SqlUtil.Query buildSearchQuery(@NonNull String query, @NonNull String... globColumns) {
+    String match = SqlUtil.buildFtsPrefixQuery(query);
+    String glob  = buildCaseInsensitiveGlobPattern(query);
+
+    if (match == null) {
+      String   where = Stream.of(globColumns).map(column -> column + " GLOB ?").collect(Collectors.joining(" OR "));
+      String[] args  = new String[globColumns.length];
+
+      Arrays.fill(args, glob);
+
+      return new SqlUtil.Query("(" + where + ")", args);
+    }
+
+    String indexed = ID + " IN (SELECT " + FTS_ID + " FROM " + FTS_TABLE_NAME + " WHERE " + FTS_TABLE_NAME + " MATCH ?)";
+
+    if (containsDigit(query)) {
+      return new SqlUtil.Query("(" + indexed + " OR " + PHONE + " GLOB ?)", SqlUtil.buildArgs(match, glob));
+    } else {
+      return new SqlUtil.Query(indexed, SqlUtil.buildArgs(match));
+    }
+  }
+
+  /**
+   * @return An ORDER BY prefix that puts recipients whose sort name starts with the query first.
+   */
+  private static @NonNull String buildSearchOrder(@NonNull String query) {
+    if (TextUtils.isEmpty(query)) {
+      return "";
+    }
+
+    return "CASE WHEN " + SORT_NAME + " GLOB " + DatabaseUtils.sqlEscapeString(buildCaseInsensitivePattern(query) + "*") + " THEN 0 ELSE 1 END, ";
+  }
+
+  private static boolean containsDigit(@NonNull String query) {
+    for (int i = 0; i < query.length(); i++) {
+      if (Character.isDigit(query.charAt(i))) {
+        return true;
+      }
+    }
+
+    return false;
   }
 
   /**
@@ -2585,13 +2707,17 @@ public class RecipientDatabase extends Database {
    * characters.
    *
    * Ex:
-   *   cat -> [cC][aA][tT]
+   *   cat -> *[cC][aA][tT]*
    */
   private static String buildCaseInsensitiveGlobPattern(@NonNull String query) {
     if (TextUtils.isEmpty(query)) {
       return "*";
     }
 
+    return "*" + buildCaseInsensitivePattern(query) + "*";
+  }
+
+  private static @NonNull String buildCaseInsensitivePattern(@NonNull String query) {
     StringBuilder pattern = new StringBuilder();
 
     for (int i = 0, len = query.codePointCount(0, query.length()); i < len; i++) {
@@ -2603,7 +2729,7 @@ public class RecipientDatabase extends Database {
       pattern.append("]");
     }
 
-    return "*" + pattern.toString() + "*";
+    return pattern.toString();
   }
 
   public @NonNull List<Recipient> getRecipientsForMultiDeviceSync() {
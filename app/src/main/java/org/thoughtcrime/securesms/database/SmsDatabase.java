@@ -36,6 +36,7 @@ import org.thoughtcrime.securesms.database.documents.IdentityKeyMismatchList;
 import org.thoughtcrime.securesms.database.documents.NetworkFailure;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.database.model.GroupCallUpdateDetailsUtil;
+import org.thoughtcrime.securesms.database.model.MessageId;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.database.model.ReactionRecord;
 import org.thoughtcrime.securesms.database.model.SmsMessageRecord;
@@ -134,6 +135,7 @@ public class SmsDatabase extends MessageDatabase {
     "CREATE INDEX IF NOT EXISTS sms_date_sent_index ON " + TABLE_NAME + " (" + DATE_SENT + ");",
     "CREATE INDEX IF NOT EXISTS sms_date_server_index ON " + TABLE_NAME + " (" + DATE_SERVER + ");",
     "CREATE INDEX IF NOT EXISTS sms_thread_date_index ON " + TABLE_NAME + " (" + THREAD_ID + ", " + DATE_RECEIVED + ");",
+    "CREATE INDEX IF NOT EXISTS sms_thread_date_sent_recipient_index ON " + TABLE_NAME + " (" + THREAD_ID + ", " + DATE_SENT + ", " + RECIPIENT_ID + ");",
     "CREATE INDEX IF NOT EXISTS sms_reactions_unread_index ON " + TABLE_NAME + " (" + REACTIONS_UNREAD + ");"
   };
 
@@ -189,7 +191,7 @@ public class SmsDatabase extends MessageDatabase {
     long threadId = getThreadIdForMessage(id);
 
     DatabaseFactory.getThreadDatabase(context).update(threadId, false);
-    notifyConversationListeners(threadId);
+    notifyMessageUpdateListeners(threadId, new MessageId(id, false));
   }
 
   @Override
@@ -389,7 +391,7 @@ public class SmsDatabase extends MessageDatabase {
     long threadId = getThreadIdForMessage(id);
 
     DatabaseFactory.getThreadDatabase(context).update(threadId, false);
-    notifyConversationListeners(threadId);
+    notifyMessageUpdateListeners(threadId, new MessageId(id, false));
   }
 
   @Override
@@ -451,7 +453,7 @@ public class SmsDatabase extends MessageDatabase {
 
     long threadId = getThreadIdForMessage(id);
     DatabaseFactory.getThreadDatabase(context).update(threadId, false);
-    notifyConversationListeners(threadId);
+    notifyMessageUpdateListeners(threadId, new MessageId(id, false));
   }
 
   @Override
@@ -562,60 +564,31 @@ public class SmsDatabase extends MessageDatabase {
 
   @Override
   public List<MarkedMessageInfo> setEntireThreadRead(long threadId) {
-    return setMessagesRead(THREAD_ID + " = ?", new String[] {String.valueOf(threadId)});
+    String   where = THREAD_ID + " = ?";
+    String[] args  = new String[] {String.valueOf(threadId)};
+
+    return setMessagesRead(where, where, args, false);
   }
 
   @Override
   public List<MarkedMessageInfo> setMessagesReadSince(long threadId, long sinceTimestamp) {
+    String   where;
+    String[] args;
+
     if (sinceTimestamp == -1) {
-      return setMessagesRead(THREAD_ID + " = ? AND (" + READ + " = 0 OR (" + REACTIONS_UNREAD + " = 1 AND (" + getOutgoingTypeClause() + ")))", new String[] {String.valueOf(threadId)});
+      where = THREAD_ID + " = ?";
+      args  = new String[] {String.valueOf(threadId)};
     } else {
-      return setMessagesRead(THREAD_ID + " = ? AND (" + READ + " = 0 OR (" + REACTIONS_UNREAD + " = 1 AND ( " + getOutgoingTypeClause() + " ))) AND " + DATE_RECEIVED + " <= ?", new String[] {String.valueOf(threadId),String.valueOf(sinceTimestamp)});
+      where = THREAD_ID + " = ? AND " + DATE_RECEIVED + " <= ?";
+      args  = new String[] {String.valueOf(threadId), String.valueOf(sinceTimestamp)};
     }
+
+    return setMessagesRead(where + " AND (" + getUnreadReceiptClause() + ")", where + " AND (" + getUnreadUpdateClause() + ")", args, false);
   }
 
   @Override
   public List<MarkedMessageInfo> setAllMessagesRead() {
-    return setMessagesRead(READ + " = 0 OR (" + REACTIONS_UNREAD + " = 1 AND (" + getOutgoingTypeClause() + "))", null);
-  }
-
-  private List<MarkedMessageInfo> setMessagesRead(String where, String[] arguments) {
-    SQLiteDatabase          database  = databaseHelper.getWritableDatabase();
-    List<MarkedMessageInfo> results   = new LinkedList<>();
-    Cursor                  cursor    = null;
-
-    database.beginTransaction();
-    try {
-      cursor = database.query(TABLE_NAME, new String[] {ID, RECIPIENT_ID, DATE_SENT, TYPE, EXPIRES_IN, EXPIRE_STARTED, THREAD_ID}, where, arguments, null, null, null);
-
-      while (cursor != null && cursor.moveToNext()) {
-        if (Types.isSecureType(CursorUtil.requireLong(cursor, TYPE))) {
-          long           threadId       = CursorUtil.requireLong(cursor, THREAD_ID);
-          RecipientId    recipientId    = RecipientId.from(CursorUtil.requireLong(cursor, RECIPIENT_ID));
-          long           dateSent       = CursorUtil.requireLong(cursor, DATE_SENT);
-          long           messageId      = CursorUtil.requireLong(cursor, ID);
-          long           expiresIn      = CursorUtil.requireLong(cursor, EXPIRES_IN);
-          long           expireStarted  = CursorUtil.requireLong(cursor, EXPIRE_STARTED);
-          SyncMessageId  syncMessageId  = new SyncMessageId(recipientId, dateSent);
-          ExpirationInfo expirationInfo = new ExpirationInfo(messageId, expiresIn, expireStarted, false);
-
-          results.add(new MarkedMessageInfo(threadId, syncMessageId, expirationInfo));
-        }
-      }
-
-      ContentValues contentValues = new ContentValues();
-      contentValues.put(READ, 1);
-      contentValues.put(REACTIONS_UNREAD, 0);
-      contentValues.put(REACTIONS_LAST_SEEN, System.currentTimeMillis());
-
-      database.update(TABLE_NAME, contentValues, where, arguments);
-      database.setTransactionSuccessful();
-    } finally {
-      if (cursor != null) cursor.close();
-      database.endTransaction();
-    }
-
-    return results;
+    return setMessagesRead(getUnreadReceiptClause(), getUnreadUpdateClause(), null, false);
   }
 
   @Override
@@ -1083,7 +1056,7 @@ public class SmsDatabase extends MessageDatabase {
         DatabaseFactory.getRecipientDatabase(context).setDefaultSubscriptionId(recipient.getId(), message.getSubscriptionId());
       }
 
-      notifyConversationListeners(threadId);
+      notifyMessageInsertListeners(threadId, new MessageId(messageId, false));
 
       if (!silent) {
         ApplicationDependencies.getJobManager().add(new TrimThreadJob(threadId));
@@ -1171,7 +1144,7 @@ public class SmsDatabase extends MessageDatabase {
 
     DatabaseFactory.getThreadDatabase(context).setHasSent(threadId, true);
 
-    notifyConversationListeners(threadId);
+    notifyMessageInsertListeners(threadId, new MessageId(messageId, false));
 
     if (!message.isIdentityVerified() && !message.isIdentityDefault()) {
       ApplicationDependencies.getJobManager().add(new TrimThreadJob(threadId));
@@ -1224,7 +1197,7 @@ public class SmsDatabase extends MessageDatabase {
 
     boolean threadDeleted = DatabaseFactory.getThreadDatabase(context).update(threadId, false, true);
 
-    notifyConversationListeners(threadId);
+    notifyMessageRemoveListeners(threadId, new MessageId(messageId, false));
     return threadDeleted;
   }
 
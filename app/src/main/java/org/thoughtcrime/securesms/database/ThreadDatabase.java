@@ -154,7 +154,11 @@ public class ThreadDatabase extends Database {
                                                                                                Stream.of(GroupDatabase.TYPED_GROUP_PROJECTION))
                                                                                        .toList();
 
-  private static final String ORDER_BY_DEFAULT = TABLE_NAME + "." + DATE + " DESC";
+  private static final String ORDER_BY_DEFAULT = TABLE_NAME + "." + DATE + " DESC, " + TABLE_NAME + "." + ID + " DESC";
+
+  private static final int SUMMARY_CACHE_SIZE = 500;
+
+  private final ThreadSummaryCache summaryCache = new ThreadSummaryCache(SUMMARY_CACHE_SIZE);
 
   public ThreadDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
@@ -216,8 +220,33 @@ public class ThreadDatabase extends Database {
       contentValues.put(LAST_SCROLLED, 0);
     }
 
-    SQLiteDatabase db = databaseHelper.getWritableDatabase();
-    db.update(TABLE_NAME, contentValues, ID + " = ?", new String[] {threadId + ""});
+    SQLiteDatabase db                      = databaseHelper.getWritableDatabase();
+    int            visibleReadReceiptCount = TextSecurePreferences.isReadReceiptsEnabled(context) ? readReceiptCount : 0;
+
+    db.beginTransaction();
+    try {
+      db.update(TABLE_NAME, contentValues, ID + " = ?", new String[] {threadId + ""});
+
+      updateSummary(threadId, record -> record.toBuilder()
+                                              .setDate(date - date % 1000)
+                                              .setBody(Util.emptyIfNull(body))
+                                              .setSnippetUri(attachment)
+                                              .setType(type)
+                                              .setContentType(contentType)
+                                              .setExtra(extra)
+                                              .setCount(count)
+                                              .setDeliveryStatus(status)
+                                              .setDeliveryReceiptCount(deliveryReceiptCount)
+                                              .setReadReceiptCount(visibleReadReceiptCount)
+                                              .setExpiresIn(expiresIn)
+                                              .setArchived(record.isArchived() && !unarchive)
+                                              .build());
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
     notifyConversationListListeners();
   }
 
@@ -238,6 +267,15 @@ public class ThreadDatabase extends Database {
 
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.update(TABLE_NAME, contentValues, ID + " = ?", new String[] {threadId + ""});
+
+    updateSummary(threadId, record -> record.toBuilder()
+                                            .setDate(date - date % 1000)
+                                            .setBody(Util.emptyIfNull(snippet))
+                                            .setType(type)
+                                            .setSnippetUri(attachment)
+                                            .setArchived(record.isArchived() && !unarchive)
+                                            .build());
+
     notifyConversationListListeners();
   }
 
@@ -339,13 +377,11 @@ public class ThreadDatabase extends Database {
     contentValues.put(UNREAD_COUNT, 0);
 
     db.update(TABLE_NAME, contentValues, null, null);
+    summaryCache.invalidate();
 
     final List<MarkedMessageInfo> smsRecords = DatabaseFactory.getSmsDatabase(context).setAllMessagesRead();
     final List<MarkedMessageInfo> mmsRecords = DatabaseFactory.getMmsDatabase(context).setAllMessagesRead();
 
-    DatabaseFactory.getSmsDatabase(context).setAllReactionsSeen();
-    DatabaseFactory.getMmsDatabase(context).setAllReactionsSeen();
-
     notifyConversationListListeners();
 
     return Util.concatenatedList(smsRecords, mmsRecords);
@@ -383,9 +419,10 @@ public class ThreadDatabase extends Database {
   public List<MarkedMessageInfo> setReadSince(Map<Long, Long> threadIdToSinceTimestamp, boolean lastSeen) {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
 
-    List<MarkedMessageInfo> smsRecords = new LinkedList<>();
-    List<MarkedMessageInfo> mmsRecords = new LinkedList<>();
-    boolean                 needsSync  = false;
+    List<MarkedMessageInfo>              smsRecords     = new ArrayList<>();
+    List<MarkedMessageInfo>              mmsRecords     = new ArrayList<>();
+    Map<Long, ThreadSummaryCache.Update> summaryUpdates = new HashMap<>();
+    boolean                              needsSync      = false;
 
     db.beginTransaction();
 
@@ -396,9 +433,10 @@ public class ThreadDatabase extends Database {
       for (Map.Entry<Long, Long> entry : threadIdToSinceTimestamp.entrySet()) {
         long threadId = entry.getKey();
         long sinceTimestamp = entry.getValue();
+        long lastSeenTime = sinceTimestamp == -1 ? System.currentTimeMillis() : sinceTimestamp;
 
         if (lastSeen) {
-          contentValues.put(LAST_SEEN, sinceTimestamp == -1 ? System.currentTimeMillis() : sinceTimestamp);
+          contentValues.put(LAST_SEEN, lastSeenTime);
         }
 
         ThreadRecord previous = getThreadRecord(threadId);
@@ -406,15 +444,18 @@ public class ThreadDatabase extends Database {
         smsRecords.addAll(DatabaseFactory.getSmsDatabase(context).setMessagesReadSince(threadId, sinceTimestamp));
         mmsRecords.addAll(DatabaseFactory.getMmsDatabase(context).setMessagesReadSince(threadId, sinceTimestamp));
 
-        DatabaseFactory.getSmsDatabase(context).setReactionsSeen(threadId, sinceTimestamp);
-        DatabaseFactory.getMmsDatabase(context).setReactionsSeen(threadId, sinceTimestamp);
-
         int unreadCount = DatabaseFactory.getMmsSmsDatabase(context).getUnreadCount(threadId);
 
         contentValues.put(UNREAD_COUNT, unreadCount);
 
         db.update(TABLE_NAME, contentValues, ID_WHERE, SqlUtil.buildArgs(threadId));
 
+        summaryUpdates.put(threadId, record -> record.toBuilder()
+                                                     .setUnreadCount(unreadCount)
+                                                     .setForcedUnread(false)
+                                                     .setLastSeen(lastSeen ? lastSeenTime : record.getLastSeen())
+                                                     .build());
+
         if (previous != null && previous.isForcedUnread()) {
           DatabaseFactory.getRecipientDatabase(context).markNeedsSync(previous.getRecipient().getId());
           needsSync = true;
@@ -422,12 +463,16 @@ public class ThreadDatabase extends Database {
       }
 
       db.setTransactionSuccessful();
+
+      for (Map.Entry<Long, ThreadSummaryCache.Update> entry : summaryUpdates.entrySet()) {
+        updateSummary(entry.getKey(), entry.getValue());
+      }
     } finally {
       db.endTransaction();
     }
 
     notifyConversationListeners(threadIdToSinceTimestamp.keySet());
-    notifyConversationListListeners();
+    notifyConversationListItemListeners(threadIdToSinceTimestamp.keySet());
 
     if (needsSync) {
       StorageSyncHelper.scheduleSyncForDataChange();
@@ -451,21 +496,38 @@ public class ThreadDatabase extends Database {
       DatabaseFactory.getRecipientDatabase(context).markNeedsSync(recipientIds);
 
       db.setTransactionSuccessful();
+
+      for (long threadId : threadIds) {
+        updateSummary(threadId, record -> record.toBuilder().setForcedUnread(true).build());
+      }
     } finally {
       db.endTransaction();
 
       StorageSyncHelper.scheduleSyncForDataChange();
-      notifyConversationListListeners();
+      notifyConversationListItemListeners(threadIds);
     }
   }
 
 
   public void incrementUnread(long threadId, int amount) {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
-    db.execSQL("UPDATE " + TABLE_NAME + " SET " + READ + " = " + ReadStatus.UNREAD.serialize() + ", " +
-                   UNREAD_COUNT + " = " + UNREAD_COUNT + " + ? WHERE " + ID + " = ?",
-               new String[] {String.valueOf(amount),
-                             String.valueOf(threadId)});
+
+    db.beginTransaction();
+    try {
+      db.execSQL("UPDATE " + TABLE_NAME + " SET " + READ + " = " + ReadStatus.UNREAD.serialize() + ", " +
+                     UNREAD_COUNT + " = " + UNREAD_COUNT + " + ? WHERE " + ID + " = ?",
+                 new String[] {String.valueOf(amount),
+                               String.valueOf(threadId)});
+
+      updateSummary(threadId, record -> record.toBuilder()
+                                              .setUnreadCount(record.getUnreadCount() + amount)
+                                              .setForcedUnread(false)
+                                              .build());
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
   }
 
   public void setDistributionType(long threadId, int distributionType) {
@@ -474,7 +536,8 @@ public class ThreadDatabase extends Database {
 
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {threadId + ""});
-    notifyConversationListListeners();
+    updateSummary(threadId, record -> record.toBuilder().setDistributionType(distributionType).build());
+    notifyConversationListItemListeners(threadId);
   }
 
   public int getDistributionType(long threadId) {
@@ -627,6 +690,8 @@ public class ThreadDatabase extends Database {
         db.update(TABLE_NAME, values, query, new String[] { entry.getKey().serialize() });
       }
 
+      summaryCache.invalidate();
+
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
@@ -650,6 +715,12 @@ public class ThreadDatabase extends Database {
         db.update(TABLE_NAME, values, ID_WHERE, SqlUtil.buildArgs(threadId));
       }
 
+      if (archive) {
+        summaryCache.remove(threadIds);
+      } else {
+        refreshSummaries(threadIds);
+      }
+
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
@@ -695,6 +766,44 @@ public class ThreadDatabase extends Database {
     return getConversationList(archived, 0, 0);
   }
 
+  /**
+   * The same as {@link #getUnarchivedConversationList(boolean, long, long)}, but served from memory
+   * without touching the database when every unarchived conversation fits in the summary cache.
+   *
+   * The records' recipients are as of when they were read from the database, and may be older than
+   * what's in the recipient cache.
+   *
+   * @return Null if there are too many conversations to keep in memory, in which case use the cursor.
+   */
+  public @Nullable List<ThreadRecord> getCachedUnarchivedConversationList(boolean pinned, long offset, long limit) {
+    summaryCache.setReadReceiptsEnabled(TextSecurePreferences.isReadReceiptsEnabled(context));
+
+    List<ThreadRecord> records = summaryCache.getConversationList(pinned, offset, limit);
+
+    if (records == null && summaryCache.needsFill()) {
+      fillSummaryCache();
+      records = summaryCache.getConversationList(pinned, offset, limit);
+    }
+
+    return records;
+  }
+
+  private void fillSummaryCache() {
+    long                             generation = summaryCache.getGeneration();
+    List<ThreadSummaryCache.Summary> summaries  = new ArrayList<>();
+    String                           query      = createQuery(ARCHIVED + " = 0 AND " + MESSAGE_COUNT + " != 0", SUMMARY_CACHE_SIZE + 1);
+
+    try (Cursor cursor = databaseHelper.getReadableDatabase().rawQuery(query, new String[]{})) {
+      Reader reader = readerFor(cursor);
+
+      while (cursor != null && cursor.moveToNext()) {
+        summaries.add(new ThreadSummaryCache.Summary(reader.getCurrent(), CursorUtil.requireInt(cursor, PINNED)));
+      }
+    }
+
+    summaryCache.fill(generation, summaries);
+  }
+
   public Cursor getUnarchivedConversationList(boolean pinned, long offset, long limit) {
     SQLiteDatabase db          = databaseHelper.getReadableDatabase();
     String         pinnedWhere = PINNED + (pinned ? " != 0" : " = 0");
@@ -737,6 +846,16 @@ public class ThreadDatabase extends Database {
   }
 
   public int getPinnedConversationListCount() {
+    int cached = summaryCache.getPinnedConversationCount();
+
+    if (cached >= 0) {
+      return cached;
+    }
+
+    return queryPinnedConversationListCount();
+  }
+
+  private int queryPinnedConversationListCount() {
     SQLiteDatabase db      = databaseHelper.getReadableDatabase();
     String[]       columns = new String[] { "COUNT(*)" };
     String         query   = ARCHIVED + " = 0 AND " + PINNED + " != 0 AND " + MESSAGE_COUNT + " != 0";
@@ -751,6 +870,12 @@ public class ThreadDatabase extends Database {
   }
 
   public int getUnarchivedConversationListCount() {
+    int cached = summaryCache.getConversationCount();
+
+    if (cached >= 0) {
+      return cached;
+    }
+
     SQLiteDatabase db      = databaseHelper.getReadableDatabase();
     String[]       columns = new String[] { "COUNT(*)" };
     String         query   = ARCHIVED + " = 0 AND " + MESSAGE_COUNT + " != 0";
@@ -818,7 +943,8 @@ public class ThreadDatabase extends Database {
   }
 
   private void pinConversations(@NonNull Collection<Long> threadIds, boolean clearFirst) {
-    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    SQLiteDatabase     db        = databaseHelper.getWritableDatabase();
+    Map<Long, Integer> positions = new HashMap<>();
     threadIds = new LinkedHashSet<>(threadIds);
 
     try {
@@ -832,7 +958,7 @@ public class ThreadDatabase extends Database {
         db.update(TABLE_NAME, contentValues, query, args);
       }
 
-      int pinnedCount = getPinnedConversationListCount();
+      int pinnedCount = queryPinnedConversationListCount();
 
       if (pinnedCount > 0 && clearFirst) {
         throw new AssertionError();
@@ -844,8 +970,11 @@ public class ThreadDatabase extends Database {
 
         db.update(TABLE_NAME, contentValues, ID_WHERE, SqlUtil.buildArgs(threadId));
 
+        positions.put(threadId, pinnedCount);
       }
 
+      summaryCache.setPinned(positions, clearFirst);
+
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
@@ -867,6 +996,7 @@ public class ThreadDatabase extends Database {
     contentValues.put(PINNED, 0);
 
     db.update(TABLE_NAME, contentValues, selection, SqlUtil.buildArgs(Stream.of(threadIds).toArray()));
+    summaryCache.setPinned(Stream.of(threadIds).collect(Collectors.toMap(t -> t, t -> 0)), false);
     notifyConversationListListeners();
 
     DatabaseFactory.getRecipientDatabase(context).markNeedsSync(Recipient.self().getId());
@@ -880,6 +1010,7 @@ public class ThreadDatabase extends Database {
     contentValues.put(ARCHIVED, 1);
 
     db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {threadId + ""});
+    summaryCache.remove(Collections.singleton(threadId));
     notifyConversationListListeners();
 
     Recipient recipient = getRecipientForThreadId(threadId);
@@ -895,6 +1026,7 @@ public class ThreadDatabase extends Database {
     contentValues.put(ARCHIVED, 0);
 
     db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {threadId + ""});
+    refreshSummaries(Collections.singleton(threadId));
     notifyConversationListListeners();
 
     Recipient recipient = getRecipientForThreadId(threadId);
@@ -906,11 +1038,13 @@ public class ThreadDatabase extends Database {
 
   public void setLastSeen(long threadId) {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    long lastSeen = System.currentTimeMillis();
     ContentValues contentValues = new ContentValues(1);
-    contentValues.put(LAST_SEEN, System.currentTimeMillis());
+    contentValues.put(LAST_SEEN, lastSeen);
 
     db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {String.valueOf(threadId)});
-    notifyConversationListListeners();
+    updateSummary(threadId, record -> record.toBuilder().setLastSeen(lastSeen).build());
+    notifyConversationListItemListeners(threadId);
   }
 
   public void setLastScrolled(long threadId, long lastScrolledTimestamp) {
@@ -957,6 +1091,7 @@ public class ThreadDatabase extends Database {
       DatabaseFactory.getDraftDatabase(context).clearDrafts(threadId);
 
       db.delete(TABLE_NAME, ID_WHERE, new String[]{threadId + ""});
+      summaryCache.remove(Collections.singleton(threadId));
 
       db.setTransactionSuccessful();
     } finally {
@@ -987,6 +1122,7 @@ public class ThreadDatabase extends Database {
       }
 
       db.delete(TABLE_NAME, where.toString(), null);
+      summaryCache.remove(selectedConversations);
 
       db.setTransactionSuccessful();
     } finally {
@@ -1008,6 +1144,7 @@ public class ThreadDatabase extends Database {
       DatabaseFactory.getDraftDatabase(context).clearAllDrafts();
 
       db.delete(TABLE_NAME, null, null);
+      summaryCache.invalidate();
 
       db.setTransactionSuccessful();
     } finally {
@@ -1148,7 +1285,12 @@ public class ThreadDatabase extends Database {
 
     databaseHelper.getWritableDatabase().update(TABLE_NAME, contentValues, ID_WHERE, SqlUtil.buildArgs(threadId));
 
-    notifyConversationListListeners();
+    updateSummary(threadId, record -> record.toBuilder()
+                                            .setUnreadCount(unreadCount)
+                                            .setForcedUnread(false)
+                                            .build());
+
+    notifyConversationListItemListeners(threadId);
 
     if (previous != null && previous.isForcedUnread()) {
       DatabaseFactory.getRecipientDatabase(context).markNeedsSync(previous.getRecipient().getId());
@@ -1213,7 +1355,9 @@ public class ThreadDatabase extends Database {
 
         pinnedPosition++;
       }
-      
+
+      summaryCache.invalidate();
+
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
@@ -1242,6 +1386,7 @@ public class ThreadDatabase extends Database {
     databaseHelper.getWritableDatabase().update(TABLE_NAME, values, RECIPIENT_ID + " = ?", SqlUtil.buildArgs(recipientId));
 
     if (threadId != null) {
+      refreshSummaries(Collections.singleton(threadId));
       notifyConversationListeners(threadId);
     }
   }
@@ -1308,6 +1453,8 @@ public class ThreadDatabase extends Database {
       throw new IllegalStateException("Must be in a transaction!");
     }
 
+    summaryCache.invalidate();
+
     Log.w(TAG, "Merging threads. Primary: " + primaryRecipientId + ", Secondary: " + secondaryRecipientId);
 
     ThreadRecord primary   = getThreadRecord(getThreadIdFor(primaryRecipientId));
@@ -1362,7 +1509,7 @@ public class ThreadDatabase extends Database {
     }
   }
 
-  private @Nullable ThreadRecord getThreadRecord(@Nullable Long threadId) {
+  public @Nullable ThreadRecord getThreadRecord(@Nullable Long threadId) {
     if (threadId == null) {
       return null;
     }
@@ -1378,6 +1525,36 @@ public class ThreadDatabase extends Database {
     return null;
   }
 
+  /**
+   * Applies a change to the summary cache's copy of a thread, reading the thread back from the
+   * database instead if the cache doesn't have it. That happens when the change brings a thread
+   * into the conversation list, or to threads that aren't in it at all.
+   */
+  private void updateSummary(long threadId, @NonNull ThreadSummaryCache.Update update) {
+    if (!summaryCache.update(threadId, update)) {
+      refreshSummaries(Collections.singleton(threadId));
+    }
+  }
+
+  private void refreshSummaries(@NonNull Collection<Long> threadIds) {
+    if (!summaryCache.isComplete()) {
+      summaryCache.invalidate();
+      return;
+    }
+
+    String query = createQuery(TABLE_NAME + "." + ID + " = ?", 1);
+
+    for (long threadId : threadIds) {
+      try (Cursor cursor = databaseHelper.getReadableDatabase().rawQuery(query, SqlUtil.buildArgs(threadId))) {
+        if (cursor != null && cursor.moveToFirst()) {
+          summaryCache.put(threadId, new ThreadSummaryCache.Summary(readerFor(cursor).getCurrent(), CursorUtil.requireInt(cursor, PINNED)));
+        } else {
+          summaryCache.put(threadId, null);
+        }
+      }
+    }
+  }
+
   private @Nullable Uri getAttachmentUriFor(MessageRecord record) {
     if (!record.isMms() || record.isMmsNotification() || record.isGroupAction()) return null;
 
@@ -1463,7 +1640,7 @@ public class ThreadDatabase extends Database {
   }
 
   private @NonNull String createQuery(@NonNull String where, long offset, long limit, boolean preferPinned) {
-    String orderBy    = (preferPinned ? TABLE_NAME + "." + PINNED + " DESC, " : "") + TABLE_NAME + "." + DATE + " DESC";
+    String orderBy    = (preferPinned ? TABLE_NAME + "." + PINNED + " DESC, " : "") + ORDER_BY_DEFAULT;
 
     return createQuery(where, orderBy, offset, limit);
   }
@@ -0,0 +1,284 @@
+package org.thoughtcrime.securesms.database;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.thoughtcrime.securesms.database.model.ThreadRecord;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-memory copy of the unarchived conversation list, kept up to date by the write paths in
+ * {@link ThreadDatabase} so the list can be paged and re-sorted without querying the thread table
+ * every time a message comes in.
+ *
+ * It's all or nothing: list queries are only answered while the cache holds every unarchived,
+ * non-empty thread, and it gives up if there are more of those than it's allowed to hold. Changes
+ * that can't be applied to the cached records in place drop everything, and the next list load
+ * fills it again.
+ *
+ * A fill comes from a read that can race with writes, so it's thrown away if anything was written
+ * after the read started. Changes that depend on what's already cached, like an increment, have to
+ * be applied in the same database transaction as the write they mirror, so a read can't see the
+ * write without the cache seeing it too.
+ *
+ * Cached records have their read receipt counts hidden or not depending on the read receipts
+ * setting at the time they were read, so the cache is dropped when that setting changes.
+ */
+final class ThreadSummaryCache {
+
+  private static final Comparator<Summary> PINNED_ORDER = (a, b) -> Integer.compare(a.pinned, b.pinned);
+  /** Matches {@link ThreadDatabase}'s default order, newest first and then by thread ID. */
+  private static final Comparator<Summary> DATE_ORDER   = (a, b) -> {
+    int byDate = Long.compare(b.record.getDate(), a.record.getDate());
+    return byDate != 0 ? byDate : Long.compare(b.record.getThreadId(), a.record.getThreadId());
+  };
+
+  private enum State {
+    EMPTY, COMPLETE, TOO_LARGE
+  }
+
+  private final int                capacity;
+  private final Map<Long, Summary> summaries = new HashMap<>();
+
+  private State   state = State.EMPTY;
+  private long    generation;
+  private boolean readReceiptsEnabled;
+
+  ThreadSummaryCache(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * @return The generation to hand to {@link #fill(long, Collection)} once the read it's for is
+   *         done. Must be called before the read starts.
+   */
+  synchronized long getGeneration() {
+    return generation;
+  }
+
+  /**
+   * @return True if the cache is empty and should be filled before the next list query.
+   */
+  synchronized boolean needsFill() {
+    return state == State.EMPTY;
+  }
+
+  synchronized boolean isComplete() {
+    return state == State.COMPLETE;
+  }
+
+  /**
+   * @param all Every unarchived, non-empty thread. More than the capacity is fine, and tells the
+   *            cache not to try again until some threads go away.
+   */
+  synchronized void fill(long readGeneration, @NonNull Collection<Summary> all) {
+    if (state != State.EMPTY || readGeneration != generation) {
+      return;
+    }
+
+    if (all.size() > capacity) {
+      state = State.TOO_LARGE;
+      return;
+    }
+
+    for (Summary summary : all) {
+      summaries.put(summary.record.getThreadId(), summary);
+    }
+
+    state = State.COMPLETE;
+  }
+
+  /**
+   * Mirrors {@link ThreadDatabase#getUnarchivedConversationList(boolean, long, long)}, including
+   * treating a limit of zero or less as no limit.
+   *
+   * @return Null if the cache isn't complete.
+   */
+  synchronized @Nullable List<ThreadRecord> getConversationList(boolean pinned, long offset, long limit) {
+    if (state != State.COMPLETE) {
+      return null;
+    }
+
+    List<Summary> matching = new ArrayList<>();
+
+    for (Summary summary : summaries.values()) {
+      if ((summary.pinned != 0) == pinned) {
+        matching.add(summary);
+      }
+    }
+
+    Collections.sort(matching, pinned ? PINNED_ORDER : DATE_ORDER);
+
+    int from = (int) Math.min(Math.max(offset, 0), matching.size());
+    int to   = limit > 0 ? (int) Math.min(from + limit, matching.size()) : matching.size();
+
+    List<ThreadRecord> records = new ArrayList<>(to - from);
+
+    for (Summary summary : matching.subList(from, to)) {
+      records.add(summary.record);
+    }
+
+    return records;
+  }
+
+  /**
+   * @return The number of unarchived, non-empty threads, or -1 if the cache isn't complete.
+   */
+  synchronized int getConversationCount() {
+    return state == State.COMPLETE ? summaries.size() : -1;
+  }
+
+  /**
+   * @return The number of those that are pinned, or -1 if the cache isn't complete.
+   */
+  synchronized int getPinnedConversationCount() {
+    if (state != State.COMPLETE) {
+      return -1;
+    }
+
+    int count = 0;
+
+    for (Summary summary : summaries.values()) {
+      if (summary.pinned != 0) {
+        count++;
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * Changes a cached thread in place.
+   *
+   * @return False if the cache is complete but doesn't have the thread, in which case the caller
+   *         has to read it and {@link #put} it.
+   */
+  synchronized boolean update(long threadId, @NonNull Update update) {
+    generation++;
+
+    if (state != State.COMPLETE) {
+      return true;
+    }
+
+    Summary summary = summaries.get(threadId);
+
+    if (summary == null) {
+      return false;
+    }
+
+    store(new Summary(update.apply(summary.record), summary.pinned));
+
+    return true;
+  }
+
+  /**
+   * Replaces a thread with what's in the database, or removes it if it's gone or no longer belongs
+   * in the list.
+   */
+  synchronized void put(long threadId, @Nullable Summary summary) {
+    generation++;
+
+    if (state != State.COMPLETE) {
+      return;
+    }
+
+    if (summary == null) {
+      summaries.remove(threadId);
+    } else {
+      store(summary);
+    }
+  }
+
+  /**
+   * @param pinned Thread ID to its new position in the pinned list, or 0 to unpin it.
+   * @param unpinOthers Whether every thread not in the map should be unpinned.
+   */
+  synchronized void setPinned(@NonNull Map<Long, Integer> pinned, boolean unpinOthers) {
+    generation++;
+
+    if (state != State.COMPLETE) {
+      return;
+    }
+
+    for (Summary summary : new ArrayList<>(summaries.values())) {
+      long    threadId = summary.record.getThreadId();
+      Integer position = pinned.get(threadId);
+
+      if (position == null && (!unpinOthers || summary.pinned == 0)) {
+        continue;
+      }
+
+      int newPinned = position != null ? position : 0;
+
+      store(new Summary(summary.record.toBuilder().setPinned(newPinned != 0).build(), newPinned));
+    }
+  }
+
+  synchronized void remove(@NonNull Collection<Long> threadIds) {
+    generation++;
+
+    if (state == State.COMPLETE) {
+      for (long threadId : threadIds) {
+        summaries.remove(threadId);
+      }
+    } else if (state == State.TOO_LARGE) {
+      state = State.EMPTY;
+    }
+  }
+
+  /**
+   * Drops everything if the read receipts setting isn't what it was when the cache was last told.
+   */
+  synchronized void setReadReceiptsEnabled(boolean enabled) {
+    if (enabled != readReceiptsEnabled) {
+      readReceiptsEnabled = enabled;
+      invalidate();
+    }
+  }
+
+  synchronized void invalidate() {
+    generation++;
+    summaries.clear();
+    state = State.EMPTY;
+  }
+
+  private void store(@NonNull Summary summary) {
+    ThreadRecord record = summary.record;
+
+    if (record.isArchived() || record.getCount() == 0) {
+      summaries.remove(record.getThreadId());
+      return;
+    }
+
+    summaries.put(record.getThreadId(), summary);
+
+    if (summaries.size() > capacity) {
+      summaries.clear();
+      state = State.TOO_LARGE;
+    }
+  }
+
+  static final class Summary {
+    private final ThreadRecord record;
+    private final int          pinned;
+
+    /**
+     * @param pinned The thread's position in the pinned list, starting at 1, or 0 if it isn't pinned.
+     */
+    Summary(@NonNull ThreadRecord record, int pinned) {
+      this.record = record;
+      this.pinned = pinned;
+    }
+  }
+
+  interface Update {
+    @NonNull ThreadRecord apply(@NonNull ThreadRecord record);
+  }
+}
@@ -171,8 +171,11 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
   private static final int SPLIT_SYSTEM_NAMES               = 90;
   private static final int PAYMENTS                         = 91;
   private static final int CLEAN_STORAGE_IDS                = 92;
+  private static final int MESSAGE_POSITION_INDEXES         = 93;
+  private static final int RECIPIENT_SEARCH_INDEX           = 94;
+  private static final int RECIPIENT_CHECKED_NAME           = 95;
 
-  private static final int    DATABASE_VERSION = 92;
+  private static final int    DATABASE_VERSION = 95;
   private static final String DATABASE_NAME    = "signal.db";
 
   private final Context        context;
@@ -205,6 +208,8 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
     db.execSQL(MentionDatabase.CREATE_TABLE);
     db.execSQL(PaymentDatabase.CREATE_TABLE);
     executeStatements(db, SearchDatabase.CREATE_TABLE);
+    executeStatements(db, RecipientDatabase.CREATE_FTS_TABLE);
+    executeStatements(db, RecipientDatabase.CREATE_TRIGGERS);
     executeStatements(db, RemappedRecordsDatabase.CREATE_TABLE);
 
     executeStatements(db, RecipientDatabase.CREATE_INDEXS);
@@ -1299,6 +1304,41 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
         Log.i(TAG, "There were " + count + " bad rows that had their storageID removed.");
       }
 
+      if (oldVersion < MESSAGE_POSITION_INDEXES) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS sms_thread_date_sent_recipient_index ON sms (thread_id, date_sent, address)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS mms_thread_date_sent_recipient_index ON mms (thread_id, date, address)");
+      }
+
+      if (oldVersion < RECIPIENT_SEARCH_INDEX) {
+        db.execSQL("CREATE VIRTUAL TABLE recipient_fts USING fts5(system_display_name, system_given_name, profile_joined_name, signal_profile_name, username, phone, email, content=recipient, content_rowid=_id, prefix='1 2 3')");
+        db.execSQL("CREATE TRIGGER recipient_ai AFTER INSERT ON recipient BEGIN\n" +
+                   "  INSERT INTO recipient_fts(rowid, system_display_name, system_given_name, profile_joined_name, signal_profile_name, username, phone, email) VALUES (new._id, new.system_display_name, new.system_given_name, new.profile_joined_name, new.signal_profile_name, new.username, new.phone, new.email);\n" +
+                   "END;");
+        db.execSQL("CREATE TRIGGER recipient_ad AFTER DELETE ON recipient BEGIN\n" +
+                   "  INSERT INTO recipient_fts(recipient_fts, rowid, system_display_name, system_given_name, profile_joined_name, signal_profile_name, username, phone, email) VALUES('delete', old._id, old.system_display_name, old.system_given_name, old.profile_joined_name, old.signal_profile_name, old.username, old.phone, old.email);\n" +
+                   "END;");
+        db.execSQL("CREATE TRIGGER recipient_au AFTER UPDATE OF system_display_name, system_given_name, profile_joined_name, signal_profile_name, username, phone, email ON recipient BEGIN\n" +
+                   "  INSERT INTO recipient_fts(recipient_fts, rowid, system_display_name, system_given_name, profile_joined_name, signal_profile_name, username, phone, email) VALUES('delete', old._id, old.system_display_name, old.system_given_name, old.profile_joined_name, old.signal_profile_name, old.username, old.phone, old.email);\n" +
+                   "  INSERT INTO recipient_fts(rowid, system_display_name, system_given_name, profile_joined_name, signal_profile_name, username, phone, email) VALUES (new._id, new.system_display_name, new.system_given_name, new.profile_joined_name, new.signal_profile_name, new.username, new.phone, new.email);\n" +
+                   "END;");
+
+        long start = SystemClock.elapsedRealtime();
+        db.execSQL("INSERT INTO recipient_fts(recipient_fts) VALUES ('rebuild')");
+        Log.i(TAG, "Indexing recipients completed in " + (SystemClock.elapsedRealtime() - start) + " ms");
+      }
+
+      if (oldVersion < RECIPIENT_CHECKED_NAME) {
+        db.execSQL("ALTER TABLE recipient ADD COLUMN checked_name TEXT DEFAULT NULL");
+        db.execSQL("UPDATE recipient SET checked_name = COALESCE(NULLIF(system_display_name, ''), NULLIF(profile_joined_name, ''))");
+        db.execSQL("CREATE INDEX IF NOT EXISTS recipient_checked_name_index ON recipient (checked_name)");
+        db.execSQL("CREATE TRIGGER recipient_checked_name_ai AFTER INSERT ON recipient BEGIN\n" +
+                   "  UPDATE recipient SET checked_name = COALESCE(NULLIF(new.system_display_name, ''), NULLIF(new.profile_joined_name, '')) WHERE _id = new._id;\n" +
+                   "END;");
+        db.execSQL("CREATE TRIGGER recipient_checked_name_au AFTER UPDATE OF system_display_name, profile_joined_name ON recipient BEGIN\n" +
+                   "  UPDATE recipient SET checked_name = COALESCE(NULLIF(new.system_display_name, ''), NULLIF(new.profile_joined_name, '')) WHERE _id = new._id;\n" +
+                   "END;");
+      }
+
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
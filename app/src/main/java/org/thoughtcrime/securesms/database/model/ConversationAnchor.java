@@ -0,0 +1,34 @@
+package org.thoughtcrime.securesms.database.model;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A message's place in the conversation ordering, which is enough to find the messages on either
+ * side of it without knowing its position.
+ */
+public final class ConversationAnchor {
+  private final long      dateReceived;
+  private final MessageId messageId;
+
+  public ConversationAnchor(long dateReceived, @NonNull MessageId messageId) {
+    this.dateReceived = dateReceived;
+    this.messageId    = messageId;
+  }
+
+  public static @NonNull ConversationAnchor from(@NonNull MessageRecord record) {
+    return new ConversationAnchor(record.getDateReceived(), new MessageId(record.getId(), record.isMms()));
+  }
+
+  public long getDateReceived() {
+    return dateReceived;
+  }
+
+  public @NonNull MessageId getMessageId() {
+    return messageId;
+  }
+
+  @Override
+  public @NonNull String toString() {
+    return "ConversationAnchor::" + dateReceived + "::" + messageId;
+  }
+}
@@ -0,0 +1,45 @@
+package org.thoughtcrime.securesms.database.model;
+
+import androidx.annotation.NonNull;
+
+import java.util.Objects;
+
+/**
+ * Uniquely identifies a message across the SMS and MMS tables.
+ */
+public final class MessageId {
+  private final long    id;
+  private final boolean mms;
+
+  public MessageId(long id, boolean mms) {
+    this.id  = id;
+    this.mms = mms;
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  public boolean isMms() {
+    return mms;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    MessageId messageId = (MessageId) o;
+    return id == messageId.id &&
+           mms == messageId.mms;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(id, mms);
+  }
+
+  @Override
+  public @NonNull String toString() {
+    return "MessageId::" + (mms ? "MMS::" : "SMS::") + id;
+  }
+}
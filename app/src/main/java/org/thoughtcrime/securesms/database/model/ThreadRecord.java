@@ -222,6 +222,28 @@ public final class ThreadRecord {
     return isPinned;
   }
 
+  public @NonNull Builder toBuilder() {
+    return new Builder(threadId).setBody(body)
+                                .setRecipient(recipient)
+                                .setSender(sender)
+                                .setType(type)
+                                .setDate(date)
+                                .setDeliveryStatus(deliveryStatus)
+                                .setDeliveryReceiptCount(deliveryReceiptCount)
+                                .setReadReceiptCount(readReceiptCount)
+                                .setSnippetUri(snippetUri)
+                                .setContentType(contentType)
+                                .setExtra(extra)
+                                .setCount(count)
+                                .setUnreadCount(unreadCount)
+                                .setForcedUnread(forcedUnread)
+                                .setDistributionType(distributionType)
+                                .setArchived(archived)
+                                .setExpiresIn(expiresIn)
+                                .setLastSeen(lastSeen)
+                                .setPinned(isPinned);
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
@@ -246,6 +246,9 @@ public abstract class Job {
     public static final String MIGRATION_QUEUE_KEY = "MIGRATION";
     public static final int    IMMORTAL            = -1;
     public static final int    UNLIMITED           = -1;
+    public static final int    PRIORITY_LOW        = -1;
+    public static final int    PRIORITY_DEFAULT    = 0;
+    public static final int    PRIORITY_HIGH       = 1;
 
     private final String       id;
     private final long         createTime;
@@ -257,6 +260,7 @@ public abstract class Job {
     private final List<String> constraintKeys;
     private final Data         inputData;
     private final boolean      memoryOnly;
+    private final int          priority;
 
     private Parameters(@NonNull String id,
                        long createTime,
@@ -267,7 +271,8 @@ public abstract class Job {
                        @Nullable String queue,
                        @NonNull List<String> constraintKeys,
                        @Nullable Data inputData,
-                       boolean memoryOnly)
+                       boolean memoryOnly,
+                       int priority)
     {
       this.id                     = id;
       this.createTime             = createTime;
@@ -279,6 +284,7 @@ public abstract class Job {
       this.constraintKeys         = constraintKeys;
       this.inputData              = inputData;
       this.memoryOnly             = memoryOnly;
+      this.priority               = priority;
     }
 
     @NonNull String getId() {
@@ -321,8 +327,12 @@ public abstract class Job {
       return memoryOnly;
     }
 
+    int getPriority() {
+      return priority;
+    }
+
     public Builder toBuilder() {
-      return new Builder(id, createTime, lifespan, maxAttempts, maxInstancesForFactory, maxInstancesForQueue, queue, constraintKeys, inputData, memoryOnly);
+      return new Builder(id, createTime, lifespan, maxAttempts, maxInstancesForFactory, maxInstancesForQueue, queue, constraintKeys, inputData, memoryOnly, priority);
     }
 
 
@@ -337,13 +347,14 @@ public abstract class Job {
       private List<String> constraintKeys;
       private Data         inputData;
       private boolean      memoryOnly;
+      private int          priority;
 
       public Builder() {
         this(UUID.randomUUID().toString());
       }
 
       Builder(@NonNull String id) {
-        this(id, System.currentTimeMillis(), IMMORTAL, 1, UNLIMITED, UNLIMITED, null, new LinkedList<>(), null, false);
+        this(id, System.currentTimeMillis(), IMMORTAL, 1, UNLIMITED, UNLIMITED, null, new LinkedList<>(), null, false, PRIORITY_DEFAULT);
       }
 
       private Builder(@NonNull String id,
@@ -355,7 +366,8 @@ public abstract class Job {
                       @Nullable String queue,
                       @NonNull List<String> constraintKeys,
                       @Nullable Data inputData,
-                      boolean memoryOnly)
+                      boolean memoryOnly,
+                      int priority)
       {
         this.id                     = id;
         this.createTime             = createTime;
@@ -367,6 +379,7 @@ public abstract class Job {
         this.constraintKeys         = constraintKeys;
         this.inputData              = inputData;
         this.memoryOnly             = memoryOnly;
+        this.priority               = priority;
       }
 
       /** Should only be invoked by {@link JobController} */
@@ -460,6 +473,19 @@ public abstract class Job {
         return this;
       }
 
+      /**
+       * Specify how urgently this job should run relative to other jobs that are ready at the same
+       * time. When runners are scarce, higher priority jobs are handed out first, and lower
+       * priority jobs are gradually promoted the longer they wait so they can't be starved by a
+       * steady stream of default priority work. Ordering within a queue is unaffected.
+       *
+       * Defaults to {@link #PRIORITY_DEFAULT}.
+       */
+      public @NonNull Builder setPriority(int priority) {
+        this.priority = priority;
+        return this;
+      }
+
       /**
        * Sets the input data that will be made availabe to the job when it is run.
        * Should only be set by {@link JobController}.
@@ -470,7 +496,7 @@ public abstract class Job {
       }
 
       public @NonNull Parameters build() {
-        return new Parameters(id, createTime, lifespan, maxAttempts, maxInstancesForFactory, maxInstancesForQueue, queue, constraintKeys, inputData, memoryOnly);
+        return new Parameters(id, createTime, lifespan, maxAttempts, maxInstancesForFactory, maxInstancesForQueue, queue, constraintKeys, inputData, memoryOnly, priority);
       }
     }
   }
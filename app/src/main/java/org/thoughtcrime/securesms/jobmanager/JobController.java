@@ -19,13 +19,17 @@ import org.thoughtcrime.securesms.util.Debouncer;
 import org.thoughtcrime.securesms.util.FeatureFlags;
 import org.thoughtcrime.securesms.util.SetUtil;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
@@ -44,17 +48,28 @@ class JobController {
   private final ConstraintInstantiator constraintInstantiator;
   private final Data.Serializer        dataSerializer;
   private final JobTracker             jobTracker;
+  private final JobMetrics             jobMetrics;
   private final Scheduler              scheduler;
   private final Debouncer              debouncer;
   private final Callback               callback;
   private final Map<String, Job>       runningJobs;
 
+  private final Map<JobPredicate, Deque<IdleRunner>> idleRunners;
+  private final Set<String>                          claimedJobIds;
+  private final Map<String, Long>                    constraintBlockedSince;
+
+  private long wakeUps;
+  private long signaledDispatches;
+  private long totalDispatchTime;
+  private long maxDispatchTime;
+
   JobController(@NonNull Application application,
                 @NonNull JobStorage jobStorage,
                 @NonNull JobInstantiator jobInstantiator,
                 @NonNull ConstraintInstantiator constraintInstantiator,
                 @NonNull Data.Serializer dataSerializer,
                 @NonNull JobTracker jobTracker,
+                @NonNull JobMetrics jobMetrics,
                 @NonNull Scheduler scheduler,
                 @NonNull Debouncer debouncer,
                 @NonNull Callback callback)
@@ -65,20 +80,24 @@ class JobController {
     this.constraintInstantiator = constraintInstantiator;
     this.dataSerializer         = dataSerializer;
     this.jobTracker             = jobTracker;
+    this.jobMetrics             = jobMetrics;
     this.scheduler              = scheduler;
     this.debouncer              = debouncer;
     this.callback               = callback;
     this.runningJobs            = new HashMap<>();
+    this.idleRunners            = new LinkedHashMap<>();
+    this.claimedJobIds          = new HashSet<>();
+    this.constraintBlockedSince = new HashMap<>();
   }
 
   @WorkerThread
   synchronized void init() {
     jobStorage.updateAllJobsToBePending();
-    notifyAll();
+    signalIdleRunners();
   }
 
   synchronized void wakeUp() {
-    notifyAll();
+    signalIdleRunners();
   }
 
   @WorkerThread
@@ -100,7 +119,7 @@ class JobController {
     insertJobChain(chain);
     scheduleJobs(chain.get(0));
     triggerOnSubmit(chain);
-    notifyAll();
+    signalIdleRunners();
   }
 
   @WorkerThread
@@ -141,7 +160,7 @@ class JobController {
 
     scheduleJobs(Collections.singletonList(job));
     triggerOnSubmit(chain);
-    notifyAll();
+    signalIdleRunners();
   }
 
   @WorkerThread
@@ -200,13 +219,22 @@ class JobController {
     Log.i(TAG, JobLogger.format(job, "Scheduling a retry in " + delay + " ms."));
     scheduler.schedule(delay, constraints);
 
-    notifyAll();
+    signalIdleRunners();
   }
 
   synchronized void onJobFinished(@NonNull Job job) {
     runningJobs.remove(job.getId());
   }
 
+  /**
+   * Blocks until every job write made so far has been persisted, e.g. so that a finished job is
+   * never run again. Isn't synchronized, so the controller isn't held up by the disk.
+   */
+  @WorkerThread
+  void flushJobStorage() {
+    jobStorage.flush();
+  }
+
   @WorkerThread
   synchronized void onSuccess(@NonNull Job job, @Nullable Data outputData) {
     if (outputData != null) {
@@ -220,8 +248,9 @@ class JobController {
     }
 
     jobStorage.deleteJob(job.getId());
+    constraintBlockedSince.remove(job.getId());
     jobTracker.onStateChange(job, JobTracker.JobState.SUCCESS);
-    notifyAll();
+    signalIdleRunners();
   }
 
   /**
@@ -245,6 +274,10 @@ class JobController {
 
     jobStorage.deleteJobs(Stream.of(all).map(Job::getId).toList());
     Stream.of(all).forEach(j -> jobTracker.onStateChange(j, JobTracker.JobState.FAILURE));
+    Stream.of(all).forEach(j -> constraintBlockedSince.remove(j.getId()));
+    Stream.of(all).forEach(j -> claimedJobIds.remove(j.getId()));
+
+    signalIdleRunners();
 
     return dependents;
   }
@@ -254,30 +287,52 @@ class JobController {
    *  - Has no dependencies
    *  - Has no unmet constraints
    *
-   * This method will block until a job is available.
+   * This method will block until a job is available. While blocked, the runner waits on its own
+   * {@link IdleRunner} rather than on the controller, and is only woken up when a job it is able
+   * to run has been handed to it by {@link #signalIdleRunners()}.
    * When the job returned from this method has been run, you must call {@link #onJobFinished(Job)}.
    */
   @WorkerThread
-  synchronized @NonNull Job pullNextEligibleJobForExecution(@NonNull JobPredicate predicate) {
-    try {
-      Job job;
+  @NonNull Job pullNextEligibleJobForExecution(@NonNull JobPredicate predicate) {
+    IdleRunner idleRunner = null;
+
+    while (true) {
+      synchronized (this) {
+        Job job = getNextEligibleJobForExecution(predicate);
+
+        // The job this runner was handed has gone or was taken by another, so offer what's left around
+        boolean claimMissed = idleRunner != null && idleRunner.claimedJobId != null && (job == null || !job.getId().equals(idleRunner.claimedJobId));
+
+        if (idleRunner != null) {
+          onIdleRunnerWoken(idleRunner, job != null);
+        }
+
+        if (job != null) {
+          onJobDispatched(job);
+          jobStorage.updateJobRunningState(job.getId(), true);
+          runningJobs.put(job.getId(), job);
+          jobTracker.onStateChange(job, JobTracker.JobState.RUNNING);
+
+          if (claimMissed) {
+            signalIdleRunners();
+          }
+
+          return job;
+        }
+
+        if (claimMissed) {
+          signalIdleRunners();
+        }
 
-      while ((job = getNextEligibleJobForExecution(predicate)) == null) {
         if (runningJobs.isEmpty()) {
           debouncer.publish(callback::onEmpty);
         }
 
-        wait();
+        idleRunner = new IdleRunner(predicate);
+        addIdleRunner(idleRunner);
       }
 
-      jobStorage.updateJobRunningState(job.getId(), true);
-      runningJobs.put(job.getId(), job);
-      jobTracker.onStateChange(job, JobTracker.JobState.RUNNING);
-
-      return job;
-    } catch (InterruptedException e) {
-      Log.e(TAG, "Interrupted.");
-      throw new AssertionError(e);
+      idleRunner.await();
     }
   }
 
@@ -313,6 +368,16 @@ class JobController {
       info.append("None\n");
     }
 
+    info.append("\n-- Runner Scheduling\n");
+    info.append("Idle runners: ").append(getIdleRunnerCount()).append('\n');
+    info.append("Claimed jobs: ").append(claimedJobIds.size()).append('\n');
+    info.append("Jobs blocked on constraints: ").append(constraintBlockedSince.size()).append('\n');
+    info.append("Jobs dispatched after a wake-up: ").append(signaledDispatches).append('\n');
+    info.append("Wake-ups: ").append(wakeUps).append(" (").append(wakeUps - signaledDispatches).append(" found no job)\n");
+    info.append("Wake-ups per dispatched job: ").append(signaledDispatches > 0 ? String.format(Locale.US, "%.2f", (double) wakeUps / signaledDispatches) : "N/A").append('\n');
+    info.append("Average time to dispatch: ").append(signaledDispatches > 0 ? (totalDispatchTime / signaledDispatches) + " ms" : "N/A").append('\n');
+    info.append("Max time to dispatch: ").append(maxDispatchTime).append(" ms\n");
+
     return info.toString();
   }
 
@@ -383,7 +448,8 @@ class JobController {
                                   dataSerializer.serialize(job.serialize()),
                                   null,
                                   false,
-                                  job.getParameters().isMemoryOnly());
+                                  job.getParameters().isMemoryOnly(),
+                                  job.getParameters().getPriority());
 
     List<ConstraintSpec> constraintSpecs = Stream.of(job.getParameters().getConstraintKeys())
                                                  .map(key -> new ConstraintSpec(jobSpec.getId(), key, jobSpec.isMemoryOnly()))
@@ -416,11 +482,13 @@ class JobController {
 
   @WorkerThread
   private @Nullable Job getNextEligibleJobForExecution(@NonNull JobPredicate predicate) {
-    List<JobSpec> jobSpecs = Stream.of(jobStorage.getPendingJobsWithNoDependenciesInCreatedOrder(System.currentTimeMillis()))
-                                   .filter(predicate::shouldRun)
-                                   .toList();
+    Job[] eligible = new Job[1];
+
+    jobStorage.visitPendingJobsInPriorityOrder(System.currentTimeMillis(), jobSpec -> {
+      if (!predicate.shouldRun(jobSpec)) {
+        return true;
+      }
 
-    for (JobSpec jobSpec : jobSpecs) {
       List<ConstraintSpec> constraintSpecs = jobStorage.getConstraintSpecs(jobSpec.getId());
       List<Constraint>     constraints     = Stream.of(constraintSpecs)
                                                    .map(ConstraintSpec::getFactoryKey)
@@ -428,11 +496,123 @@ class JobController {
                                                    .toList();
 
       if (Stream.of(constraints).allMatch(Constraint::isMet)) {
-        return createJob(jobSpec, constraintSpecs);
+        eligible[0] = createJob(jobSpec, constraintSpecs);
+        return false;
+      } else if (isExpired(jobSpec)) {
+        // It'll be failed as soon as its constraints are met, so the wait isn't worth recording
+        constraintBlockedSince.remove(jobSpec.getId());
+      } else if (!constraintBlockedSince.containsKey(jobSpec.getId())) {
+        constraintBlockedSince.put(jobSpec.getId(), System.currentTimeMillis());
+      }
+
+      return true;
+    });
+
+    return eligible[0];
+  }
+
+  /**
+   * Hands each job that is ready to run to exactly one idle runner that is able to run it. Runners
+   * are grouped by their {@link JobPredicate}, and reserved runners are preferred over general
+   * ones so that the general pool stays free for everything else.
+   */
+  private void signalIdleRunners() {
+    if (getIdleRunnerCount() == 0) {
+      return;
+    }
+
+    jobStorage.visitPendingJobsInPriorityOrder(System.currentTimeMillis(), jobSpec -> {
+      if (claimedJobIds.contains(jobSpec.getId())) {
+        return true;
+      }
+
+      Deque<IdleRunner> runners = findIdleRunnersForJob(jobSpec);
+
+      if (runners == null || !areConstraintsMet(jobSpec)) {
+        return true;
+      }
+
+      IdleRunner runner = runners.removeFirst();
+      if (runners.isEmpty()) {
+        idleRunners.remove(runner.predicate);
+      }
+
+      claimedJobIds.add(jobSpec.getId());
+      runner.signal(jobSpec.getId());
+
+      return !idleRunners.isEmpty();
+    });
+  }
+
+  private @Nullable Deque<IdleRunner> findIdleRunnersForJob(@NonNull JobSpec jobSpec) {
+    Deque<IdleRunner> general = null;
+
+    for (Map.Entry<JobPredicate, Deque<IdleRunner>> entry : idleRunners.entrySet()) {
+      if (entry.getKey() == JobPredicate.NONE) {
+        general = entry.getValue();
+      } else if (entry.getKey().shouldRun(jobSpec)) {
+        return entry.getValue();
       }
     }
 
-    return null;
+    return general;
+  }
+
+  private boolean areConstraintsMet(@NonNull JobSpec jobSpec) {
+    for (ConstraintSpec constraintSpec : jobStorage.getConstraintSpecs(jobSpec.getId())) {
+      if (!constraintInstantiator.instantiate(constraintSpec.getFactoryKey()).isMet()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void addIdleRunner(@NonNull IdleRunner runner) {
+    Deque<IdleRunner> runners = idleRunners.get(runner.predicate);
+
+    if (runners == null) {
+      runners = new ArrayDeque<>();
+      idleRunners.put(runner.predicate, runners);
+    }
+
+    runners.addLast(runner);
+  }
+
+  private void onIdleRunnerWoken(@NonNull IdleRunner runner, boolean foundJob) {
+    wakeUps++;
+
+    if (runner.claimedJobId != null) {
+      claimedJobIds.remove(runner.claimedJobId);
+    }
+
+    if (foundJob) {
+      long dispatchTime = System.currentTimeMillis() - runner.signalTime;
+
+      signaledDispatches++;
+      totalDispatchTime += dispatchTime;
+      maxDispatchTime    = Math.max(maxDispatchTime, dispatchTime);
+    }
+  }
+
+  private void onJobDispatched(@NonNull Job job) {
+    long now          = System.currentTimeMillis();
+    long eligibleTime = Math.max(job.getParameters().getCreateTime(), job.getNextRunAttemptTime());
+    Long blockedSince = constraintBlockedSince.remove(job.getId());
+
+    jobMetrics.onJobStarted(job.getFactoryKey(), now - eligibleTime, blockedSince != null ? now - blockedSince : 0);
+  }
+
+  private static boolean isExpired(@NonNull JobSpec jobSpec) {
+    return jobSpec.getLifespan() != Job.Parameters.IMMORTAL &&
+           jobSpec.getCreateTime() + jobSpec.getLifespan() <= System.currentTimeMillis();
+  }
+
+  private int getIdleRunnerCount() {
+    int count = 0;
+    for (Deque<IdleRunner> runners : idleRunners.values()) {
+      count += runners.size();
+    }
+    return count;
   }
 
   private @NonNull Job createJob(@NonNull JobSpec jobSpec, @NonNull List<ConstraintSpec> constraintSpecs) {
@@ -457,6 +637,13 @@ class JobController {
       jobStorage.deleteJob(jobSpec.getId());
       jobStorage.deleteJobs(failIds);
 
+      constraintBlockedSince.remove(jobSpec.getId());
+      claimedJobIds.remove(jobSpec.getId());
+      Stream.of(failIds).forEach(id -> {
+        constraintBlockedSince.remove(id);
+        claimedJobIds.remove(id);
+      });
+
       Log.e(TAG, "Failed " + failIds.size() + " dependent jobs.");
 
       throw e;
@@ -469,6 +656,7 @@ class JobController {
                   .setLifespan(jobSpec.getLifespan())
                   .setMaxAttempts(jobSpec.getMaxAttempts())
                   .setQueue(jobSpec.getQueueKey())
+                  .setPriority(jobSpec.getPriority())
                   .setConstraints(Stream.of(constraintSpecs).map(ConstraintSpec::getFactoryKey).toList())
                   .setInputData(jobSpec.getSerializedInputData() != null ? dataSerializer.deserialize(jobSpec.getSerializedInputData()) : null)
                   .build();
@@ -486,10 +674,46 @@ class JobController {
                        jobSpec.getSerializedData(),
                        dataSerializer.serialize(inputData),
                        jobSpec.isRunning(),
-                       jobSpec.isMemoryOnly());
+                       jobSpec.isMemoryOnly(),
+                       jobSpec.getPriority());
   }
 
   interface Callback {
     void onEmpty();
   }
+
+  /**
+   * A runner that is waiting for work. Each one has its own monitor, so that handing it a job
+   * doesn't wake up any of the other runners.
+   */
+  private static final class IdleRunner {
+
+    private final JobPredicate predicate;
+
+    private boolean signaled;
+    private String  claimedJobId;
+    private long    signalTime;
+
+    IdleRunner(@NonNull JobPredicate predicate) {
+      this.predicate = predicate;
+    }
+
+    synchronized void signal(@NonNull String jobId) {
+      this.signaled     = true;
+      this.claimedJobId = jobId;
+      this.signalTime   = System.currentTimeMillis();
+      notify();
+    }
+
+    synchronized void await() {
+      try {
+        while (!signaled) {
+          wait();
+        }
+      } catch (InterruptedException e) {
+        Log.e(TAG, "Interrupted.");
+        throw new AssertionError(e);
+      }
+    }
+  }
 }
@@ -33,6 +33,7 @@ import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -49,6 +50,7 @@ public class JobManager implements ConstraintObserver.Notifier {
   private final Executor      executor;
   private final JobController jobController;
   private final JobTracker    jobTracker;
+  private final JobMetrics    jobMetrics;
 
   @GuardedBy("emptyQueueListeners")
   private final Set<EmptyQueueListener> emptyQueueListeners = new CopyOnWriteArraySet<>();
@@ -60,12 +62,14 @@ public class JobManager implements ConstraintObserver.Notifier {
     this.configuration = configuration;
     this.executor      = new FilteredExecutor(configuration.getExecutorFactory().newSingleThreadExecutor("signal-JobManager"), ThreadUtil::isMainThread);
     this.jobTracker    = configuration.getJobTracker();
+    this.jobMetrics    = new JobMetrics();
     this.jobController = new JobController(application,
                                            configuration.getJobStorage(),
                                            configuration.getJobInstantiator(),
                                            configuration.getConstraintFactories(),
                                            configuration.getDataSerializer(),
                                            configuration.getJobTracker(),
+                                           jobMetrics,
                                            Build.VERSION.SDK_INT < 26 ? new AlarmManagerScheduler(application)
                                                                       : new CompositeScheduler(new InAppScheduler(this), new JobSchedulerScheduler(application)),
                                            new Debouncer(500),
@@ -108,11 +112,11 @@ public class JobManager implements ConstraintObserver.Notifier {
       int id = 0;
 
       for (int i = 0; i < configuration.getJobThreadCount(); i++) {
-        new JobRunner(application, ++id, jobController, JobPredicate.NONE).start();
+        new JobRunner(application, ++id, jobController, jobMetrics, JobPredicate.NONE).start();
       }
 
       for (JobPredicate predicate : configuration.getReservedJobRunners()) {
-        new JobRunner(application, ++id, jobController, predicate).start();
+        new JobRunner(application, ++id, jobController, jobMetrics, predicate).start();
       }
 
       jobController.wakeUp();
@@ -150,6 +154,21 @@ public class JobManager implements ConstraintObserver.Notifier {
     new Chain(this, Collections.singletonList(job)).enqueue();
   }
 
+  /**
+   * Enqueues a single job to be run, and blocks until it has been persisted. Use this instead of
+   * {@link #add(Job)} when something is about to be acknowledged as handled (e.g. a message to the
+   * service) on the strength of the job existing, since jobs are otherwise written to disk lazily
+   * and could be lost if the process is killed.
+   */
+  @WorkerThread
+  public void addBlocking(@NonNull Job job) {
+    add(job);
+
+    if (!awaitJobStorageFlush()) {
+      Log.w(TAG, JobLogger.format(job, "Added, but couldn't confirm it was persisted."));
+    }
+  }
+
   /**
    * Enqueues a single job that depends on a collection of job ID's.
    */
@@ -213,14 +232,20 @@ public class JobManager implements ConstraintObserver.Notifier {
    * moment. Just like a normal failure, all later jobs in the same chain will also be failed.
    */
   public void cancel(@NonNull String id) {
-    runOnExecutor(() -> jobController.cancelJob(id));
+    runOnExecutor(() -> {
+      jobController.cancelJob(id);
+      jobController.flushJobStorage();
+    });
   }
 
   /**
    * Cancels all jobs in the specified queue. See {@link #cancel(String)} for details.
    */
   public void cancelAllInQueue(@NonNull String queue) {
-    runOnExecutor(() -> jobController.cancelAllInQueue(queue));
+    runOnExecutor(() -> {
+      jobController.cancelAllInQueue(queue);
+      jobController.flushJobStorage();
+    });
   }
 
   /**
@@ -286,6 +311,14 @@ public class JobManager implements ConstraintObserver.Notifier {
     }
   }
 
+  /**
+   * Retrieves execution statistics for every job factory that has run since the app started,
+   * sorted by total run time, descending. Safe to call from any thread.
+   */
+  public @NonNull List<JobMetrics.Snapshot> getMetrics() {
+    return jobMetrics.getSnapshots();
+  }
+
   /**
    * Adds a listener that will be notified when the job queue has been drained.
    */
@@ -315,19 +348,43 @@ public class JobManager implements ConstraintObserver.Notifier {
   }
 
   /**
-   * Blocks until all pending operations are finished.
+   * Blocks until all pending operations are finished and every job write has been persisted.
    */
   @WorkerThread
   public void flush() {
-    CountDownLatch latch = new CountDownLatch(1);
+    if (awaitJobStorageFlush()) {
+      Log.i(TAG, "Successfully flushed.");
+    }
+  }
 
-    runOnExecutor(latch::countDown);
+  /**
+   * Runs behind everything already on the executor, so it includes any jobs that were just added.
+   *
+   * @return True if the flush finished, false if it failed or we were interrupted while waiting
+   *         on it.
+   */
+  private boolean awaitJobStorageFlush() {
+    CountDownLatch latch   = new CountDownLatch(1);
+    AtomicBoolean  success = new AtomicBoolean(false);
+
+    runOnExecutor(() -> {
+      try {
+        configuration.getJobStorage().flush();
+        success.set(true);
+      } catch (RuntimeException e) {
+        Log.w(TAG, "Failed to persist job writes. They'll be retried on the next flush.", e);
+      } finally {
+        latch.countDown();
+      }
+    });
 
     try {
       latch.await();
-      Log.i(TAG, "Successfully flushed.");
+      return success.get();
     } catch (InterruptedException e) {
       Log.w(TAG, "Failed to finish flushing.", e);
+      Thread.currentThread().interrupt();
+      return false;
     }
   }
 
@@ -0,0 +1,206 @@
+package org.thoughtcrime.securesms.jobmanager;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects execution statistics for each job factory: how long jobs waited before running, how
+ * long they ran, how often they were retried, and how long they were held back by unmet
+ * constraints. Everything is kept in primitive counters that are allocated once per factory, so
+ * recording is cheap enough to leave on all the time.
+ */
+public final class JobMetrics {
+
+  /** See {@link #getRunTimeBuckets()}. */
+  private static final long[] RUN_TIME_BUCKETS = { 10, 50, 100, 500, 1_000, 5_000, 10_000, 60_000 };
+
+  private final Map<String, FactoryMetrics> metricsByFactory = new HashMap<>();
+
+  JobMetrics() {}
+
+  /**
+   * @return The upper bounds (exclusive, in ms) of each run time histogram bucket. The histogram
+   *         has one more bucket than this, which holds everything that ran for longer.
+   */
+  public static @NonNull List<Long> getRunTimeBuckets() {
+    List<Long> buckets = new ArrayList<>(RUN_TIME_BUCKETS.length);
+
+    for (long bound : RUN_TIME_BUCKETS) {
+      buckets.add(bound);
+    }
+
+    return Collections.unmodifiableList(buckets);
+  }
+
+  /**
+   * Records that a job is about to run.
+   *
+   * @param queueTime   How long the job was eligible to run (time since it was created, or since
+   *                    its retry backoff expired) before a runner picked it up.
+   * @param blockedTime How much of that time the job spent waiting on unmet constraints.
+   */
+  @AnyThread
+  synchronized void onJobStarted(@NonNull String factoryKey, long queueTime, long blockedTime) {
+    FactoryMetrics metrics = getOrCreate(factoryKey);
+
+    metrics.starts++;
+    metrics.totalQueueTime   += Math.max(0, queueTime);
+    metrics.maxQueueTime      = Math.max(metrics.maxQueueTime, queueTime);
+    metrics.totalBlockedTime += Math.max(0, blockedTime);
+  }
+
+  @AnyThread
+  synchronized void onJobFinished(@NonNull String factoryKey, long runTime, @NonNull Job.Result result) {
+    FactoryMetrics metrics = getOrCreate(factoryKey);
+
+    metrics.totalRunTime += runTime;
+    metrics.maxRunTime    = Math.max(metrics.maxRunTime, runTime);
+    metrics.runTimeHistogram[getBucket(runTime)]++;
+
+    if (result.isSuccess()) {
+      metrics.successes++;
+    } else if (result.isRetry()) {
+      metrics.retries++;
+    } else {
+      metrics.failures++;
+    }
+  }
+
+  /**
+   * @return A copy of the current statistics for every factory that has run at least once, sorted
+   *         by total run time, descending.
+   */
+  @AnyThread
+  public synchronized @NonNull List<Snapshot> getSnapshots() {
+    List<Snapshot> snapshots = new ArrayList<>(metricsByFactory.size());
+
+    for (Map.Entry<String, FactoryMetrics> entry : metricsByFactory.entrySet()) {
+      snapshots.add(new Snapshot(entry.getKey(), entry.getValue()));
+    }
+
+    Collections.sort(snapshots, (lhs, rhs) -> Long.compare(rhs.getTotalRunTime(), lhs.getTotalRunTime()));
+
+    return snapshots;
+  }
+
+  private @NonNull FactoryMetrics getOrCreate(@NonNull String factoryKey) {
+    FactoryMetrics metrics = metricsByFactory.get(factoryKey);
+
+    if (metrics == null) {
+      metrics = new FactoryMetrics();
+      metricsByFactory.put(factoryKey, metrics);
+    }
+
+    return metrics;
+  }
+
+  private static int getBucket(long runTime) {
+    for (int i = 0; i < RUN_TIME_BUCKETS.length; i++) {
+      if (runTime < RUN_TIME_BUCKETS[i]) {
+        return i;
+      }
+    }
+    return RUN_TIME_BUCKETS.length;
+  }
+
+  private static final class FactoryMetrics {
+    private final long[] runTimeHistogram = new long[RUN_TIME_BUCKETS.length + 1];
+
+    private long starts;
+    private long successes;
+    private long retries;
+    private long failures;
+    private long totalQueueTime;
+    private long maxQueueTime;
+    private long totalBlockedTime;
+    private long totalRunTime;
+    private long maxRunTime;
+  }
+
+  public static final class Snapshot {
+    private final String factoryKey;
+    private final long   starts;
+    private final long   successes;
+    private final long   retries;
+    private final long   failures;
+    private final long   totalQueueTime;
+    private final long   maxQueueTime;
+    private final long   totalBlockedTime;
+    private final long   totalRunTime;
+    private final long   maxRunTime;
+    private final long[] runTimeHistogram;
+
+    private Snapshot(@NonNull String factoryKey, @NonNull FactoryMetrics metrics) {
+      this.factoryKey       = factoryKey;
+      this.starts           = metrics.starts;
+      this.successes        = metrics.successes;
+      this.retries          = metrics.retries;
+      this.failures         = metrics.failures;
+      this.totalQueueTime   = metrics.totalQueueTime;
+      this.maxQueueTime     = metrics.maxQueueTime;
+      this.totalBlockedTime = metrics.totalBlockedTime;
+      this.totalRunTime     = metrics.totalRunTime;
+      this.maxRunTime       = metrics.maxRunTime;
+      this.runTimeHistogram = Arrays.copyOf(metrics.runTimeHistogram, metrics.runTimeHistogram.length);
+    }
+
+    public @NonNull String getFactoryKey() {
+      return factoryKey;
+    }
+
+    public long getStarts() {
+      return starts;
+    }
+
+    public long getSuccesses() {
+      return successes;
+    }
+
+    public long getRetries() {
+      return retries;
+    }
+
+    public long getFailures() {
+      return failures;
+    }
+
+    public long getAverageQueueTime() {
+      return starts > 0 ? totalQueueTime / starts : 0;
+    }
+
+    public long getMaxQueueTime() {
+      return maxQueueTime;
+    }
+
+    public long getTotalBlockedTime() {
+      return totalBlockedTime;
+    }
+
+    public long getTotalRunTime() {
+      return totalRunTime;
+    }
+
+    public long getAverageRunTime() {
+      long finished = successes + retries + failures;
+      return finished > 0 ? totalRunTime / finished : 0;
+    }
+
+    public long getMaxRunTime() {
+      return maxRunTime;
+    }
+
+    /**
+     * @return The number of runs that fell into each bucket described by {@link #getRunTimeBuckets()}.
+     */
+    public @NonNull long[] getRunTimeHistogram() {
+      return Arrays.copyOf(runTimeHistogram, runTimeHistogram.length);
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package org.thoughtcrime.securesms.jobmanager;
+
+import androidx.annotation.NonNull;
+
+import org.thoughtcrime.securesms.jobmanager.persistence.JobSpec;
+
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Orders jobs that are ready to run into priority lanes, highest lane first.
+ *
+ * A job starts out in the lane given by {@link Job.Parameters.Builder#setPriority(int)}, and is
+ * promoted one lane for every {@link #AGING_INTERVAL} it has been waiting, up to
+ * {@link Job.Parameters#PRIORITY_HIGH}. Within a lane, jobs that were submitted at a higher
+ * priority go first, so aged background work can overtake default priority work but never a job
+ * that was submitted as high priority.
+ *
+ * The sort is meant to be applied to a list that is already in created order. It is stable, so
+ * jobs that end up in the same lane keep that order.
+ *
+ * Since aging only ever moves a job up, jobs that were submitted at the same priority can be kept
+ * ordered by {@link #getReadyTime(JobSpec)}, and the next job to run is then the best of the heads
+ * of those orderings. That is what {@link org.thoughtcrime.securesms.jobs.FastJobStorage} does,
+ * rather than sorting every pending job whenever a runner asks for one.
+ */
+public final class JobPriorityComparator implements Comparator<JobSpec> {
+
+  static final long AGING_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+  private final long now;
+
+  public JobPriorityComparator(long now) {
+    this.now = now;
+  }
+
+  @Override
+  public int compare(@NonNull JobSpec lhs, @NonNull JobSpec rhs) {
+    int lane = Integer.compare(getEffectivePriority(rhs), getEffectivePriority(lhs));
+
+    if (lane != 0) {
+      return lane;
+    }
+
+    return Integer.compare(getBasePriority(rhs), getBasePriority(lhs));
+  }
+
+  int getEffectivePriority(@NonNull JobSpec jobSpec) {
+    int  base   = getBasePriority(jobSpec);
+    long waited = now - getReadyTime(jobSpec);
+
+    if (waited <= 0 || base >= Job.Parameters.PRIORITY_HIGH) {
+      return base;
+    }
+
+    return (int) Math.min(Job.Parameters.PRIORITY_HIGH, base + waited / AGING_INTERVAL);
+  }
+
+  /**
+   * @return The lane a job was submitted in, which is where it starts out before it is aged.
+   */
+  public static int getBasePriority(@NonNull JobSpec jobSpec) {
+    return Math.max(Job.Parameters.PRIORITY_LOW, Math.min(Job.Parameters.PRIORITY_HIGH, jobSpec.getPriority()));
+  }
+
+  /**
+   * @return The time the job has been waiting to run since, which is what it is aged by.
+   */
+  public static long getReadyTime(@NonNull JobSpec jobSpec) {
+    return Math.max(jobSpec.getCreateTime(), jobSpec.getNextRunAttemptTime());
+  }
+}
@@ -30,14 +30,16 @@ class JobRunner extends Thread {
   private final Application   application;
   private final int           id;
   private final JobController jobController;
+  private final JobMetrics    jobMetrics;
   private final JobPredicate  jobPredicate;
 
-  JobRunner(@NonNull Application application, int id, @NonNull JobController jobController, @NonNull JobPredicate predicate) {
+  JobRunner(@NonNull Application application, int id, @NonNull JobController jobController, @NonNull JobMetrics jobMetrics, @NonNull JobPredicate predicate) {
     super("signal-JobRunner-" + id);
 
     this.application   = application;
     this.id            = id;
     this.jobController = jobController;
+    this.jobMetrics    = jobMetrics;
     this.jobPredicate  = predicate;
   }
 
@@ -45,18 +47,23 @@ class JobRunner extends Thread {
   public synchronized void run() {
     //noinspection InfiniteLoopStatement
     while (true) {
-      Job        job    = jobController.pullNextEligibleJobForExecution(jobPredicate);
-      Job.Result result = run(job);
+      Job        job          = jobController.pullNextEligibleJobForExecution(jobPredicate);
+      long       runStartTime = System.currentTimeMillis();
+      Job.Result result       = run(job);
+
+      jobMetrics.onJobFinished(job.getFactoryKey(), System.currentTimeMillis() - runStartTime, result);
 
       jobController.onJobFinished(job);
 
       if (result.isSuccess()) {
         jobController.onSuccess(job, result.getOutputData());
+        jobController.flushJobStorage();
       } else if (result.isRetry()) {
         jobController.onRetry(job, result.getBackoffInterval());
         job.onRetry();
       } else if (result.isFailure()) {
         List<Job> dependents = jobController.onFailure(job);
+        jobController.flushJobStorage();
         job.onFailure();
         Stream.of(dependents).forEach(Job::onFailure);
 
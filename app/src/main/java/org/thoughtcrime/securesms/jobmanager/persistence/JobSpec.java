@@ -21,6 +21,7 @@ public final class JobSpec {
   private final String  serializedInputData;
   private final boolean isRunning;
   private final boolean memoryOnly;
+  private final int     priority;
 
   public JobSpec(@NonNull String id,
                  @NonNull String factoryKey,
@@ -33,7 +34,8 @@ public final class JobSpec {
                  @NonNull String serializedData,
                  @Nullable String serializedInputData,
                  boolean isRunning,
-                 boolean memoryOnly)
+                 boolean memoryOnly,
+                 int priority)
   {
     this.id                  = id;
     this.factoryKey          = factoryKey;
@@ -47,6 +49,7 @@ public final class JobSpec {
     this.serializedInputData = serializedInputData;
     this.isRunning           = isRunning;
     this.memoryOnly          = memoryOnly;
+    this.priority            = priority;
   }
 
   public @NonNull String getId() {
@@ -97,6 +100,10 @@ public final class JobSpec {
     return memoryOnly;
   }
 
+  public int getPriority() {
+    return priority;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
@@ -109,6 +116,7 @@ public final class JobSpec {
            lifespan == jobSpec.lifespan &&
            isRunning == jobSpec.isRunning &&
            memoryOnly == jobSpec.memoryOnly &&
+           priority == jobSpec.priority &&
            Objects.equals(id, jobSpec.id) &&
            Objects.equals(factoryKey, jobSpec.factoryKey) &&
            Objects.equals(queueKey, jobSpec.queueKey) &&
@@ -118,13 +126,13 @@ public final class JobSpec {
 
   @Override
   public int hashCode() {
-    return Objects.hash(id, factoryKey, queueKey, createTime, nextRunAttemptTime, runAttempt, maxAttempts, lifespan, serializedData, serializedInputData, isRunning, memoryOnly);
+    return Objects.hash(id, factoryKey, queueKey, createTime, nextRunAttemptTime, runAttempt, maxAttempts, lifespan, serializedData, serializedInputData, isRunning, memoryOnly, priority);
   }
 
   @SuppressLint("DefaultLocale")
   @Override
   public @NonNull String toString() {
-    return String.format("id: JOB::%s | factoryKey: %s | queueKey: %s | createTime: %d | nextRunAttemptTime: %d | runAttempt: %d | maxAttempts: %d | lifespan: %d | isRunning: %b | memoryOnly: %b",
-                         id, factoryKey, queueKey, createTime, nextRunAttemptTime, runAttempt, maxAttempts, lifespan, isRunning, memoryOnly);
+    return String.format("id: JOB::%s | factoryKey: %s | queueKey: %s | createTime: %d | nextRunAttemptTime: %d | runAttempt: %d | maxAttempts: %d | lifespan: %d | isRunning: %b | memoryOnly: %b | priority: %d",
+                         id, factoryKey, queueKey, createTime, nextRunAttemptTime, runAttempt, maxAttempts, lifespan, isRunning, memoryOnly, priority);
   }
 }
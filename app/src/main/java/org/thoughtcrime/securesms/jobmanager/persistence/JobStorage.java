@@ -25,6 +25,14 @@ public interface JobStorage {
   @WorkerThread
   @NonNull List<JobSpec> getPendingJobsWithNoDependenciesInCreatedOrder(long currentTime);
 
+  /**
+   * Hands the jobs that are ready to run to the visitor in the order runners should pick them up,
+   * until it returns false. Jobs are only put in order as they are visited, so finding the next
+   * job to run doesn't cost a sort of every pending job. The visitor must not modify the storage.
+   */
+  @WorkerThread
+  void visitPendingJobsInPriorityOrder(long currentTime, @NonNull PendingJobVisitor visitor);
+
   @WorkerThread
   @NonNull List<JobSpec> getJobsInQueue(@NonNull String queue);
 
@@ -49,6 +57,12 @@ public interface JobStorage {
   @WorkerThread
   void updateJobs(@NonNull List<JobSpec> jobSpecs);
 
+  /**
+   * Blocks until every write made so far has been persisted.
+   */
+  @WorkerThread
+  void flush();
+
   @WorkerThread
   void deleteJob(@NonNull String id);
 
@@ -66,4 +80,11 @@ public interface JobStorage {
 
   @WorkerThread
   @NonNull List<DependencySpec> getAllDependencySpecs();
+
+  interface PendingJobVisitor {
+    /**
+     * @return True to be handed the next job, false to stop.
+     */
+    boolean visit(@NonNull JobSpec jobSpec);
+  }
 }
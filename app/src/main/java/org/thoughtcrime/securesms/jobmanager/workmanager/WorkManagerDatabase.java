@@ -69,7 +69,8 @@ final class WorkManagerDatabase extends SQLiteOpenHelper {
                                                          dataSerializer.serialize(DataMigrator.convert(data)),
                                                          null,
                                                          false,
-                                                         false);
+                                                         false,
+                                                         Job.Parameters.PRIORITY_DEFAULT);
 
 
 
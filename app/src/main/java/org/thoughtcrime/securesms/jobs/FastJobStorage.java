@@ -2,48 +2,97 @@ package org.thoughtcrime.securesms.jobs;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
-import com.annimon.stream.Collectors;
 import com.annimon.stream.Stream;
 
 import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.database.JobDatabase;
 import org.thoughtcrime.securesms.jobmanager.Job;
+import org.thoughtcrime.securesms.jobmanager.JobPriorityComparator;
 import org.thoughtcrime.securesms.jobmanager.persistence.ConstraintSpec;
 import org.thoughtcrime.securesms.jobmanager.persistence.DependencySpec;
 import org.thoughtcrime.securesms.jobmanager.persistence.FullSpec;
 import org.thoughtcrime.securesms.jobmanager.persistence.JobSpec;
 import org.thoughtcrime.securesms.jobmanager.persistence.JobStorage;
 import org.thoughtcrime.securesms.util.Util;
-import org.whispersystems.libsignal.util.guava.Optional;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
-
+import java.util.TreeSet;
+
+/**
+ * An in-memory cache of the {@link JobDatabase} that keeps a set of indexes so that the queries
+ * made by the job runners don't need to scan every job.
+ *
+ * Jobs are grouped by queue (a job without a queue is in a group of its own). Only the first job
+ * of a group can ever run, so we keep an ordered set of the group heads that are not running and
+ * have no outstanding dependencies. Finding the jobs that are ready to run is then proportional
+ * to the number of groups with runnable work, rather than the total number of jobs. Those heads
+ * are also kept in a lane per submitted priority, ordered by how long they've been ready to run,
+ * so that picking the next job by {@link JobPriorityComparator} only has to compare lane heads.
+ *
+ * Writes to the database are handed to a {@link JobWriteJournal}, which commits them in batches.
+ * The only write we wait on here is the insert of a job that is about to start running, so that a
+ * job never runs before it has been persisted. Anything else that needs to be durable (e.g. the
+ * delete of a finished job, so it's never run again) is waited on with {@link #flush()}, which
+ * doesn't hold this class's lock while it blocks.
+ */
 public class FastJobStorage implements JobStorage {
 
   private static final String TAG = Log.tag(FastJobStorage.class);
 
-  private final JobDatabase jobDatabase;
+  private static final long DEFAULT_MAX_FLUSH_DELAY = 100;
+
+  private final JobDatabase     jobDatabase;
+  private final JobWriteJournal journal;
 
-  private final List<JobSpec>                     jobs;
+  private final Map<String, JobSpec>              jobs;
+  private final Map<String, Long>                 insertionOrder;
+  private final Map<String, TreeSet<JobSpec>>     jobsByQueue;
+  private final Map<String, Integer>              jobCountByFactory;
   private final Map<String, List<ConstraintSpec>> constraintsByJobId;
   private final Map<String, List<DependencySpec>> dependenciesByJobId;
+  private final Map<String, List<DependencySpec>> dependentsByJobId;
+  private final Map<String, JobSpec>              eligibleJobsByQueue;
+  private final Map<String, JobSpec>              eligibleJobsWithoutQueue;
+  private final TreeSet<JobSpec>                  eligibleJobs;
+  private final List<TreeSet<JobSpec>>            eligibleJobsByLane;
+
+  private long nextInsertionOrder;
 
   public FastJobStorage(@NonNull JobDatabase jobDatabase) {
-    this.jobDatabase         = jobDatabase;
-    this.jobs                = new ArrayList<>();
-    this.constraintsByJobId  = new HashMap<>();
-    this.dependenciesByJobId = new HashMap<>();
+    this(jobDatabase, DEFAULT_MAX_FLUSH_DELAY);
+  }
+
+  @VisibleForTesting
+  FastJobStorage(@NonNull JobDatabase jobDatabase, long maxFlushDelay) {
+    this.jobDatabase              = jobDatabase;
+    this.journal                  = new JobWriteJournal(jobDatabase, maxFlushDelay);
+    this.jobs                     = new LinkedHashMap<>();
+    this.insertionOrder           = new HashMap<>();
+    this.jobsByQueue              = new HashMap<>();
+    this.jobCountByFactory        = new HashMap<>();
+    this.constraintsByJobId       = new HashMap<>();
+    this.dependenciesByJobId      = new HashMap<>();
+    this.dependentsByJobId        = new HashMap<>();
+    this.eligibleJobsByQueue      = new HashMap<>();
+    this.eligibleJobsWithoutQueue = new HashMap<>();
+    this.eligibleJobs             = new TreeSet<>(new CreatedOrderComparator());
+    this.eligibleJobsByLane       = new ArrayList<>(Job.Parameters.PRIORITY_HIGH - Job.Parameters.PRIORITY_LOW + 1);
+
+    for (int priority = Job.Parameters.PRIORITY_LOW; priority <= Job.Parameters.PRIORITY_HIGH; priority++) {
+      eligibleJobsByLane.add(new TreeSet<>(new ReadyOrderComparator()));
+    }
   }
 
   @Override
@@ -52,8 +101,6 @@ public class FastJobStorage implements JobStorage {
     List<ConstraintSpec> constraintSpecs = jobDatabase.getAllConstraintSpecs();
     List<DependencySpec> dependencySpecs = jobDatabase.getAllDependencySpecs();
 
-    jobs.addAll(jobSpecs);
-
     for (ConstraintSpec constraintSpec: constraintSpecs) {
       List<ConstraintSpec> jobConstraints = Util.getOrDefault(constraintsByJobId, constraintSpec.getJobSpecId(), new LinkedList<>());
       jobConstraints.add(constraintSpec);
@@ -61,9 +108,15 @@ public class FastJobStorage implements JobStorage {
     }
 
     for (DependencySpec dependencySpec : dependencySpecs) {
-      List<DependencySpec> jobDependencies = Util.getOrDefault(dependenciesByJobId, dependencySpec.getJobId(), new LinkedList<>());
-      jobDependencies.add(dependencySpec);
-      dependenciesByJobId.put(dependencySpec.getJobId(), jobDependencies);
+      addDependency(dependencySpec);
+    }
+
+    for (JobSpec jobSpec : jobSpecs) {
+      addToIndexes(jobSpec);
+    }
+
+    for (JobSpec jobSpec : jobSpecs) {
+      updateEligibility(jobSpec.getQueueKey(), jobSpec.getId());
     }
   }
 
@@ -71,200 +124,224 @@ public class FastJobStorage implements JobStorage {
   public synchronized void insertJobs(@NonNull List<FullSpec> fullSpecs) {
     List<FullSpec> durable = Stream.of(fullSpecs).filterNot(FullSpec::isMemoryOnly).toList();
     if (durable.size() > 0) {
-      jobDatabase.insertJobs(durable);
+      journal.insertJobs(durable);
     }
 
     for (FullSpec fullSpec : fullSpecs) {
-      jobs.add(fullSpec.getJobSpec());
-      constraintsByJobId.put(fullSpec.getJobSpec().getId(), fullSpec.getConstraintSpecs());
-      dependenciesByJobId.put(fullSpec.getJobSpec().getId(), fullSpec.getDependencySpecs());
+      JobSpec jobSpec = fullSpec.getJobSpec();
+
+      constraintsByJobId.put(jobSpec.getId(), fullSpec.getConstraintSpecs());
+
+      for (DependencySpec dependencySpec : fullSpec.getDependencySpecs()) {
+        addDependency(dependencySpec);
+      }
+
+      addToIndexes(jobSpec);
+      updateEligibility(jobSpec.getQueueKey(), jobSpec.getId());
     }
   }
 
   @Override
   public synchronized @Nullable JobSpec getJobSpec(@NonNull String id) {
-    for (JobSpec jobSpec : jobs) {
-      if (jobSpec.getId().equals(id)) {
-        return jobSpec;
-      }
-    }
-    return null;
+    return jobs.get(id);
   }
 
   @Override
   public synchronized @NonNull List<JobSpec> getAllJobSpecs() {
-    return new ArrayList<>(jobs);
+    return new ArrayList<>(jobs.values());
   }
 
   @Override
   public synchronized @NonNull List<JobSpec> getPendingJobsWithNoDependenciesInCreatedOrder(long currentTime) {
-    Optional<JobSpec> migrationJob = getMigrationJob();
+    JobSpec migrationJob = getMigrationJob();
 
-    if (migrationJob.isPresent() && !migrationJob.get().isRunning() && migrationJob.get().getNextRunAttemptTime() <= currentTime) {
-      return Collections.singletonList(migrationJob.get());
-    } else if (migrationJob.isPresent()) {
+    if (migrationJob != null && !migrationJob.isRunning() && migrationJob.getNextRunAttemptTime() <= currentTime) {
+      return Collections.singletonList(migrationJob);
+    } else if (migrationJob != null) {
       return Collections.emptyList();
     } else {
-      return Stream.of(jobs)
-                   .groupBy(jobSpec -> {
-                     String queueKey = jobSpec.getQueueKey();
-                     if (queueKey != null) {
-                       return queueKey;
-                     } else {
-                       return jobSpec.getId();
-                     }
-                   })
-                   .map(byQueueKey ->
-                     Stream.of(byQueueKey.getValue()).sorted((j1, j2) -> Long.compare(j1.getCreateTime(), j2.getCreateTime()))
-                           .findFirst()
-                           .orElse(null)
-                   )
-                   .withoutNulls()
-                   .filter(j -> {
-                     List<DependencySpec> dependencies = dependenciesByJobId.get(j.getId());
-                     return dependencies == null || dependencies.isEmpty();
-                   })
-                   .filterNot(JobSpec::isRunning)
-                   .filter(j -> j.getNextRunAttemptTime() <= currentTime)
-                   .sorted((j1, j2) -> Long.compare(j1.getCreateTime(), j2.getCreateTime()))
-                   .toList();
+      List<JobSpec> pending = new ArrayList<>(eligibleJobs.size());
+
+      for (JobSpec jobSpec : eligibleJobs) {
+        if (jobSpec.getNextRunAttemptTime() <= currentTime) {
+          pending.add(jobSpec);
+        }
+      }
+
+      return pending;
     }
   }
 
   @Override
-  public synchronized @NonNull List<JobSpec> getJobsInQueue(@NonNull String queue) {
-    return Stream.of(jobs)
-                 .filter(j -> queue.equals(j.getQueueKey()))
-                 .sorted((j1, j2) -> Long.compare(j1.getCreateTime(), j2.getCreateTime()))
-                 .toList();
-  }
+  public synchronized void visitPendingJobsInPriorityOrder(long currentTime, @NonNull PendingJobVisitor visitor) {
+    JobSpec migrationJob = getMigrationJob();
+
+    if (migrationJob != null) {
+      if (!migrationJob.isRunning() && migrationJob.getNextRunAttemptTime() <= currentTime) {
+        visitor.visit(migrationJob);
+      }
+      return;
+    }
+
+    JobPriorityComparator   comparator = new JobPriorityComparator(currentTime);
+    List<Iterator<JobSpec>> lanes      = new ArrayList<>(eligibleJobsByLane.size());
+    JobSpec[]               heads      = new JobSpec[eligibleJobsByLane.size()];
+
+    for (int i = 0; i < heads.length; i++) {
+      lanes.add(eligibleJobsByLane.get(i).iterator());
+      heads[i] = nextPendingJob(lanes.get(i), currentTime);
+    }
+
+    while (true) {
+      int best = -1;
+
+      for (int i = 0; i < heads.length; i++) {
+        if (heads[i] != null && (best == -1 || comparator.compare(heads[i], heads[best]) < 0)) {
+          best = i;
+        }
+      }
 
-  private Optional<JobSpec> getMigrationJob() {
-    return Optional.fromNullable(Stream.of(jobs)
-                                       .filter(j -> Job.Parameters.MIGRATION_QUEUE_KEY.equals(j.getQueueKey()))
-                                       .filter(this::firstInQueue)
-                                       .findFirst()
-                                       .orElse(null));
+      if (best == -1 || !visitor.visit(heads[best])) {
+        return;
+      }
+
+      heads[best] = nextPendingJob(lanes.get(best), currentTime);
+    }
   }
 
-  private boolean firstInQueue(@NonNull JobSpec job) {
-    if (job.getQueueKey() == null) {
-      return true;
+  /**
+   * @return The next job in the lane that is due to run, skipping any that are waiting on a retry.
+   */
+  private static @Nullable JobSpec nextPendingJob(@NonNull Iterator<JobSpec> lane, long currentTime) {
+    while (lane.hasNext()) {
+      JobSpec jobSpec = lane.next();
+
+      if (jobSpec.getNextRunAttemptTime() <= currentTime) {
+        return jobSpec;
+      }
     }
 
-    return Stream.of(jobs)
-                 .filter(j -> Util.equals(j.getQueueKey(), job.getQueueKey()))
-                 .sorted((j1, j2) -> Long.compare(j1.getCreateTime(), j2.getCreateTime()))
-                 .toList()
-                 .get(0)
-                 .equals(job);
+    return null;
+  }
+
+  @Override
+  public synchronized @NonNull List<JobSpec> getJobsInQueue(@NonNull String queue) {
+    TreeSet<JobSpec> inQueue = jobsByQueue.get(queue);
+    return inQueue != null ? new ArrayList<>(inQueue) : new ArrayList<>();
+  }
+
+  private @Nullable JobSpec getMigrationJob() {
+    TreeSet<JobSpec> migrationQueue = jobsByQueue.get(Job.Parameters.MIGRATION_QUEUE_KEY);
+    return migrationQueue != null ? migrationQueue.first() : null;
   }
 
   @Override
   public synchronized int getJobCountForFactory(@NonNull String factoryKey) {
-    return (int) Stream.of(jobs)
-                       .filter(j -> j.getFactoryKey().equals(factoryKey))
-                       .count();
+    return Util.getOrDefault(jobCountByFactory, factoryKey, 0);
   }
 
   @Override
   public synchronized int getJobCountForFactoryAndQueue(@NonNull String factoryKey, @NonNull String queueKey) {
-    return (int) Stream.of(jobs)
-                       .filter(j -> factoryKey.equals(j.getFactoryKey()) &&
-                                    queueKey.equals(j.getQueueKey()))
-                       .count();
+    TreeSet<JobSpec> inQueue = jobsByQueue.get(queueKey);
+
+    if (inQueue == null) {
+      return 0;
+    }
+
+    int count = 0;
+    for (JobSpec jobSpec : inQueue) {
+      if (factoryKey.equals(jobSpec.getFactoryKey())) {
+        count++;
+      }
+    }
+    return count;
   }
 
   @Override
-  public boolean areQueuesEmpty(@NonNull Set<String> queueKeys) {
-    return Stream.of(jobs)
-                 .noneMatch(j -> j.getQueueKey() != null && queueKeys.contains(j.getQueueKey()));
+  public synchronized boolean areQueuesEmpty(@NonNull Set<String> queueKeys) {
+    for (String queueKey : queueKeys) {
+      if (jobsByQueue.containsKey(queueKey)) {
+        return false;
+      }
+    }
+    return true;
   }
 
   @Override
   public synchronized void updateJobRunningState(@NonNull String id, boolean isRunning) {
-    JobSpec job = getJobById(id);
-    if (job == null || !job.isMemoryOnly()) {
-      jobDatabase.updateJobRunningState(id, isRunning);
-    }
-
-    ListIterator<JobSpec> iter = jobs.listIterator();
-
-    while (iter.hasNext()) {
-      JobSpec existing = iter.next();
-      if (existing.getId().equals(id)) {
-        JobSpec updated = new JobSpec(existing.getId(),
-                                      existing.getFactoryKey(),
-                                      existing.getQueueKey(),
-                                      existing.getCreateTime(),
-                                      existing.getNextRunAttemptTime(),
-                                      existing.getRunAttempt(),
-                                      existing.getMaxAttempts(),
-                                      existing.getLifespan(),
-                                      existing.getSerializedData(),
-                                      existing.getSerializedInputData(),
-                                      isRunning,
-                                      existing.isMemoryOnly());
-        iter.set(updated);
+    JobSpec existing = getJobById(id);
+    if (existing == null || !existing.isMemoryOnly()) {
+      journal.updateJobRunningState(id, isRunning);
+
+      if (isRunning && journal.isInsertPending(id)) {
+        journal.flush();
       }
     }
+
+    if (existing != null) {
+      replaceJob(existing, new JobSpec(existing.getId(),
+                                       existing.getFactoryKey(),
+                                       existing.getQueueKey(),
+                                       existing.getCreateTime(),
+                                       existing.getNextRunAttemptTime(),
+                                       existing.getRunAttempt(),
+                                       existing.getMaxAttempts(),
+                                       existing.getLifespan(),
+                                       existing.getSerializedData(),
+                                       existing.getSerializedInputData(),
+                                       isRunning,
+                                       existing.isMemoryOnly(),
+                                       existing.getPriority()));
+    }
   }
 
   @Override
   public synchronized void updateJobAfterRetry(@NonNull String id, boolean isRunning, int runAttempt, long nextRunAttemptTime, @NonNull String serializedData) {
-    JobSpec job = getJobById(id);
-    if (job == null || !job.isMemoryOnly()) {
-      jobDatabase.updateJobAfterRetry(id, isRunning, runAttempt, nextRunAttemptTime, serializedData);
-    }
-
-    ListIterator<JobSpec> iter = jobs.listIterator();
-
-    while (iter.hasNext()) {
-      JobSpec existing = iter.next();
-      if (existing.getId().equals(id)) {
-        JobSpec updated = new JobSpec(existing.getId(),
-                                      existing.getFactoryKey(),
-                                      existing.getQueueKey(),
-                                      existing.getCreateTime(),
-                                      nextRunAttemptTime,
-                                      runAttempt,
-                                      existing.getMaxAttempts(),
-                                      existing.getLifespan(),
-                                      serializedData,
-                                      existing.getSerializedInputData(),
-                                      isRunning,
-                                      existing.isMemoryOnly());
-        iter.set(updated);
-      }
+    JobSpec existing = getJobById(id);
+    if (existing == null || !existing.isMemoryOnly()) {
+      journal.updateJobAfterRetry(id, isRunning, runAttempt, nextRunAttemptTime, serializedData);
+    }
+
+    if (existing != null) {
+      replaceJob(existing, new JobSpec(existing.getId(),
+                                       existing.getFactoryKey(),
+                                       existing.getQueueKey(),
+                                       existing.getCreateTime(),
+                                       nextRunAttemptTime,
+                                       runAttempt,
+                                       existing.getMaxAttempts(),
+                                       existing.getLifespan(),
+                                       serializedData,
+                                       existing.getSerializedInputData(),
+                                       isRunning,
+                                       existing.isMemoryOnly(),
+                                       existing.getPriority()));
     }
   }
 
   @Override
   public synchronized void updateAllJobsToBePending() {
-    jobDatabase.updateAllJobsToBePending();
-
-    ListIterator<JobSpec> iter = jobs.listIterator();
-
-    while (iter.hasNext()) {
-      JobSpec existing = iter.next();
-      JobSpec updated  = new JobSpec(existing.getId(),
-                                     existing.getFactoryKey(),
-                                     existing.getQueueKey(),
-                                     existing.getCreateTime(),
-                                     existing.getNextRunAttemptTime(),
-                                     existing.getRunAttempt(),
-                                     existing.getMaxAttempts(),
-                                     existing.getLifespan(),
-                                     existing.getSerializedData(),
-                                     existing.getSerializedInputData(),
-                                     false,
-                                     existing.isMemoryOnly());
-      iter.set(updated);
+    journal.updateAllJobsToBePending();
+
+    for (JobSpec existing : new ArrayList<>(jobs.values())) {
+      replaceJob(existing, new JobSpec(existing.getId(),
+                                       existing.getFactoryKey(),
+                                       existing.getQueueKey(),
+                                       existing.getCreateTime(),
+                                       existing.getNextRunAttemptTime(),
+                                       existing.getRunAttempt(),
+                                       existing.getMaxAttempts(),
+                                       existing.getLifespan(),
+                                       existing.getSerializedData(),
+                                       existing.getSerializedInputData(),
+                                       false,
+                                       existing.isMemoryOnly(),
+                                       existing.getPriority()));
     }
   }
 
   @Override
-  public void updateJobs(@NonNull List<JobSpec> jobSpecs) {
+  public synchronized void updateJobs(@NonNull List<JobSpec> jobSpecs) {
     List<JobSpec> durable = new ArrayList<>(jobSpecs.size());
     for (JobSpec update : jobSpecs) {
       JobSpec found = getJobById(update.getId());
@@ -274,18 +351,14 @@ public class FastJobStorage implements JobStorage {
     }
 
     if (durable.size() > 0) {
-      jobDatabase.updateJobs(durable);
+      journal.updateJobs(durable);
     }
 
-    Map<String, JobSpec>  updates = Stream.of(jobSpecs).collect(Collectors.toMap(JobSpec::getId));
-    ListIterator<JobSpec> iter    = jobs.listIterator();
-
-    while (iter.hasNext()) {
-      JobSpec existing = iter.next();
-      JobSpec update   = updates.get(existing.getId());
+    for (JobSpec update : jobSpecs) {
+      JobSpec existing = jobs.get(update.getId());
 
-      if (update != null) {
-        iter.set(update);
+      if (existing != null) {
+        replaceJob(existing, update);
       }
     }
   }
@@ -306,34 +379,55 @@ public class FastJobStorage implements JobStorage {
     }
 
     if (durableIds.size() > 0) {
-      jobDatabase.deleteJobs(durableIds);
+      journal.deleteJobs(durableIds);
     }
 
     Set<String> deleteIds = new HashSet<>(jobIds);
 
-    Iterator<JobSpec> jobIter = jobs.iterator();
-    while (jobIter.hasNext()) {
-      if (deleteIds.contains(jobIter.next().getId())) {
-        jobIter.remove();
-      }
-    }
-
     for (String jobId : jobIds) {
+      JobSpec job = jobs.get(jobId);
+
       constraintsByJobId.remove(jobId);
-      dependenciesByJobId.remove(jobId);
 
-      for (Map.Entry<String, List<DependencySpec>> entry : dependenciesByJobId.entrySet()) {
-        Iterator<DependencySpec> depedencyIter = entry.getValue().iterator();
+      List<DependencySpec> dependencies = dependenciesByJobId.remove(jobId);
+      if (dependencies != null) {
+        for (DependencySpec dependency : dependencies) {
+          List<DependencySpec> siblings = dependentsByJobId.get(dependency.getDependsOnJobId());
+          if (siblings != null) {
+            siblings.remove(dependency);
+            if (siblings.isEmpty()) {
+              dependentsByJobId.remove(dependency.getDependsOnJobId());
+            }
+          }
+        }
+      }
+
+      List<DependencySpec> dependents = dependentsByJobId.remove(jobId);
+      if (dependents != null) {
+        for (DependencySpec dependent : dependents) {
+          removeDependency(dependent);
 
-        while (depedencyIter.hasNext()) {
-          if (depedencyIter.next().getDependsOnJobId().equals(jobId)) {
-            depedencyIter.remove();
+          JobSpec dependentJob = jobs.get(dependent.getJobId());
+          if (dependentJob != null && !deleteIds.contains(dependentJob.getId())) {
+            updateEligibility(dependentJob.getQueueKey(), dependentJob.getId());
           }
         }
       }
+
+      if (job != null) {
+        removeFromIndexes(job);
+        jobs.remove(jobId);
+        updateEligibility(job.getQueueKey(), jobId);
+        insertionOrder.remove(jobId);
+      }
     }
   }
 
+  @Override
+  public void flush() {
+    journal.flush();
+  }
+
   @Override
   public synchronized @NonNull List<ConstraintSpec> getConstraintSpecs(@NonNull String jobId) {
     return Util.getOrDefault(constraintsByJobId, jobId, new LinkedList<>());
@@ -355,7 +449,10 @@ public class FastJobStorage implements JobStorage {
     Set<String> activeJobIds;
 
     do {
-      activeJobIds = Stream.of(layer).map(DependencySpec::getJobId).collect(Collectors.toSet());
+      activeJobIds = new HashSet<>();
+      for (DependencySpec dependencySpec : layer) {
+        activeJobIds.add(dependencySpec.getJobId());
+      }
       layer.clear();
 
       for (String activeJobId : activeJobIds) {
@@ -369,15 +466,12 @@ public class FastJobStorage implements JobStorage {
   }
 
   private @NonNull List<DependencySpec> getSingleLayerOfDependencySpecsThatDependOnJob(@NonNull String jobSpecId) {
-    return Stream.of(dependenciesByJobId.entrySet())
-                 .map(Map.Entry::getValue)
-                 .flatMap(Stream::of)
-                 .filter(j -> j.getDependsOnJobId().equals(jobSpecId))
-                 .toList();
+    List<DependencySpec> dependents = dependentsByJobId.get(jobSpecId);
+    return dependents != null ? new ArrayList<>(dependents) : new ArrayList<>();
   }
 
   @Override
-  public @NonNull List<DependencySpec> getAllDependencySpecs() {
+  public synchronized @NonNull List<DependencySpec> getAllDependencySpecs() {
     return Stream.of(dependenciesByJobId)
                  .map(Map.Entry::getValue)
                  .flatMap(Stream::of)
@@ -385,12 +479,177 @@ public class FastJobStorage implements JobStorage {
   }
 
   private JobSpec getJobById(@NonNull String id) {
-    for (JobSpec job : jobs) {
-      if (job.getId().equals(id)) {
-        return job;
+    JobSpec job = jobs.get(id);
+    if (job == null) {
+      Log.w(TAG, "Was looking for job with ID JOB::" + id + ", but it doesn't exist in memory!");
+    }
+    return job;
+  }
+
+  /**
+   * Swaps out a job for an updated copy, keeping every index consistent. The job keeps its
+   * position in insertion order, which breaks ties between jobs with the same create time.
+   */
+  private void replaceJob(@NonNull JobSpec existing, @NonNull JobSpec updated) {
+    removeFromIndexes(existing);
+    addToIndexes(updated);
+
+    if (!Util.equals(existing.getQueueKey(), updated.getQueueKey())) {
+      updateEligibility(existing.getQueueKey(), existing.getId());
+    }
+
+    updateEligibility(updated.getQueueKey(), updated.getId());
+  }
+
+  private void addToIndexes(@NonNull JobSpec jobSpec) {
+    if (!insertionOrder.containsKey(jobSpec.getId())) {
+      insertionOrder.put(jobSpec.getId(), nextInsertionOrder++);
+    }
+
+    jobs.put(jobSpec.getId(), jobSpec);
+    jobCountByFactory.put(jobSpec.getFactoryKey(), getJobCountForFactory(jobSpec.getFactoryKey()) + 1);
+
+    if (jobSpec.getQueueKey() != null) {
+      TreeSet<JobSpec> inQueue = jobsByQueue.get(jobSpec.getQueueKey());
+
+      if (inQueue == null) {
+        inQueue = new TreeSet<>(new CreatedOrderComparator());
+        jobsByQueue.put(jobSpec.getQueueKey(), inQueue);
       }
+
+      inQueue.add(jobSpec);
+    }
+  }
+
+  /**
+   * Removes the job from the per-queue and per-factory indexes. The job itself is left in
+   * {@link #jobs}, since it's either about to be replaced or removed by the caller.
+   */
+  private void removeFromIndexes(@NonNull JobSpec jobSpec) {
+    int factoryCount = getJobCountForFactory(jobSpec.getFactoryKey()) - 1;
+    if (factoryCount > 0) {
+      jobCountByFactory.put(jobSpec.getFactoryKey(), factoryCount);
+    } else {
+      jobCountByFactory.remove(jobSpec.getFactoryKey());
+    }
+
+    if (jobSpec.getQueueKey() != null) {
+      TreeSet<JobSpec> inQueue = jobsByQueue.get(jobSpec.getQueueKey());
+
+      if (inQueue != null) {
+        inQueue.remove(jobSpec);
+
+        if (inQueue.isEmpty()) {
+          jobsByQueue.remove(jobSpec.getQueueKey());
+        }
+      }
+    }
+  }
+
+  /**
+   * Re-evaluates which job (if any) from the given group is ready to run. A group is either a
+   * queue, or a single job that has no queue.
+   */
+  private void updateEligibility(@Nullable String queueKey, @NonNull String jobId) {
+    Map<String, JobSpec> eligibleByGroup = queueKey != null ? eligibleJobsByQueue : eligibleJobsWithoutQueue;
+    String               groupKey        = queueKey != null ? queueKey : jobId;
+
+    JobSpec previous = eligibleByGroup.remove(groupKey);
+    if (previous != null) {
+      eligibleJobs.remove(previous);
+      getLane(previous).remove(previous);
+    }
+
+    JobSpec head;
+
+    if (queueKey != null) {
+      TreeSet<JobSpec> inQueue = jobsByQueue.get(queueKey);
+      head = inQueue != null ? inQueue.first() : null;
+    } else {
+      head = jobs.get(jobId);
+      if (head != null && head.getQueueKey() != null) {
+        head = null;
+      }
+    }
+
+    if (head != null && !head.isRunning() && !hasDependencies(head.getId())) {
+      eligibleByGroup.put(groupKey, head);
+      eligibleJobs.add(head);
+      getLane(head).add(head);
+    }
+  }
+
+  private @NonNull TreeSet<JobSpec> getLane(@NonNull JobSpec jobSpec) {
+    return eligibleJobsByLane.get(JobPriorityComparator.getBasePriority(jobSpec) - Job.Parameters.PRIORITY_LOW);
+  }
+
+  private boolean hasDependencies(@NonNull String jobId) {
+    List<DependencySpec> dependencies = dependenciesByJobId.get(jobId);
+    return dependencies != null && !dependencies.isEmpty();
+  }
+
+  private void addDependency(@NonNull DependencySpec dependencySpec) {
+    List<DependencySpec> dependencies = dependenciesByJobId.get(dependencySpec.getJobId());
+    if (dependencies == null) {
+      dependencies = new LinkedList<>();
+      dependenciesByJobId.put(dependencySpec.getJobId(), dependencies);
+    }
+    dependencies.add(dependencySpec);
+
+    List<DependencySpec> dependents = dependentsByJobId.get(dependencySpec.getDependsOnJobId());
+    if (dependents == null) {
+      dependents = new LinkedList<>();
+      dependentsByJobId.put(dependencySpec.getDependsOnJobId(), dependents);
+    }
+    dependents.add(dependencySpec);
+  }
+
+  private void removeDependency(@NonNull DependencySpec dependencySpec) {
+    List<DependencySpec> dependencies = dependenciesByJobId.get(dependencySpec.getJobId());
+    if (dependencies != null) {
+      Iterator<DependencySpec> iter = dependencies.iterator();
+      while (iter.hasNext()) {
+        if (iter.next().getDependsOnJobId().equals(dependencySpec.getDependsOnJobId())) {
+          iter.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * Orders jobs by create time, falling back to the order in which they were added to storage.
+   */
+  private final class CreatedOrderComparator implements Comparator<JobSpec> {
+    @Override
+    public int compare(JobSpec o1, JobSpec o2) {
+      int result = Long.compare(o1.getCreateTime(), o2.getCreateTime());
+
+      if (result == 0) {
+        result = Long.compare(insertionOrder.get(o1.getId()), insertionOrder.get(o2.getId()));
+      }
+
+      return result;
+    }
+  }
+
+  /**
+   * Orders jobs by the time they became ready to run, and then the same as
+   * {@link CreatedOrderComparator}, so a job that has never been retried keeps its created order.
+   */
+  private final class ReadyOrderComparator implements Comparator<JobSpec> {
+    @Override
+    public int compare(JobSpec o1, JobSpec o2) {
+      int result = Long.compare(JobPriorityComparator.getReadyTime(o1), JobPriorityComparator.getReadyTime(o2));
+
+      if (result == 0) {
+        result = Long.compare(o1.getCreateTime(), o2.getCreateTime());
+      }
+
+      if (result == 0) {
+        result = Long.compare(insertionOrder.get(o1.getId()), insertionOrder.get(o2.getId()));
+      }
+
+      return result;
     }
-    Log.w(TAG, "Was looking for job with ID JOB::" + id + ", but it doesn't exist in memory!");
-    return null;
   }
 }
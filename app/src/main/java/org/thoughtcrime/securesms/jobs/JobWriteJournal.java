@@ -0,0 +1,248 @@
+package org.thoughtcrime.securesms.jobs;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.database.JobDatabase;
+import org.thoughtcrime.securesms.jobmanager.persistence.FullSpec;
+import org.thoughtcrime.securesms.jobmanager.persistence.JobSpec;
+import org.thoughtcrime.securesms.util.Util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A write-behind journal for the {@link JobDatabase}. Writes are recorded in order and committed
+ * in batches, each inside of a single transaction, on a dedicated thread. A write will be
+ * committed at most maxFlushDelay ms after it was recorded, or sooner if enough writes pile up.
+ *
+ * Because batches are applied strictly in the order they were recorded, an insert is always
+ * committed before any later update or delete of the same job. Callers that need a write to be
+ * durable before proceeding (e.g. before a job is allowed to run, or once a job has finished and
+ * been deleted) can use {@link #flush()}. Callers should make sure they aren't holding any locks
+ * others are waiting on while they do, since it blocks on the disk.
+ *
+ * If a batch fails to commit {@link #MAX_FLUSH_ATTEMPTS} times in a row, its writes are committed
+ * one at a time instead, and any that still fail are dropped, so that a single bad write can't
+ * hold up every write after it forever.
+ */
+final class JobWriteJournal {
+
+  private static final String TAG = Log.tag(JobWriteJournal.class);
+
+  private static final int MAX_BATCH_SIZE     = 500;
+  private static final int MAX_FLUSH_ATTEMPTS = 3;
+
+  private final JobDatabase jobDatabase;
+  private final long        maxFlushDelay;
+  private final Lock        flushLock;
+
+  @GuardedBy("this")
+  private final List<Write> pending;
+
+  @GuardedBy("this")
+  private final Set<String> pendingInserts;
+
+  @GuardedBy("this")
+  private WriterThread writerThread;
+
+  @GuardedBy("flushLock")
+  private int failedFlushes;
+
+  JobWriteJournal(@NonNull JobDatabase jobDatabase, long maxFlushDelay) {
+    this.jobDatabase    = jobDatabase;
+    this.maxFlushDelay  = maxFlushDelay;
+    this.flushLock      = new ReentrantLock();
+    this.pending        = new ArrayList<>();
+    this.pendingInserts = new HashSet<>();
+  }
+
+  void insertJobs(@NonNull List<FullSpec> fullSpecs) {
+    List<String> ids = new ArrayList<>(fullSpecs.size());
+    for (FullSpec fullSpec : fullSpecs) {
+      ids.add(fullSpec.getJobSpec().getId());
+    }
+
+    enqueue(new Write(db -> db.insertJobs(fullSpecs), ids));
+  }
+
+  void updateJobRunningState(@NonNull String id, boolean isRunning) {
+    enqueue(new Write(db -> db.updateJobRunningState(id, isRunning)));
+  }
+
+  void updateJobAfterRetry(@NonNull String id, boolean isRunning, int runAttempt, long nextRunAttemptTime, @NonNull String serializedData) {
+    enqueue(new Write(db -> db.updateJobAfterRetry(id, isRunning, runAttempt, nextRunAttemptTime, serializedData)));
+  }
+
+  void updateAllJobsToBePending() {
+    enqueue(new Write(JobDatabase::updateAllJobsToBePending));
+  }
+
+  void updateJobs(@NonNull List<JobSpec> jobSpecs) {
+    enqueue(new Write(db -> db.updateJobs(jobSpecs)));
+  }
+
+  void deleteJobs(@NonNull List<String> jobIds) {
+    enqueue(new Write(db -> db.deleteJobs(jobIds)));
+  }
+
+  /**
+   * @return True if the insert for the specified job has been recorded but not yet committed.
+   */
+  synchronized boolean isInsertPending(@NonNull String id) {
+    return pendingInserts.contains(id);
+  }
+
+  /**
+   * Commits every write recorded so far. Blocks until they are durable. If the commit fails, the
+   * writes are put back to be retried by the next flush, and the error is rethrown, unless they've
+   * already failed too many times, in which case the writes that can't be committed are dropped.
+   */
+  @WorkerThread
+  void flush() {
+    flushLock.lock();
+    try {
+      List<Write> batch;
+
+      synchronized (this) {
+        if (pending.isEmpty()) {
+          return;
+        }
+
+        batch = new ArrayList<>(pending);
+        pending.clear();
+      }
+
+      try {
+        jobDatabase.runInTransaction(() -> {
+          for (Write write : batch) {
+            write.operation.apply(jobDatabase);
+          }
+        });
+        failedFlushes = 0;
+      } catch (RuntimeException e) {
+        failedFlushes++;
+
+        if (failedFlushes < MAX_FLUSH_ATTEMPTS) {
+          synchronized (this) {
+            pending.addAll(0, batch);
+
+            // The writer thread stops after a failure, so let the next write start a new one.
+            if (Thread.currentThread() == writerThread) {
+              writerThread = null;
+            }
+          }
+          throw e;
+        }
+
+        Log.w(TAG, "Failed to commit " + batch.size() + " job writes " + failedFlushes + " times. Committing them one at a time.", e);
+        failedFlushes = 0;
+        applyIndividually(batch);
+      }
+
+      synchronized (this) {
+        for (Write write : batch) {
+          for (String id : write.insertedIds) {
+            pendingInserts.remove(id);
+          }
+        }
+      }
+    } finally {
+      flushLock.unlock();
+    }
+  }
+
+  @GuardedBy("flushLock")
+  private void applyIndividually(@NonNull List<Write> batch) {
+    int dropped = 0;
+
+    for (Write write : batch) {
+      try {
+        jobDatabase.runInTransaction(() -> write.operation.apply(jobDatabase));
+      } catch (RuntimeException e) {
+        Log.w(TAG, "Dropping a job write that can't be committed.", e);
+        dropped++;
+      }
+    }
+
+    if (dropped > 0) {
+      Log.w(TAG, "Dropped " + dropped + " of " + batch.size() + " job writes.");
+    }
+  }
+
+  private synchronized void enqueue(@NonNull Write write) {
+    pending.add(write);
+    pendingInserts.addAll(write.insertedIds);
+
+    if (writerThread == null) {
+      writerThread = new WriterThread();
+      writerThread.start();
+    }
+
+    if (pending.size() == 1 || pending.size() >= MAX_BATCH_SIZE) {
+      notifyAll();
+    }
+  }
+
+  private interface Operation {
+    void apply(@NonNull JobDatabase jobDatabase);
+  }
+
+  private static final class Write {
+    private final Operation    operation;
+    private final List<String> insertedIds;
+
+    Write(@NonNull Operation operation) {
+      this(operation, Collections.emptyList());
+    }
+
+    Write(@NonNull Operation operation, @NonNull List<String> insertedIds) {
+      this.operation   = operation;
+      this.insertedIds = insertedIds;
+    }
+  }
+
+  private final class WriterThread extends Thread {
+
+    WriterThread() {
+      super("signal-JobWriteJournal");
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      //noinspection InfiniteLoopStatement
+      while (true) {
+        synchronized (JobWriteJournal.this) {
+          while (pending.isEmpty()) {
+            Util.wait(JobWriteJournal.this, 0);
+          }
+
+          long deadline = System.currentTimeMillis() + maxFlushDelay;
+          long now      = System.currentTimeMillis();
+
+          while (!pending.isEmpty() && pending.size() < MAX_BATCH_SIZE && now < deadline) {
+            Util.wait(JobWriteJournal.this, deadline - now);
+            now = System.currentTimeMillis();
+          }
+        }
+
+        try {
+          flush();
+        } catch (RuntimeException e) {
+          // The failed writes are still pending. Stop here rather than retrying in a loop, and let
+          // the next write or flush start over.
+          Log.w(TAG, "Failed to commit job writes. Will retry on the next write.", e);
+          return;
+        }
+      }
+    }
+  }
+}
@@ -85,6 +85,7 @@ public class MultiDeviceContactUpdateJob extends BaseJob {
                            .setQueue("MultiDeviceContactUpdateJob")
                            .setLifespan(TimeUnit.DAYS.toMillis(1))
                            .setMaxAttempts(Parameters.UNLIMITED)
+                           .setPriority(Parameters.PRIORITY_LOW)
                            .build(),
          recipientId,
          forceSync);
@@ -11,7 +11,6 @@ import org.thoughtcrime.securesms.database.MessageDatabase.SyncMessageId;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.jobmanager.Data;
 import org.thoughtcrime.securesms.jobmanager.Job;
-import org.thoughtcrime.securesms.jobmanager.JobManager;
 import org.thoughtcrime.securesms.jobmanager.impl.NetworkConstraint;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientId;
@@ -27,6 +26,7 @@ import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -62,19 +62,25 @@ public class MultiDeviceReadUpdateJob extends BaseJob {
 
   /**
    * Enqueues all the necessary jobs for read receipts, ensuring that they're all within the
-   * maximum size.
+   * maximum size. Nothing is enqueued if there are no linked devices to tell.
    */
   public static void enqueue(@NonNull List<SyncMessageId> messageIds) {
-    JobManager                jobManager      = ApplicationDependencies.getJobManager();
-    List<List<SyncMessageId>> messageIdChunks = Util.chunk(messageIds, SendReadReceiptJob.MAX_TIMESTAMPS);
+    if (messageIds.isEmpty() || !TextSecurePreferences.isMultiDevice(ApplicationDependencies.getApplication())) {
+      return;
+    }
+
+    List<List<SyncMessageId>>      messageIdChunks = Util.chunk(messageIds, SendReadReceiptJob.MAX_TIMESTAMPS);
+    List<MultiDeviceReadUpdateJob> jobs            = new ArrayList<>(messageIdChunks.size());
 
     if (messageIdChunks.size() > 1) {
       Log.w(TAG, "Large receipt count! Had to break into multiple chunks. Total count: " + messageIds.size());
     }
 
     for (List<SyncMessageId> chunk : messageIdChunks) {
-      jobManager.add(new MultiDeviceReadUpdateJob(chunk));
+      jobs.add(new MultiDeviceReadUpdateJob(chunk));
     }
+
+    ApplicationDependencies.getJobManager().startChain(jobs).enqueue();
   }
 
   @Override
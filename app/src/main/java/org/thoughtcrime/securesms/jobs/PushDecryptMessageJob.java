@@ -4,9 +4,13 @@ import android.app.PendingIntent;
 import android.content.Context;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 import androidx.core.app.NotificationManagerCompat;
 
+import com.annimon.stream.Stream;
+
+import org.signal.core.util.concurrent.SignalExecutors;
 import org.signal.core.util.logging.Log;
 import org.signal.libsignal.metadata.InvalidMetadataMessageException;
 import org.signal.libsignal.metadata.InvalidMetadataVersionException;
@@ -35,6 +39,7 @@ import org.thoughtcrime.securesms.groups.GroupId;
 import org.thoughtcrime.securesms.jobmanager.Data;
 import org.thoughtcrime.securesms.jobmanager.Job;
 import org.thoughtcrime.securesms.jobmanager.JobManager;
+import org.thoughtcrime.securesms.messages.DecryptionPipeline;
 import org.thoughtcrime.securesms.messages.MessageContentProcessor;
 import org.thoughtcrime.securesms.messages.MessageContentProcessor.ExceptionMetadata;
 import org.thoughtcrime.securesms.messages.MessageContentProcessor.MessageState;
@@ -43,10 +48,12 @@ import org.thoughtcrime.securesms.messages.MessageDecryptionUtil.DecryptionResul
 import org.thoughtcrime.securesms.notifications.NotificationChannels;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.transport.RetryLaterException;
+import org.thoughtcrime.securesms.util.Base64;
 import org.thoughtcrime.securesms.util.GroupUtil;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.whispersystems.libsignal.state.SignalProtocolStore;
 import org.whispersystems.libsignal.util.guava.Optional;
+import org.whispersystems.signalservice.api.SignalSessionLock;
 import org.whispersystems.signalservice.api.crypto.SignalServiceCipher;
 import org.whispersystems.signalservice.api.messages.SignalServiceContent;
 import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
@@ -57,10 +64,19 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Decrypts an envelope. Enqueues a separate job, {@link PushProcessMessageJob}, to actually insert
- * the result into our database.
+ * Decrypts an envelope, or a batch of them. Enqueues a separate job, {@link PushProcessMessageJob},
+ * to actually insert each result into our database.
+ *
+ * Batches are decrypted with a {@link DecryptionPipeline}, sharded by sender. The session lock
+ * still decrypts them one at a time. The resulting jobs are enqueued in the order the envelopes
+ * arrived, each as soon as its envelope is decrypted, so an envelope that fails doesn't lose the
+ * rest of the batch.
  */
 public final class PushDecryptMessageJob extends BaseJob {
 
@@ -71,28 +87,42 @@ public final class PushDecryptMessageJob extends BaseJob {
 
   private static final String KEY_SMS_MESSAGE_ID = "sms_message_id";
   private static final String KEY_ENVELOPE       = "envelope";
+  private static final String KEY_ENVELOPES      = "envelopes";
+
+  private static final Executor DECRYPTION_EXECUTOR = newDecryptionExecutor();
 
-  private final long                  smsMessageId;
-  private final SignalServiceEnvelope envelope;
+  private final long                        smsMessageId;
+  private final List<SignalServiceEnvelope> envelopes;
 
   public PushDecryptMessageJob(Context context, @NonNull SignalServiceEnvelope envelope) {
     this(context, envelope, -1);
   }
 
   public PushDecryptMessageJob(Context context, @NonNull SignalServiceEnvelope envelope, long smsMessageId) {
+    this(context, Collections.singletonList(envelope), smsMessageId);
+  }
+
+  /**
+   * @param envelopes Envelopes in the order they were received.
+   */
+  public PushDecryptMessageJob(Context context, @NonNull List<SignalServiceEnvelope> envelopes) {
+    this(context, envelopes, -1);
+  }
+
+  private PushDecryptMessageJob(Context context, @NonNull List<SignalServiceEnvelope> envelopes, long smsMessageId) {
     this(new Parameters.Builder()
                            .setQueue(QUEUE)
                            .setMaxAttempts(Parameters.UNLIMITED)
                            .build(),
-         envelope,
+         envelopes,
          smsMessageId);
     setContext(context);
   }
 
-  private PushDecryptMessageJob(@NonNull Parameters parameters, @NonNull SignalServiceEnvelope envelope, long smsMessageId) {
+  private PushDecryptMessageJob(@NonNull Parameters parameters, @NonNull List<SignalServiceEnvelope> envelopes, long smsMessageId) {
     super(parameters);
 
-    this.envelope     = envelope;
+    this.envelopes    = envelopes;
     this.smsMessageId = smsMessageId;
   }
 
@@ -103,9 +133,15 @@ public final class PushDecryptMessageJob extends BaseJob {
 
   @Override
   public @NonNull Data serialize() {
-    return new Data.Builder().putBlobAsString(KEY_ENVELOPE, envelope.serialize())
-                             .putLong(KEY_SMS_MESSAGE_ID, smsMessageId)
-                             .build();
+    Data.Builder builder = new Data.Builder().putLong(KEY_SMS_MESSAGE_ID, smsMessageId);
+
+    if (envelopes.size() == 1) {
+      builder.putBlobAsString(KEY_ENVELOPE, envelopes.get(0).serialize());
+    } else {
+      builder.putStringListAsArray(KEY_ENVELOPES, Stream.of(envelopes).map(e -> Base64.encodeBytes(e.serialize())).toList());
+    }
+
+    return builder.build();
   }
 
   @Override
@@ -121,8 +157,40 @@ public final class PushDecryptMessageJob extends BaseJob {
       throw new RetryLaterException();
     }
 
-    List<Job>        jobs = new LinkedList<>();
-    DecryptionResult result = MessageDecryptionUtil.decrypt(context, envelope);
+    DecryptionPipeline<SignalServiceEnvelope, DecryptionResult> pipeline   = new DecryptionPipeline<>(DECRYPTION_EXECUTOR, DatabaseSessionLock.INSTANCE, new EnvelopeStage(context));
+    JobManager                                                  jobManager = ApplicationDependencies.getJobManager();
+    List<Throwable>                                             errors     = new LinkedList<>();
+
+    pipeline.process(envelopes, new DecryptionPipeline.Listener<SignalServiceEnvelope, DecryptionResult>() {
+      @Override
+      public void onDecrypted(@NonNull SignalServiceEnvelope envelope, @NonNull DecryptionResult result) {
+        for (Job job : getJobs(envelope, result)) {
+          jobManager.add(job);
+        }
+      }
+
+      @Override
+      public void onFailed(@NonNull SignalServiceEnvelope envelope, @NonNull Throwable error) {
+        Log.w(TAG, "Failed to decrypt envelope with timestamp " + envelope.getTimestamp(), error);
+        errors.add(error);
+      }
+    });
+
+    if (errors.size() > 0) {
+      Throwable error = errors.get(0);
+
+      if (error instanceof RuntimeException) {
+        throw (RuntimeException) error;
+      } else if (error instanceof Error) {
+        throw (Error) error;
+      } else {
+        throw new RuntimeException(error);
+      }
+    }
+  }
+
+  private @NonNull List<Job> getJobs(@NonNull SignalServiceEnvelope envelope, @NonNull DecryptionResult result) {
+    List<Job> jobs = new LinkedList<>();
 
     if (result.getContent() != null) {
       jobs.add(new PushProcessMessageJob(result.getContent(), smsMessageId, envelope.getTimestamp()));
@@ -132,9 +200,7 @@ public final class PushDecryptMessageJob extends BaseJob {
 
     jobs.addAll(result.getJobs());
 
-    for (Job job: jobs) {
-      ApplicationDependencies.getJobManager().add(job);
-    }
+    return jobs;
   }
 
   @Override
@@ -164,12 +230,45 @@ public final class PushDecryptMessageJob extends BaseJob {
 
   }
 
+  private static @NonNull Executor newDecryptionExecutor() {
+    int                threads  = SignalExecutors.getIdealThreadCount();
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 15, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> new Thread(r, "signal-decrypt"));
+
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  private static final class EnvelopeStage implements DecryptionPipeline.Stage<SignalServiceEnvelope, DecryptionResult> {
+
+    private final Context context;
+
+    private EnvelopeStage(@NonNull Context context) {
+      this.context = context;
+    }
+
+    @Override
+    public @Nullable String getShardKey(@NonNull SignalServiceEnvelope envelope) {
+      return envelope.hasSource() ? envelope.getSourceIdentifier() : null;
+    }
+
+    @Override
+    public @NonNull DecryptionResult decrypt(@NonNull SignalServiceEnvelope envelope, @NonNull SignalSessionLock sessionLock) {
+      return MessageDecryptionUtil.decrypt(context, envelope, sessionLock);
+    }
+  }
+
   public static final class Factory implements Job.Factory<PushDecryptMessageJob> {
     @Override
     public @NonNull PushDecryptMessageJob create(@NonNull Parameters parameters, @NonNull Data data) {
-      return new PushDecryptMessageJob(parameters,
-                                       SignalServiceEnvelope.deserialize(data.getStringAsBlob(KEY_ENVELOPE)),
-                                       data.getLong(KEY_SMS_MESSAGE_ID));
+      List<SignalServiceEnvelope> envelopes;
+
+      if (data.hasStringArray(KEY_ENVELOPES)) {
+        envelopes = Stream.of(data.getStringArrayAsList(KEY_ENVELOPES)).map(e -> SignalServiceEnvelope.deserialize(Base64.decodeOrThrow(e))).toList();
+      } else {
+        envelopes = Collections.singletonList(SignalServiceEnvelope.deserialize(data.getStringAsBlob(KEY_ENVELOPE)));
+      }
+
+      return new PushDecryptMessageJob(parameters, envelopes, data.getLong(KEY_SMS_MESSAGE_ID));
     }
   }
 }
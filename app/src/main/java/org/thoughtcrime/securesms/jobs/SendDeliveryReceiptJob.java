@@ -44,6 +44,7 @@ public class SendDeliveryReceiptJob extends BaseJob {
                            .setLifespan(TimeUnit.DAYS.toMillis(1))
                            .setMaxAttempts(Parameters.UNLIMITED)
                            .setQueue(recipientId.toQueueKey())
+                           .setPriority(Parameters.PRIORITY_HIGH)
                            .build(),
          recipientId,
          messageId,
@@ -10,7 +10,6 @@ import org.thoughtcrime.securesms.crypto.UnidentifiedAccessUtil;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.jobmanager.Data;
 import org.thoughtcrime.securesms.jobmanager.Job;
-import org.thoughtcrime.securesms.jobmanager.JobManager;
 import org.thoughtcrime.securesms.jobmanager.impl.NetworkConstraint;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientId;
@@ -28,6 +27,7 @@ import org.whispersystems.signalservice.api.push.exceptions.ServerRejectedExcept
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 public class SendReadReceiptJob extends BaseJob {
@@ -77,20 +77,41 @@ public class SendReadReceiptJob extends BaseJob {
   }
 
   /**
-   * Enqueues all the necessary jobs for read receipts, ensuring that they're all within the
-   * maximum size.
+   * Enqueues read receipts for every thread and sender in one go, with one job per pair (or more
+   * if a sender has more than {@link #MAX_TIMESTAMPS} messages in a thread). Nothing is enqueued
+   * if read receipts are disabled.
+   *
+   * @param timestamps Thread ID to the sent timestamps of the messages read in it, by sender.
    */
-  public static void enqueue(long threadId, @NonNull RecipientId recipientId, List<Long> messageIds) {
-    JobManager       jobManager      = ApplicationDependencies.getJobManager();
-    List<List<Long>> messageIdChunks = Util.chunk(messageIds, MAX_TIMESTAMPS);
+  public static void enqueue(@NonNull Map<Long, Map<RecipientId, List<Long>>> timestamps) {
+    if (timestamps.isEmpty() || !TextSecurePreferences.isReadReceiptsEnabled(ApplicationDependencies.getApplication())) {
+      return;
+    }
+
+    List<SendReadReceiptJob> jobs = new ArrayList<>();
+
+    for (Map.Entry<Long, Map<RecipientId, List<Long>>> thread : timestamps.entrySet()) {
+      for (Map.Entry<RecipientId, List<Long>> sender : thread.getValue().entrySet()) {
+        jobs.addAll(createJobs(thread.getKey(), sender.getKey(), sender.getValue()));
+      }
+    }
+
+    ApplicationDependencies.getJobManager().startChain(jobs).enqueue();
+  }
+
+  private static @NonNull List<SendReadReceiptJob> createJobs(long threadId, @NonNull RecipientId recipientId, @NonNull List<Long> messageIds) {
+    List<List<Long>>         messageIdChunks = Util.chunk(messageIds, MAX_TIMESTAMPS);
+    List<SendReadReceiptJob> jobs            = new ArrayList<>(messageIdChunks.size());
 
     if (messageIdChunks.size() > 1) {
       Log.w(TAG, "Large receipt count! Had to break into multiple chunks. Total count: " + messageIds.size());
     }
 
     for (List<Long> chunk : messageIdChunks) {
-      jobManager.add(new SendReadReceiptJob(threadId, recipientId, chunk));
+      jobs.add(new SendReadReceiptJob(threadId, recipientId, chunk));
     }
+
+    return jobs;
   }
 
   @Override
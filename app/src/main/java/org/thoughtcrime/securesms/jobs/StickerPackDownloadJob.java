@@ -62,6 +62,7 @@ public class StickerPackDownloadJob extends BaseJob {
                        .addConstraint(NetworkConstraint.KEY)
                        .setLifespan(TimeUnit.DAYS.toMillis(30))
                        .setQueue("StickerPackDownloadJob_" + packId)
+                       .setPriority(Parameters.PRIORITY_LOW)
                        .build(),
         packId,
         packKey,
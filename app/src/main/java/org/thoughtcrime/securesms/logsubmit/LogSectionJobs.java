@@ -5,6 +5,12 @@ import android.content.Context;
 import androidx.annotation.NonNull;
 
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
+import org.thoughtcrime.securesms.jobmanager.JobManager;
+import org.thoughtcrime.securesms.jobmanager.JobMetrics;
+import org.thoughtcrime.securesms.util.Util;
+
+import java.util.List;
+import java.util.Locale;
 
 public class LogSectionJobs implements LogSection {
 
@@ -15,6 +21,68 @@ public class LogSectionJobs implements LogSection {
 
   @Override
   public @NonNull CharSequence getContent(@NonNull Context context) {
-    return ApplicationDependencies.getJobManager().getDebugInfo();
+    JobManager    jobManager = ApplicationDependencies.getJobManager();
+    StringBuilder output     = new StringBuilder();
+
+    output.append(jobManager.getDebugInfo());
+    output.append("\n-- Metrics (times in ms)\n");
+    output.append(getMetricsTable(jobManager.getMetrics()));
+
+    return output;
+  }
+
+  private static @NonNull String getMetricsTable(@NonNull List<JobMetrics.Snapshot> snapshots) {
+    if (snapshots.isEmpty()) {
+      return "None\n";
+    }
+
+    int keyLength = "Factory".length();
+    for (JobMetrics.Snapshot snapshot : snapshots) {
+      keyLength = Math.max(keyLength, snapshot.getFactoryKey().length());
+    }
+
+    StringBuilder output = new StringBuilder();
+
+    output.append(Util.rightPad("Factory", keyLength))
+          .append(String.format(Locale.US, " | %7s | %7s | %7s | %7s | %9s | %9s | %9s | %9s | %9s | %10s",
+                                "Runs", "Success", "Retry", "Fail", "Avg Wait", "Max Wait", "Blocked", "Avg Run", "Max Run", "Total Run"))
+          .append("\n");
+
+    for (JobMetrics.Snapshot snapshot : snapshots) {
+      output.append(Util.rightPad(snapshot.getFactoryKey(), keyLength))
+            .append(String.format(Locale.US, " | %7d | %7d | %7d | %7d | %9d | %9d | %9d | %9d | %9d | %10d",
+                                  snapshot.getStarts(),
+                                  snapshot.getSuccesses(),
+                                  snapshot.getRetries(),
+                                  snapshot.getFailures(),
+                                  snapshot.getAverageQueueTime(),
+                                  snapshot.getMaxQueueTime(),
+                                  snapshot.getTotalBlockedTime(),
+                                  snapshot.getAverageRunTime(),
+                                  snapshot.getMaxRunTime(),
+                                  snapshot.getTotalRunTime()))
+            .append("\n");
+    }
+
+    output.append("\n-- Run Time Histogram\n");
+    output.append(Util.rightPad("Factory", keyLength));
+
+    List<Long> buckets = JobMetrics.getRunTimeBuckets();
+
+    for (long bound : buckets) {
+      output.append(String.format(Locale.US, " | %7s", "<" + bound));
+    }
+    output.append(String.format(Locale.US, " | %7s", ">=" + buckets.get(buckets.size() - 1))).append("\n");
+
+    for (JobMetrics.Snapshot snapshot : snapshots) {
+      output.append(Util.rightPad(snapshot.getFactoryKey(), keyLength));
+
+      for (long count : snapshot.getRunTimeHistogram()) {
+        output.append(String.format(Locale.US, " | %7d", count));
+      }
+      output.append("\n");
+    }
+
+    return output.toString();
   }
 }
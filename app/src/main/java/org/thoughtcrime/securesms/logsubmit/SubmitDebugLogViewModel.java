@@ -31,9 +31,9 @@ public class SubmitDebugLogViewModel extends ViewModel {
     this.repo  = new SubmitDebugLogRepository();
     this.lines = new DefaultValueLiveData<>(Collections.emptyList());
     this.mode  = new MutableLiveData<>();
-    this.trace = Tracer.getInstance().serialize();
 
     repo.getLogLines(result -> {
+      trace       = Tracer.getInstance().serialize();
       sourceLines = result;
       mode.postValue(Mode.NORMAL);
       lines.postValue(sourceLines);
@@ -0,0 +1,229 @@
+package org.thoughtcrime.securesms.messages;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.whispersystems.signalservice.api.SignalSessionLock;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Decrypts a batch of envelopes on an executor, without changing the order anything that depends
+ * on order sees them in.
+ *
+ * Each input has a shard key, normally its sender. An input may only take the session lock once
+ * every earlier input in its shard has released it, so a sender's ratchet still steps through its
+ * messages in arrival order. Inputs with no key (sealed sender, where we can't see who sent it
+ * until it's decrypted) wait on, and are waited on by, every other input.
+ *
+ * This is not a way to decrypt faster. With the app's global session lock, which covers the whole
+ * of each decryption, the inputs are decrypted one at a time, in much the same order as a plain
+ * loop would. What it gives the caller is each result as soon as it's ready, and failures that
+ * stay contained to their own input.
+ *
+ * Outputs are handed to a {@link Listener} in input order, each as soon as it and every input
+ * before it are done, so whatever the caller enqueues from them keeps per-sender and per-group
+ * ordering. An input that fails doesn't affect any other.
+ *
+ * The executor must start tasks in the order they were submitted, since a task can wait on one
+ * that was submitted before it.
+ */
+public final class DecryptionPipeline<Input, Output> {
+
+  private final Executor             executor;
+  private final SignalSessionLock    sessionLock;
+  private final Stage<Input, Output> stage;
+
+  public DecryptionPipeline(@NonNull Executor executor, @NonNull SignalSessionLock sessionLock, @NonNull Stage<Input, Output> stage) {
+    this.executor    = executor;
+    this.sessionLock = sessionLock;
+    this.stage       = stage;
+  }
+
+  /**
+   * Decrypts every input and blocks until they're all done and have been handed to the listener.
+   * The listener is called on the calling thread.
+   */
+  public void process(@NonNull List<Input> inputs, @NonNull Listener<Input, Output> listener) {
+    if (inputs.isEmpty()) {
+      return;
+    }
+
+    if (inputs.size() == 1) {
+      Input  input = inputs.get(0);
+      Output output;
+
+      try {
+        output = stage.decrypt(input, sessionLock);
+      } catch (Throwable t) {
+        listener.onFailed(input, t);
+        return;
+      }
+
+      listener.onDecrypted(input, output);
+      return;
+    }
+
+    Batch       batch   = new Batch(inputs.size());
+    Object[]    outputs = new Object[inputs.size()];
+    Throwable[] errors  = new Throwable[inputs.size()];
+
+    for (int i = 0; i < inputs.size(); i++) {
+      Turn turn = new Turn(batch, i, stage.getShardKey(inputs.get(i)), sessionLock);
+
+      batch.turns[i] = turn;
+    }
+
+    for (Turn turn : batch.turns) {
+      executor.execute(() -> {
+        try {
+          outputs[turn.index] = stage.decrypt(inputs.get(turn.index), turn);
+        } catch (Throwable t) {
+          errors[turn.index] = t;
+        } finally {
+          batch.finish(turn);
+          batch.complete(turn);
+        }
+      });
+    }
+
+    for (int i = 0; i < inputs.size(); i++) {
+      batch.awaitCompleted(batch.turns[i]);
+
+      if (errors[i] != null) {
+        listener.onFailed(inputs.get(i), errors[i]);
+      } else {
+        //noinspection unchecked
+        listener.onDecrypted(inputs.get(i), (Output) outputs[i]);
+      }
+
+      outputs[i] = null;
+    }
+  }
+
+  /**
+   * Tracks which inputs in a batch are done with the session lock.
+   */
+  private static final class Batch {
+
+    private final Turn[] turns;
+
+    private Batch(int size) {
+      this.turns = new Turn[size];
+    }
+
+    synchronized void awaitTurn(@NonNull Turn turn) {
+      boolean interrupted = false;
+
+      while (isBlocked(turn)) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    synchronized void awaitCompleted(@NonNull Turn turn) {
+      boolean interrupted = false;
+
+      while (!turn.completed) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    synchronized void finish(@NonNull Turn turn) {
+      if (!turn.finished) {
+        turn.finished = true;
+        notifyAll();
+      }
+    }
+
+    synchronized void complete(@NonNull Turn turn) {
+      turn.completed = true;
+      notifyAll();
+    }
+
+    private boolean isBlocked(@NonNull Turn turn) {
+      for (int i = 0; i < turn.index; i++) {
+        Turn earlier = turns[i];
+
+        if (!earlier.finished && (earlier.shardKey == null || turn.shardKey == null || earlier.shardKey.equals(turn.shardKey))) {
+          return true;
+        }
+      }
+
+      return false;
+    }
+  }
+
+  /**
+   * The session lock as seen by a single input. Waits for the input's turn before taking the real
+   * lock, and gives the turn up the first time it's released.
+   */
+  private static final class Turn implements SignalSessionLock {
+
+    private final Batch             batch;
+    private final int               index;
+    private final String            shardKey;
+    private final SignalSessionLock sessionLock;
+
+    /** Done with the session lock. */
+    private boolean finished;
+
+    /** Done altogether, with an output or an error. */
+    private boolean completed;
+
+    private Turn(@NonNull Batch batch, int index, @Nullable String shardKey, @NonNull SignalSessionLock sessionLock) {
+      this.batch       = batch;
+      this.index       = index;
+      this.shardKey    = shardKey;
+      this.sessionLock = sessionLock;
+    }
+
+    @Override
+    public Lock acquire() {
+      batch.awaitTurn(this);
+
+      Lock lock = sessionLock.acquire();
+
+      return () -> {
+        lock.close();
+        batch.finish(this);
+      };
+    }
+  }
+
+  public interface Stage<Input, Output> {
+    /**
+     * @return Inputs with the same key take the session lock in order. Null if the sender isn't
+     *         known, which orders this input against every other one.
+     */
+    @Nullable String getShardKey(@NonNull Input input);
+
+    /**
+     * Decrypts an input. Runs on the executor, and anything that touches sessions must go through
+     * the given lock rather than the global one.
+     */
+    @NonNull Output decrypt(@NonNull Input input, @NonNull SignalSessionLock sessionLock);
+  }
+
+  public interface Listener<Input, Output> {
+    void onDecrypted(@NonNull Input input, @NonNull Output output);
+
+    void onFailed(@NonNull Input input, @NonNull Throwable error);
+  }
+}
@@ -27,13 +27,12 @@ import org.thoughtcrime.securesms.push.SignalServiceNetworkAccess;
 import org.thoughtcrime.securesms.util.AppForegroundObserver;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.whispersystems.libsignal.InvalidVersionException;
-import org.whispersystems.libsignal.util.guava.Optional;
 import org.whispersystems.signalservice.api.SignalServiceMessagePipe;
 import org.whispersystems.signalservice.api.SignalServiceMessageReceiver;
-import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -44,6 +43,7 @@ public class IncomingMessageObserver {
   private static final String TAG = Log.tag(IncomingMessageObserver.class);
 
   public  static final  int FOREGROUND_ID            = 313399;
+  public  static final  int MAX_BATCH_SIZE           = 100;
   private static final long REQUEST_TIMEOUT_MINUTES  = 1;
 
   private static final AtomicInteger INSTANCE_COUNT = new AtomicInteger(0);
@@ -183,7 +183,7 @@ public class IncomingMessageObserver {
   private void shutdown(@Nullable SignalServiceMessagePipe pipe, @Nullable SignalServiceMessagePipe unidentifiedPipe) {
     try {
       if (pipe != null) {
-        Log.w(TAG, "Shutting down normal pipe.");
+        Log.w(TAG, "Shutting down normal pipe. Round trips: " + pipe.getRoundTripStats());
         pipe.shutdown();
       } else {
         Log.w(TAG, "No need to shutdown normal pipe, it doesn't exist.");
@@ -194,7 +194,7 @@ public class IncomingMessageObserver {
 
     try {
       if (unidentifiedPipe != null) {
-        Log.w(TAG, "Shutting down unidentified pipe.");
+        Log.w(TAG, "Shutting down unidentified pipe. Round trips: " + unidentifiedPipe.getRoundTripStats());
         unidentifiedPipe.shutdown();
       } else {
         Log.w(TAG, "No need to shutdown unidentified pipe, it doesn't exist.");
@@ -234,20 +234,25 @@ public class IncomingMessageObserver {
 
         SignalServiceMessagePipe localPipe             = pipe;
         SignalServiceMessagePipe unidentifiedLocalPipe = unidentifiedPipe;
+        DrainStats               drainStats            = new DrainStats();
 
         try {
           while (isConnectionNecessary()) {
             try {
-              Log.d(TAG, "Reading message...");
-              Optional<SignalServiceEnvelope> result = localPipe.readOrEmpty(REQUEST_TIMEOUT_MINUTES, TimeUnit.MINUTES, envelope -> {
-                Log.i(TAG, "Retrieved envelope! " + envelope.getTimestamp());
+              Log.d(TAG, "Reading messages...");
+              boolean empty = localPipe.readBatchOrEmpty(MAX_BATCH_SIZE, REQUEST_TIMEOUT_MINUTES, TimeUnit.MINUTES, envelopes -> {
+                Log.i(TAG, "Retrieved " + envelopes.size() + " envelope(s)!");
+                long startTime = System.currentTimeMillis();
+
                 try (Processor processor = ApplicationDependencies.getIncomingMessageProcessor().acquire()) {
-                  processor.processEnvelope(envelope);
+                  processor.processEnvelopes(envelopes);
                 }
+
+                drainStats.onBatch(envelopes.size(), System.currentTimeMillis() - startTime);
               });
 
-              if (!result.isPresent() && !networkDrained) {
-                Log.i(TAG, "Network was newly-drained. Enqueuing a job to listen for decryption draining.");
+              if (empty && !networkDrained) {
+                Log.i(TAG, "Network was newly-drained (" + drainStats + "). Enqueuing a job to listen for decryption draining.");
                 networkDrained = true;
                 ApplicationDependencies.getJobManager().add(new PushDecryptDrainedJob());
               }
@@ -275,6 +280,34 @@ public class IncomingMessageObserver {
     }
   }
 
+  /**
+   * Throughput of envelopes pulled off a single connection, for the debug log.
+   */
+  private static final class DrainStats {
+
+    private final long startTime = System.currentTimeMillis();
+
+    private int  envelopes;
+    private int  batches;
+    private long processingTime;
+
+    void onBatch(int size, long processingTime) {
+      this.envelopes      += size;
+      this.batches        += 1;
+      this.processingTime += processingTime;
+
+      Log.d(TAG, "Processed a batch of " + size + " envelope(s) in " + processingTime + " ms.");
+    }
+
+    @Override
+    public @NonNull String toString() {
+      long   elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+      double rate    = envelopes * 1000.0 / elapsed;
+
+      return String.format(Locale.US, "%d envelope(s) in %d batch(es) over %d ms, %d ms processing, %.1f envelopes/sec", envelopes, batches, elapsed, processingTime, rate);
+    }
+  }
+
   public static class ForegroundService extends Service {
 
     @Override
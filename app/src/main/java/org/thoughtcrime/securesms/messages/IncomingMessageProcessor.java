@@ -36,6 +36,8 @@ import org.whispersystems.signalservice.api.messages.SignalServiceGroupContext;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -99,6 +101,42 @@ public class IncomingMessageProcessor {
       }
     }
 
+    /**
+     * Processes a batch of envelopes in the order given. Receipts are applied in one transaction and
+     * the rest of the envelopes go into a single {@link PushDecryptMessageJob}, so a batch costs a
+     * single write of each kind instead of one per envelope.
+     *
+     * Blocks until the job has been persisted, since the envelopes are acknowledged to the service
+     * as soon as this returns.
+     */
+    public void processEnvelopes(@NonNull List<SignalServiceEnvelope> envelopes) {
+      List<SyncMessageId>         receipts  = new ArrayList<>();
+      List<SignalServiceEnvelope> encrypted = new ArrayList<>();
+
+      for (SignalServiceEnvelope envelope : envelopes) {
+        if (envelope.hasSource()) {
+          Recipient.externalHighTrustPush(context, envelope.getSourceAddress());
+        }
+
+        if (envelope.isReceipt()) {
+          Log.i(TAG, "Received server receipt for " + envelope.getTimestamp());
+          receipts.add(new SyncMessageId(Recipient.externalHighTrustPush(context, envelope.getSourceAddress()).getId(), envelope.getTimestamp()));
+        } else if (envelope.isPreKeySignalMessage() || envelope.isSignalMessage() || envelope.isUnidentifiedSender()) {
+          encrypted.add(envelope);
+        } else {
+          Log.w(TAG, "Received envelope of unknown type: " + envelope.getType());
+        }
+      }
+
+      if (receipts.size() > 0) {
+        mmsSmsDatabase.incrementDeliveryReceiptCounts(receipts, System.currentTimeMillis());
+      }
+
+      if (encrypted.size() > 0) {
+        jobManager.addBlocking(new PushDecryptMessageJob(context, encrypted));
+      }
+    }
+
     private @Nullable String processMessage(@NonNull SignalServiceEnvelope envelope) {
       return processMessageDeferred(envelope);
     }
@@ -7,10 +7,8 @@ import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.jobmanager.JobManager;
 import org.thoughtcrime.securesms.jobs.PushProcessMessageJob;
 import org.whispersystems.libsignal.InvalidVersionException;
-import org.whispersystems.libsignal.util.guava.Optional;
 import org.whispersystems.signalservice.api.SignalServiceMessagePipe;
 import org.whispersystems.signalservice.api.SignalServiceMessageReceiver;
-import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
 
 import java.io.IOException;
 import java.util.Iterator;
@@ -63,14 +61,14 @@ class WebsocketStrategy extends MessageRetrievalStrategy {
     try {
       while (shouldContinue()) {
         try {
-          Optional<SignalServiceEnvelope> result = pipe.readOrEmpty(timeout, TimeUnit.MILLISECONDS, envelope -> {
-            Log.i(TAG, "Retrieved envelope! " + envelope.getTimestamp() + timeSuffix(startTime));
+          boolean empty = pipe.readBatchOrEmpty(IncomingMessageObserver.MAX_BATCH_SIZE, timeout, TimeUnit.MILLISECONDS, envelopes -> {
+            Log.i(TAG, "Retrieved " + envelopes.size() + " envelope(s)!" + timeSuffix(startTime));
             try (IncomingMessageProcessor.Processor processor = ApplicationDependencies.getIncomingMessageProcessor().acquire()) {
-              processor.processEnvelope(envelope);
+              processor.processEnvelopes(envelopes);
             }
           });
 
-          if (!result.isPresent()) {
+          if (empty) {
             Log.i(TAG, "Hit an empty response. Finished." + timeSuffix(startTime));
             break;
           }
@@ -7,7 +7,6 @@ import android.content.Intent;
 
 import androidx.annotation.NonNull;
 
-import com.annimon.stream.Collectors;
 import com.annimon.stream.Stream;
 
 import org.signal.core.util.concurrent.SignalExecutors;
@@ -22,6 +21,8 @@ import org.thoughtcrime.securesms.jobs.SendReadReceiptJob;
 import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.service.ExpiringMessageManager;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -68,38 +69,43 @@ public class MarkReadReceiver extends BroadcastReceiver {
   public static void process(@NonNull Context context, @NonNull List<MarkedMessageInfo> markedReadMessages) {
     if (markedReadMessages.isEmpty()) return;
 
-    List<SyncMessageId>  syncMessageIds    = Stream.of(markedReadMessages)
-                                                   .map(MarkedMessageInfo::getSyncMessageId)
-                                                   .toList();
-    List<ExpirationInfo> mmsExpirationInfo = Stream.of(markedReadMessages)
-                                                   .map(MarkedMessageInfo::getExpirationInfo)
-                                                   .filter(ExpirationInfo::isMms)
-                                                   .filter(info -> info.getExpiresIn() > 0 && info.getExpireStarted() <= 0)
-                                                   .toList();
-    List<ExpirationInfo> smsExpirationInfo = Stream.of(markedReadMessages)
-                                                   .map(MarkedMessageInfo::getExpirationInfo)
-                                                   .filterNot(ExpirationInfo::isMms)
-                                                   .filter(info -> info.getExpiresIn() > 0 && info.getExpireStarted() <= 0)
-                                                   .toList();
+    List<SyncMessageId>                     syncMessageIds    = new ArrayList<>(markedReadMessages.size());
+    List<ExpirationInfo>                    mmsExpirationInfo = new ArrayList<>();
+    List<ExpirationInfo>                    smsExpirationInfo = new ArrayList<>();
+    Map<Long, Map<RecipientId, List<Long>>> receipts          = new LinkedHashMap<>();
 
-    scheduleDeletion(context, smsExpirationInfo, mmsExpirationInfo);
+    for (MarkedMessageInfo info : markedReadMessages) {
+      SyncMessageId  syncMessageId  = info.getSyncMessageId();
+      ExpirationInfo expirationInfo = info.getExpirationInfo();
 
-    MultiDeviceReadUpdateJob.enqueue(syncMessageIds);
+      syncMessageIds.add(syncMessageId);
 
-    Map<Long, List<MarkedMessageInfo>> threadToInfo = Stream.of(markedReadMessages)
-                                                            .collect(Collectors.groupingBy(MarkedMessageInfo::getThreadId));
+      if (expirationInfo.getExpiresIn() > 0 && expirationInfo.getExpireStarted() <= 0) {
+        if (expirationInfo.isMms()) mmsExpirationInfo.add(expirationInfo);
+        else                        smsExpirationInfo.add(expirationInfo);
+      }
 
-    Stream.of(threadToInfo).forEach(threadToInfoEntry -> {
-      Map<RecipientId, List<SyncMessageId>> idMapForThread = Stream.of(threadToInfoEntry.getValue())
-                                                                   .map(MarkedMessageInfo::getSyncMessageId)
-                                                                   .collect(Collectors.groupingBy(SyncMessageId::getRecipientId));
+      Map<RecipientId, List<Long>> threadReceipts = receipts.get(info.getThreadId());
 
-      Stream.of(idMapForThread).forEach(entry -> {
-        List<Long> timestamps = Stream.of(entry.getValue()).map(SyncMessageId::getTimetamp).toList();
+      if (threadReceipts == null) {
+        threadReceipts = new LinkedHashMap<>();
+        receipts.put(info.getThreadId(), threadReceipts);
+      }
 
-        SendReadReceiptJob.enqueue(threadToInfoEntry.getKey(), entry.getKey(), timestamps);
-      });
-    });
+      List<Long> timestamps = threadReceipts.get(syncMessageId.getRecipientId());
+
+      if (timestamps == null) {
+        timestamps = new ArrayList<>();
+        threadReceipts.put(syncMessageId.getRecipientId(), timestamps);
+      }
+
+      timestamps.add(syncMessageId.getTimetamp());
+    }
+
+    scheduleDeletion(context, smsExpirationInfo, mmsExpirationInfo);
+
+    MultiDeviceReadUpdateJob.enqueue(syncMessageIds);
+    SendReadReceiptJob.enqueue(receipts);
   }
 
   private static void scheduleDeletion(@NonNull Context context,
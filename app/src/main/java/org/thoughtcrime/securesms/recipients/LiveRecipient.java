@@ -21,7 +21,10 @@ import org.thoughtcrime.securesms.database.RecipientDatabase.RecipientSettings;
 import org.thoughtcrime.securesms.util.livedata.LiveDataUtil;
 import org.whispersystems.libsignal.util.guava.Optional;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
@@ -131,14 +134,31 @@ public final class LiveRecipient {
       Log.w(TAG, "[Resolve][MAIN] " + getId(), new Throwable());
     }
 
-    Recipient       updated      = fetchAndCacheRecipientFromDisk(getId());
-    List<Recipient> participants = Stream.of(updated.getParticipants())
+    return resolve(fetchAndCacheRecipientFromDisk(getId()));
+  }
+
+  /**
+   * Same as {@link #resolve()}, but with settings that have already been read, like when several
+   * recipients are read at once.
+   */
+  @WorkerThread
+  @NonNull Recipient resolve(@NonNull RecipientSettings settings) {
+    Recipient current = recipient.get();
+
+    if (!current.isResolving() || current.getId().isUnknown()) {
+      return current;
+    }
+
+    return resolve(createAndCacheRecipient(getId(), settings));
+  }
+
+  private @NonNull Recipient resolve(@NonNull Recipient updated) {
+    List<RecipientId> unresolved = Stream.of(updated.getParticipants())
                                          .filter(Recipient::isResolving)
                                          .map(Recipient::getId)
-                                         .map(this::fetchAndCacheRecipientFromDisk)
                                          .toList();
 
-    for (Recipient participant : participants) {
+    for (Recipient participant : fetchAndCacheRecipientsFromDisk(unresolved)) {
       participant.live().set(participant);
     }
 
@@ -168,10 +188,9 @@ public final class LiveRecipient {
     }
 
     Recipient       recipient    = fetchAndCacheRecipientFromDisk(id);
-    List<Recipient> participants = Stream.of(recipient.getParticipants())
-                                         .map(Recipient::getId)
-                                         .map(this::fetchAndCacheRecipientFromDisk)
-                                         .toList();
+    List<Recipient> participants = fetchAndCacheRecipientsFromDisk(Stream.of(recipient.getParticipants())
+                                                                         .map(Recipient::getId)
+                                                                         .toList());
 
     for (Recipient participant : participants) {
       participant.live().set(participant);
@@ -189,10 +208,40 @@ public final class LiveRecipient {
     return observableLiveDataResolved;
   }
 
+  /**
+   * @return True if anything is watching this recipient for changes.
+   */
+  boolean isObserved() {
+    return !observers.isEmpty() || observableLiveData.hasObservers() || observableLiveDataResolved.hasObservers();
+  }
+
   private @NonNull Recipient fetchAndCacheRecipientFromDisk(@NonNull RecipientId id) {
-    RecipientSettings settings = recipientDatabase.getRecipientSettings(id);
-    RecipientDetails  details  = settings.getGroupId() != null ? getGroupRecipientDetails(settings)
-                                                               : RecipientDetails.forIndividual(context, settings);
+    return createAndCacheRecipient(id, recipientDatabase.getRecipientSettings(id));
+  }
+
+  /**
+   * Reads the recipients in one go where possible, falling back to reading them one at a time for
+   * any that weren't found, which covers remapped IDs.
+   */
+  private @NonNull List<Recipient> fetchAndCacheRecipientsFromDisk(@NonNull List<RecipientId> ids) {
+    if (ids.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    Map<RecipientId, RecipientSettings> settings   = recipientDatabase.getRecipientSettings(ids);
+    List<Recipient>                     recipients = new ArrayList<>(ids.size());
+
+    for (RecipientId id : ids) {
+      RecipientSettings found = settings.get(id);
+      recipients.add(found != null ? createAndCacheRecipient(id, found) : fetchAndCacheRecipientFromDisk(id));
+    }
+
+    return recipients;
+  }
+
+  private @NonNull Recipient createAndCacheRecipient(@NonNull RecipientId id, @NonNull RecipientSettings settings) {
+    RecipientDetails details = settings.getGroupId() != null ? getGroupRecipientDetails(settings)
+                                                             : RecipientDetails.forIndividual(context, settings);
 
     Recipient recipient = new Recipient(id, details, true);
     RecipientIdCache.INSTANCE.put(recipient);
@@ -205,7 +254,7 @@ public final class LiveRecipient {
 
     if (groupRecord.isPresent()) {
       String          title    = groupRecord.get().getTitle();
-      List<Recipient> members  = Stream.of(groupRecord.get().getMembers()).filterNot(RecipientId::isUnknown).map(this::fetchAndCacheRecipientFromDisk).toList();
+      List<Recipient> members  = fetchAndCacheRecipientsFromDisk(Stream.of(groupRecord.get().getMembers()).filterNot(RecipientId::isUnknown).toList());
       Optional<Long>  avatarId = Optional.absent();
 
       if (groupRecord.get().hasAvatar()) {
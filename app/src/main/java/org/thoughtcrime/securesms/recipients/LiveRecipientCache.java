@@ -5,6 +5,7 @@ import android.content.Context;
 
 import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
 
 import net.sqlcipher.database.SQLiteDatabase;
 
@@ -13,32 +14,47 @@ import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.RecipientDatabase;
 import org.thoughtcrime.securesms.database.RecipientDatabase.MissingRecipientException;
+import org.thoughtcrime.securesms.database.RecipientDatabase.RecipientSettings;
 import org.thoughtcrime.securesms.database.ThreadDatabase;
 import org.thoughtcrime.securesms.database.model.ThreadRecord;
-import org.thoughtcrime.securesms.util.LRUCache;
+import org.thoughtcrime.securesms.util.StripedLRUCache;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
+import org.thoughtcrime.securesms.util.concurrent.CoalescingBatcher;
 import org.thoughtcrime.securesms.util.concurrent.FilteredExecutor;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 
 public final class LiveRecipientCache {
 
   private static final String TAG = Log.tag(LiveRecipientCache.class);
 
-  private static final int CACHE_MAX      = 1000;
-  private static final int CACHE_WARM_MAX = 500;
-
-  private final Context                         context;
-  private final RecipientDatabase               recipientDatabase;
-  private final Map<RecipientId, LiveRecipient> recipients;
-  private final LiveRecipient                   unknown;
-  private final Executor                        executor;
-  private final SQLiteDatabase                  db;
+  private static final int CACHE_MAX         = 1000;
+  private static final int CACHE_STRIPES     = 16;
+  private static final int CACHE_WARM_MAX    = 500;
+  private static final int RESOLVE_BATCH_MAX = 200;
+
+  private final Context                                     context;
+  private final RecipientDatabase                           recipientDatabase;
+  private final StripedLRUCache<RecipientId, LiveRecipient> recipients;
+  private final LiveRecipient                               unknown;
+  private final Executor                                    executor;
+  private final SQLiteDatabase                              db;
+  private final CoalescingBatcher<LiveRecipient>            resolveBatcher;
+  private final Map<LiveRecipient, Long>                    resolveRequestTimes;
+  private final AtomicLong                                  hits;
+  private final AtomicLong                                  misses;
+  private final AtomicLong                                  resolved;
+  private final AtomicLong                                  resolveBatches;
+  private final AtomicLong                                  resolveLatencyTotal;
+  private final AtomicLong                                  resolveLatencyMax;
 
   private volatile RecipientId localRecipientId;
 
@@ -46,39 +62,45 @@ public final class LiveRecipientCache {
 
   @SuppressLint("UseSparseArrays")
   public LiveRecipientCache(@NonNull Context context) {
-    this.context           = context.getApplicationContext();
-    this.recipientDatabase = DatabaseFactory.getRecipientDatabase(context);
-    this.recipients        = new LRUCache<>(CACHE_MAX);
-    this.unknown           = new LiveRecipient(context, Recipient.UNKNOWN);
-    this.db                = DatabaseFactory.getInstance(context).getRawDatabase();
-    this.executor          = new FilteredExecutor(SignalExecutors.BOUNDED, () -> !db.isDbLockedByCurrentThread());
+    this.context             = context.getApplicationContext();
+    this.recipientDatabase   = DatabaseFactory.getRecipientDatabase(context);
+    this.recipients          = new StripedLRUCache<>(CACHE_MAX, CACHE_STRIPES, LiveRecipient::isObserved);
+    this.unknown             = new LiveRecipient(context, Recipient.UNKNOWN);
+    this.db                  = DatabaseFactory.getInstance(context).getRawDatabase();
+    this.executor            = new FilteredExecutor(SignalExecutors.BOUNDED, () -> !db.isDbLockedByCurrentThread());
+    this.resolveBatcher      = new CoalescingBatcher<>(SignalExecutors.BOUNDED, RESOLVE_BATCH_MAX, this::resolveBatch);
+    this.resolveRequestTimes = new ConcurrentHashMap<>();
+    this.hits                = new AtomicLong();
+    this.misses              = new AtomicLong();
+    this.resolved            = new AtomicLong();
+    this.resolveBatches      = new AtomicLong();
+    this.resolveLatencyTotal = new AtomicLong();
+    this.resolveLatencyMax   = new AtomicLong();
   }
 
   @AnyThread
-  synchronized @NonNull LiveRecipient getLive(@NonNull RecipientId id) {
+  @NonNull LiveRecipient getLive(@NonNull RecipientId id) {
     if (id.isUnknown()) return unknown;
 
     LiveRecipient live = recipients.get(id);
 
-    if (live == null) {
-      final LiveRecipient newLive = new LiveRecipient(context, new Recipient(id));
-
-      recipients.put(id, newLive);
-
-      MissingRecipientException prettyStackTraceError = new MissingRecipientException(newLive.getId());
+    if (live != null) {
+      hits.incrementAndGet();
+      return live;
+    }
 
-      executor.execute(() -> {
-        try {
-          newLive.resolve();
-        } catch (MissingRecipientException e) {
-          throw prettyStackTraceError;
-        }
-      });
+    LiveRecipient newLive  = new LiveRecipient(context, new Recipient(id));
+    LiveRecipient existing = recipients.putIfAbsent(id, newLive);
 
-      live = newLive;
+    if (existing != null) {
+      hits.incrementAndGet();
+      return existing;
     }
 
-    return live;
+    misses.incrementAndGet();
+    enqueueResolve(newLive);
+
+    return newLive;
   }
 
   /**
@@ -88,14 +110,21 @@ public final class LiveRecipientCache {
    * If the recipient you add is unresolved, this will enqueue a resolve on a background thread.
    */
   @AnyThread
-  public synchronized void addToCache(@NonNull Collection<Recipient> newRecipients) {
+  public void addToCache(@NonNull Collection<Recipient> newRecipients) {
     for (Recipient recipient : newRecipients) {
       LiveRecipient live         = recipients.get(recipient.getId());
+      boolean       created      = false;
       boolean       needsResolve = false;
 
       if (live == null) {
-        live = new LiveRecipient(context, recipient);
-        recipients.put(recipient.getId(), live);
+        LiveRecipient newLive  = new LiveRecipient(context, recipient);
+        LiveRecipient existing = recipients.putIfAbsent(recipient.getId(), newLive);
+
+        created = existing == null;
+        live    = created ? newLive : existing;
+      }
+
+      if (created) {
         needsResolve = recipient.isResolving();
       } else if (live.get().isResolving() || !recipient.isResolving()) {
         live.set(recipient);
@@ -103,14 +132,7 @@ public final class LiveRecipientCache {
       }
 
       if (needsResolve) {
-        MissingRecipientException prettyStackTraceError = new MissingRecipientException(recipient.getId());
-        executor.execute(() -> {
-          try {
-            recipient.resolve();
-          } catch (MissingRecipientException e) {
-            throw prettyStackTraceError;
-          }
-        });
+        enqueueResolve(live);
       }
     }
   }
@@ -136,6 +158,23 @@ public final class LiveRecipientCache {
     return getLive(localRecipientId).resolve();
   }
 
+  /**
+   * Adds recipients we don't have an entry for yet, and leaves the rest alone. Use this instead of
+   * {@link #addToCache(Collection)} for recipients that may be older than what's already cached.
+   */
+  @AnyThread
+  public void addToCacheIfAbsent(@NonNull Collection<Recipient> newRecipients) {
+    List<Recipient> absent = new ArrayList<>(newRecipients.size());
+
+    for (Recipient recipient : newRecipients) {
+      if (recipients.get(recipient.getId()) == null) {
+        absent.add(recipient);
+      }
+    }
+
+    addToCache(absent);
+  }
+
   @AnyThread
   public synchronized void warmUp() {
     if (warmedUp) {
@@ -145,31 +184,233 @@ public final class LiveRecipientCache {
     }
 
     executor.execute(() -> {
-      ThreadDatabase  threadDatabase = DatabaseFactory.getThreadDatabase(context);
-      List<Recipient> recipients     = new ArrayList<>();
+      List<Recipient> recipients = RecipientCacheSnapshot.read(context);
 
-      try (ThreadDatabase.Reader reader = threadDatabase.readerFor(threadDatabase.getRecentConversationList(CACHE_WARM_MAX, false, false))) {
-        int          i      = 0;
-        ThreadRecord record = null;
-
-        while ((record = reader.getNext()) != null && i < CACHE_WARM_MAX) {
-          recipients.add(record.getRecipient());
-          i++;
-        }
+      if (recipients.isEmpty()) {
+        recipients = getRecentRecipients();
+        Log.d(TAG, "Warming up " + recipients.size() + " recipients.");
+      } else {
+        Log.d(TAG, "Warming up " + recipients.size() + " recipients from the snapshot.");
       }
 
-      Log.d(TAG, "Warming up " + recipients.size() + " recipients.");
       addToCache(recipients);
     });
   }
 
+  /**
+   * Writes the recipients of the most recent conversations to disk, so the next {@link #warmUp()}
+   * doesn't have to read them from the database.
+   */
+  @AnyThread
+  public void saveSnapshot() {
+    executor.execute(() -> {
+      List<Recipient> recipients = getRecentRecipients();
+
+      RecipientCacheSnapshot.write(context, recipients);
+      Log.d(TAG, "Saved a snapshot of " + recipients.size() + " recipients.");
+    });
+  }
+
   @AnyThread
   public synchronized void clearSelf() {
     localRecipientId = null;
   }
 
   @AnyThread
-  public synchronized void clear() {
+  public void clear() {
     recipients.clear();
+    RecipientCacheSnapshot.delete(context);
+  }
+
+  public @NonNull Stats getStats() {
+    return new Stats(hits.get(),
+                     misses.get(),
+                     recipients.getEvictionCount(),
+                     resolved.get(),
+                     resolveBatches.get(),
+                     resolveLatencyTotal.get(),
+                     resolveLatencyMax.get());
+  }
+
+  @WorkerThread
+  private @NonNull List<Recipient> getRecentRecipients() {
+    ThreadDatabase  threadDatabase = DatabaseFactory.getThreadDatabase(context);
+    List<Recipient> recipients     = new ArrayList<>();
+
+    try (ThreadDatabase.Reader reader = threadDatabase.readerFor(threadDatabase.getRecentConversationList(CACHE_WARM_MAX, false, false))) {
+      int          i      = 0;
+      ThreadRecord record = null;
+
+      while ((record = reader.getNext()) != null && i < CACHE_WARM_MAX) {
+        recipients.add(record.getRecipient());
+        i++;
+      }
+    }
+
+    return recipients;
+  }
+
+  private void enqueueResolve(@NonNull LiveRecipient live) {
+    if (db.isDbLockedByCurrentThread()) {
+      // A batch couldn't read anything until this thread is done with the database anyway.
+      live.resolve();
+      return;
+    }
+
+    resolveRequestTimes.put(live, System.currentTimeMillis());
+    resolveBatcher.add(live);
+  }
+
+  /**
+   * Reads every recipient in the batch that's still unresolved with as few queries as possible.
+   * Any that weren't found, like remapped IDs, are resolved one at a time afterwards, and one of
+   * those failing doesn't stop the rest from being resolved.
+   */
+  @WorkerThread
+  private void resolveBatch(@NonNull List<LiveRecipient> batch) {
+    List<LiveRecipient> unresolved = new ArrayList<>(batch.size());
+    List<RecipientId>   ids        = new ArrayList<>(batch.size());
+
+    for (LiveRecipient live : batch) {
+      if (live.get().isResolving()) {
+        unresolved.add(live);
+        ids.add(live.getId());
+      } else {
+        onResolved(live);
+      }
+    }
+
+    if (unresolved.isEmpty()) {
+      return;
+    }
+
+    resolveBatches.incrementAndGet();
+
+    Map<RecipientId, RecipientSettings> settings = recipientDatabase.getRecipientSettings(ids);
+    List<LiveRecipient>                 missing  = new ArrayList<>();
+
+    for (LiveRecipient live : unresolved) {
+      RecipientSettings found = settings.get(live.getId());
+
+      if (found != null) {
+        live.resolve(found);
+        onResolved(live);
+      } else {
+        missing.add(live);
+      }
+    }
+
+    for (LiveRecipient live : missing) {
+      try {
+        live.resolve();
+        onResolved(live);
+      } catch (RuntimeException e) {
+        Log.w(TAG, "Failed to resolve " + live.getId() + ". Moving on to the rest of the batch.", e);
+        onResolveFailed(live);
+      }
+    }
+  }
+
+  /**
+   * Forgets when a recipient that couldn't be resolved was requested, without counting it towards
+   * the resolve stats. It stays unresolved, so the next {@link LiveRecipient#resolve()} tries again.
+   */
+  private void onResolveFailed(@NonNull LiveRecipient live) {
+    resolveRequestTimes.remove(live);
+  }
+
+  private void onResolved(@NonNull LiveRecipient live) {
+    Long requestTime = resolveRequestTimes.remove(live);
+
+    if (requestTime == null) {
+      return;
+    }
+
+    long latency = System.currentTimeMillis() - requestTime;
+
+    resolved.incrementAndGet();
+    resolveLatencyTotal.addAndGet(latency);
+
+    long max;
+    do {
+      max = resolveLatencyMax.get();
+    } while (latency > max && !resolveLatencyMax.compareAndSet(max, latency));
+  }
+
+  public static final class Stats {
+
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long resolved;
+    private final long resolveBatches;
+    private final long resolveLatencyTotal;
+    private final long resolveLatencyMax;
+
+    private Stats(long hits, long misses, long evictions, long resolved, long resolveBatches, long resolveLatencyTotal, long resolveLatencyMax) {
+      this.hits                = hits;
+      this.misses              = misses;
+      this.evictions           = evictions;
+      this.resolved            = resolved;
+      this.resolveBatches      = resolveBatches;
+      this.resolveLatencyTotal = resolveLatencyTotal;
+      this.resolveLatencyMax   = resolveLatencyMax;
+    }
+
+    /**
+     * @return The number of lookups that found a recipient already in the cache.
+     */
+    public long getHits() {
+      return hits;
+    }
+
+    /**
+     * @return The number of lookups that had to create an entry and resolve it.
+     */
+    public long getMisses() {
+      return misses;
+    }
+
+    /**
+     * @return The number of entries dropped to make room for others.
+     */
+    public long getEvictions() {
+      return evictions;
+    }
+
+    /**
+     * @return The number of resolves that have finished.
+     */
+    public long getResolved() {
+      return resolved;
+    }
+
+    /**
+     * @return The number of batches that had to read anything from disk.
+     */
+    public long getResolveBatches() {
+      return resolveBatches;
+    }
+
+    /**
+     * @return The average time in milliseconds from asking for a resolve to it finishing.
+     */
+    public long getAverageResolveLatency() {
+      return resolved > 0 ? resolveLatencyTotal / resolved : 0;
+    }
+
+    /**
+     * @return The longest time in milliseconds from asking for a resolve to it finishing.
+     */
+    public long getMaxResolveLatency() {
+      return resolveLatencyMax;
+    }
+
+    @Override
+    public @NonNull String toString() {
+      return String.format(Locale.US,
+                           "hits: %d, misses: %d, evictions: %d, resolved: %d, batches: %d, average latency: %d ms, max latency: %d ms",
+                           hits, misses, evictions, resolved, resolveBatches, getAverageResolveLatency(), resolveLatencyMax);
+    }
   }
 }
@@ -32,6 +32,7 @@ import org.thoughtcrime.securesms.database.RecipientDatabase.MentionSetting;
 import org.thoughtcrime.securesms.database.RecipientDatabase.RegisteredState;
 import org.thoughtcrime.securesms.database.RecipientDatabase.UnidentifiedAccessMode;
 import org.thoughtcrime.securesms.database.RecipientDatabase.VibrateState;
+import org.thoughtcrime.securesms.database.model.databaseprotos.RecipientSnapshot;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.groups.GroupId;
 import org.thoughtcrime.securesms.keyvalue.SignalStore;
@@ -398,6 +399,57 @@ public class Recipient {
     this.systemContactName           = details.systemContactName;
   }
 
+  /**
+   * @return The fields needed to display this recipient, for {@link RecipientCacheSnapshot}.
+   */
+  @NonNull RecipientSnapshot toSnapshot() {
+    RecipientSnapshot.Builder builder = RecipientSnapshot.newBuilder()
+                                                         .setId(id.toLong())
+                                                         .setE164(Util.emptyIfNull(e164))
+                                                         .setEmail(Util.emptyIfNull(email))
+                                                         .setUsername(Util.emptyIfNull(username))
+                                                         .setGroupName(Util.emptyIfNull(groupName))
+                                                         .setSystemContactName(Util.emptyIfNull(systemContactName))
+                                                         .setSystemProfileName(systemProfileName.serialize())
+                                                         .setCustomLabel(Util.emptyIfNull(customLabel))
+                                                         .setProfileName(signalProfileName.serialize())
+                                                         .setProfileAvatar(Util.emptyIfNull(profileAvatar))
+                                                         .setHasProfileImage(hasProfileImage)
+                                                         .setMutedUntil(muteUntil)
+                                                         .setBlocked(blocked)
+                                                         .setRegistered(registered.getId())
+                                                         .setIsSelf(isSelf)
+                                                         .setAbout(Util.emptyIfNull(about))
+                                                         .setAboutEmoji(Util.emptyIfNull(aboutEmoji));
+
+    if (uuid != null) {
+      builder.setUuid(uuid.toString());
+    }
+
+    if (groupId != null) {
+      builder.setGroupId(groupId.toString());
+    }
+
+    if (groupAvatarId != null && groupAvatarId.isPresent()) {
+      builder.setHasGroupAvatarId(true)
+             .setGroupAvatarId(groupAvatarId.get());
+    }
+
+    if (systemContactPhoto != null) {
+      builder.setSystemContactPhoto(systemContactPhoto.toString());
+    }
+
+    if (contactUri != null) {
+      builder.setContactUri(contactUri.toString());
+    }
+
+    if (color != null) {
+      builder.setColor(color.serialize());
+    }
+
+    return builder.build();
+  }
+
   public @NonNull RecipientId getId() {
     return id;
   }
@@ -0,0 +1,173 @@
+package org.thoughtcrime.securesms.recipients;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.crypto.AttachmentSecret;
+import org.thoughtcrime.securesms.crypto.AttachmentSecretProvider;
+import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream;
+import org.thoughtcrime.securesms.crypto.ModernEncryptingPartOutputStream;
+import org.thoughtcrime.securesms.database.model.databaseprotos.RecipientSnapshot;
+import org.thoughtcrime.securesms.database.model.databaseprotos.RecipientSnapshotList;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An encrypted file holding what's needed to display the recipients we're most likely to show
+ * right after launch, so that {@link LiveRecipientCache} can be warmed up without reading every
+ * one of them from the database.
+ *
+ * Recipients read from the snapshot are unresolved, so they're not validated lazily: as soon as
+ * they're added to the cache, every one of them is queued to be resolved against the database in
+ * the background, and anything that's changed since the snapshot was written is replaced. What the
+ * snapshot saves is the thread list query, and having something to display before those resolves
+ * finish, not the database reads themselves.
+ *
+ * The encrypted stream isn't authenticated, so the serialized list is preceded by its length and
+ * SHA-256 digest, and a snapshot that doesn't match them is thrown away. Writes and deletes are
+ * serialized, since they share a temporary file.
+ */
+final class RecipientCacheSnapshot {
+
+  private static final String TAG = Log.tag(RecipientCacheSnapshot.class);
+
+  private static final String FILE_NAME     = "recipient_snapshot";
+  private static final int    MAX_SIZE      = 10 * 1024 * 1024;
+  private static final int    DIGEST_LENGTH = 32;
+
+  private static final Object LOCK = new Object();
+
+  private RecipientCacheSnapshot() {}
+
+  /**
+   * @return The recipients in the snapshot, or an empty list if there isn't one or it couldn't be
+   *         read.
+   */
+  @WorkerThread
+  static @NonNull List<Recipient> read(@NonNull Context context) {
+    return read(context, getAttachmentSecret(context));
+  }
+
+  @VisibleForTesting
+  @WorkerThread
+  static @NonNull List<Recipient> read(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret) {
+    File file = getFile(context);
+
+    if (!file.exists()) {
+      return Collections.emptyList();
+    }
+
+    try (DataInputStream in = new DataInputStream(ModernDecryptingPartInputStream.createFor(attachmentSecret, file, 0))) {
+      int length = in.readInt();
+
+      if (length < 0 || length > MAX_SIZE) {
+        throw new IOException("Bad length: " + length);
+      }
+
+      byte[] digest     = new byte[DIGEST_LENGTH];
+      byte[] serialized = new byte[length];
+
+      in.readFully(digest);
+      in.readFully(serialized);
+
+      if (!MessageDigest.isEqual(digest, digest(serialized))) {
+        throw new IOException("Digest mismatch.");
+      }
+
+      RecipientSnapshotList snapshots  = RecipientSnapshotList.parseFrom(serialized);
+      List<Recipient>       recipients = new ArrayList<>(snapshots.getRecipientsCount());
+
+      for (RecipientSnapshot snapshot : snapshots.getRecipientsList()) {
+        recipients.add(new Recipient(RecipientId.from(snapshot.getId()), new RecipientDetails(snapshot), false));
+      }
+
+      return recipients;
+    } catch (IOException | RuntimeException e) {
+      Log.w(TAG, "Failed to read the recipient snapshot. Deleting it.", e);
+      delete(context);
+      return Collections.emptyList();
+    }
+  }
+
+  /**
+   * Replaces the snapshot with the given recipients. MMS groups are left out, since they're
+   * displayed using their participants, which aren't part of the snapshot.
+   */
+  @WorkerThread
+  static void write(@NonNull Context context, @NonNull Collection<Recipient> recipients) {
+    write(context, getAttachmentSecret(context), recipients);
+  }
+
+  @VisibleForTesting
+  @WorkerThread
+  static void write(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret, @NonNull Collection<Recipient> recipients) {
+    RecipientSnapshotList.Builder builder = RecipientSnapshotList.newBuilder();
+
+    for (Recipient recipient : recipients) {
+      if (!recipient.isMmsGroup()) {
+        builder.addRecipients(recipient.toSnapshot());
+      }
+    }
+
+    byte[] serialized = builder.build().toByteArray();
+    File   file       = getFile(context);
+    File   temp       = new File(file.getParentFile(), FILE_NAME + ".tmp");
+
+    synchronized (LOCK) {
+      try (DataOutputStream out = new DataOutputStream(ModernEncryptingPartOutputStream.createFor(attachmentSecret, temp, true).second)) {
+        out.writeInt(serialized.length);
+        out.write(digest(serialized));
+        out.write(serialized);
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to write the recipient snapshot.", e);
+        temp.delete();
+        return;
+      }
+
+      if (!temp.renameTo(file)) {
+        Log.w(TAG, "Failed to replace the recipient snapshot.");
+        temp.delete();
+      }
+    }
+  }
+
+  static void delete(@NonNull Context context) {
+    File file = getFile(context);
+
+    synchronized (LOCK) {
+      if (file.exists() && !file.delete()) {
+        Log.w(TAG, "Failed to delete the recipient snapshot.");
+      }
+    }
+  }
+
+  @VisibleForTesting
+  static @NonNull File getFile(@NonNull Context context) {
+    return new File(context.getFilesDir(), FILE_NAME);
+  }
+
+  private static @NonNull byte[] digest(@NonNull byte[] serialized) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(serialized);
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static @NonNull AttachmentSecret getAttachmentSecret(@NonNull Context context) {
+    return AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret();
+  }
+}
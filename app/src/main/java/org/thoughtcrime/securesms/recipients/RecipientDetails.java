@@ -14,12 +14,14 @@ import org.thoughtcrime.securesms.database.RecipientDatabase.RecipientSettings;
 import org.thoughtcrime.securesms.database.RecipientDatabase.RegisteredState;
 import org.thoughtcrime.securesms.database.RecipientDatabase.UnidentifiedAccessMode;
 import org.thoughtcrime.securesms.database.RecipientDatabase.VibrateState;
+import org.thoughtcrime.securesms.database.model.databaseprotos.RecipientSnapshot;
 import org.thoughtcrime.securesms.groups.GroupId;
 import org.thoughtcrime.securesms.profiles.ProfileName;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.thoughtcrime.securesms.util.Util;
 import org.thoughtcrime.securesms.wallpaper.ChatWallpaper;
 import org.whispersystems.libsignal.util.guava.Optional;
+import org.whispersystems.signalservice.api.util.UuidUtil;
 
 import java.util.LinkedList;
 import java.util.List;
@@ -173,6 +175,56 @@ public class RecipientDetails {
     this.systemContactName           = null;
   }
 
+  /**
+   * Only used for recipients loaded from a {@link RecipientCacheSnapshot}. Anything that isn't
+   * needed for display is left at its default until the recipient is resolved.
+   */
+  RecipientDetails(@NonNull RecipientSnapshot snapshot) {
+    this.groupAvatarId               = snapshot.getHasGroupAvatarId() ? Optional.of(snapshot.getGroupAvatarId()) : Optional.absent();
+    this.systemContactPhoto          = Util.uri(emptyToNull(snapshot.getSystemContactPhoto()));
+    this.customLabel                 = emptyToNull(snapshot.getCustomLabel());
+    this.contactUri                  = Util.uri(emptyToNull(snapshot.getContactUri()));
+    this.uuid                        = UuidUtil.parseOrNull(emptyToNull(snapshot.getUuid()));
+    this.username                    = emptyToNull(snapshot.getUsername());
+    this.e164                        = emptyToNull(snapshot.getE164());
+    this.email                       = emptyToNull(snapshot.getEmail());
+    this.groupId                     = GroupId.parseNullableOrThrow(emptyToNull(snapshot.getGroupId()));
+    this.color                       = colorFromSerialized(snapshot.getColor());
+    this.messageRingtone             = null;
+    this.callRingtone                = null;
+    this.mutedUntil                  = snapshot.getMutedUntil();
+    this.messageVibrateState         = VibrateState.DEFAULT;
+    this.callVibrateState            = VibrateState.DEFAULT;
+    this.blocked                     = snapshot.getBlocked();
+    this.expireMessages              = 0;
+    this.participants                = new LinkedList<>();
+    this.profileName                 = ProfileName.fromSerialized(snapshot.getProfileName());
+    this.insightsBannerTier          = InsightsBannerTier.TIER_TWO;
+    this.defaultSubscriptionId       = Optional.absent();
+    this.registered                  = RegisteredState.fromId(snapshot.getRegistered());
+    this.profileKey                  = null;
+    this.profileKeyCredential        = null;
+    this.profileAvatar               = emptyToNull(snapshot.getProfileAvatar());
+    this.hasProfileImage             = snapshot.getHasProfileImage();
+    this.profileSharing              = false;
+    this.lastProfileFetch            = 0;
+    this.systemContact               = !snapshot.getSystemProfileName().isEmpty();
+    this.isSelf                      = snapshot.getIsSelf();
+    this.notificationChannel         = null;
+    this.unidentifiedAccessMode      = UnidentifiedAccessMode.UNKNOWN;
+    this.forceSmsSelection           = false;
+    this.groupName                   = emptyToNull(snapshot.getGroupName());
+    this.groupsV2Capability          = Recipient.Capability.UNKNOWN;
+    this.groupsV1MigrationCapability = Recipient.Capability.UNKNOWN;
+    this.storageId                   = null;
+    this.mentionSetting              = MentionSetting.ALWAYS_NOTIFY;
+    this.wallpaper                   = null;
+    this.about                       = emptyToNull(snapshot.getAbout());
+    this.aboutEmoji                  = emptyToNull(snapshot.getAboutEmoji());
+    this.systemProfileName           = ProfileName.fromSerialized(snapshot.getSystemProfileName());
+    this.systemContactName           = emptyToNull(snapshot.getSystemContactName());
+  }
+
   public static @NonNull RecipientDetails forIndividual(@NonNull Context context, @NonNull RecipientSettings settings) {
     boolean systemContact = !settings.getSystemProfileName().isEmpty();
     boolean isSelf        = (settings.getE164() != null && settings.getE164().equals(TextSecurePreferences.getLocalNumber(context))) ||
@@ -180,4 +232,20 @@ public class RecipientDetails {
 
     return new RecipientDetails(null, settings.getSystemDisplayName(), Optional.absent(), systemContact, isSelf, settings, null);
   }
+
+  private static @Nullable String emptyToNull(@NonNull String value) {
+    return value.isEmpty() ? null : value;
+  }
+
+  private static @Nullable MaterialColor colorFromSerialized(@NonNull String serialized) {
+    if (serialized.isEmpty()) {
+      return null;
+    }
+
+    try {
+      return MaterialColor.fromSerialized(serialized);
+    } catch (MaterialColor.UnknownColorException e) {
+      return null;
+    }
+  }
 }
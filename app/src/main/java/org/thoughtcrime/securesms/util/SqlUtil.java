@@ -4,6 +4,7 @@ import android.content.ContentValues;
 import android.database.Cursor;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.annimon.stream.Stream;
 
@@ -160,11 +161,62 @@ public final class SqlUtil {
     return output;
   }
 
+  public static String[] appendArgs(@NonNull String[] args, @NonNull String... additions) {
+    String[] output = new String[args.length + additions.length];
+
+    System.arraycopy(args, 0, output, 0, args.length);
+    System.arraycopy(additions, 0, output, args.length, additions.length);
+
+    return output;
+  }
+
+  /**
+   * Builds an FTS5 MATCH expression that requires every whitespace-separated word in the query to
+   * be the start of a word in the row. Each word is quoted, so characters that mean something to
+   * the MATCH syntax are treated as plain text.
+   *
+   * Ex:
+   *   jo sm -> "jo"* "sm"*
+   *
+   * @return The expression, or null if the query doesn't contain any letters or digits to match.
+   */
+  public static @Nullable String buildFtsPrefixQuery(@NonNull String query) {
+    StringBuilder match = new StringBuilder();
+
+    for (String word : query.trim().split("\\s+")) {
+      if (!containsLetterOrDigit(word)) {
+        continue;
+      }
+
+      if (match.length() > 0) {
+        match.append(' ');
+      }
+
+      match.append('"').append(word.replace("\"", "\"\"")).append("\"*");
+    }
+
+    return match.length() > 0 ? match.toString() : null;
+  }
+
+  private static boolean containsLetterOrDigit(@NonNull String value) {
+    for (int i = 0; i < value.length(); ) {
+      int codePoint = value.codePointAt(i);
+
+      if (Character.isLetterOrDigit(codePoint)) {
+        return true;
+      }
+
+      i += Character.charCount(codePoint);
+    }
+
+    return false;
+  }
+
   public static class Query {
     private final String   where;
     private final String[] whereArgs;
 
-    private Query(@NonNull String where, @NonNull String[] whereArgs) {
+    public Query(@NonNull String where, @NonNull String[] whereArgs) {
       this.where     = where;
       this.whereArgs = whereArgs;
     }
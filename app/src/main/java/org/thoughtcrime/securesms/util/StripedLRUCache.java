@@ -0,0 +1,150 @@
+package org.thoughtcrime.securesms.util;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.annimon.stream.function.Predicate;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A least-recently-used cache that's safe to use from any thread, split into stripes that each
+ * have their own lock so that lookups for different keys rarely wait on each other.
+ *
+ * Each stripe holds its share of the maximum size. Values the pinned predicate matches are never
+ * evicted, and neither is the value that was just added, so a stripe can grow past its share
+ * while values are pinned, and shrinks back the next time something is added to it.
+ */
+public final class StripedLRUCache<K, V> {
+
+  private final Stripe<K, V>[] stripes;
+  private final Predicate<V>   pinned;
+  private final AtomicLong     evictions = new AtomicLong();
+
+  /**
+   * @param maxSize     The number of unpinned values to hold before evicting. Rounded up to a
+   *                    multiple of the stripe count.
+   * @param stripeCount How many locks to spread the keys across.
+   * @param pinned      Values that must not be evicted, like ones that are being observed.
+   */
+  @SuppressWarnings("unchecked")
+  public StripedLRUCache(int maxSize, int stripeCount, @NonNull Predicate<V> pinned) {
+    if (maxSize <= 0 || stripeCount <= 0) {
+      throw new IllegalArgumentException("maxSize: " + maxSize + ", stripeCount: " + stripeCount);
+    }
+
+    int stripeSize = (maxSize + stripeCount - 1) / stripeCount;
+
+    this.stripes = new Stripe[stripeCount];
+    this.pinned  = pinned;
+
+    for (int i = 0; i < stripeCount; i++) {
+      stripes[i] = new Stripe<>(stripeSize);
+    }
+  }
+
+  public @Nullable V get(@NonNull K key) {
+    Stripe<K, V> stripe = stripeFor(key);
+
+    synchronized (stripe) {
+      return stripe.map.get(key);
+    }
+  }
+
+  /**
+   * @return The value already in the cache for the key, or null if there wasn't one and the given
+   *         value was added.
+   */
+  public @Nullable V putIfAbsent(@NonNull K key, @NonNull V value) {
+    Stripe<K, V> stripe = stripeFor(key);
+
+    synchronized (stripe) {
+      V existing = stripe.map.get(key);
+
+      if (existing != null) {
+        return existing;
+      }
+
+      stripe.map.put(key, value);
+      trim(stripe, key);
+
+      return null;
+    }
+  }
+
+  public void clear() {
+    for (Stripe<K, V> stripe : stripes) {
+      synchronized (stripe) {
+        stripe.map.clear();
+      }
+    }
+  }
+
+  public int size() {
+    int size = 0;
+
+    for (Stripe<K, V> stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.map.size();
+      }
+    }
+
+    return size;
+  }
+
+  /**
+   * @return How many values have been evicted to make room for others.
+   */
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  private @NonNull Stripe<K, V> stripeFor(@NonNull K key) {
+    int hash = key.hashCode();
+    hash ^= hash >>> 16;
+
+    return stripes[(hash & Integer.MAX_VALUE) % stripes.length];
+  }
+
+  private void trim(@NonNull Stripe<K, V> stripe, @NonNull K added) {
+    if (stripe.map.size() <= stripe.maxSize) {
+      return;
+    }
+
+    Iterator<Map.Entry<K, V>> iterator = stripe.map.entrySet().iterator();
+    List<K>                   skipped  = new ArrayList<>();
+
+    while (stripe.map.size() > stripe.maxSize && iterator.hasNext()) {
+      Map.Entry<K, V> eldest = iterator.next();
+
+      if (eldest.getKey().equals(added)) {
+        break;
+      } else if (pinned.test(eldest.getValue())) {
+        skipped.add(eldest.getKey());
+      } else {
+        iterator.remove();
+        evictions.incrementAndGet();
+      }
+    }
+
+    // Touch the pinned values we walked past so the next trim doesn't have to walk past them again.
+    for (K key : skipped) {
+      stripe.map.get(key);
+    }
+  }
+
+  private static final class Stripe<K, V> {
+    private final int                 maxSize;
+    private final LinkedHashMap<K, V> map;
+
+    private Stripe(int maxSize) {
+      this.maxSize = maxSize;
+      this.map     = new LinkedHashMap<>(16, 0.75f, true);
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package org.thoughtcrime.securesms.util.concurrent;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Collects items and hands them to a {@link Processor} in batches on an executor, so that work
+ * asked for around the same time, like reading rows from the database, can be done in one go
+ * rather than once per item.
+ *
+ * At most one batch is queued or running at a time. Items added while a batch is running go into
+ * the next one, and an item that's already waiting isn't added twice.
+ */
+public final class CoalescingBatcher<T> {
+
+  private final Executor     executor;
+  private final int          maxBatchSize;
+  private final Processor<T> processor;
+  private final Set<T>       pending = new LinkedHashSet<>();
+
+  private boolean scheduled;
+
+  public CoalescingBatcher(@NonNull Executor executor, int maxBatchSize, @NonNull Processor<T> processor) {
+    this.executor     = executor;
+    this.maxBatchSize = maxBatchSize;
+    this.processor    = processor;
+  }
+
+  public void add(@NonNull T item) {
+    synchronized (this) {
+      if (!pending.add(item) || scheduled) {
+        return;
+      }
+
+      scheduled = true;
+    }
+
+    executor.execute(this::processNextBatch);
+  }
+
+  private void processNextBatch() {
+    List<T> batch = new ArrayList<>();
+
+    synchronized (this) {
+      Iterator<T> iterator = pending.iterator();
+
+      while (iterator.hasNext() && batch.size() < maxBatchSize) {
+        batch.add(iterator.next());
+        iterator.remove();
+      }
+    }
+
+    try {
+      if (!batch.isEmpty()) {
+        processor.process(batch);
+      }
+    } finally {
+      boolean more;
+
+      synchronized (this) {
+        more      = !pending.isEmpty();
+        scheduled = more;
+      }
+
+      if (more) {
+        executor.execute(this::processNextBatch);
+      }
+    }
+  }
+
+  public interface Processor<T> {
+    @WorkerThread
+    void process(@NonNull List<T> batch);
+  }
+}
@@ -0,0 +1,127 @@
+package org.thoughtcrime.securesms.components.emoji;
+
+import android.app.Application;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.components.emoji.parsing.EmojiDrawInfo;
+import org.thoughtcrime.securesms.components.emoji.parsing.EmojiParser;
+import org.thoughtcrime.securesms.components.emoji.parsing.EmojiTree;
+import org.thoughtcrime.securesms.testutil.SystemOutLogger;
+import org.whispersystems.libsignal.util.Pair;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares parsing typical message text into a new {@link EmojiParser.CandidateList} against
+ * parsing it into a reused {@link EmojiParser.CandidateBuffer}, using a tree built from every emoji
+ * we can draw, the same way {@link EmojiProvider} builds it.
+ *
+ * Timings are only logged, since they vary from machine to machine, but parsing into the buffer is
+ * asserted to allocate less than building a new list. Regular test runs skip it; run it with
+ * {@code ./gradlew :Signal-Android:testPlayProdDebugUnitTest -Pbenchmark}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public class EmojiParserBenchmark {
+
+  private static final String TAG = Log.tag(EmojiParserBenchmark.class);
+
+  private static final int WARMUP_RUNS = 20_000;
+  private static final int RUNS        = 100_000;
+
+  private static final String[] TEXTS = {
+      "Are we still on for lunch tomorrow?",
+      "Sounds good 👍",
+      "😂😂😂",
+      "Happy birthday! 🎉🎂 Hope it's a great one ❤️",
+      "👋🏽 Family photo: 👨‍👩‍👧‍👦 at the beach 🏖️☀️🌊"
+  };
+
+  private EmojiParser parser;
+
+  @Before
+  public void setUp() {
+    Log.initialize(new SystemOutLogger());
+
+    EmojiTree.Builder builder = new EmojiTree.Builder();
+
+    for (EmojiPageModel page : EmojiPages.DATA_PAGES) {
+      List<String> emojis = page.getEmoji();
+      for (int i = 0; i < emojis.size(); i++) {
+        builder.add(emojis.get(i), new EmojiDrawInfo(null, i));
+      }
+    }
+
+    for (Pair<String, String> obsolete : EmojiPages.OBSOLETE) {
+      builder.add(obsolete.first(), builder.getEmoji(obsolete.second()));
+    }
+
+    parser = new EmojiParser(builder.build());
+  }
+
+  @Test
+  public void parseTimeAndAllocation() {
+    EmojiParser.CandidateBuffer buffer = new EmojiParser.CandidateBuffer();
+
+    for (String text : TEXTS) {
+      EmojiParser.CandidateList list = parser.findCandidates(text);
+
+      parser.findCandidates(text, buffer);
+      assertEquals(list.size(), buffer.size());
+
+      Result listResult   = measure(() -> parser.findCandidates(text));
+      Result bufferResult = measure(() -> parser.findCandidates(text, buffer));
+
+      String result = String.format(Locale.US, "[%d emoji, %d chars] List: %d ns/op, %d B/op. Buffer: %d ns/op, %d B/op",
+                                    buffer.size(), text.length(),
+                                    listResult.nanosPerOp, listResult.bytesPerOp,
+                                    bufferResult.nanosPerOp, bufferResult.bytesPerOp);
+
+      Log.i(TAG, result);
+      assertTrue(result, bufferResult.bytesPerOp < listResult.bytesPerOp);
+    }
+  }
+
+  private static Result measure(Runnable parse) {
+    for (int i = 0; i < WARMUP_RUNS; i++) {
+      parse.run();
+    }
+
+    long startBytes = getAllocatedBytes();
+    long startNanos = System.nanoTime();
+
+    for (int i = 0; i < RUNS; i++) {
+      parse.run();
+    }
+
+    long nanos = System.nanoTime() - startNanos;
+    long bytes = getAllocatedBytes() - startBytes;
+
+    return new Result(nanos / RUNS, bytes / RUNS);
+  }
+
+  private static long getAllocatedBytes() {
+    com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static final class Result {
+    private final long nanosPerOp;
+    private final long bytesPerOp;
+
+    private Result(long nanosPerOp, long bytesPerOp) {
+      this.nanosPerOp = nanosPerOp;
+      this.bytesPerOp = bytesPerOp;
+    }
+  }
+}
@@ -0,0 +1,194 @@
+package org.thoughtcrime.securesms.components.emoji.parsing;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public final class EmojiParserTest {
+
+  private static final String GRINNING       = "\uD83D\uDE00";
+  private static final String HEART_TEXT     = "\u2764";
+  private static final String HEART          = HEART_TEXT + "\uFE0F";
+  private static final String MAN            = "\uD83D\uDC68";
+  private static final String ZWJ            = "\u200D";
+  private static final String FAMILY         = MAN + ZWJ + "\uD83D\uDC69" + ZWJ + "\uD83D\uDC67";
+  private static final String DARK_SKIN_TONE = "\uD83C\uDFFF";
+
+  private EmojiDrawInfo grinning;
+  private EmojiDrawInfo heart;
+  private EmojiDrawInfo man;
+  private EmojiDrawInfo family;
+  private EmojiParser   parser;
+
+  @Before
+  public void setUp() {
+    grinning = new EmojiDrawInfo(null, 0);
+    heart    = new EmojiDrawInfo(null, 1);
+    man      = new EmojiDrawInfo(null, 2);
+    family   = new EmojiDrawInfo(null, 3);
+
+    EmojiTree.Builder builder = new EmojiTree.Builder();
+    builder.add(GRINNING, grinning);
+    builder.add(HEART, heart);
+    builder.add(MAN, man);
+    builder.add(FAMILY, family);
+
+    parser = new EmojiParser(builder.build());
+  }
+
+  @Test
+  public void findCandidates_null() {
+    EmojiParser.CandidateBuffer buffer = new EmojiParser.CandidateBuffer();
+
+    parser.findCandidates(null, buffer);
+
+    assertEquals(0, buffer.size());
+    assertFalse(buffer.isAllEmojis());
+  }
+
+  @Test
+  public void findCandidates_noEmoji() {
+    EmojiParser.CandidateBuffer buffer = new EmojiParser.CandidateBuffer();
+
+    parser.findCandidates("hello", buffer);
+
+    assertEquals(0, buffer.size());
+    assertFalse(buffer.isAllEmojis());
+  }
+
+  @Test
+  public void findCandidates_textAroundEmoji() {
+    EmojiParser.CandidateBuffer buffer = new EmojiParser.CandidateBuffer();
+
+    parser.findCandidates("hi " + GRINNING + " there", buffer);
+
+    assertEquals(1, buffer.size());
+    assertCandidate(buffer, 0, 3, 5, grinning);
+    assertFalse(buffer.isAllEmojis());
+  }
+
+  @Test
+  public void findCandidates_longestMatch() {
+    EmojiParser.CandidateBuffer buffer = new EmojiParser.CandidateBuffer();
+
+    parser.findCandidates(FAMILY + MAN, buffer);
+
+    assertEquals(2, buffer.size());
+    assertCandidate(buffer, 0, 0, FAMILY.length(), family);
+    assertCandidate(buffer, 1, FAMILY.length(), FAMILY.length() + MAN.length(), man);
+  }
+
+  @Test
+  public void findCandidates_partialSequence_fallsBackToShorterEmoji() {
+    EmojiParser.CandidateBuffer buffer = new EmojiParser.CandidateBuffer();
+
+    parser.findCandidates(MAN + ZWJ, buffer);
+
+    assertEquals(1, buffer.size());
+    assertCandidate(buffer, 0, 0, MAN.length(), man);
+    assertFalse(buffer.isAllEmojis());
+  }
+
+  @Test
+  public void findCandidates_missingVariationSelector() {
+    EmojiParser.CandidateBuffer buffer = new EmojiParser.CandidateBuffer();
+
+    parser.findCandidates(HEART_TEXT, buffer);
+
+    assertEquals(1, buffer.size());
+    assertCandidate(buffer, 0, 0, 1, heart);
+    assertTrue(buffer.isAllEmojis());
+  }
+
+  @Test
+  public void findCandidates_fitzpatrickModifierIsIncluded() {
+    EmojiParser.CandidateBuffer buffer = new EmojiParser.CandidateBuffer();
+
+    parser.findCandidates(MAN + DARK_SKIN_TONE, buffer);
+
+    assertEquals(1, buffer.size());
+    assertCandidate(buffer, 0, 0, MAN.length() + DARK_SKIN_TONE.length(), man);
+  }
+
+  @Test
+  public void findCandidates_allEmojisIgnoresSpaces() {
+    EmojiParser.CandidateBuffer buffer = new EmojiParser.CandidateBuffer();
+
+    parser.findCandidates(GRINNING + " " + HEART + " ", buffer);
+
+    assertEquals(2, buffer.size());
+    assertTrue(buffer.isAllEmojis());
+  }
+
+  @Test
+  public void findCandidates_growsPastInitialCapacity() {
+    EmojiParser.CandidateBuffer buffer = new EmojiParser.CandidateBuffer();
+    StringBuilder               text   = new StringBuilder();
+
+    for (int i = 0; i < 50; i++) {
+      text.append(GRINNING);
+    }
+
+    parser.findCandidates(text, buffer);
+
+    assertEquals(50, buffer.size());
+    for (int i = 0; i < 50; i++) {
+      assertCandidate(buffer, i, i * 2, i * 2 + 2, grinning);
+    }
+  }
+
+  @Test
+  public void findCandidates_reusedBufferIsReplaced() {
+    EmojiParser.CandidateBuffer buffer = new EmojiParser.CandidateBuffer();
+
+    parser.findCandidates(GRINNING + GRINNING + GRINNING, buffer);
+    parser.findCandidates("a" + HEART, buffer);
+
+    assertEquals(1, buffer.size());
+    assertCandidate(buffer, 0, 1, 3, heart);
+    assertFalse(buffer.isAllEmojis());
+  }
+
+  @Test
+  public void findCandidates_listMatchesBuffer() {
+    String                      text   = "x " + FAMILY + DARK_SKIN_TONE + " " + HEART_TEXT + " " + GRINNING + MAN + ZWJ;
+    EmojiParser.CandidateBuffer buffer = new EmojiParser.CandidateBuffer();
+
+    parser.findCandidates(text, buffer);
+
+    EmojiParser.CandidateList list = parser.findCandidates(text);
+
+    assertEquals(buffer.size(), list.size());
+    assertEquals(buffer.isAllEmojis(), list.allEmojis);
+
+    for (int i = 0; i < buffer.size(); i++) {
+      EmojiParser.Candidate candidate = list.list.get(i);
+
+      assertCandidate(buffer, i, candidate.getStartIndex(), candidate.getEndIndex(), candidate.getDrawInfo());
+    }
+  }
+
+  @Test
+  public void getEmoji_unknownSequence() {
+    EmojiTree.Builder builder = new EmojiTree.Builder();
+    builder.add(GRINNING, grinning);
+
+    EmojiTree tree = builder.build();
+
+    assertNull(tree.getEmoji(MAN, 0, MAN.length()));
+    assertNull(tree.getEmoji(GRINNING, 0, 1));
+    assertEquals(-1, tree.findEmojiEnd("a" + GRINNING, 0));
+    assertEquals(3, tree.findEmojiEnd("a" + GRINNING, 1));
+  }
+
+  private static void assertCandidate(EmojiParser.CandidateBuffer buffer, int position, int start, int end, EmojiDrawInfo drawInfo) {
+    assertEquals(start, buffer.getStartIndex(position));
+    assertEquals(end, buffer.getEndIndex(position));
+    assertSame(drawInfo, buffer.getDrawInfo(position));
+  }
+}
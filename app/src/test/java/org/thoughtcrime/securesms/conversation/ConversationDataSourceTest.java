@@ -0,0 +1,251 @@
+package org.thoughtcrime.securesms.conversation;
+
+import android.app.Application;
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentMatcher;
+import org.mockito.invocation.InvocationOnMock;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.database.MentionDatabase;
+import org.thoughtcrime.securesms.database.MmsSmsDatabase;
+import org.thoughtcrime.securesms.database.model.ConversationAnchor;
+import org.thoughtcrime.securesms.database.model.MessageId;
+import org.thoughtcrime.securesms.database.model.MessageRecord;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.mock;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+/**
+ * Checks which query {@link ConversationDataSource} uses to load each page, and that seeking from
+ * an anchor loads the same messages an offset would have, against a fake conversation.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+@PowerMockIgnore({ "org.mockito.*", "org.robolectric.*", "android.*", "androidx.*" })
+@PrepareForTest({ DatabaseFactory.class, MmsSmsDatabase.class })
+public class ConversationDataSourceTest {
+
+  private static final long THREAD_ID     = 1;
+  private static final int  MESSAGE_COUNT = 100;
+  private static final int  PAGE_SIZE     = 10;
+
+  @Rule
+  public PowerMockRule rule = new PowerMockRule();
+
+  private final List<MessageRecord>              conversation = new ArrayList<>(MESSAGE_COUNT);
+  private final Map<Cursor, List<MessageRecord>> pages        = new IdentityHashMap<>();
+
+  private MmsSmsDatabase         mmsSmsDatabase;
+  private ConversationDataSource testSubject;
+
+  @Before
+  public void setUp() {
+    mockStatic(DatabaseFactory.class);
+    mockStatic(MmsSmsDatabase.class);
+
+    mmsSmsDatabase = mock(MmsSmsDatabase.class);
+
+    when(DatabaseFactory.getMmsSmsDatabase(any())).thenReturn(mmsSmsDatabase);
+    when(DatabaseFactory.getMentionDatabase(any())).thenReturn(mock(MentionDatabase.class));
+    when(MmsSmsDatabase.readerFor(any())).then(this::readerFor);
+
+    // Newest first, with pairs of messages received at the same time
+    for (int position = 0; position < MESSAGE_COUNT; position++) {
+      long          id     = MESSAGE_COUNT - position;
+      MessageRecord record = mock(MessageRecord.class);
+
+      when(record.getId()).thenReturn(id);
+      when(record.getDateReceived()).thenReturn(id / 2);
+
+      conversation.add(record);
+    }
+
+    when(mmsSmsDatabase.getConversation(eq(THREAD_ID), anyLong(), anyLong())).then(invocation -> {
+      int offset = (int) (long) invocation.<Long>getArgument(1);
+      int limit  = (int) (long) invocation.<Long>getArgument(2);
+
+      return page(offset, limit, false);
+    });
+
+    when(mmsSmsDatabase.getConversationAfter(eq(THREAD_ID), any(), anyLong(), anyLong())).then(invocation -> {
+      int offset = (int) (long) invocation.<Long>getArgument(2);
+      int limit  = (int) (long) invocation.<Long>getArgument(3);
+
+      return page(positionOf(invocation.getArgument(1)) + 1 + offset, limit, false);
+    });
+
+    when(mmsSmsDatabase.getConversationBefore(eq(THREAD_ID), any(), anyLong(), anyLong())).then(invocation -> {
+      int offset = (int) (long) invocation.<Long>getArgument(2);
+      int limit  = (int) (long) invocation.<Long>getArgument(3);
+
+      return page(positionOf(invocation.getArgument(1)) - 1 - offset, limit, true);
+    });
+
+    testSubject = new ConversationDataSource(ApplicationProvider.getApplicationContext(), THREAD_ID);
+  }
+
+  @Test
+  public void givenNoPagesLoaded_whenILoadAPage_thenIExpectAnOffsetQuery() {
+    assertEquals(positions(50, PAGE_SIZE), load(50, PAGE_SIZE));
+
+    verify(mmsSmsDatabase).getConversation(THREAD_ID, 50, PAGE_SIZE);
+  }
+
+  @Test
+  public void givenAPageLoaded_whenILoadTheNextPage_thenIExpectASeekFromItsLastMessage() {
+    load(0, PAGE_SIZE);
+
+    assertEquals(positions(PAGE_SIZE, PAGE_SIZE), load(PAGE_SIZE, PAGE_SIZE));
+
+    verify(mmsSmsDatabase, times(1)).getConversation(eq(THREAD_ID), anyLong(), anyLong());
+    verify(mmsSmsDatabase).getConversationAfter(eq(THREAD_ID), argThat(anchorAt(PAGE_SIZE - 1)), eq(0L), eq((long) PAGE_SIZE));
+  }
+
+  @Test
+  public void givenAPageLoaded_whenILoadThePageBeforeIt_thenIExpectASeekBackwardsFromItsFirstMessage() {
+    load(50, PAGE_SIZE);
+
+    assertEquals(positions(40, PAGE_SIZE), load(40, PAGE_SIZE));
+
+    verify(mmsSmsDatabase, times(1)).getConversation(eq(THREAD_ID), anyLong(), anyLong());
+    verify(mmsSmsDatabase).getConversationBefore(eq(THREAD_ID), argThat(anchorAt(50)), eq(0L), eq((long) PAGE_SIZE));
+  }
+
+  @Test
+  public void givenAPageLoaded_whenILoadAPageFurtherOn_thenIExpectASeekWithTheRemainingOffset() {
+    load(0, PAGE_SIZE);
+
+    assertEquals(positions(30, PAGE_SIZE), load(30, PAGE_SIZE));
+
+    verify(mmsSmsDatabase).getConversationAfter(eq(THREAD_ID), argThat(anchorAt(PAGE_SIZE - 1)), eq(20L), eq((long) PAGE_SIZE));
+  }
+
+  @Test
+  public void givenAPageLoaded_whenILoadAPageCloserToTheStart_thenIExpectAnOffsetQuery() {
+    load(80, PAGE_SIZE);
+
+    assertEquals(positions(20, PAGE_SIZE), load(20, PAGE_SIZE));
+
+    verify(mmsSmsDatabase).getConversation(THREAD_ID, 20, PAGE_SIZE);
+    verify(mmsSmsDatabase, never()).getConversationBefore(anyLong(), any(), anyLong(), anyLong());
+  }
+
+  @Test
+  public void givenTheLastPartialPageLoaded_whenILoadThePageBeforeIt_thenIExpectASeekBackwards() {
+    load(95, PAGE_SIZE);
+
+    assertEquals(positions(85, PAGE_SIZE), load(85, PAGE_SIZE));
+
+    verify(mmsSmsDatabase).getConversationBefore(eq(THREAD_ID), argThat(anchorAt(95)), eq(0L), eq((long) PAGE_SIZE));
+  }
+
+  @Test
+  public void givenAnchorsInvalidated_whenILoadTheNextPage_thenIExpectAnOffsetQuery() {
+    load(0, PAGE_SIZE);
+    testSubject.invalidateAnchors();
+
+    assertEquals(positions(PAGE_SIZE, PAGE_SIZE), load(PAGE_SIZE, PAGE_SIZE));
+
+    verify(mmsSmsDatabase).getConversation(THREAD_ID, PAGE_SIZE, PAGE_SIZE);
+    verify(mmsSmsDatabase, never()).getConversationAfter(anyLong(), any(), anyLong(), anyLong());
+  }
+
+  @Test
+  public void givenPagesLoadedInAnyOrder_whenILoadEveryPage_thenIExpectTheWholeConversationInOrder() {
+    int[] starts = { 40, 50, 30, 90, 0, 10, 80, 20, 60, 70 };
+
+    for (int start : starts) {
+      assertEquals("start " + start, positions(start, PAGE_SIZE), load(start, PAGE_SIZE));
+    }
+  }
+
+  private @NonNull List<Long> load(int start, int length) {
+    List<Long> ids = new ArrayList<>(length);
+
+    for (ConversationMessage message : testSubject.load(start, length, () -> false)) {
+      ids.add(message.getMessageRecord().getId());
+    }
+
+    return ids;
+  }
+
+  private @NonNull List<Long> positions(int start, int length) {
+    List<Long> ids = new ArrayList<>(length);
+
+    for (int position = start; position < Math.min(start + length, MESSAGE_COUNT); position++) {
+      ids.add(conversation.get(position).getId());
+    }
+
+    return ids;
+  }
+
+  private int positionOf(@NonNull ConversationAnchor anchor) {
+    return (int) (MESSAGE_COUNT - anchor.getMessageId().getId());
+  }
+
+  private @NonNull ArgumentMatcher<ConversationAnchor> anchorAt(int position) {
+    MessageRecord record = conversation.get(position);
+    MessageId     id     = new MessageId(record.getId(), false);
+
+    return anchor -> anchor != null && anchor.getMessageId().equals(id) && anchor.getDateReceived() == record.getDateReceived();
+  }
+
+  /**
+   * Returns a cursor over up to {@code limit} messages starting at {@code position}, either going
+   * down the conversation or, if {@code reversed}, back up it.
+   */
+  private @NonNull Cursor page(int position, int limit, boolean reversed) {
+    List<MessageRecord> records = new ArrayList<>(limit);
+
+    for (int i = position; i >= 0 && i < MESSAGE_COUNT && records.size() < limit; i += reversed ? -1 : 1) {
+      records.add(conversation.get(i));
+    }
+
+    Cursor cursor = mock(Cursor.class);
+    pages.put(cursor, records);
+
+    return cursor;
+  }
+
+  private @NonNull MmsSmsDatabase.Reader readerFor(@NonNull InvocationOnMock invocation) {
+    Iterator<MessageRecord> records = pages.get(invocation.<Cursor>getArgument(0)).iterator();
+
+    return new MmsSmsDatabase.Reader(null) {
+      @Override
+      public MessageRecord getNext() {
+        return records.hasNext() ? records.next() : null;
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+  }
+}
@@ -0,0 +1,223 @@
+package org.thoughtcrime.securesms.database;
+
+import android.app.Application;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.signal.core.util.concurrent.SignalExecutors;
+import org.thoughtcrime.securesms.database.model.MessageId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public class DatabaseObserverTest {
+
+  private static final long THREAD_ID       = 1;
+  private static final long OTHER_THREAD_ID = 2;
+
+  private DatabaseObserver observer;
+
+  @Before
+  public void setUp() {
+    observer = new DatabaseObserver(ApplicationProvider.getApplicationContext(), Runnable::run, new Handler(Looper.getMainLooper()));
+  }
+
+  @Test
+  public void burstOfInserts_deliversOneReloadPerWindow() {
+    RecordingObserver conversationList = new RecordingObserver();
+    RecordingObserver conversation     = new RecordingObserver();
+
+    observer.registerConversationListObserver(conversationList);
+    observer.registerConversationObserver(THREAD_ID, conversation);
+
+    for (int i = 0; i < 500; i++) {
+      observer.notifyConversationListeners(THREAD_ID);
+      observer.notifyConversationListListeners();
+    }
+
+    assertEquals(Collections.emptyList(), conversationList.events);
+
+    endWindow();
+
+    assertEquals(Collections.singletonList("changed"), conversationList.events);
+    assertEquals(Collections.singletonList("changed"), conversation.events);
+
+    DatabaseObserver.NotificationCounts counts = observer.getNotificationCounts();
+
+    assertEquals(1000, counts.getRaw());
+    assertEquals(2, counts.getDelivered());
+    assertEquals(1, counts.getWindows());
+  }
+
+  @Test
+  public void messageObserver_receivesEachDistinctChangeInOrder() {
+    RecordingObserver conversation = new RecordingObserver();
+    MessageId         first        = new MessageId(1, false);
+    MessageId         second       = new MessageId(2, true);
+
+    observer.registerConversationObserver(THREAD_ID, conversation);
+
+    observer.notifyMessageInsertListeners(THREAD_ID, first);
+    observer.notifyMessageUpdateListeners(THREAD_ID, first);
+    observer.notifyMessageUpdateListeners(THREAD_ID, first);
+    observer.notifyMessageInsertListeners(THREAD_ID, second);
+    observer.notifyMessageRemoveListeners(THREAD_ID, first);
+
+    endWindow();
+
+    assertEquals(Arrays.asList("inserted " + first, "changed " + first, "inserted " + second, "removed " + first), conversation.events);
+  }
+
+  @Test
+  public void fullReload_supersedesMessageChanges() {
+    RecordingObserver conversation = new RecordingObserver();
+
+    observer.registerConversationObserver(THREAD_ID, conversation);
+
+    observer.notifyMessageInsertListeners(THREAD_ID, new MessageId(1, false));
+    observer.notifyConversationListeners(THREAD_ID);
+    observer.notifyMessageInsertListeners(THREAD_ID, new MessageId(2, false));
+
+    endWindow();
+
+    assertEquals(Collections.singletonList("changed"), conversation.events);
+  }
+
+  @Test
+  public void threads_areMergedSeparately() {
+    RecordingObserver conversation        = new RecordingObserver();
+    RecordingObserver otherConversation   = new RecordingObserver();
+    RecordingObserver verboseConversation = new RecordingObserver();
+
+    observer.registerConversationObserver(THREAD_ID, conversation);
+    observer.registerConversationObserver(OTHER_THREAD_ID, otherConversation);
+    observer.registerVerboseConversationObserver(OTHER_THREAD_ID, verboseConversation);
+
+    MessageId messageId = new MessageId(1, false);
+
+    observer.notifyConversationListeners(THREAD_ID);
+    observer.notifyMessageInsertListeners(OTHER_THREAD_ID, messageId);
+    observer.notifyVerboseConversationListeners(OTHER_THREAD_ID);
+
+    endWindow();
+
+    assertEquals(Collections.singletonList("changed"), conversation.events);
+    assertEquals(Collections.singletonList("inserted " + messageId), otherConversation.events);
+    assertEquals(Collections.singletonList("changed"), verboseConversation.events);
+    assertEquals(2, observer.getNotificationCounts().getDelivered());
+  }
+
+  @Test
+  public void conversationListItems_areDedupedUnlessTheWholeListChanged() {
+    RecordingObserver conversationList = new RecordingObserver();
+
+    observer.registerConversationListObserver(conversationList);
+
+    observer.notifyConversationListItemListeners(Arrays.asList(THREAD_ID, OTHER_THREAD_ID));
+    observer.notifyConversationListItemListeners(Collections.singletonList(THREAD_ID));
+
+    endWindow();
+
+    assertEquals(Arrays.asList("thread " + THREAD_ID, "thread " + OTHER_THREAD_ID), conversationList.events);
+
+    conversationList.events.clear();
+
+    observer.notifyConversationListItemListeners(Collections.singletonList(THREAD_ID));
+    observer.notifyConversationListListeners();
+
+    endWindow();
+
+    assertEquals(Collections.singletonList("changed"), conversationList.events);
+  }
+
+  @Test
+  public void laterWindow_deliversAgain() {
+    RecordingObserver conversation = new RecordingObserver();
+
+    observer.registerConversationObserver(THREAD_ID, conversation);
+
+    observer.notifyConversationListeners(THREAD_ID);
+    endWindow();
+    observer.notifyConversationListeners(THREAD_ID);
+    endWindow();
+
+    assertEquals(Arrays.asList("changed", "changed"), conversation.events);
+    assertEquals(2, observer.getNotificationCounts().getWindows());
+  }
+
+  @Test
+  public void windowTimedOnBackgroundThread_deliversWithoutTheMainLooper() throws InterruptedException {
+    HandlerThread    handlerThread = SignalExecutors.getAndStartHandlerThread("test-DatabaseObserver");
+    DatabaseObserver background    = new DatabaseObserver(ApplicationProvider.getApplicationContext(), Runnable::run, new Handler(handlerThread.getLooper()));
+    CountDownLatch   delivered     = new CountDownLatch(1);
+    List<Thread>     threads       = new ArrayList<>();
+
+    background.registerConversationObserver(THREAD_ID, () -> {
+      threads.add(Thread.currentThread());
+      delivered.countDown();
+    });
+
+    background.notifyConversationListeners(THREAD_ID);
+    background.notifyConversationListeners(THREAD_ID);
+
+    try {
+      assertTrue(delivered.await(5, TimeUnit.SECONDS));
+      assertEquals(Collections.singletonList(handlerThread), threads);
+    } finally {
+      handlerThread.quit();
+    }
+  }
+
+  private static void endWindow() {
+    shadowOf(Looper.getMainLooper()).idleFor(1, TimeUnit.SECONDS);
+  }
+
+  private static final class RecordingObserver implements DatabaseObserver.MessageObserver, DatabaseObserver.ThreadObserver {
+
+    private final List<String> events = new ArrayList<>();
+
+    @Override
+    public void onChanged() {
+      events.add("changed");
+    }
+
+    @Override
+    public void onMessageInserted(@NonNull MessageId messageId) {
+      events.add("inserted " + messageId);
+    }
+
+    @Override
+    public void onMessageChanged(@NonNull MessageId messageId) {
+      events.add("changed " + messageId);
+    }
+
+    @Override
+    public void onMessageRemoved(@NonNull MessageId messageId) {
+      events.add("removed " + messageId);
+    }
+
+    @Override
+    public void onThreadChanged(long threadId) {
+      events.add("thread " + threadId);
+    }
+  }
+}
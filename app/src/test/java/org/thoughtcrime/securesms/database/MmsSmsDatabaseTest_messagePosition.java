@@ -0,0 +1,145 @@
+package org.thoughtcrime.securesms.database;
+
+import android.app.Application;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.thoughtcrime.securesms.recipients.Recipient;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.thoughtcrime.securesms.testutil.ForwardingOpenHelper;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.powermock.api.mockito.PowerMockito.mock;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+/**
+ * Checks that {@link MmsSmsDatabase#getQuotedMessagePosition} and
+ * {@link MmsSmsDatabase#getMessagePositionInConversation(long, long, RecipientId)} give the same
+ * position as walking the conversation in order, which is how positions used to be found. Uses the
+ * real sms and mms tables, with lots of timestamp collisions.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+@PowerMockIgnore({ "org.mockito.*", "org.robolectric.*", "android.*", "androidx.*" })
+@PrepareForTest({ Recipient.class })
+public class MmsSmsDatabaseTest_messagePosition {
+
+  private static final long THREAD_ID     = 1;
+  private static final int  MESSAGE_COUNT = 2000;
+  private static final int  RECIPIENTS    = 3;
+  private static final long SELF          = RECIPIENTS + 1;
+
+  @Rule
+  public PowerMockRule rule = new PowerMockRule();
+
+  private SQLiteDatabase db;
+  private MmsSmsDatabase mmsSmsDatabase;
+
+  @Before
+  public void setUp() {
+    db = SQLiteDatabase.create(null);
+
+    db.execSQL(SmsDatabase.CREATE_TABLE);
+    db.execSQL(MmsDatabase.CREATE_TABLE);
+    execute(SmsDatabase.CREATE_INDEXS);
+    execute(MmsDatabase.CREATE_INDEXS);
+
+    mmsSmsDatabase = new MmsSmsDatabase(ApplicationProvider.getApplicationContext(), ForwardingOpenHelper.wrap(db));
+
+    mockStatic(Recipient.class);
+
+    for (long id = 1; id <= SELF; id++) {
+      Recipient recipient = mock(Recipient.class);
+      when(recipient.isSelf()).thenReturn(id == SELF);
+      when(Recipient.resolved(RecipientId.from(id))).thenReturn(recipient);
+    }
+
+    Random random = new Random(1);
+
+    for (int i = 0; i < MESSAGE_COUNT; i++) {
+      boolean       mms    = random.nextInt(4) == 0;
+      ContentValues values = new ContentValues();
+
+      values.put(MmsSmsColumns.THREAD_ID, random.nextInt(10) == 0 ? THREAD_ID + 1 : THREAD_ID);
+      values.put(mms ? MmsDatabase.DATE_RECEIVED : SmsDatabase.DATE_RECEIVED, i / 4);
+      values.put(mms ? MmsDatabase.DATE_SENT : SmsDatabase.DATE_SENT, random.nextInt(MESSAGE_COUNT / 4));
+      values.put(MmsSmsColumns.RECIPIENT_ID, 1 + random.nextInt(RECIPIENTS));
+      values.put(MmsSmsColumns.REMOTE_DELETED, random.nextInt(20) == 0 ? 1 : 0);
+
+      db.insert(mms ? MmsDatabase.TABLE_NAME : SmsDatabase.TABLE_NAME, null, values);
+    }
+  }
+
+  @After
+  public void tearDown() {
+    db.close();
+  }
+
+  @Test
+  public void getQuotedMessagePosition_matchesScan() {
+    for (long timestamp = 0; timestamp < MESSAGE_COUNT / 4; timestamp++) {
+      for (long recipient = 1; recipient <= RECIPIENTS; recipient++) {
+        assertEquals("timestamp " + timestamp + ", recipient " + recipient,
+                     scan(2, timestamp, recipient, false),
+                     mmsSmsDatabase.getQuotedMessagePosition(THREAD_ID, timestamp, RecipientId.from(recipient)));
+      }
+
+      assertEquals("timestamp " + timestamp + ", self",
+                   scan(2, timestamp, SELF, true),
+                   mmsSmsDatabase.getQuotedMessagePosition(THREAD_ID, timestamp, RecipientId.from(SELF)));
+    }
+  }
+
+  @Test
+  public void getMessagePositionInConversation_matchesScan() {
+    for (long timestamp = 0; timestamp < MESSAGE_COUNT / 4; timestamp++) {
+      for (long recipient = 1; recipient <= RECIPIENTS; recipient++) {
+        assertEquals("timestamp " + timestamp + ", recipient " + recipient,
+                     scan(0, timestamp, recipient, false),
+                     mmsSmsDatabase.getMessagePositionInConversation(THREAD_ID, timestamp, RecipientId.from(recipient)));
+      }
+    }
+  }
+
+  /**
+   * The previous implementation: walk the conversation in order until a message matches.
+   */
+  private int scan(int timestampIndex, long timestamp, long recipient, boolean anyRecipient) {
+    String query = "SELECT " + SmsDatabase.DATE_RECEIVED + " AS date_received, _id, " + SmsDatabase.DATE_SENT + " AS date_sent, address, remote_deleted, 'sms' AS transport_type FROM sms WHERE thread_id = " + THREAD_ID +
+                   " UNION ALL " +
+                   "SELECT " + MmsDatabase.DATE_RECEIVED + " AS date_received, _id, " + MmsDatabase.DATE_SENT + " AS date_sent, address, remote_deleted, 'mms' AS transport_type FROM mms WHERE thread_id = " + THREAD_ID +
+                   " ORDER BY date_received DESC, transport_type DESC, _id DESC";
+
+    try (Cursor cursor = db.rawQuery(query, null)) {
+      while (cursor.moveToNext()) {
+        if (cursor.getLong(timestampIndex) == timestamp && (anyRecipient || cursor.getLong(3) == recipient)) {
+          return cursor.getInt(4) == 1 ? -1 : cursor.getPosition();
+        }
+      }
+    }
+
+    return -1;
+  }
+
+  private void execute(String[] statements) {
+    for (String statement : statements) {
+      db.execSQL(statement);
+    }
+  }
+}
@@ -0,0 +1,144 @@
+package org.thoughtcrime.securesms.database;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.database.DatabaseObserver.Observer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class ObserverRegistryTest {
+
+  @Test
+  public void unregister_removesObserverFromEveryKeyItWasRegisteredUnder() {
+    ObserverRegistry<Long> registry = new ObserverRegistry<>();
+    Observer               first    = () -> {};
+    Observer               second   = () -> {};
+
+    registry.register(1L, first);
+    registry.register(2L, first);
+    registry.register(2L, second);
+
+    registry.unregister(first);
+
+    assertEquals(Collections.emptySet(), registry.get(1L));
+    assertEquals(Collections.singleton(second), registry.get(2L));
+    assertEquals(1, registry.getKeyCount());
+
+    registry.unregister(second);
+
+    assertEquals(0, registry.getKeyCount());
+  }
+
+  @Test
+  public void unregister_unknownObserverIsANoOp() {
+    ObserverRegistry<Long> registry = new ObserverRegistry<>();
+    Observer               observer = () -> {};
+
+    registry.register(1L, observer);
+    registry.unregister(() -> {});
+
+    assertEquals(Collections.singleton(observer), registry.get(1L));
+  }
+
+  /**
+   * Registers and unregisters observers from several threads while others dispatch to them, the
+   * way LiveData observers come and go while notifications are being delivered.
+   */
+  @Test
+  public void concurrentRegistrationAndDispatch() throws Exception {
+    int writers     = 4;
+    int dispatchers = 4;
+    int keys        = 50;
+    int rounds      = 2000;
+
+    ObserverRegistry<Long> registry   = new ObserverRegistry<>();
+    ExecutorService        executor   = Executors.newFixedThreadPool(writers + dispatchers);
+    AtomicBoolean          done       = new AtomicBoolean(false);
+    AtomicLong             dispatched = new AtomicLong();
+    CountDownLatch         start      = new CountDownLatch(1);
+    List<Observer>         permanent  = new ArrayList<>();
+
+    for (long key = 0; key < keys; key++) {
+      Observer observer = dispatched::incrementAndGet;
+      registry.register(key, observer);
+      permanent.add(observer);
+    }
+
+    List<Future<?>> writes = new ArrayList<>();
+
+    for (int w = 0; w < writers; w++) {
+      int seed = w;
+      writes.add(executor.submit(() -> {
+        Random random = new Random(seed);
+        start.await();
+
+        for (int i = 0; i < rounds; i++) {
+          Observer observer = dispatched::incrementAndGet;
+
+          for (int k = 0; k < 3; k++) {
+            registry.register((long) random.nextInt(keys), observer);
+          }
+
+          registry.unregister(observer);
+        }
+
+        return null;
+      }));
+    }
+
+    List<Future<?>> dispatches = new ArrayList<>();
+
+    for (int d = 0; d < dispatchers; d++) {
+      int seed = 100 + d;
+      dispatches.add(executor.submit(() -> {
+        Random random = new Random(seed);
+        start.await();
+
+        while (!done.get()) {
+          DatabaseObserver.notifySet(registry.get((long) random.nextInt(keys)));
+        }
+
+        return null;
+      }));
+    }
+
+    start.countDown();
+
+    for (Future<?> write : writes) {
+      write.get(30, TimeUnit.SECONDS);
+    }
+
+    done.set(true);
+
+    for (Future<?> dispatch : dispatches) {
+      dispatch.get(30, TimeUnit.SECONDS);
+    }
+
+    executor.shutdown();
+
+    assertTrue(dispatched.get() > 0);
+    assertEquals(keys, registry.getKeyCount());
+
+    for (long key = 0; key < keys; key++) {
+      assertEquals(Collections.singleton(permanent.get((int) key)), registry.get(key));
+    }
+
+    for (Observer observer : permanent) {
+      registry.unregister(observer);
+    }
+
+    assertEquals(0, registry.getKeyCount());
+  }
+}
@@ -0,0 +1,209 @@
+package org.thoughtcrime.securesms.database;
+
+import android.app.Application;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.thoughtcrime.securesms.profiles.ProfileName;
+import org.thoughtcrime.securesms.recipients.Recipient;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.thoughtcrime.securesms.testutil.ForwardingOpenHelper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks that the triggers keep {@link RecipientDatabase#CHECKED_NAME} in sync with the names it's
+ * made from, and that {@link RecipientDatabase#getSimilarRecipientIds} finds recipients by it using
+ * the index, on a 20k recipient table.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public class RecipientDatabaseTest_checkedName {
+
+  private static final int    RECIPIENT_COUNT     = 20_000;
+  private static final String PROFILE_JOINED_NAME = "profile_joined_name";
+
+  /** The RECIPIENT_CHECKED_NAME migration in SQLCipherOpenHelper, minus adding the column and index. */
+  private static final String[] MIGRATION = new String[] {
+      "UPDATE recipient SET checked_name = COALESCE(NULLIF(system_display_name, ''), NULLIF(profile_joined_name, ''))",
+      "CREATE TRIGGER recipient_checked_name_ai AFTER INSERT ON recipient BEGIN\n" +
+      "  UPDATE recipient SET checked_name = COALESCE(NULLIF(new.system_display_name, ''), NULLIF(new.profile_joined_name, '')) WHERE _id = new._id;\n" +
+      "END;",
+      "CREATE TRIGGER recipient_checked_name_au AFTER UPDATE OF system_display_name, profile_joined_name ON recipient BEGIN\n" +
+      "  UPDATE recipient SET checked_name = COALESCE(NULLIF(new.system_display_name, ''), NULLIF(new.profile_joined_name, '')) WHERE _id = new._id;\n" +
+      "END;"
+  };
+
+  private SQLiteDatabase    db;
+  private RecipientDatabase recipientDatabase;
+
+  @Before
+  public void setUp() {
+    db = SQLiteDatabase.create(null);
+
+    db.execSQL(RecipientDatabase.CREATE_TABLE);
+    execute(RecipientDatabase.CREATE_INDEXS);
+    execute(RecipientDatabase.CREATE_TRIGGERS);
+
+    recipientDatabase = new RecipientDatabase(ApplicationProvider.getApplicationContext(), ForwardingOpenHelper.wrap(db));
+
+    Random random = new Random(1);
+
+    db.beginTransaction();
+    try {
+      for (int i = 0; i < RECIPIENT_COUNT; i++) {
+        String name = "Name " + i;
+
+        switch (random.nextInt(3)) {
+          case 0:  insert(name, null);           break;
+          case 1:  insert(null, name);           break;
+          default: insert(name, "Profile " + i); break;
+        }
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  @After
+  public void tearDown() {
+    db.close();
+  }
+
+  @Test
+  public void similar_findsSystemAndProfileNames() {
+    long system  = insert("Alice Smith", null);
+    long profile = insert(null, "Alice Smith");
+    long both    = insert("Alice Smith", "Someone Else");
+
+    insert("Someone Else", "Alice Smith");
+
+    assertEquals(Arrays.asList(system, profile, both), getSimilar("Alice Smith"));
+  }
+
+  @Test
+  public void similar_emptySystemNameFallsBackToProfileName() {
+    long id = insert("", "Bob Jones");
+
+    assertEquals(Collections.singletonList(id), getSimilar("Bob Jones"));
+  }
+
+  @Test
+  public void similar_followsProfileNameChanges() {
+    long id = insert(null, "Carol White");
+
+    update(id, PROFILE_JOINED_NAME, "Carol Black");
+
+    assertEquals(Collections.emptyList(), getSimilar("Carol White"));
+    assertEquals(Collections.singletonList(id), getSimilar("Carol Black"));
+  }
+
+  @Test
+  public void similar_followsSystemNameChanges() {
+    long id = insert(null, "Dave Green");
+
+    update(id, RecipientDatabase.SYSTEM_JOINED_NAME, "David Green");
+    assertEquals(Collections.emptyList(), getSimilar("Dave Green"));
+    assertEquals(Collections.singletonList(id), getSimilar("David Green"));
+
+    update(id, RecipientDatabase.SYSTEM_JOINED_NAME, null);
+    assertEquals(Collections.singletonList(id), getSimilar("Dave Green"));
+  }
+
+  @Test
+  public void similar_noNames_notChecked() {
+    long id = insert(null, null);
+
+    try (Cursor cursor = db.query(RecipientDatabase.TABLE_NAME, new String[] { RecipientDatabase.CHECKED_NAME }, RecipientDatabase.ID + " = ?", new String[] { String.valueOf(id) }, null, null, null)) {
+      assertTrue(cursor.moveToFirst());
+      assertNull(cursor.getString(0));
+    }
+  }
+
+  @Test
+  public void migration_fillsInExistingRecipients() {
+    execute(new String[] { "DROP TRIGGER recipient_checked_name_ai", "DROP TRIGGER recipient_checked_name_au" });
+
+    long system  = insert("Erin Brown", null);
+    long profile = insert(null, "Erin Brown");
+
+    assertEquals(Collections.emptyList(), getSimilar("Erin Brown"));
+
+    execute(MIGRATION);
+
+    assertEquals(Arrays.asList(system, profile), getSimilar("Erin Brown"));
+
+    long added = insert("Erin Brown", null);
+    update(profile, PROFILE_JOINED_NAME, "Erin Black");
+
+    assertEquals(Arrays.asList(system, added), getSimilar("Erin Brown"));
+  }
+
+  @Test
+  public void similar_usesIndex() {
+    StringBuilder plan = new StringBuilder();
+
+    try (Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN SELECT " + RecipientDatabase.ID + " FROM " + RecipientDatabase.TABLE_NAME + " WHERE " + RecipientDatabase.CHECKED_NAME + " = ?", new String[] { "Name 1" })) {
+      while (cursor.moveToNext()) {
+        plan.append(cursor.getString(cursor.getColumnCount() - 1)).append('\n');
+      }
+    }
+
+    assertTrue(plan.toString(), plan.toString().contains("recipient_checked_name_index"));
+  }
+
+  private long insert(String systemName, String profileName) {
+    ContentValues values = new ContentValues();
+    values.put(RecipientDatabase.SYSTEM_JOINED_NAME, systemName);
+    values.put(PROFILE_JOINED_NAME, profileName);
+
+    return db.insert(RecipientDatabase.TABLE_NAME, null, values);
+  }
+
+  private void update(long id, String column, String value) {
+    ContentValues values = new ContentValues();
+    values.put(column, value);
+
+    db.update(RecipientDatabase.TABLE_NAME, values, RecipientDatabase.ID + " = ?", new String[] { String.valueOf(id) });
+  }
+
+  private void execute(String[] statements) {
+    for (String statement : statements) {
+      db.execSQL(statement);
+    }
+  }
+
+  private List<Long> getSimilar(String name) {
+    Recipient recipient = mock(Recipient.class);
+    when(recipient.getProfileName()).thenReturn(ProfileName.asGiven(name));
+
+    List<Long> ids = new ArrayList<>();
+
+    for (RecipientId id : recipientDatabase.getSimilarRecipientIds(recipient)) {
+      ids.add(id.toLong());
+    }
+
+    Collections.sort(ids);
+    return ids;
+  }
+}
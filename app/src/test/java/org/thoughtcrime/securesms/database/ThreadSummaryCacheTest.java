@@ -0,0 +1,200 @@
+package org.thoughtcrime.securesms.database;
+
+import android.app.Application;
+
+import androidx.annotation.NonNull;
+
+import com.annimon.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.thoughtcrime.securesms.database.ThreadSummaryCache.Summary;
+import org.thoughtcrime.securesms.database.model.ThreadRecord;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public class ThreadSummaryCacheTest {
+
+  private ThreadSummaryCache cache;
+
+  @Before
+  public void setUp() {
+    cache = new ThreadSummaryCache(10);
+  }
+
+  @Test
+  public void emptyCache_answersNothing() {
+    assertTrue(cache.needsFill());
+    assertNull(cache.getConversationList(false, 0, 0));
+    assertEquals(-1, cache.getConversationCount());
+    assertEquals(-1, cache.getPinnedConversationCount());
+  }
+
+  @Test
+  public void fill_sortsPinnedByPositionAndTheRestByDate() {
+    cache.fill(cache.getGeneration(), Arrays.asList(summary(1, 100, 0),
+                                                    summary(2, 300, 0),
+                                                    summary(3, 200, 2),
+                                                    summary(4, 400, 1),
+                                                    summary(5, 250, 0)));
+
+    assertEquals(Arrays.asList(4L, 3L), threadIds(cache.getConversationList(true, 0, 0)));
+    assertEquals(Arrays.asList(2L, 5L, 1L), threadIds(cache.getConversationList(false, 0, 0)));
+    assertEquals(Arrays.asList(5L), threadIds(cache.getConversationList(false, 1, 1)));
+    assertEquals(5, cache.getConversationCount());
+    assertEquals(2, cache.getPinnedConversationCount());
+  }
+
+  @Test
+  public void update_movesThreadToTheTop() {
+    cache.fill(cache.getGeneration(), Arrays.asList(summary(1, 100, 0), summary(2, 200, 0)));
+
+    assertTrue(cache.update(1, record -> record.toBuilder().setDate(300).setUnreadCount(4).build()));
+
+    List<ThreadRecord> list = cache.getConversationList(false, 0, 0);
+
+    assertEquals(Arrays.asList(1L, 2L), threadIds(list));
+    assertEquals(4, list.get(0).getUnreadCount());
+  }
+
+  @Test
+  public void update_unknownThreadWhileComplete_asksCallerToPutIt() {
+    cache.fill(cache.getGeneration(), Collections.singletonList(summary(1, 100, 0)));
+
+    assertFalse(cache.update(2, record -> record));
+
+    cache.put(2, summary(2, 200, 0));
+
+    assertEquals(Arrays.asList(2L, 1L), threadIds(cache.getConversationList(false, 0, 0)));
+  }
+
+  @Test
+  public void update_whileEmpty_isIgnored() {
+    assertTrue(cache.update(1, record -> record));
+    assertTrue(cache.needsFill());
+  }
+
+  @Test
+  public void archivingOrEmptyingThread_removesIt() {
+    cache.fill(cache.getGeneration(), Arrays.asList(summary(1, 100, 0), summary(2, 200, 0), summary(3, 300, 0)));
+
+    cache.update(1, record -> record.toBuilder().setArchived(true).build());
+    cache.put(2, null);
+    cache.update(3, record -> record.toBuilder().setCount(0).build());
+
+    assertEquals(0, cache.getConversationCount());
+  }
+
+  @Test
+  public void fill_afterConcurrentWrite_isDiscarded() {
+    long generation = cache.getGeneration();
+
+    cache.update(1, record -> record);
+    cache.fill(generation, Collections.singletonList(summary(1, 100, 0)));
+
+    assertTrue(cache.needsFill());
+    assertNull(cache.getConversationList(false, 0, 0));
+  }
+
+  @Test
+  public void fill_overCapacity_stopsTryingUntilThreadsGoAway() {
+    cache.fill(cache.getGeneration(), summaries(11));
+
+    assertFalse(cache.needsFill());
+    assertNull(cache.getConversationList(false, 0, 0));
+
+    cache.remove(Collections.singleton(1L));
+
+    assertTrue(cache.needsFill());
+  }
+
+  @Test
+  public void put_overCapacity_dropsEverything() {
+    cache.fill(cache.getGeneration(), summaries(10));
+
+    cache.put(11, summary(11, 1100, 0));
+
+    assertEquals(-1, cache.getConversationCount());
+    assertFalse(cache.needsFill());
+  }
+
+  @Test
+  public void setPinned_reordersPinnedList() {
+    cache.fill(cache.getGeneration(), Arrays.asList(summary(1, 100, 1), summary(2, 200, 2), summary(3, 300, 0)));
+
+    Map<Long, Integer> positions = new HashMap<>();
+    positions.put(3L, 1);
+    positions.put(1L, 2);
+
+    cache.setPinned(positions, true);
+
+    assertEquals(Arrays.asList(3L, 1L), threadIds(cache.getConversationList(true, 0, 0)));
+    assertEquals(Collections.singletonList(2L), threadIds(cache.getConversationList(false, 0, 0)));
+    assertFalse(cache.getConversationList(false, 0, 0).get(0).isPinned());
+  }
+
+  @Test
+  public void invalidate_emptiesCache() {
+    cache.fill(cache.getGeneration(), summaries(3));
+
+    cache.invalidate();
+
+    assertTrue(cache.needsFill());
+    assertEquals(-1, cache.getConversationCount());
+  }
+
+  @Test
+  public void fill_sameDate_newerThreadFirstLikeTheDatabase() {
+    cache.fill(cache.getGeneration(), Arrays.asList(summary(1, 100, 0),
+                                                    summary(3, 100, 0),
+                                                    summary(2, 100, 0)));
+
+    assertEquals(Arrays.asList(3L, 2L, 1L), threadIds(cache.getConversationList(false, 0, 0)));
+  }
+
+  @Test
+  public void setReadReceiptsEnabled_changed_emptiesCache() {
+    cache.setReadReceiptsEnabled(true);
+    cache.fill(cache.getGeneration(), summaries(3));
+
+    cache.setReadReceiptsEnabled(true);
+
+    assertEquals(3, cache.getConversationCount());
+
+    cache.setReadReceiptsEnabled(false);
+
+    assertTrue(cache.needsFill());
+    assertNull(cache.getConversationList(false, 0, 0));
+  }
+
+  private static @NonNull Summary summary(long threadId, long date, int pinned) {
+    ThreadRecord record = new ThreadRecord.Builder(threadId).setBody("")
+                                                            .setDate(date)
+                                                            .setCount(1)
+                                                            .setPinned(pinned != 0)
+                                                            .build();
+    return new Summary(record, pinned);
+  }
+
+  private static @NonNull List<Summary> summaries(int count) {
+    return Stream.rangeClosed(1, count).map(i -> summary(i, i * 100, 0)).toList();
+  }
+
+  private static @NonNull List<Long> threadIds(@NonNull List<ThreadRecord> records) {
+    return Stream.of(records).map(ThreadRecord::getThreadId).toList();
+  }
+}
@@ -0,0 +1,277 @@
+package org.thoughtcrime.securesms.jobmanager;
+
+import android.app.Application;
+import android.app.job.JobInfo;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.thoughtcrime.securesms.database.JobDatabase;
+import org.thoughtcrime.securesms.jobmanager.impl.JsonDataSerializer;
+import org.thoughtcrime.securesms.jobs.FastJobStorage;
+import org.thoughtcrime.securesms.util.Debouncer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs real runner threads against {@link JobController} to check how jobs are handed to idle
+ * runners: each job goes to exactly one runner, claims and constraint wait times don't outlive the
+ * jobs they were made for, and a waiting runner is woken up when work arrives.
+ */
+public class JobControllerTest_idleRunners {
+
+  private static final String FACTORY_KEY = "TestJob";
+  private static final String UNMET_KEY   = "Unmet";
+  private static final String FAIL_PREFIX = "fail";
+  private static final long   TIMEOUT_MS  = 10_000;
+
+  private FastJobStorage jobStorage;
+  private JobController  subject;
+
+  private final List<String> pulled = Collections.synchronizedList(new ArrayList<>());
+
+  @Before
+  public void setUp() {
+    JobDatabase database = mock(JobDatabase.class);
+
+    doAnswer(invocation -> {
+      ((Runnable) invocation.getArguments()[0]).run();
+      return null;
+    }).when(database).runInTransaction(any(Runnable.class));
+
+    when(database.getAllJobSpecs()).thenReturn(Collections.emptyList());
+    when(database.getAllConstraintSpecs()).thenReturn(Collections.emptyList());
+    when(database.getAllDependencySpecs()).thenReturn(Collections.emptyList());
+
+    jobStorage = new FastJobStorage(database);
+    jobStorage.init();
+
+    subject = new JobController(mock(Application.class),
+                                jobStorage,
+                                new JobInstantiator(Collections.singletonMap(FACTORY_KEY, new TestJob.Factory())),
+                                new ConstraintInstantiator(Collections.singletonMap(UNMET_KEY, UnmetConstraint::new)),
+                                new JsonDataSerializer(),
+                                mock(JobTracker.class),
+                                new JobMetrics(),
+                                mock(Scheduler.class),
+                                mock(Debouncer.class),
+                                mock(JobController.Callback.class));
+  }
+
+  @Test
+  public void manyRunners_eachJobHandedToExactlyOneRunner() throws Exception {
+    int            jobCount = 500;
+    CountDownLatch done     = startRunners(8, jobCount);
+
+    awaitIdleRunners(8);
+
+    for (int i = 0; i < jobCount; i++) {
+      submit("job" + i);
+    }
+
+    assertTrue(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+    synchronized (pulled) {
+      assertEquals(jobCount, pulled.size());
+      assertEquals(jobCount, new HashSet<>(pulled).size());
+    }
+
+    awaitIdleRunners(8);
+    assertClaimedJobs(0);
+  }
+
+  @Test
+  public void idleRunner_wokenWhenJobAdded() throws Exception {
+    CountDownLatch done = startRunners(1, 1);
+
+    awaitIdleRunners(1);
+
+    submit("job");
+
+    assertTrue(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    assertEquals(Collections.singletonList("job"), pulled);
+  }
+
+  @Test
+  public void failedJob_claimReleasedAndNextJobStillDispatched() throws Exception {
+    CountDownLatch done = startRunners(2, 3);
+
+    awaitIdleRunners(2);
+
+    submit(FAIL_PREFIX + "1");
+    submit(FAIL_PREFIX + "2");
+    submit("job");
+
+    assertTrue(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    assertEquals(3, new HashSet<>(pulled).size());
+
+    awaitIdleRunners(2);
+    assertClaimedJobs(0);
+    assertTrue(jobStorage.getAllJobSpecs().isEmpty());
+  }
+
+  @Test
+  public void claimedJobCanceledBeforeRunnerWakes_claimReleasedAndRunnerTakesNextJob() throws Exception {
+    CountDownLatch done = startRunners(1, 1);
+
+    awaitIdleRunners(1);
+
+    // Holding the controller keeps the signaled runner from picking up its job until it's gone
+    synchronized (subject) {
+      submit("canceled");
+      assertClaimedJobs(1);
+
+      subject.cancelJob("canceled");
+      assertClaimedJobs(0);
+
+      submit("job");
+    }
+
+    assertTrue(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    assertEquals(Collections.singletonList("job"), pulled);
+
+    awaitIdleRunners(1);
+    assertClaimedJobs(0);
+  }
+
+  @Test
+  public void blockedJobCanceled_blockedTimeForgotten() throws Exception {
+    subject.submitNewJobChain(Collections.singletonList(Collections.singletonList(new TestJob(new Job.Parameters.Builder("blocked").addConstraint(UNMET_KEY).build()))));
+
+    startRunners(1, 0);
+    awaitIdleRunners(1);
+    assertBlockedJobs(1);
+
+    subject.cancelJob("blocked");
+
+    assertBlockedJobs(0);
+  }
+
+  @Test
+  public void blockedJobExpired_blockedTimeNotRecorded() throws Exception {
+    subject.submitNewJobChain(Collections.singletonList(Collections.singletonList(new TestJob(new Job.Parameters.Builder("expired").addConstraint(UNMET_KEY).setLifespan(1).build()))));
+
+    Thread.sleep(10);
+
+    startRunners(1, 0);
+    awaitIdleRunners(1);
+    assertBlockedJobs(0);
+  }
+
+  /**
+   * Starts runner threads that keep pulling jobs, failing those whose id starts with
+   * {@link #FAIL_PREFIX}. They're daemons, so they're left blocked once the test is done.
+   *
+   * @return A latch that's released once {@code expectedJobs} jobs have been pulled.
+   */
+  private @NonNull CountDownLatch startRunners(int count, int expectedJobs) {
+    CountDownLatch done = new CountDownLatch(expectedJobs);
+
+    for (int i = 0; i < count; i++) {
+      Thread runner = new Thread(() -> {
+        while (true) {
+          Job job = subject.pullNextEligibleJobForExecution(JobPredicate.NONE);
+
+          pulled.add(job.getId());
+          subject.onJobFinished(job);
+
+          if (job.getId().startsWith(FAIL_PREFIX)) {
+            subject.onFailure(job);
+          } else {
+            subject.onSuccess(job, null);
+          }
+
+          done.countDown();
+        }
+      }, "TestRunner-" + i);
+
+      runner.setDaemon(true);
+      runner.start();
+    }
+
+    return done;
+  }
+
+  private void submit(@NonNull String id) {
+    subject.submitNewJobChain(Collections.singletonList(Collections.singletonList(new TestJob(new Job.Parameters.Builder(id).build()))));
+  }
+
+  private void awaitIdleRunners(int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+
+    while (!subject.getDebugInfo().contains("Idle runners: " + count + "\n")) {
+      assertTrue("Timed out waiting for " + count + " idle runners.", System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+  }
+
+  private void assertClaimedJobs(int count) {
+    assertTrue(subject.getDebugInfo().contains("Claimed jobs: " + count + "\n"));
+  }
+
+  private void assertBlockedJobs(int count) {
+    assertTrue(subject.getDebugInfo().contains("Jobs blocked on constraints: " + count + "\n"));
+  }
+
+  private static final class UnmetConstraint implements Constraint {
+    @Override
+    public boolean isMet() {
+      return false;
+    }
+
+    @Override
+    public @NonNull String getFactoryKey() {
+      return UNMET_KEY;
+    }
+
+    @Override
+    public void applyToJobInfo(@NonNull JobInfo.Builder jobInfoBuilder) {
+    }
+  }
+
+  private static final class TestJob extends Job {
+
+    TestJob(@NonNull Parameters parameters) {
+      super(parameters);
+    }
+
+    @Override
+    public @NonNull Data serialize() {
+      return Data.EMPTY;
+    }
+
+    @Override
+    public @NonNull String getFactoryKey() {
+      return FACTORY_KEY;
+    }
+
+    @Override
+    public @NonNull Result run() {
+      return Result.success();
+    }
+
+    @Override
+    public void onFailure() {
+    }
+
+    private static final class Factory implements Job.Factory<TestJob> {
+      @Override
+      public @NonNull TestJob create(@NonNull Parameters parameters, @NonNull Data data) {
+        return new TestJob(parameters);
+      }
+    }
+  }
+}
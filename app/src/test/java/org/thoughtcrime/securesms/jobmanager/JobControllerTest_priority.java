@@ -0,0 +1,238 @@
+package org.thoughtcrime.securesms.jobmanager;
+
+import android.app.Application;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.thoughtcrime.securesms.database.JobDatabase;
+import org.thoughtcrime.securesms.jobmanager.impl.JsonDataSerializer;
+import org.thoughtcrime.securesms.jobmanager.persistence.FullSpec;
+import org.thoughtcrime.securesms.jobmanager.persistence.JobSpec;
+import org.thoughtcrime.securesms.jobs.FastJobStorage;
+import org.thoughtcrime.securesms.util.Debouncer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks the order in which {@link JobController} hands out jobs of mixed priorities and ages,
+ * going through the real {@link FastJobStorage} selection.
+ */
+public class JobControllerTest_priority {
+
+  private static final String FACTORY_KEY  = "TestJob";
+  private static final int    BACKLOG_SIZE = 5_000;
+
+  private static final JsonDataSerializer SERIALIZER = new JsonDataSerializer();
+  private static final String             EMPTY_DATA = SERIALIZER.serialize(Data.EMPTY);
+
+  private FastJobStorage jobStorage;
+  private JobController  subject;
+  private long           now;
+  private int            visitedJobs;
+
+  @Before
+  public void setUp() {
+    JobDatabase database = mock(JobDatabase.class);
+
+    doAnswer(invocation -> {
+      ((Runnable) invocation.getArguments()[0]).run();
+      return null;
+    }).when(database).runInTransaction(any(Runnable.class));
+
+    when(database.getAllJobSpecs()).thenReturn(Collections.emptyList());
+    when(database.getAllConstraintSpecs()).thenReturn(Collections.emptyList());
+    when(database.getAllDependencySpecs()).thenReturn(Collections.emptyList());
+
+    jobStorage = new FastJobStorage(database) {
+      @Override
+      public synchronized void visitPendingJobsInPriorityOrder(long currentTime, @NonNull PendingJobVisitor visitor) {
+        super.visitPendingJobsInPriorityOrder(currentTime, jobSpec -> {
+          visitedJobs++;
+          return visitor.visit(jobSpec);
+        });
+      }
+    };
+    jobStorage.init();
+
+    subject = new JobController(mock(Application.class),
+                                jobStorage,
+                                new JobInstantiator(Collections.singletonMap(FACTORY_KEY, new TestJob.Factory())),
+                                new ConstraintInstantiator(Collections.emptyMap()),
+                                SERIALIZER,
+                                mock(JobTracker.class),
+                                new JobMetrics(),
+                                mock(Scheduler.class),
+                                mock(Debouncer.class),
+                                mock(JobController.Callback.class));
+
+    now = System.currentTimeMillis();
+  }
+
+  @Test
+  public void pullNext_higherPriorityFirst() {
+    insert(jobSpec("low", null, now - 3, Job.Parameters.PRIORITY_LOW),
+           jobSpec("default", null, now - 2, Job.Parameters.PRIORITY_DEFAULT),
+           jobSpec("high", null, now - 1, Job.Parameters.PRIORITY_HIGH));
+
+    assertEquals(Arrays.asList("high", "default", "low"), pullAll(3));
+  }
+
+  @Test
+  public void pullNext_samePriority_createdOrder() {
+    insert(jobSpec("2", null, now - 2, Job.Parameters.PRIORITY_DEFAULT),
+           jobSpec("3", null, now - 1, Job.Parameters.PRIORITY_DEFAULT),
+           jobSpec("1", null, now - 3, Job.Parameters.PRIORITY_DEFAULT));
+
+    assertEquals(Arrays.asList("1", "2", "3"), pullAll(3));
+  }
+
+  @Test
+  public void pullNext_agedLowPriority_overtakesFreshDefault() {
+    insert(jobSpec("default", null, now, Job.Parameters.PRIORITY_DEFAULT),
+           jobSpec("low", null, now - 2 * JobPriorityComparator.AGING_INTERVAL, Job.Parameters.PRIORITY_LOW));
+
+    assertEquals(Arrays.asList("low", "default"), pullAll(2));
+  }
+
+  @Test
+  public void pullNext_agedBacklog_neverDelaysHigh() {
+    List<FullSpec> backlog = new ArrayList<>();
+
+    for (int i = 0; i < BACKLOG_SIZE; i++) {
+      backlog.add(jobSpec("background" + i, null, now - 10 * JobPriorityComparator.AGING_INTERVAL + i, Job.Parameters.PRIORITY_LOW));
+    }
+
+    jobStorage.insertJobs(backlog);
+
+    assertEquals("background0", pullNext());
+
+    insert(jobSpec("send", null, now, Job.Parameters.PRIORITY_HIGH));
+
+    assertEquals("send", pullNext());
+    assertEquals("background1", pullNext());
+  }
+
+  @Test
+  public void pullNext_whileDrainingBacklog_sendLatencyStaysBounded() {
+    List<FullSpec> backlog = new ArrayList<>();
+
+    for (int i = 0; i < BACKLOG_SIZE; i++) {
+      backlog.add(jobSpec("background" + i, null, now - BACKLOG_SIZE + i, Job.Parameters.PRIORITY_LOW));
+    }
+
+    jobStorage.insertJobs(backlog);
+
+    for (int i = 0; i < BACKLOG_SIZE; i++) {
+      if (i % 100 == 0) {
+        insert(jobSpec("send" + i, null, System.currentTimeMillis(), Job.Parameters.PRIORITY_HIGH));
+
+        visitedJobs = 0;
+        assertEquals("send" + i, pullNext());
+        assertEquals("Only the send job should be looked at, whatever the size of the backlog", 1, visitedJobs);
+
+        subject.onSuccess(createJob("send" + i), null);
+      }
+
+      visitedJobs = 0;
+      assertEquals("background" + i, pullNext());
+      assertEquals(1, visitedJobs);
+
+      subject.onSuccess(createJob("background" + i), null);
+    }
+  }
+
+  @Test
+  public void pullNext_priorityDoesNotReorderWithinQueue() {
+    insert(jobSpec("low", "queue", now - 2, Job.Parameters.PRIORITY_LOW),
+           jobSpec("high", "queue", now - 1, Job.Parameters.PRIORITY_HIGH),
+           jobSpec("other", null, now, Job.Parameters.PRIORITY_DEFAULT));
+
+    assertEquals(Arrays.asList("other", "low"), pullAll(2));
+
+    subject.onSuccess(createJob("low"), null);
+
+    assertEquals("high", pullNext());
+  }
+
+  @Test
+  public void pullNext_retryNotDueYet_skipped() {
+    insert(jobSpec("high", null, now - 2, now + 60_000, Job.Parameters.PRIORITY_HIGH),
+           jobSpec("low", null, now - 1, 0, Job.Parameters.PRIORITY_LOW));
+
+    assertEquals("low", pullNext());
+  }
+
+  private void insert(@NonNull FullSpec... fullSpecs) {
+    jobStorage.insertJobs(Arrays.asList(fullSpecs));
+  }
+
+  private @NonNull String pullNext() {
+    return subject.pullNextEligibleJobForExecution(JobPredicate.NONE).getId();
+  }
+
+  private @NonNull List<String> pullAll(int count) {
+    List<String> ids = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      ids.add(pullNext());
+    }
+    return ids;
+  }
+
+  private @NonNull Job createJob(@NonNull String id) {
+    return new TestJob(new Job.Parameters.Builder(id).build());
+  }
+
+  private static @NonNull FullSpec jobSpec(@NonNull String id, String queue, long createTime, int priority) {
+    return jobSpec(id, queue, createTime, 0, priority);
+  }
+
+  private static @NonNull FullSpec jobSpec(@NonNull String id, String queue, long createTime, long nextRunAttemptTime, int priority) {
+    return new FullSpec(new JobSpec(id, FACTORY_KEY, queue, createTime, nextRunAttemptTime, 0, 1, Job.Parameters.IMMORTAL, EMPTY_DATA, null, false, false, priority),
+                        Collections.emptyList(),
+                        Collections.emptyList());
+  }
+
+  private static final class TestJob extends Job {
+
+    TestJob(@NonNull Parameters parameters) {
+      super(parameters);
+    }
+
+    @Override
+    public @NonNull Data serialize() {
+      return Data.EMPTY;
+    }
+
+    @Override
+    public @NonNull String getFactoryKey() {
+      return FACTORY_KEY;
+    }
+
+    @Override
+    public @NonNull Result run() {
+      return Result.success();
+    }
+
+    @Override
+    public void onFailure() {
+    }
+
+    private static final class Factory implements Job.Factory<TestJob> {
+      @Override
+      public @NonNull TestJob create(@NonNull Parameters parameters, @NonNull Data data) {
+        return new TestJob(parameters);
+      }
+    }
+  }
+}
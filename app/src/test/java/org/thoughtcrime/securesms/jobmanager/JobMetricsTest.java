@@ -0,0 +1,79 @@
+package org.thoughtcrime.securesms.jobmanager;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JobMetricsTest {
+
+  @Test
+  public void getSnapshots_empty() {
+    JobMetrics subject = new JobMetrics();
+
+    assertTrue(subject.getSnapshots().isEmpty());
+  }
+
+  @Test
+  public void getSnapshots_countsResultsPerFactory() {
+    JobMetrics subject = new JobMetrics();
+
+    subject.onJobStarted("a", 10, 0);
+    subject.onJobFinished("a", 5, Job.Result.success());
+    subject.onJobStarted("a", 30, 20);
+    subject.onJobFinished("a", 15, Job.Result.retry(1000));
+    subject.onJobStarted("a", 2, 0);
+    subject.onJobFinished("a", 1, Job.Result.failure());
+
+    List<JobMetrics.Snapshot> snapshots = subject.getSnapshots();
+
+    assertEquals(1, snapshots.size());
+
+    JobMetrics.Snapshot snapshot = snapshots.get(0);
+
+    assertEquals("a", snapshot.getFactoryKey());
+    assertEquals(3, snapshot.getStarts());
+    assertEquals(1, snapshot.getSuccesses());
+    assertEquals(1, snapshot.getRetries());
+    assertEquals(1, snapshot.getFailures());
+    assertEquals(14, snapshot.getAverageQueueTime());
+    assertEquals(30, snapshot.getMaxQueueTime());
+    assertEquals(20, snapshot.getTotalBlockedTime());
+    assertEquals(21, snapshot.getTotalRunTime());
+    assertEquals(7, snapshot.getAverageRunTime());
+    assertEquals(15, snapshot.getMaxRunTime());
+  }
+
+  @Test
+  public void getSnapshots_runTimeHistogramBuckets() {
+    JobMetrics subject = new JobMetrics();
+
+    subject.onJobFinished("a", 0, Job.Result.success());
+    subject.onJobFinished("a", 9, Job.Result.success());
+    subject.onJobFinished("a", 10, Job.Result.success());
+    subject.onJobFinished("a", 750, Job.Result.success());
+    subject.onJobFinished("a", 120_000, Job.Result.success());
+
+    long[] histogram = subject.getSnapshots().get(0).getRunTimeHistogram();
+
+    assertArrayEquals(new long[] { 2, 1, 0, 0, 1, 0, 0, 0, 1 }, histogram);
+  }
+
+  @Test
+  public void getSnapshots_sortedByTotalRunTime() {
+    JobMetrics subject = new JobMetrics();
+
+    subject.onJobFinished("short", 10, Job.Result.success());
+    subject.onJobFinished("long", 1000, Job.Result.success());
+    subject.onJobFinished("medium", 100, Job.Result.success());
+
+    List<JobMetrics.Snapshot> snapshots = subject.getSnapshots();
+
+    assertEquals("long", snapshots.get(0).getFactoryKey());
+    assertEquals("medium", snapshots.get(1).getFactoryKey());
+    assertEquals("short", snapshots.get(2).getFactoryKey());
+  }
+}
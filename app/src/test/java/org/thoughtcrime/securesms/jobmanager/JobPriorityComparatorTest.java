@@ -0,0 +1,83 @@
+package org.thoughtcrime.securesms.jobmanager;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.jobmanager.persistence.JobSpec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class JobPriorityComparatorTest {
+
+  @Test
+  public void sort_higherPriorityFirst() {
+    List<JobSpec> jobs = Arrays.asList(jobSpec("low", 0, Job.Parameters.PRIORITY_LOW),
+                                       jobSpec("default", 0, Job.Parameters.PRIORITY_DEFAULT),
+                                       jobSpec("high", 0, Job.Parameters.PRIORITY_HIGH));
+
+    Collections.sort(jobs, new JobPriorityComparator(0));
+
+    assertEquals(Arrays.asList("high", "default", "low"), ids(jobs));
+  }
+
+  @Test
+  public void sort_samePriority_keepsCreatedOrder() {
+    List<JobSpec> jobs = Arrays.asList(jobSpec("1", 0, Job.Parameters.PRIORITY_DEFAULT),
+                                       jobSpec("2", 1, Job.Parameters.PRIORITY_DEFAULT),
+                                       jobSpec("3", 2, Job.Parameters.PRIORITY_DEFAULT));
+
+    Collections.sort(jobs, new JobPriorityComparator(10));
+
+    assertEquals(Arrays.asList("1", "2", "3"), ids(jobs));
+  }
+
+  @Test
+  public void sort_agedLowPriority_overtakesDefault() {
+    long now = 2 * JobPriorityComparator.AGING_INTERVAL;
+
+    List<JobSpec> jobs = Arrays.asList(jobSpec("default", now, Job.Parameters.PRIORITY_DEFAULT),
+                                       jobSpec("low", 0, Job.Parameters.PRIORITY_LOW));
+
+    Collections.sort(jobs, new JobPriorityComparator(now));
+
+    assertEquals(Arrays.asList("low", "default"), ids(jobs));
+  }
+
+  @Test
+  public void sort_agedLowPriority_neverOvertakesHigh() {
+    long now = 100 * JobPriorityComparator.AGING_INTERVAL;
+
+    List<JobSpec> jobs = Arrays.asList(jobSpec("low", 0, Job.Parameters.PRIORITY_LOW),
+                                       jobSpec("high", now, Job.Parameters.PRIORITY_HIGH));
+
+    Collections.sort(jobs, new JobPriorityComparator(now));
+
+    assertEquals(Arrays.asList("high", "low"), ids(jobs));
+  }
+
+  @Test
+  public void getEffectivePriority_agesFromNextRunAttemptTime() {
+    JobSpec retried = new JobSpec("1", "f", null, 0, 5 * JobPriorityComparator.AGING_INTERVAL, 1, 1, -1, "", null, false, false, Job.Parameters.PRIORITY_LOW);
+
+    assertEquals(Job.Parameters.PRIORITY_LOW, new JobPriorityComparator(5 * JobPriorityComparator.AGING_INTERVAL).getEffectivePriority(retried));
+    assertEquals(Job.Parameters.PRIORITY_DEFAULT, new JobPriorityComparator(6 * JobPriorityComparator.AGING_INTERVAL).getEffectivePriority(retried));
+    assertEquals(Job.Parameters.PRIORITY_HIGH, new JobPriorityComparator(10 * JobPriorityComparator.AGING_INTERVAL).getEffectivePriority(retried));
+  }
+
+  private static @NonNull JobSpec jobSpec(@NonNull String id, long createTime, int priority) {
+    return new JobSpec(id, "f", null, createTime, 0, 0, 1, -1, "", null, false, false, priority);
+  }
+
+  private static @NonNull List<String> ids(@NonNull List<JobSpec> jobs) {
+    List<String> ids = new ArrayList<>(jobs.size());
+    for (JobSpec job : jobs) {
+      ids.add(job.getId());
+    }
+    return ids;
+  }
+}
@@ -5,6 +5,7 @@ import androidx.annotation.NonNull;
 import com.annimon.stream.Stream;
 
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.thoughtcrime.securesms.database.JobDatabase;
 import org.thoughtcrime.securesms.jobmanager.Data;
 import org.thoughtcrime.securesms.jobmanager.Job;
@@ -14,15 +15,24 @@ import org.thoughtcrime.securesms.jobmanager.persistence.DependencySpec;
 import org.thoughtcrime.securesms.jobmanager.persistence.FullSpec;
 import org.thoughtcrime.securesms.jobmanager.persistence.JobSpec;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -50,16 +60,167 @@ public class FastJobStorageTest {
     FastJobStorage subject  = new FastJobStorage(database);
 
     subject.insertJobs(DataSet1.FULL_SPECS);
+    subject.flush();
 
     verify(database).insertJobs(DataSet1.FULL_SPECS);
   }
 
+  @Test
+  public void insertJobs_notWrittenUntilFlushed() {
+    JobDatabase    database = noopDatabase();
+    FastJobStorage subject  = new FastJobStorage(database, TimeUnit.HOURS.toMillis(1));
+
+    subject.insertJobs(DataSet1.FULL_SPECS);
+
+    verify(database, never()).insertJobs(DataSet1.FULL_SPECS);
+
+    subject.flush();
+
+    verify(database).insertJobs(DataSet1.FULL_SPECS);
+  }
+
+  @Test
+  public void insertJobs_writtenWithinFlushDelay() {
+    JobDatabase    database = noopDatabase();
+    FastJobStorage subject  = new FastJobStorage(database, 10);
+
+    subject.insertJobs(DataSet1.FULL_SPECS);
+
+    verify(database, timeout(1000)).insertJobs(DataSet1.FULL_SPECS);
+  }
+
+  @Test
+  public void updateJobRunningState_pendingInsert_insertWrittenBeforeRunning() {
+    JobDatabase    database = noopDatabase();
+    FastJobStorage subject  = new FastJobStorage(database, TimeUnit.HOURS.toMillis(1));
+
+    subject.insertJobs(DataSet1.FULL_SPECS);
+    subject.updateJobRunningState(DataSet1.JOB_1.getId(), true);
+
+    InOrder inOrder = inOrder(database);
+    inOrder.verify(database).insertJobs(DataSet1.FULL_SPECS);
+    inOrder.verify(database).updateJobRunningState(DataSet1.JOB_1.getId(), true);
+  }
+
+  @Test
+  public void deleteJobs_batchedWithInsertInSingleTransaction() {
+    JobDatabase    database = noopDatabase();
+    FastJobStorage subject  = new FastJobStorage(database, TimeUnit.HOURS.toMillis(1));
+    List<String>   ids      = Collections.singletonList(DataSet1.JOB_1.getId());
+
+    subject.insertJobs(DataSet1.FULL_SPECS);
+    subject.deleteJobs(ids);
+    subject.flush();
+
+    InOrder inOrder = inOrder(database);
+    inOrder.verify(database).runInTransaction(any(Runnable.class));
+    inOrder.verify(database).insertJobs(DataSet1.FULL_SPECS);
+    inOrder.verify(database).deleteJobs(ids);
+    verify(database, times(1)).runInTransaction(any(Runnable.class));
+  }
+
+  @Test
+  public void deleteJobs_notWrittenUntilFlushed() {
+    JobDatabase    database = noopDatabase();
+    FastJobStorage subject  = new FastJobStorage(database, TimeUnit.HOURS.toMillis(1));
+    List<String>   ids      = Collections.singletonList(DataSet1.JOB_1.getId());
+
+    subject.insertJobs(DataSet1.FULL_SPECS);
+    subject.deleteJobs(ids);
+
+    verify(database, never()).deleteJobs(ids);
+
+    subject.flush();
+
+    InOrder inOrder = inOrder(database);
+    inOrder.verify(database).insertJobs(DataSet1.FULL_SPECS);
+    inOrder.verify(database).deleteJobs(ids);
+  }
+
+  @Test
+  public void flush_failedTransaction_writesRetriedOnNextFlush() {
+    JobDatabase    database = noopDatabase();
+    FastJobStorage subject  = new FastJobStorage(database, TimeUnit.HOURS.toMillis(1));
+
+    doThrow(new IllegalStateException()).doAnswer(invocation -> {
+      ((Runnable) invocation.getArguments()[0]).run();
+      return null;
+    }).when(database).runInTransaction(any(Runnable.class));
+
+    subject.insertJobs(DataSet1.FULL_SPECS);
+
+    try {
+      subject.flush();
+      fail();
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+
+    subject.flush();
+
+    verify(database, times(2)).runInTransaction(any(Runnable.class));
+    verify(database).insertJobs(DataSet1.FULL_SPECS);
+  }
+
+  @Test
+  public void flush_batchKeepsFailing_otherWritesCommittedAndFailingWriteDropped() {
+    JobDatabase    database = noopDatabase();
+    FastJobStorage subject  = new FastJobStorage(database, TimeUnit.HOURS.toMillis(1));
+    JobSpec        update   = new JobSpec("id1", "f1", null, 1, 1, 1, 1, 1, EMPTY_DATA, null, false, false, 0);
+
+    doThrow(new IllegalStateException()).when(database).insertJobs(DataSet1.FULL_SPECS);
+
+    subject.insertJobs(DataSet1.FULL_SPECS);
+    subject.updateJobs(Collections.singletonList(update));
+
+    for (int i = 0; i < 2; i++) {
+      try {
+        subject.flush();
+        fail();
+      } catch (IllegalStateException e) {
+        // Expected
+      }
+    }
+
+    verify(database, never()).updateJobs(any());
+
+    subject.flush();
+
+    verify(database).updateJobs(Collections.singletonList(update));
+
+    subject.flush();
+
+    verify(database, times(4)).insertJobs(DataSet1.FULL_SPECS);
+  }
+
+  @Test
+  public void flush_failedTransactionOnWriterThread_laterWritesStillCommitted() {
+    JobDatabase    database = noopDatabase();
+    FastJobStorage subject  = new FastJobStorage(database, 10);
+    JobSpec        update   = new JobSpec("id1", "f1", null, 1, 1, 1, 1, 1, EMPTY_DATA, null, false, false, 0);
+
+    doThrow(new IllegalStateException()).doAnswer(invocation -> {
+      ((Runnable) invocation.getArguments()[0]).run();
+      return null;
+    }).when(database).runInTransaction(any(Runnable.class));
+
+    subject.insertJobs(DataSet1.FULL_SPECS);
+
+    verify(database, timeout(1000)).runInTransaction(any(Runnable.class));
+
+    subject.updateJobs(Collections.singletonList(update));
+
+    verify(database, timeout(1000)).insertJobs(DataSet1.FULL_SPECS);
+    verify(database, timeout(1000)).updateJobs(Collections.singletonList(update));
+  }
+
   @Test
   public void insertJobs_memoryOnlyJob_doesNotWriteToDatabase() {
     JobDatabase    database = noopDatabase();
     FastJobStorage subject  = new FastJobStorage(database);
 
     subject.insertJobs(DataSetMemory.FULL_SPECS);
+    subject.flush();
 
     verify(database, times(0)).insertJobs(DataSet1.FULL_SPECS);
   }
@@ -91,16 +252,17 @@ public class FastJobStorageTest {
     FastJobStorage subject  = new FastJobStorage(database);
 
     subject.updateAllJobsToBePending();
+    subject.flush();
 
     verify(database).updateAllJobsToBePending();
   }
 
   @Test
   public void updateAllJobsToBePending_allArePending() {
-    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", null, 1, 1, 1, 1, 1, EMPTY_DATA, null, true, false),
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", null, 1, 1, 1, 1, 1, EMPTY_DATA, null, true, false, 0),
                                       Collections.emptyList(),
                                       Collections.emptyList());
-    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", null, 1, 1, 1, 1, 1, EMPTY_DATA, null, true, false),
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", null, 1, 1, 1, 1, 1, EMPTY_DATA, null, true, false, 0),
                                       Collections.emptyList(),
                                       Collections.emptyList());
 
@@ -117,10 +279,11 @@ public class FastJobStorageTest {
   public void updateJobs_writesToDatabase() {
     JobDatabase    database = fixedDataDatabase(DataSet1.FULL_SPECS);
     FastJobStorage subject  = new FastJobStorage(database);
-    List<JobSpec>  jobs     = Collections.singletonList(new JobSpec("id1", "f1", null, 1, 1, 1, 1, 1, EMPTY_DATA, null, false, false));
+    List<JobSpec>  jobs     = Collections.singletonList(new JobSpec("id1", "f1", null, 1, 1, 1, 1, 1, EMPTY_DATA, null, false, false, 0));
 
     subject.init();
     subject.updateJobs(jobs);
+    subject.flush();
 
     verify(database).updateJobs(jobs);
   }
@@ -129,30 +292,31 @@ public class FastJobStorageTest {
   public void updateJobs_memoryOnly_doesNotWriteToDatabase() {
     JobDatabase    database = fixedDataDatabase(DataSetMemory.FULL_SPECS);
     FastJobStorage subject  = new FastJobStorage(database);
-    List<JobSpec>  jobs     = Collections.singletonList(new JobSpec("id1", "f1", null, 1, 1, 1, 1, 1, EMPTY_DATA, null, false, false));
+    List<JobSpec>  jobs     = Collections.singletonList(new JobSpec("id1", "f1", null, 1, 1, 1, 1, 1, EMPTY_DATA, null, false, false, 0));
 
     subject.init();
     subject.updateJobs(jobs);
+    subject.flush();
 
     verify(database, times(0)).updateJobs(jobs);
   }
 
   @Test
   public void updateJobs_updatesAllFields() {
-    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", null, 1, 1, 1, 1, 1, EMPTY_DATA, null, false, false),
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", null, 1, 1, 1, 1, 1, EMPTY_DATA, null, false, false, 0),
                                       Collections.emptyList(),
                                       Collections.emptyList());
-    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", null, 1, 1, 1, 1, 1, EMPTY_DATA, null, false, false),
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", null, 1, 1, 1, 1, 1, EMPTY_DATA, null, false, false, 0),
                                       Collections.emptyList(),
                                       Collections.emptyList());
-    FullSpec fullSpec3 = new FullSpec(new JobSpec("3", "f3", null, 1, 1, 1, 1, 1, EMPTY_DATA, null, false, false),
+    FullSpec fullSpec3 = new FullSpec(new JobSpec("3", "f3", null, 1, 1, 1, 1, 1, EMPTY_DATA, null, false, false, 0),
                                       Collections.emptyList(),
                                       Collections.emptyList());
 
     FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(fullSpec1, fullSpec2, fullSpec3)));
 
-    JobSpec update1 = new JobSpec("1", "g1", "q1", 2, 2, 2, 2, 2, "abc", null, true, false);
-    JobSpec update2 = new JobSpec("2", "g2", "q2", 3, 3, 3, 3, 3, "def", "ghi", true, false);
+    JobSpec update1 = new JobSpec("1", "g1", "q1", 2, 2, 2, 2, 2, "abc", null, true, false, 0);
+    JobSpec update2 = new JobSpec("2", "g2", "q2", 3, 3, 3, 3, 3, "def", "ghi", true, false, 0);
 
     subject.init();
     subject.updateJobs(Arrays.asList(update1, update2));
@@ -169,6 +333,7 @@ public class FastJobStorageTest {
 
     subject.init();
     subject.updateJobRunningState("id1", true);
+    subject.flush();
 
     verify(database).updateJobRunningState("id1", true);
   }
@@ -192,6 +357,7 @@ public class FastJobStorageTest {
 
     subject.init();
     subject.updateJobAfterRetry("id1", true, 1, 10, "a");
+    subject.flush();
 
     verify(database).updateJobAfterRetry("id1", true, 1, 10, "a");
   }
@@ -203,13 +369,14 @@ public class FastJobStorageTest {
 
     subject.init();
     subject.updateJobAfterRetry("id1", true, 1, 10, "a");
+    subject.flush();
 
     verify(database, times(0)).updateJobAfterRetry("id1", true, 1, 10, "a");
   }
 
   @Test
   public void updateJobAfterRetry_stateUpdated() {
-    FullSpec fullSpec = new FullSpec(new JobSpec("1", "f1", null, 0, 0, 0, 3, -1, EMPTY_DATA, null, true, false),
+    FullSpec fullSpec = new FullSpec(new JobSpec("1", "f1", null, 0, 0, 0, 3, -1, EMPTY_DATA, null, true, false, 0),
                                      Collections.emptyList(),
                                      Collections.emptyList());
 
@@ -229,10 +396,10 @@ public class FastJobStorageTest {
 
   @Test
   public void getPendingJobsWithNoDependenciesInCreatedOrder_noneWhenEarlierItemInQueueInRunning() {
-    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", "q", 0, 0, 0, 0, -1, EMPTY_DATA, null, true, false),
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", "q", 0, 0, 0, 0, -1, EMPTY_DATA, null, true, false, 0),
                                       Collections.emptyList(),
                                       Collections.emptyList());
-    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", "q", 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", "q", 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false, 0),
                                       Collections.emptyList(),
                                       Collections.emptyList());
 
@@ -244,7 +411,7 @@ public class FastJobStorageTest {
 
   @Test
   public void getPendingJobsWithNoDependenciesInCreatedOrder_noneWhenAllJobsAreRunning() {
-    FullSpec fullSpec = new FullSpec(new JobSpec("1", "f1", "q", 0, 0, 0, 0, -1, EMPTY_DATA, null, true, false),
+    FullSpec fullSpec = new FullSpec(new JobSpec("1", "f1", "q", 0, 0, 0, 0, -1, EMPTY_DATA, null, true, false, 0),
                                      Collections.emptyList(),
                                      Collections.emptyList());
 
@@ -256,7 +423,7 @@ public class FastJobStorageTest {
 
   @Test
   public void getPendingJobsWithNoDependenciesInCreatedOrder_noneWhenNextRunTimeIsAfterCurrentTime() {
-    FullSpec fullSpec = new FullSpec(new JobSpec("1", "f1", "q", 0, 10, 0, 0, -1, EMPTY_DATA, null, false, false),
+    FullSpec fullSpec = new FullSpec(new JobSpec("1", "f1", "q", 0, 10, 0, 0, -1, EMPTY_DATA, null, false, false, 0),
                                      Collections.emptyList(),
                                      Collections.emptyList());
 
@@ -268,10 +435,10 @@ public class FastJobStorageTest {
 
   @Test
   public void getPendingJobsWithNoDependenciesInCreatedOrder_noneWhenDependentOnAnotherJob() {
-    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", null, 0, 0, 0, 0, -1, EMPTY_DATA, null, true, false),
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", null, 0, 0, 0, 0, -1, EMPTY_DATA, null, true, false, 0),
                                       Collections.emptyList(),
                                       Collections.emptyList());
-    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", null, 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", null, 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false, 0),
                                       Collections.emptyList(),
                                       Collections.singletonList(new DependencySpec("2", "1", false)));
 
@@ -284,7 +451,7 @@ public class FastJobStorageTest {
 
   @Test
   public void getPendingJobsWithNoDependenciesInCreatedOrder_singleEligibleJob() {
-    FullSpec fullSpec = new FullSpec(new JobSpec("1", "f1", "q", 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+    FullSpec fullSpec = new FullSpec(new JobSpec("1", "f1", "q", 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false, 0),
                                      Collections.emptyList(),
                                      Collections.emptyList());
 
@@ -296,10 +463,10 @@ public class FastJobStorageTest {
 
   @Test
   public void getPendingJobsWithNoDependenciesInCreatedOrder_multipleEligibleJobs() {
-    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", null, 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", null, 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false, 0),
                                       Collections.emptyList(),
                                       Collections.emptyList());
-    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", null, 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", null, 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false, 0),
                                       Collections.emptyList(),
                                       Collections.emptyList());
 
@@ -312,10 +479,10 @@ public class FastJobStorageTest {
 
   @Test
   public void getPendingJobsWithNoDependenciesInCreatedOrder_singleEligibleJobInMixedList() {
-    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", null, 0, 0, 0, 0, -1, EMPTY_DATA, null, true, false),
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", null, 0, 0, 0, 0, -1, EMPTY_DATA, null, true, false, 0),
                                       Collections.emptyList(),
                                       Collections.emptyList());
-    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", null, 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", null, 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false, 0),
                                       Collections.emptyList(),
                                       Collections.emptyList());
 
@@ -331,10 +498,10 @@ public class FastJobStorageTest {
 
   @Test
   public void getPendingJobsWithNoDependenciesInCreatedOrder_firstItemInQueue() {
-    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", "q", 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", "q", 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false, 0),
                                       Collections.emptyList(),
                                       Collections.emptyList());
-    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", "q", 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", "q", 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false, 0),
                                       Collections.emptyList(),
                                       Collections.emptyList());
 
@@ -350,10 +517,10 @@ public class FastJobStorageTest {
 
   @Test
   public void getPendingJobsWithNoDependenciesInCreatedOrder_migrationJobTakesPrecedence() {
-    FullSpec plainSpec     = new FullSpec(new JobSpec("1", "f1", "q", 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+    FullSpec plainSpec     = new FullSpec(new JobSpec("1", "f1", "q", 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false, 0),
                                           Collections.emptyList(),
                                           Collections.emptyList());
-    FullSpec migrationSpec = new FullSpec(new JobSpec("2", "f2", Job.Parameters.MIGRATION_QUEUE_KEY, 5, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+    FullSpec migrationSpec = new FullSpec(new JobSpec("2", "f2", Job.Parameters.MIGRATION_QUEUE_KEY, 5, 0, 0, 0, -1, EMPTY_DATA, null, false, false, 0),
                                           Collections.emptyList(),
                                           Collections.emptyList());
 
@@ -368,10 +535,10 @@ public class FastJobStorageTest {
 
   @Test
   public void getPendingJobsWithNoDependenciesInCreatedOrder_runningMigrationBlocksNormalJobs() {
-    FullSpec plainSpec     = new FullSpec(new JobSpec("1", "f1", "q", 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+    FullSpec plainSpec     = new FullSpec(new JobSpec("1", "f1", "q", 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false, 0),
                                           Collections.emptyList(),
                                           Collections.emptyList());
-    FullSpec migrationSpec = new FullSpec(new JobSpec("2", "f2", Job.Parameters.MIGRATION_QUEUE_KEY, 5, 0, 0, 0, -1, EMPTY_DATA, null, true, false),
+    FullSpec migrationSpec = new FullSpec(new JobSpec("2", "f2", Job.Parameters.MIGRATION_QUEUE_KEY, 5, 0, 0, 0, -1, EMPTY_DATA, null, true, false, 0),
                                           Collections.emptyList(),
                                           Collections.emptyList());
 
@@ -385,10 +552,10 @@ public class FastJobStorageTest {
 
   @Test
   public void getPendingJobsWithNoDependenciesInCreatedOrder_runningMigrationBlocksLaterMigrationJobs() {
-    FullSpec migrationSpec1 = new FullSpec(new JobSpec("1", "f1", Job.Parameters.MIGRATION_QUEUE_KEY, 0, 0, 0, 0, -1, EMPTY_DATA, null, true, false),
+    FullSpec migrationSpec1 = new FullSpec(new JobSpec("1", "f1", Job.Parameters.MIGRATION_QUEUE_KEY, 0, 0, 0, 0, -1, EMPTY_DATA, null, true, false, 0),
                                            Collections.emptyList(),
                                            Collections.emptyList());
-    FullSpec migrationSpec2 = new FullSpec(new JobSpec("2", "f2", Job.Parameters.MIGRATION_QUEUE_KEY, 5, 0, 0, 0,  -1, EMPTY_DATA, null, false, false),
+    FullSpec migrationSpec2 = new FullSpec(new JobSpec("2", "f2", Job.Parameters.MIGRATION_QUEUE_KEY, 5, 0, 0, 0,  -1, EMPTY_DATA, null, false, false, 0),
                                            Collections.emptyList(),
                                            Collections.emptyList());
 
@@ -402,10 +569,10 @@ public class FastJobStorageTest {
 
   @Test
   public void getPendingJobsWithNoDependenciesInCreatedOrder_onlyReturnFirstEligibleMigrationJob() {
-    FullSpec migrationSpec1 = new FullSpec(new JobSpec("1", "f1", Job.Parameters.MIGRATION_QUEUE_KEY, 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+    FullSpec migrationSpec1 = new FullSpec(new JobSpec("1", "f1", Job.Parameters.MIGRATION_QUEUE_KEY, 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false, 0),
                                            Collections.emptyList(),
                                            Collections.emptyList());
-    FullSpec migrationSpec2 = new FullSpec(new JobSpec("2", "f2", Job.Parameters.MIGRATION_QUEUE_KEY, 5, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+    FullSpec migrationSpec2 = new FullSpec(new JobSpec("2", "f2", Job.Parameters.MIGRATION_QUEUE_KEY, 5, 0, 0, 0, -1, EMPTY_DATA, null, false, false, 0),
                                            Collections.emptyList(),
                                            Collections.emptyList());
 
@@ -420,10 +587,10 @@ public class FastJobStorageTest {
 
   @Test
   public void getPendingJobsWithNoDependenciesInCreatedOrder_onlyMigrationJobWithAppropriateNextRunTime() {
-    FullSpec migrationSpec1 = new FullSpec(new JobSpec("1", "f1", Job.Parameters.MIGRATION_QUEUE_KEY, 0, 999, 0, 0, -1, EMPTY_DATA, null, false, false),
+    FullSpec migrationSpec1 = new FullSpec(new JobSpec("1", "f1", Job.Parameters.MIGRATION_QUEUE_KEY, 0, 999, 0, 0, -1, EMPTY_DATA, null, false, false, 0),
         Collections.emptyList(),
         Collections.emptyList());
-    FullSpec migrationSpec2 = new FullSpec(new JobSpec("2", "f2", Job.Parameters.MIGRATION_QUEUE_KEY, 5, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+    FullSpec migrationSpec2 = new FullSpec(new JobSpec("2", "f2", Job.Parameters.MIGRATION_QUEUE_KEY, 5, 0, 0, 0, -1, EMPTY_DATA, null, false, false, 0),
         Collections.emptyList(),
         Collections.emptyList());
 
@@ -435,6 +602,159 @@ public class FastJobStorageTest {
     assertTrue(jobs.isEmpty());
   }
 
+  @Test
+  public void visitPendingJobsInPriorityOrder_higherPriorityFirstThenCreatedOrder() {
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(priorityJob("low", null, 0, 0, Job.Parameters.PRIORITY_LOW),
+                                                                                priorityJob("default1", null, 1, 0, Job.Parameters.PRIORITY_DEFAULT),
+                                                                                priorityJob("high", null, 2, 0, Job.Parameters.PRIORITY_HIGH),
+                                                                                priorityJob("default2", null, 3, 0, Job.Parameters.PRIORITY_DEFAULT))));
+    subject.init();
+
+    assertEquals(Arrays.asList("high", "default1", "default2", "low"), visitAll(subject, 10));
+  }
+
+  @Test
+  public void visitPendingJobsInPriorityOrder_stopsWhenVisitorReturnsFalse() {
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(priorityJob("1", null, 0, 0, Job.Parameters.PRIORITY_DEFAULT),
+                                                                                priorityJob("2", null, 1, 0, Job.Parameters.PRIORITY_DEFAULT))));
+    subject.init();
+
+    List<String> visited = new ArrayList<>();
+
+    subject.visitPendingJobsInPriorityOrder(10, jobSpec -> {
+      visited.add(jobSpec.getId());
+      return false;
+    });
+
+    assertEquals(Collections.singletonList("1"), visited);
+  }
+
+  @Test
+  public void visitPendingJobsInPriorityOrder_skipsJobsWaitingOnRetry() {
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(priorityJob("retrying", null, 0, 999, Job.Parameters.PRIORITY_HIGH),
+                                                                                priorityJob("ready", null, 1, 0, Job.Parameters.PRIORITY_HIGH))));
+    subject.init();
+
+    assertEquals(Collections.singletonList("ready"), visitAll(subject, 10));
+    assertEquals(Arrays.asList("ready", "retrying"), visitAll(subject, 1000));
+  }
+
+  @Test
+  public void visitPendingJobsInPriorityOrder_nextInQueueVisitedOnceHeadIsDeleted() {
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(priorityJob("head", "q", 0, 0, Job.Parameters.PRIORITY_LOW),
+                                                                                priorityJob("next", "q", 1, 0, Job.Parameters.PRIORITY_HIGH),
+                                                                                priorityJob("other", null, 2, 0, Job.Parameters.PRIORITY_DEFAULT))));
+    subject.init();
+
+    assertEquals(Arrays.asList("other", "head"), visitAll(subject, 10));
+
+    subject.deleteJob("head");
+
+    assertEquals(Arrays.asList("next", "other"), visitAll(subject, 10));
+  }
+
+  @Test
+  public void visitPendingJobsInPriorityOrder_migrationJobTakesPrecedence() {
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(priorityJob("high", null, 0, 0, Job.Parameters.PRIORITY_HIGH),
+                                                                                priorityJob("migration", Job.Parameters.MIGRATION_QUEUE_KEY, 5, 0, Job.Parameters.PRIORITY_DEFAULT))));
+    subject.init();
+
+    assertEquals(Collections.singletonList("migration"), visitAll(subject, 10));
+  }
+
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_dependentEligibleAfterDependencyDeleted() {
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(DataSet1.FULL_SPECS));
+    subject.init();
+
+    List<JobSpec> before = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10);
+
+    assertEquals(1, before.size());
+    assertEquals("id1", before.get(0).getId());
+
+    subject.deleteJob("id1");
+
+    List<JobSpec> after = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10);
+
+    assertEquals(1, after.size());
+    assertEquals("id2", after.get(0).getId());
+  }
+
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_nextInQueueEligibleAfterFirstDeleted() {
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", "q", 0, 0, 0, 0, -1, EMPTY_DATA, null, true, false, 0),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", "q", 1, 0, 0, 0, -1, EMPTY_DATA, null, false, false, 0),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(fullSpec1, fullSpec2)));
+    subject.init();
+
+    assertTrue(subject.getPendingJobsWithNoDependenciesInCreatedOrder(10).isEmpty());
+
+    subject.deleteJob("1");
+
+    List<JobSpec> jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10);
+
+    assertEquals(1, jobs.size());
+    assertEquals("2", jobs.get(0).getId());
+  }
+
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_earlierInsertBecomesFirstInQueue() {
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", "q", 5, 0, 0, 0, -1, EMPTY_DATA, null, false, false, 0),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", "q", 1, 0, 0, 0, -1, EMPTY_DATA, null, false, false, 0),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+
+    FastJobStorage subject = new FastJobStorage(noopDatabase());
+    subject.init();
+
+    subject.insertJobs(Collections.singletonList(fullSpec1));
+    subject.insertJobs(Collections.singletonList(fullSpec2));
+
+    List<JobSpec> jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10);
+
+    assertEquals(1, jobs.size());
+    assertEquals("2", jobs.get(0).getId());
+  }
+
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_largeBacklogDrainsInCreatedOrder() {
+    int            jobCount = 50_000;
+    List<FullSpec> specs    = new ArrayList<>(jobCount);
+
+    for (int i = 0; i < jobCount; i++) {
+      specs.add(new FullSpec(new JobSpec("id" + i, "f" + (i % 3), "q" + (i % 20), i, 0, 0, 0, -1, EMPTY_DATA, null, false, false, 0),
+                             Collections.emptyList(),
+                             Collections.emptyList()));
+    }
+
+    FastJobStorage subject = new FastJobStorage(noopDatabase());
+    subject.init();
+    subject.insertJobs(specs);
+
+    assertEquals(20, subject.getPendingJobsWithNoDependenciesInCreatedOrder(10).size());
+
+    for (int i = 0; i < jobCount; i++) {
+      List<JobSpec> pending = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10);
+      JobSpec       next    = pending.get(0);
+
+      assertEquals("id" + i, next.getId());
+
+      subject.updateJobRunningState(next.getId(), true);
+      subject.deleteJob(next.getId());
+    }
+
+    assertTrue(subject.getAllJobSpecs().isEmpty());
+    assertTrue(subject.getPendingJobsWithNoDependenciesInCreatedOrder(10).isEmpty());
+    assertEquals(0, subject.getJobCountForFactory("f0"));
+  }
+
   @Test
   public void deleteJobs_writesToDatabase() {
     JobDatabase    database = fixedDataDatabase(DataSet1.FULL_SPECS);
@@ -443,6 +763,7 @@ public class FastJobStorageTest {
 
     subject.init();
     subject.deleteJobs(ids);
+    subject.flush();
 
     verify(database).deleteJobs(ids);
   }
@@ -455,6 +776,7 @@ public class FastJobStorageTest {
 
     subject.init();
     subject.deleteJobs(ids);
+    subject.flush();
 
     verify(database, times(0)).deleteJobs(ids);
   }
@@ -547,6 +869,32 @@ public class FastJobStorageTest {
     assertEquals(0, subject.getJobCountForFactory("does-not-exist"));
   }
 
+  @Test
+  public void getJobsInQueue_afterQueueChanged() {
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(DataSet1.FULL_SPECS));
+
+    subject.init();
+    subject.updateJobs(Collections.singletonList(new JobSpec("id1", "f1", "q2", 1, 2, 3, 4, 5, EMPTY_DATA, null, false, false, 0)));
+
+    List<JobSpec> result = subject.getJobsInQueue("q2");
+
+    assertTrue(subject.getJobsInQueue("q1").isEmpty());
+    assertEquals(2, result.size());
+    assertEquals("id1", result.get(0).getId());
+    assertEquals("id2", result.get(1).getId());
+  }
+
+  @Test
+  public void getJobCountForFactory_afterDelete() {
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(DataSet1.FULL_SPECS));
+
+    subject.init();
+    subject.deleteJob("id1");
+
+    assertEquals(0, subject.getJobCountForFactory("f1"));
+    assertEquals(1, subject.getJobCountForFactory("f2"));
+  }
+
   @Test
   public void getJobCountForFactoryAndQueue_general() {
     FastJobStorage subject = new FastJobStorage(fixedDataDatabase(DataSet1.FULL_SPECS));
@@ -587,9 +935,31 @@ public class FastJobStorageTest {
     assertTrue(subject.areQueuesEmpty(setOf("q4", "q5")));
   }
 
+  private static @NonNull FullSpec priorityJob(@NonNull String id, String queue, long createTime, long nextRunAttemptTime, int priority) {
+    return new FullSpec(new JobSpec(id, "f1", queue, createTime, nextRunAttemptTime, 0, 0, -1, EMPTY_DATA, null, false, false, priority),
+                        Collections.emptyList(),
+                        Collections.emptyList());
+  }
+
+  private static @NonNull List<String> visitAll(@NonNull FastJobStorage subject, long currentTime) {
+    List<String> ids = new ArrayList<>();
+
+    subject.visitPendingJobsInPriorityOrder(currentTime, jobSpec -> {
+      ids.add(jobSpec.getId());
+      return true;
+    });
+
+    return ids;
+  }
+
   private JobDatabase noopDatabase() {
     JobDatabase database = mock(JobDatabase.class);
 
+    doAnswer(invocation -> {
+      ((Runnable) invocation.getArguments()[0]).run();
+      return null;
+    }).when(database).runInTransaction(any(Runnable.class));
+
     when(database.getAllJobSpecs()).thenReturn(Collections.emptyList());
     when(database.getAllConstraintSpecs()).thenReturn(Collections.emptyList());
     when(database.getAllDependencySpecs()).thenReturn(Collections.emptyList());
@@ -600,6 +970,11 @@ public class FastJobStorageTest {
   private JobDatabase fixedDataDatabase(List<FullSpec> fullSpecs) {
     JobDatabase database = mock(JobDatabase.class);
 
+    doAnswer(invocation -> {
+      ((Runnable) invocation.getArguments()[0]).run();
+      return null;
+    }).when(database).runInTransaction(any(Runnable.class));
+
     when(database.getAllJobSpecs()).thenReturn(Stream.of(fullSpecs).map(FullSpec::getJobSpec).toList());
     when(database.getAllConstraintSpecs()).thenReturn(Stream.of(fullSpecs).map(FullSpec::getConstraintSpecs).flatMap(Stream::of).toList());
     when(database.getAllDependencySpecs()).thenReturn(Stream.of(fullSpecs).map(FullSpec::getDependencySpecs).flatMap(Stream::of).toList());
@@ -608,9 +983,9 @@ public class FastJobStorageTest {
   }
 
   private static final class DataSet1 {
-    static final JobSpec        JOB_1        = new JobSpec("id1", "f1", "q1", 1, 2, 3, 4, 5, EMPTY_DATA, null, false, false);
-    static final JobSpec        JOB_2        = new JobSpec("id2", "f2", "q2", 1, 2, 3, 4, 5, EMPTY_DATA, null, false, false);
-    static final JobSpec        JOB_3        = new JobSpec("id3", "f3", "q3", 1, 2, 3, 4, 5, EMPTY_DATA, null, false, false);
+    static final JobSpec        JOB_1        = new JobSpec("id1", "f1", "q1", 1, 2, 3, 4, 5, EMPTY_DATA, null, false, false, 0);
+    static final JobSpec        JOB_2        = new JobSpec("id2", "f2", "q2", 1, 2, 3, 4, 5, EMPTY_DATA, null, false, false, 0);
+    static final JobSpec        JOB_3        = new JobSpec("id3", "f3", "q3", 1, 2, 3, 4, 5, EMPTY_DATA, null, false, false, 0);
     static final ConstraintSpec CONSTRAINT_1 = new ConstraintSpec("id1", "f1", false);
     static final ConstraintSpec CONSTRAINT_2 = new ConstraintSpec("id2", "f2", false);
     static final DependencySpec DEPENDENCY_2 = new DependencySpec("id2", "id1", false);
@@ -641,7 +1016,7 @@ public class FastJobStorageTest {
   }
 
   private static final class DataSetMemory {
-    static final JobSpec        JOB_1        = new JobSpec("id1", "f1", "q1", 1, 2, 3, 4, 5, EMPTY_DATA, null, false, true);
+    static final JobSpec        JOB_1        = new JobSpec("id1", "f1", "q1", 1, 2, 3, 4, 5, EMPTY_DATA, null, false, true, 0);
     static final ConstraintSpec CONSTRAINT_1 = new ConstraintSpec("id1", "f1", true);
     static final FullSpec       FULL_SPEC_1  = new FullSpec(JOB_1, Collections.singletonList(CONSTRAINT_1), Collections.emptyList());
     static final List<FullSpec> FULL_SPECS   = Collections.singletonList(FULL_SPEC_1);
@@ -0,0 +1,375 @@
+package org.thoughtcrime.securesms.messages;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Test;
+import org.whispersystems.signalservice.api.SignalSessionLock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class DecryptionPipelineTest {
+
+  private static final int SENDERS    = 200;
+  private static final int PER_SENDER = 10;
+
+  private final List<ExecutorService> executors = new ArrayList<>();
+
+  @After
+  public void tearDown() {
+    for (ExecutorService executor : executors) {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void outputs_areInInputOrder() {
+    List<Envelope>    envelopes = backlog(new Random(1), 7);
+    RecordingListener listener  = new RecordingListener();
+
+    pipeline(8, new FakeStage(new FakeSessionLock())).process(envelopes, listener);
+
+    assertEquals(envelopes.size(), listener.getOutputs().size());
+
+    for (int i = 0; i < envelopes.size(); i++) {
+      assertEquals("decrypted:" + i, listener.getOutputs().get(i));
+    }
+  }
+
+  @Test
+  public void sameSender_takesSessionLockInArrivalOrder() {
+    FakeSessionLock sessionLock = new FakeSessionLock();
+    List<Envelope>  envelopes   = backlog(new Random(2), 0);
+
+    pipeline(8, new FakeStage(sessionLock)).process(envelopes, new RecordingListener());
+
+    Map<String, Integer> lastSequence = new HashMap<>();
+
+    for (Envelope envelope : sessionLock.getEntries()) {
+      Integer last = lastSequence.put(envelope.sender, envelope.sequence);
+      assertTrue(envelope.sender + " went from " + last + " to " + envelope.sequence, last == null ? envelope.sequence == 0 : envelope.sequence == last + 1);
+    }
+
+    assertEquals(envelopes.size(), sessionLock.getEntries().size());
+    assertEquals(1, sessionLock.getMaxHolders());
+  }
+
+  @Test
+  public void unknownSender_isOrderedAgainstEveryOtherEnvelope() {
+    FakeSessionLock sessionLock = new FakeSessionLock();
+    List<Envelope>  envelopes   = backlog(new Random(3), 5);
+
+    pipeline(8, new FakeStage(sessionLock)).process(envelopes, new RecordingListener());
+
+    List<Envelope> entries = sessionLock.getEntries();
+
+    for (int i = 0; i < entries.size(); i++) {
+      if (entries.get(i).sender == null) {
+        assertEquals(entries.get(i).index, i);
+      }
+    }
+  }
+
+  @Test
+  public void differentSenders_workOutsideSessionLockOverlaps() {
+    FakeSessionLock sessionLock = new FakeSessionLock();
+    CyclicBarrier   bothRunning = new CyclicBarrier(2);
+    List<Envelope>  envelopes   = new ArrayList<>();
+
+    envelopes.add(new Envelope(0, "alice", 0));
+    envelopes.add(new Envelope(1, "bob", 0));
+
+    FakeStage stage = new FakeStage(sessionLock) {
+      @Override
+      public @NonNull String decrypt(@NonNull Envelope envelope, @NonNull SignalSessionLock lock) {
+        String output = super.decrypt(envelope, lock);
+
+        try {
+          bothRunning.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException | BrokenBarrierException | TimeoutException e) {
+          throw new AssertionError("Envelopes from different senders didn't run at the same time.", e);
+        }
+
+        return output;
+      }
+    };
+
+    RecordingListener listener = new RecordingListener();
+
+    pipeline(2, stage).process(envelopes, listener);
+
+    assertEquals(2, listener.getOutputs().size());
+    assertEquals(0, listener.getErrors().size());
+    assertEquals(1, sessionLock.getMaxHolders());
+  }
+
+  @Test
+  public void failure_otherEnvelopesStillDelivered() {
+    FakeSessionLock sessionLock = new FakeSessionLock();
+    List<Envelope>  envelopes   = new ArrayList<>();
+
+    for (int i = 0; i < 10; i++) {
+      envelopes.add(new Envelope(i, "sender", i));
+    }
+
+    FakeStage stage = new FakeStage(sessionLock) {
+      @Override
+      public @NonNull String decrypt(@NonNull Envelope envelope, @NonNull SignalSessionLock lock) {
+        if (envelope.index == 3) {
+          throw new IllegalStateException("Bad envelope");
+        }
+        return super.decrypt(envelope, lock);
+      }
+    };
+
+    RecordingListener listener = new RecordingListener();
+
+    pipeline(4, stage).process(envelopes, listener);
+
+    assertEquals(9, sessionLock.getEntries().size());
+    assertEquals(10, listener.getOutputs().size());
+    assertEquals(1, listener.getErrors().size());
+    assertTrue(listener.getErrors().get(0) instanceof IllegalStateException);
+
+    for (int i = 0; i < envelopes.size(); i++) {
+      if (i == 3) {
+        assertNull(listener.getOutputs().get(i));
+      } else {
+        assertEquals("decrypted:" + i, listener.getOutputs().get(i));
+      }
+    }
+  }
+
+  @Test
+  public void failure_singleEnvelope_isDeliveredAsFailure() {
+    FakeStage stage = new FakeStage(new FakeSessionLock()) {
+      @Override
+      public @NonNull String decrypt(@NonNull Envelope envelope, @NonNull SignalSessionLock lock) {
+        throw new IllegalStateException("Bad envelope");
+      }
+    };
+
+    RecordingListener listener = new RecordingListener();
+
+    pipeline(1, stage).process(Collections.singletonList(new Envelope(0, "sender", 0)), listener);
+
+    assertEquals(1, listener.getErrors().size());
+    assertNull(listener.getOutputs().get(0));
+  }
+
+  @Test
+  public void outputs_deliveredBeforeLaterEnvelopesFinish() throws Exception {
+    CountDownLatch    release   = new CountDownLatch(1);
+    RecordingListener listener  = new RecordingListener();
+    List<Envelope>    envelopes = new ArrayList<>();
+
+    for (int i = 0; i < 5; i++) {
+      envelopes.add(new Envelope(i, "sender-" + i, 0));
+    }
+
+    FakeStage stage = new FakeStage(new FakeSessionLock()) {
+      @Override
+      public @NonNull String decrypt(@NonNull Envelope envelope, @NonNull SignalSessionLock lock) {
+        if (envelope.index == 2) {
+          try {
+            assertTrue(release.await(10, TimeUnit.SECONDS));
+          } catch (InterruptedException e) {
+            throw new AssertionError(e);
+          }
+        }
+        return super.decrypt(envelope, lock);
+      }
+    };
+
+    DecryptionPipeline<Envelope, String> pipeline = pipeline(4, stage);
+    Thread                               caller   = new Thread(() -> pipeline.process(envelopes, listener));
+
+    caller.start();
+
+    assertTrue(listener.awaitOutputs(2));
+    assertEquals(2, listener.getOutputs().size());
+
+    release.countDown();
+    caller.join(10_000);
+
+    assertEquals(5, listener.getOutputs().size());
+  }
+
+  private @NonNull DecryptionPipeline<Envelope, String> pipeline(int threads, @NonNull FakeStage stage) {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    executors.add(executor);
+    return new DecryptionPipeline<>(executor, stage.sessionLock, stage);
+  }
+
+  /**
+   * {@link #PER_SENDER} envelopes from each of {@link #SENDERS} senders, shuffled together while
+   * keeping each sender's own order. Every {@code sealedEvery}th envelope has no visible sender.
+   */
+  private static @NonNull List<Envelope> backlog(@NonNull Random random, int sealedEvery) {
+    List<String> slots = new ArrayList<>(SENDERS * PER_SENDER);
+
+    for (int sender = 0; sender < SENDERS; sender++) {
+      for (int i = 0; i < PER_SENDER; i++) {
+        slots.add("sender-" + sender);
+      }
+    }
+
+    Collections.shuffle(slots, random);
+
+    Map<String, Integer> sequences = new HashMap<>();
+    List<Envelope>       envelopes = new ArrayList<>(slots.size());
+
+    for (int i = 0; i < slots.size(); i++) {
+      if (sealedEvery > 0 && i % sealedEvery == 0) {
+        envelopes.add(new Envelope(i, null, 0));
+      } else {
+        String  sender   = slots.get(i);
+        Integer sequence = sequences.get(sender);
+
+        sequence = sequence == null ? 0 : sequence + 1;
+        sequences.put(sender, sequence);
+
+        envelopes.add(new Envelope(i, sender, sequence));
+      }
+    }
+
+    return envelopes;
+  }
+
+  private static final class Envelope {
+    private final int    index;
+    private final String sender;
+    private final int    sequence;
+
+    private Envelope(int index, @Nullable String sender, int sequence) {
+      this.index    = index;
+      this.sender   = sender;
+      this.sequence = sequence;
+    }
+  }
+
+  private static class FakeStage implements DecryptionPipeline.Stage<Envelope, String> {
+
+    private final FakeSessionLock sessionLock;
+
+    private FakeStage(@NonNull FakeSessionLock sessionLock) {
+      this.sessionLock = sessionLock;
+    }
+
+    @Override
+    public @Nullable String getShardKey(@NonNull Envelope envelope) {
+      return envelope.sender;
+    }
+
+    @Override
+    public @NonNull String decrypt(@NonNull Envelope envelope, @NonNull SignalSessionLock lock) {
+      try (SignalSessionLock.Lock unused = lock.acquire()) {
+        sessionLock.onEnter(envelope);
+      }
+
+      return "decrypted:" + envelope.index;
+    }
+  }
+
+  /**
+   * Records what the pipeline hands back, in the order it's handed back. Failures are recorded as a
+   * null output.
+   */
+  private static final class RecordingListener implements DecryptionPipeline.Listener<Envelope, String> {
+
+    private final List<String>    outputs = new ArrayList<>();
+    private final List<Throwable> errors  = new ArrayList<>();
+
+    @Override
+    public synchronized void onDecrypted(@NonNull Envelope envelope, @NonNull String output) {
+      assertEquals(outputs.size(), envelope.index);
+      outputs.add(output);
+      notifyAll();
+    }
+
+    @Override
+    public synchronized void onFailed(@NonNull Envelope envelope, @NonNull Throwable error) {
+      assertEquals(outputs.size(), envelope.index);
+      outputs.add(null);
+      errors.add(error);
+      notifyAll();
+    }
+
+    synchronized boolean awaitOutputs(int count) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + 10_000;
+
+      while (outputs.size() < count && System.currentTimeMillis() < deadline) {
+        wait(deadline - System.currentTimeMillis());
+      }
+
+      return outputs.size() >= count;
+    }
+
+    synchronized @NonNull List<String> getOutputs() {
+      return new ArrayList<>(outputs);
+    }
+
+    synchronized @NonNull List<Throwable> getErrors() {
+      return new ArrayList<>(errors);
+    }
+  }
+
+  /**
+   * Stands in for the global session lock, and records who took it and in what order.
+   */
+  private static final class FakeSessionLock implements SignalSessionLock {
+
+    private final ReentrantLock  lock       = new ReentrantLock();
+    private final List<Envelope> entries    = new ArrayList<>();
+    private final AtomicInteger  holders    = new AtomicInteger();
+    private final AtomicInteger  maxHolders = new AtomicInteger();
+
+    @Override
+    public Lock acquire() {
+      lock.lock();
+      maxHolders.accumulateAndGet(holders.incrementAndGet(), Math::max);
+
+      return () -> {
+        holders.decrementAndGet();
+        lock.unlock();
+      };
+    }
+
+    void onEnter(@NonNull Envelope envelope) {
+      assertTrue(lock.isHeldByCurrentThread());
+      entries.add(envelope);
+    }
+
+    @NonNull List<Envelope> getEntries() {
+      lock.lock();
+      try {
+        return new ArrayList<>(entries);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    int getMaxHolders() {
+      return maxHolders.get();
+    }
+  }
+}
@@ -19,9 +19,12 @@ import org.thoughtcrime.securesms.jobmanager.Job;
 import org.thoughtcrime.securesms.jobmanager.JobManager;
 import org.thoughtcrime.securesms.jobs.MultiDeviceReadUpdateJob;
 import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.libsignal.util.Pair;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -30,13 +33,14 @@ import java.util.Set;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyList;
 import static org.powermock.api.mockito.PowerMockito.doAnswer;
 import static org.powermock.api.mockito.PowerMockito.mock;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
 import static org.powermock.api.mockito.PowerMockito.when;
 
 @RunWith(PowerMockRunner.class)
-@PrepareForTest(ApplicationDependencies.class)
+@PrepareForTest({ApplicationDependencies.class, TextSecurePreferences.class})
 public class MarkReadReceiverTest {
 
   private final Context    mockContext    = mock(Context.class);
@@ -46,11 +50,14 @@ public class MarkReadReceiverTest {
   @Before
   public void setUp() {
     mockStatic(ApplicationDependencies.class);
+    mockStatic(TextSecurePreferences.class);
     when(ApplicationDependencies.getJobManager()).thenReturn(mockJobManager);
-    doAnswer((Answer<Void>) invocation -> {
-      jobs.add((Job) invocation.getArguments()[0]);
-      return null;
-    }).when(mockJobManager).add(any());
+    when(TextSecurePreferences.isMultiDevice(any())).thenReturn(true);
+    when(TextSecurePreferences.isReadReceiptsEnabled(any())).thenReturn(true);
+    doAnswer((Answer<JobManager.Chain>) invocation -> {
+      jobs.addAll((List<Job>) invocation.getArguments()[0]);
+      return mock(JobManager.Chain.class);
+    }).when(mockJobManager).startChain(anyList());
   }
 
   @Test
@@ -92,6 +99,32 @@ public class MarkReadReceiverTest {
     assertEquals("Should have 9 total combinations.", 9, threadRecipientPairs.size());
   }
 
+  @Test
+  public void givenReadReceiptsDisabledAndNoLinkedDevices_whenIProcess_thenNothingIsEnqueued() {
+    when(TextSecurePreferences.isMultiDevice(any())).thenReturn(false);
+    when(TextSecurePreferences.isReadReceiptsEnabled(any())).thenReturn(false);
+
+    MarkReadReceiver.process(mockContext, Collections.singletonList(createMarkedMessageInfo(1, RecipientId.from(2))));
+
+    assertTrue(jobs.isEmpty());
+  }
+
+  @Test
+  public void givenMoreThanMaxMessagesFromOneSender_whenIProcess_thenReceiptsAreChunked() {
+    List<MessageDatabase.MarkedMessageInfo> infoList = Stream.range(0, 501)
+                                                             .map(i -> createMarkedMessageInfo(1, RecipientId.from(2)))
+                                                             .toList();
+
+    MarkReadReceiver.process(mockContext, infoList);
+
+    List<Integer> receiptSizes = Stream.of(jobs)
+                                       .filterNot(job -> job instanceof MultiDeviceReadUpdateJob)
+                                       .map(job -> job.serialize().getLongArray("message_ids").length)
+                                       .toList();
+
+    assertEquals(Arrays.asList(500, 1), receiptSizes);
+  }
+
   private MessageDatabase.MarkedMessageInfo createMarkedMessageInfo(long threadId, @NonNull RecipientId recipientId) {
     return new MessageDatabase.MarkedMessageInfo(threadId,
                                                    new MessageDatabase.SyncMessageId(recipientId, 0),
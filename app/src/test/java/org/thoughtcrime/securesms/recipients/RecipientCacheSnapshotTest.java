@@ -0,0 +1,285 @@
+package org.thoughtcrime.securesms.recipients;
+
+import android.app.Application;
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.test.core.app.ApplicationProvider;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.thoughtcrime.securesms.color.MaterialColor;
+import org.thoughtcrime.securesms.crypto.AttachmentSecret;
+import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.database.GroupDatabase;
+import org.thoughtcrime.securesms.database.RecipientDatabase;
+import org.thoughtcrime.securesms.database.RecipientDatabase.RecipientSettings;
+import org.thoughtcrime.securesms.database.model.databaseprotos.RecipientSnapshot;
+import org.thoughtcrime.securesms.groups.GroupId;
+import org.thoughtcrime.securesms.profiles.ProfileName;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.mock;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+@PowerMockIgnore({ "org.mockito.*", "org.robolectric.*", "android.*", "androidx.*" })
+@PrepareForTest({ DatabaseFactory.class })
+public final class RecipientCacheSnapshotTest {
+
+  private static final long RESOLVE_TIMEOUT_MS = 5000;
+
+  @Rule
+  public PowerMockRule rule = new PowerMockRule();
+
+  private Context           context;
+  private AttachmentSecret  attachmentSecret;
+  private RecipientDatabase recipientDatabase;
+
+  @Before
+  public void setUp() {
+    context          = ApplicationProvider.getApplicationContext();
+    attachmentSecret = new AttachmentSecret(key(1), key(2), key(3));
+
+    mockStatic(DatabaseFactory.class);
+
+    DatabaseFactory databaseFactory = mock(DatabaseFactory.class);
+
+    recipientDatabase = mock(RecipientDatabase.class);
+
+    when(DatabaseFactory.getInstance(any())).thenReturn(databaseFactory);
+    when(DatabaseFactory.getRecipientDatabase(any())).thenReturn(recipientDatabase);
+    when(DatabaseFactory.getGroupDatabase(any())).thenReturn(mock(GroupDatabase.class));
+    when(databaseFactory.getRawDatabase()).thenReturn(mock(SQLiteDatabase.class));
+  }
+
+  @Test
+  public void givenNoSnapshot_whenIRead_thenIExpectNoRecipients() {
+    assertTrue(RecipientCacheSnapshot.read(context, attachmentSecret).isEmpty());
+  }
+
+  @Test
+  public void givenRecipients_whenIWriteAndRead_thenIExpectTheSameRecipients() {
+    List<RecipientSnapshot> snapshots = Arrays.asList(RecipientSnapshot.newBuilder().setId(1).build(),
+                                                      RecipientSnapshot.newBuilder()
+                                                                       .setId(2)
+                                                                       .setUuid("3b1ed7d0-1c0b-4d37-9a8d-6a6d6b1f7c41")
+                                                                       .setE164("+15555550101")
+                                                                       .setEmail("alice@example.com")
+                                                                       .setUsername("alice")
+                                                                       .setSystemContactName("Alice Cooper")
+                                                                       .setSystemProfileName(ProfileName.fromParts("Alice", "Cooper").serialize())
+                                                                       .setSystemContactPhoto("content://com.android.contacts/contacts/1/photo")
+                                                                       .setCustomLabel("Mobile")
+                                                                       .setContactUri("content://com.android.contacts/contacts/lookup/1")
+                                                                       .setProfileName(ProfileName.fromParts("Alice", "C").serialize())
+                                                                       .setProfileAvatar("avatar")
+                                                                       .setHasProfileImage(true)
+                                                                       .setColor(MaterialColor.ULTRAMARINE.serialize())
+                                                                       .setMutedUntil(Long.MAX_VALUE)
+                                                                       .setBlocked(true)
+                                                                       .setRegistered(RecipientDatabase.RegisteredState.REGISTERED.getId())
+                                                                       .setIsSelf(true)
+                                                                       .setAbout("About")
+                                                                       .setAboutEmoji("\uD83D\uDE42")
+                                                                       .build(),
+                                                      RecipientSnapshot.newBuilder()
+                                                                       .setId(3)
+                                                                       .setGroupId(GroupId.v1orThrow(new byte[16]).toString())
+                                                                       .setGroupName("Group")
+                                                                       .setHasGroupAvatarId(true)
+                                                                       .setGroupAvatarId(42)
+                                                                       .setColor(MaterialColor.TEAL.serialize())
+                                                                       .setRegistered(RecipientDatabase.RegisteredState.NOT_REGISTERED.getId())
+                                                                       .build());
+
+    RecipientCacheSnapshot.write(context, attachmentSecret, resolvedRecipients(snapshots));
+
+    assertEquals(snapshots, toSnapshots(RecipientCacheSnapshot.read(context, attachmentSecret)));
+  }
+
+  @Test
+  public void givenAnMmsGroup_whenIWriteAndRead_thenIExpectItToBeLeftOut() {
+    RecipientSnapshot individual = RecipientSnapshot.newBuilder().setId(1).setE164("+15555550101").build();
+    RecipientSnapshot mmsGroup   = RecipientSnapshot.newBuilder().setId(2).setGroupId(GroupId.mms(new byte[16]).toString()).build();
+
+    RecipientCacheSnapshot.write(context, attachmentSecret, resolvedRecipients(Arrays.asList(individual, mmsGroup)));
+
+    assertEquals(Collections.singletonList(individual), toSnapshots(RecipientCacheSnapshot.read(context, attachmentSecret)));
+  }
+
+  @Test
+  public void givenACorruptSnapshot_whenIRead_thenIExpectNoRecipientsAndTheFileDeleted() throws IOException {
+    File file = RecipientCacheSnapshot.getFile(context);
+
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(new byte[256]);
+    }
+
+    assertTrue(RecipientCacheSnapshot.read(context, attachmentSecret).isEmpty());
+    assertFalse(file.exists());
+  }
+
+  @Test
+  public void givenATamperedSnapshot_whenIRead_thenIExpectNoRecipientsAndTheFileDeleted() throws IOException {
+    RecipientCacheSnapshot.write(context, attachmentSecret, resolvedRecipients(Collections.singletonList(RecipientSnapshot.newBuilder().setId(1).setE164("+15555550101").build())));
+
+    File file = RecipientCacheSnapshot.getFile(context);
+
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.seek(raf.length() - 1);
+      int last = raf.read();
+      raf.seek(raf.length() - 1);
+      raf.write(last ^ 0x01);
+    }
+
+    assertTrue(RecipientCacheSnapshot.read(context, attachmentSecret).isEmpty());
+    assertFalse(file.exists());
+  }
+
+  @Test
+  public void givenConcurrentWrites_whenIRead_thenIExpectOneOfTheSnapshots() throws Exception {
+    List<RecipientSnapshot> first  = Collections.singletonList(RecipientSnapshot.newBuilder().setId(1).setE164("+15555550101").build());
+    List<RecipientSnapshot> second = Arrays.asList(RecipientSnapshot.newBuilder().setId(2).setE164("+15555550102").build(),
+                                                   RecipientSnapshot.newBuilder().setId(3).setE164("+15555550103").build());
+    ExecutorService         executor = Executors.newFixedThreadPool(4);
+    List<Future<?>>         writes   = new ArrayList<>();
+
+    for (int i = 0; i < 20; i++) {
+      List<RecipientSnapshot> snapshots = i % 2 == 0 ? first : second;
+      writes.add(executor.submit(() -> RecipientCacheSnapshot.write(context, attachmentSecret, resolvedRecipients(snapshots))));
+    }
+
+    for (Future<?> write : writes) {
+      write.get();
+    }
+
+    executor.shutdown();
+
+    List<RecipientSnapshot> read = toSnapshots(RecipientCacheSnapshot.read(context, attachmentSecret));
+
+    assertTrue(read.equals(first) || read.equals(second));
+  }
+
+  @Test
+  public void givenASnapshotWrittenWithAnotherKey_whenIRead_thenIExpectNoRecipientsAndTheFileDeleted() {
+    RecipientCacheSnapshot.write(context, attachmentSecret, resolvedRecipients(Collections.singletonList(RecipientSnapshot.newBuilder().setId(1).setE164("+15555550101").build())));
+
+    assertTrue(RecipientCacheSnapshot.read(context, new AttachmentSecret(key(1), key(2), key(4))).isEmpty());
+    assertFalse(RecipientCacheSnapshot.getFile(context).exists());
+  }
+
+  @Test
+  public void givenASnapshot_whenIReadAndAddToTheCache_thenIExpectUnresolvedRecipientsThatGetResolved() {
+    List<RecipientSnapshot> snapshots = Arrays.asList(RecipientSnapshot.newBuilder().setId(1).setE164("+15555550101").build(),
+                                                      RecipientSnapshot.newBuilder().setId(2).setE164("+15555550102").build());
+
+    RecipientCacheSnapshot.write(context, attachmentSecret, resolvedRecipients(snapshots));
+
+    List<Recipient> read = RecipientCacheSnapshot.read(context, attachmentSecret);
+
+    assertEquals(2, read.size());
+
+    for (Recipient recipient : read) {
+      assertTrue(recipient.isResolving());
+    }
+
+    when(recipientDatabase.getRecipientSettings(anyCollection())).then(invocation -> {
+      Collection<RecipientId>             ids      = invocation.getArgument(0);
+      Map<RecipientId, RecipientSettings> settings = new HashMap<>();
+
+      for (RecipientId id : ids) {
+        settings.put(id, settings());
+      }
+
+      return settings;
+    });
+
+    LiveRecipientCache cache = new LiveRecipientCache(context);
+
+    cache.addToCache(read);
+
+    verify(recipientDatabase, timeout(RESOLVE_TIMEOUT_MS).atLeastOnce()).getRecipientSettings(anyCollection());
+
+    for (Recipient recipient : read) {
+      assertResolvesWithinTimeout(cache.getLive(recipient.getId()));
+    }
+  }
+
+  private static void assertResolvesWithinTimeout(@NonNull LiveRecipient live) {
+    long deadline = System.currentTimeMillis() + RESOLVE_TIMEOUT_MS;
+
+    while (live.get().isResolving() && System.currentTimeMillis() < deadline) {
+      Thread.yield();
+    }
+
+    assertFalse(live.get().isResolving());
+  }
+
+  private static @NonNull List<Recipient> resolvedRecipients(@NonNull List<RecipientSnapshot> snapshots) {
+    List<Recipient> recipients = new ArrayList<>(snapshots.size());
+
+    for (RecipientSnapshot snapshot : snapshots) {
+      recipients.add(new Recipient(RecipientId.from(snapshot.getId()), new RecipientDetails(snapshot), true));
+    }
+
+    return recipients;
+  }
+
+  private static @NonNull List<RecipientSnapshot> toSnapshots(@NonNull List<Recipient> recipients) {
+    List<RecipientSnapshot> snapshots = new ArrayList<>(recipients.size());
+
+    for (Recipient recipient : recipients) {
+      snapshots.add(recipient.toSnapshot());
+    }
+
+    return snapshots;
+  }
+
+  private static @NonNull RecipientSettings settings() {
+    RecipientSettings settings = mock(RecipientSettings.class);
+
+    when(settings.getProfileName()).thenReturn(ProfileName.EMPTY);
+    when(settings.getSystemProfileName()).thenReturn(ProfileName.EMPTY);
+
+    return settings;
+  }
+
+  private static @NonNull byte[] key(int value) {
+    byte[] key = new byte[32];
+    Arrays.fill(key, (byte) value);
+    return key;
+  }
+}
@@ -0,0 +1,93 @@
+package org.thoughtcrime.securesms.testutil;
+
+import androidx.annotation.NonNull;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.thoughtcrime.securesms.database.SQLiteDatabase;
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Lets the database classes run in unit tests against the in-memory SQLite database Robolectric
+ * provides. SQLCipher can't be loaded on the JVM, so every call on the {@link SQLiteDatabase} the
+ * helper hands out, and on the cursors and statements it returns, is forwarded to the platform
+ * class with the same method. A method the platform class doesn't have fails with a
+ * {@link NoSuchMethodException}. Only intended to be used for tests.
+ *
+ * Instrumentation tests can load SQLCipher, so they use a real in-memory SQLCipher database
+ * instead of this.
+ */
+public final class ForwardingOpenHelper {
+
+  private ForwardingOpenHelper() {}
+
+  public static @NonNull SQLCipherOpenHelper wrap(@NonNull android.database.sqlite.SQLiteDatabase database) {
+    SQLiteDatabase      wrapped = forward(SQLiteDatabase.class, database);
+    SQLCipherOpenHelper helper  = mock(SQLCipherOpenHelper.class);
+
+    when(helper.getReadableDatabase()).thenReturn(wrapped);
+    when(helper.getWritableDatabase()).thenReturn(wrapped);
+
+    return helper;
+  }
+
+  private static <T> T forward(@NonNull Class<T> type, @NonNull Object delegate) {
+    return mock(type, new Forward(delegate));
+  }
+
+  private static final class Forward implements Answer<Object> {
+
+    private final Object delegate;
+
+    private Forward(@NonNull Object delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public Object answer(InvocationOnMock invocation) throws Throwable {
+      Method     method     = invocation.getMethod();
+      Class<?>[] parameters = method.getParameterTypes();
+      Object[]   arguments  = invocation.getArguments();
+
+      if (method.getName().equals("rawQuery") && Arrays.equals(parameters, new Class<?>[] { String.class, Object[].class })) {
+        Object[] args    = (Object[]) arguments[1];
+        String[] strings = null;
+
+        if (args != null) {
+          strings = new String[args.length];
+
+          for (int i = 0; i < args.length; i++) {
+            strings[i] = String.valueOf(args[i]);
+          }
+        }
+
+        parameters = new Class<?>[] { String.class, String[].class };
+        arguments  = new Object[] { arguments[0], strings };
+      }
+
+      Method target = delegate.getClass().getMethod(method.getName(), parameters);
+      Object result;
+
+      try {
+        result = target.invoke(delegate, arguments);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+
+      Class<?> returnType = method.getReturnType();
+
+      if (result == null || returnType.isPrimitive() || returnType.isInstance(result)) {
+        return result;
+      } else {
+        return forward(returnType, result);
+      }
+    }
+  }
+}
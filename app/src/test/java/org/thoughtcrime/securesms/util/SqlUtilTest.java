@@ -14,6 +14,7 @@ import java.util.List;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 @RunWith(RobolectricTestRunner.class)
 @Config(manifest = Config.NONE, application = Application.class)
@@ -133,4 +134,37 @@ public final class SqlUtilTest {
     List<String> result = SqlUtil.splitStatements("SELECT * FROM foo;\n\nSELECT * FROM bar;\n");
     assertEquals(Arrays.asList("SELECT * FROM foo", "SELECT * FROM bar"), result);
   }
+
+  @Test
+  public void appendArgs_multiple() {
+    String[] result = SqlUtil.appendArgs(new String[] { "1" }, "2", "3");
+    assertArrayEquals(new String[] { "1", "2", "3" }, result);
+  }
+
+  @Test
+  public void buildFtsPrefixQuery_singleWord() {
+    assertEquals("\"jo\"*", SqlUtil.buildFtsPrefixQuery("jo"));
+  }
+
+  @Test
+  public void buildFtsPrefixQuery_multipleWords() {
+    assertEquals("\"jo\"* \"sm\"*", SqlUtil.buildFtsPrefixQuery("  jo   sm "));
+  }
+
+  @Test
+  public void buildFtsPrefixQuery_quotesAreEscaped() {
+    assertEquals("\"j\"\"o\"*", SqlUtil.buildFtsPrefixQuery("j\"o"));
+  }
+
+  @Test
+  public void buildFtsPrefixQuery_wordsWithoutLettersAreSkipped() {
+    assertEquals("\"jo\"*", SqlUtil.buildFtsPrefixQuery("jo - *"));
+  }
+
+  @Test
+  public void buildFtsPrefixQuery_nothingToMatch() {
+    assertNull(SqlUtil.buildFtsPrefixQuery(""));
+    assertNull(SqlUtil.buildFtsPrefixQuery("  "));
+    assertNull(SqlUtil.buildFtsPrefixQuery("!?"));
+  }
 }
@@ -0,0 +1,78 @@
+package org.thoughtcrime.securesms.util;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public final class StripedLRUCacheTest {
+
+  @Test
+  public void putIfAbsent_keepsTheFirstValue() {
+    StripedLRUCache<Integer, String> cache = new StripedLRUCache<>(10, 1, value -> false);
+
+    assertNull(cache.putIfAbsent(1, "a"));
+    assertEquals("a", cache.putIfAbsent(1, "b"));
+    assertEquals("a", cache.get(1));
+  }
+
+  @Test
+  public void overCapacity_evictsLeastRecentlyUsed() {
+    StripedLRUCache<Integer, String> cache = new StripedLRUCache<>(3, 1, value -> false);
+
+    cache.putIfAbsent(1, "1");
+    cache.putIfAbsent(2, "2");
+    cache.putIfAbsent(3, "3");
+    cache.get(1);
+    cache.putIfAbsent(4, "4");
+
+    assertNotNull(cache.get(1));
+    assertNull(cache.get(2));
+    assertEquals(3, cache.size());
+    assertEquals(1, cache.getEvictionCount());
+  }
+
+  @Test
+  public void overCapacity_neverEvictsPinnedValues() {
+    Set<String>                      pinned = new HashSet<>();
+    StripedLRUCache<Integer, String> cache  = new StripedLRUCache<>(2, 1, pinned::contains);
+
+    pinned.add("1");
+    pinned.add("2");
+
+    cache.putIfAbsent(1, "1");
+    cache.putIfAbsent(2, "2");
+    cache.putIfAbsent(3, "3");
+    cache.putIfAbsent(4, "4");
+
+    assertEquals("1", cache.get(1));
+    assertEquals("2", cache.get(2));
+    assertNull(cache.get(3));
+    assertEquals("4", cache.get(4));
+
+    pinned.clear();
+    cache.putIfAbsent(5, "5");
+
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void stripes_shareTheMaximumSize() {
+    StripedLRUCache<Integer, Integer> cache = new StripedLRUCache<>(64, 4, value -> false);
+
+    for (int i = 0; i < 1000; i++) {
+      cache.putIfAbsent(i, i);
+    }
+
+    assertEquals(64, cache.size());
+    assertEquals(1000 - 64, cache.getEvictionCount());
+
+    cache.clear();
+
+    assertEquals(0, cache.size());
+  }
+}
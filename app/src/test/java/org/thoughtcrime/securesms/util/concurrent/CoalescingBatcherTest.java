@@ -0,0 +1,116 @@
+package org.thoughtcrime.securesms.util.concurrent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class CoalescingBatcherTest {
+
+  @Test
+  public void itemsAddedBeforeTheBatchRuns_areProcessedTogether() {
+    QueueExecutor              executor = new QueueExecutor();
+    List<List<Integer>>        batches  = new ArrayList<>();
+    CoalescingBatcher<Integer> batcher  = new CoalescingBatcher<>(executor, 10, batches::add);
+
+    batcher.add(1);
+    batcher.add(2);
+    batcher.add(1);
+    batcher.add(3);
+
+    assertEquals(1, executor.tasks.size());
+
+    executor.runAll();
+
+    assertEquals(Collections.singletonList(Arrays.asList(1, 2, 3)), batches);
+  }
+
+  @Test
+  public void batches_areCappedAtMaxSize() {
+    QueueExecutor              executor = new QueueExecutor();
+    List<List<Integer>>        batches  = new ArrayList<>();
+    CoalescingBatcher<Integer> batcher  = new CoalescingBatcher<>(executor, 2, batches::add);
+
+    for (int i = 0; i < 5; i++) {
+      batcher.add(i);
+    }
+
+    executor.runAll();
+
+    assertEquals(Arrays.asList(Arrays.asList(0, 1), Arrays.asList(2, 3), Collections.singletonList(4)), batches);
+  }
+
+  @Test
+  public void itemsAddedWhileABatchIsRunning_goIntoTheNextOne() {
+    QueueExecutor                               executor = new QueueExecutor();
+    List<List<Integer>>                         batches  = new ArrayList<>();
+    AtomicReference<CoalescingBatcher<Integer>> batcher  = new AtomicReference<>();
+
+    batcher.set(new CoalescingBatcher<>(executor, 10, batch -> {
+      batches.add(batch);
+      if (batches.size() == 1) {
+        batcher.get().add(2);
+        batcher.get().add(3);
+      }
+    }));
+
+    batcher.get().add(1);
+    executor.runAll();
+
+    assertEquals(Arrays.asList(Collections.singletonList(1), Arrays.asList(2, 3)), batches);
+  }
+
+  @Test
+  public void failedBatch_doesNotStopLaterOnes() {
+    QueueExecutor              executor = new QueueExecutor();
+    List<List<Integer>>        batches  = new ArrayList<>();
+    CoalescingBatcher<Integer> batcher  = new CoalescingBatcher<>(executor, 10, batch -> {
+      batches.add(batch);
+      if (batch.contains(1)) {
+        throw new IllegalStateException();
+      }
+    });
+
+    batcher.add(1);
+
+    try {
+      executor.runAll();
+      fail();
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+
+    batcher.add(2);
+    executor.runAll();
+
+    assertEquals(Arrays.asList(Collections.singletonList(1), Collections.singletonList(2)), batches);
+    assertTrue(executor.tasks.isEmpty());
+  }
+
+  private static final class QueueExecutor implements Executor {
+
+    private final Queue<Runnable> tasks = new LinkedList<>();
+
+    @Override
+    public void execute(Runnable runnable) {
+      tasks.add(runnable);
+    }
+
+    void runAll() {
+      Runnable task;
+      while ((task = tasks.poll()) != null) {
+        task.run();
+      }
+    }
+  }
+}
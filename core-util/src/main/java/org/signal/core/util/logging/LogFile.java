@@ -1,6 +1,7 @@
 package org.signal.core.util.logging;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import org.signal.core.util.Conversions;
 import org.signal.core.util.StreamUtil;
@@ -25,20 +26,24 @@ import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
-class LogFile {
+/**
+ * Reads and writes files made up of individually-encrypted entries.
+ */
+public final class LogFile {
 
   public static class Writer {
 
     private final byte[]        ivBuffer         = new byte[16];
     private final GrowingBuffer ciphertextBuffer = new GrowingBuffer();
+    private final SecureRandom  random           = new SecureRandom();
 
-    private final byte[]               secret;
+    private final SecretKeySpec        secret;
     private final File                 file;
     private final Cipher               cipher;
     private final BufferedOutputStream outputStream;
 
-    Writer(@NonNull byte[] secret, @NonNull File file) throws IOException {
-      this.secret       = secret;
+    public Writer(@NonNull byte[] secret, @NonNull File file) throws IOException {
+      this.secret       = new SecretKeySpec(secret, "AES");
       this.file         = file;
       this.outputStream = new BufferedOutputStream(new FileOutputStream(file, true));
 
@@ -49,12 +54,22 @@ class LogFile {
       }
     }
 
+    /**
+     * Encrypts and writes a single entry. An entry may contain many lines, which will be read back
+     * as separate lines.
+     */
     void writeEntry(@NonNull String entry) throws IOException {
-      new SecureRandom().nextBytes(ivBuffer);
+      writeEntry(entry.getBytes());
+    }
+
+    /**
+     * Encrypts and writes a single entry of arbitrary bytes.
+     */
+    public void writeEntry(@NonNull byte[] plaintext) throws IOException {
+      random.nextBytes(ivBuffer);
 
-      byte[] plaintext = entry.getBytes();
       try {
-        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(secret, "AES"), new IvParameterSpec(ivBuffer));
+        cipher.init(Cipher.ENCRYPT_MODE, secret, new IvParameterSpec(ivBuffer));
 
         int    cipherLength = cipher.getOutputSize(plaintext.length);
         byte[] ciphertext   = ciphertextBuffer.get(cipherLength);
@@ -70,16 +85,16 @@ class LogFile {
       }
     }
 
-    long getLogSize() {
+    public long getLogSize() {
       return file.length();
     }
 
-    void close() {
+    public void close() {
       StreamUtil.close(outputStream);
     }
   }
 
-  static class Reader {
+  public static class Reader {
 
     private final byte[]        ivBuffer         = new byte[16];
     private final byte[]        intBuffer        = new byte[4];
@@ -89,7 +104,7 @@ class LogFile {
     private final Cipher              cipher;
     private final BufferedInputStream inputStream;
 
-    Reader(@NonNull byte[] secret, @NonNull File file) throws IOException {
+    public Reader(@NonNull byte[] secret, @NonNull File file) throws IOException {
       this.secret      = secret;
       this.inputStream = new BufferedInputStream(new FileInputStream(file));
 
@@ -112,6 +127,14 @@ class LogFile {
     }
 
     private String readEntry() throws IOException {
+      byte[] plaintext = readEntryBytes();
+      return plaintext != null ? new String(plaintext) : null;
+    }
+
+    /**
+     * @return The next decrypted entry, or null if the end of the file has been reached.
+     */
+    public @Nullable byte[] readEntryBytes() throws IOException {
       try {
         StreamUtil.readFully(inputStream, ivBuffer);
         StreamUtil.readFully(inputStream, intBuffer);
@@ -123,9 +146,7 @@ class LogFile {
 
         try {
           cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(secret, "AES"), new IvParameterSpec(ivBuffer));
-          byte[] plaintext = cipher.doFinal(ciphertext, 0, length);
-
-          return new String(plaintext);
+          return cipher.doFinal(ciphertext, 0, length);
         } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
           throw new AssertionError(e);
         }
@@ -133,5 +154,9 @@ class LogFile {
         return null;
       }
     }
+
+    public void close() {
+      StreamUtil.close(inputStream);
+    }
   }
 }
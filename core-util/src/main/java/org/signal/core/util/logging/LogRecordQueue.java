@@ -0,0 +1,154 @@
+package org.signal.core.util.logging;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free queue of log records that many threads can write to, but only a single
+ * thread can read from.
+ *
+ * Records are stored in preallocated parallel arrays rather than as objects, so enqueuing a record
+ * doesn't allocate anything. Each slot has a sequence number that says whether it's ready to be
+ * written to or read from, which lets producers claim slots with a single CAS and never wait on
+ * each other or on the reader.
+ */
+final class LogRecordQueue {
+
+  private final int             capacity;
+  private final int             mask;
+  private final AtomicLongArray sequences;
+  private final AtomicLong      tail;
+
+  private final char[]      levels;
+  private final String[]    tags;
+  private final String[]    messages;
+  private final Throwable[] throwables;
+  private final String[]    threads;
+  private final long[]      timestamps;
+
+  /** Only accessed by the reader. */
+  private long head;
+
+  /**
+   * @param capacity Rounded up to the next power of two.
+   */
+  LogRecordQueue(int capacity) {
+    this.capacity   = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+    this.mask       = this.capacity - 1;
+    this.sequences  = new AtomicLongArray(this.capacity);
+    this.tail       = new AtomicLong();
+    this.levels     = new char[this.capacity];
+    this.tags       = new String[this.capacity];
+    this.messages   = new String[this.capacity];
+    this.throwables = new Throwable[this.capacity];
+    this.threads    = new String[this.capacity];
+    this.timestamps = new long[this.capacity];
+
+    for (int i = 0; i < this.capacity; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  int capacity() {
+    return capacity;
+  }
+
+  /**
+   * Safe to call from any thread.
+   *
+   * @return False if the queue is full, in which case nothing was enqueued.
+   */
+  boolean offer(char level, String tag, String message, @Nullable Throwable throwable, String thread, long timestamp) {
+    long position;
+    int  index;
+
+    while (true) {
+      position = tail.get();
+      index    = (int) (position & mask);
+
+      long available = sequences.get(index) - position;
+
+      if (available == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          break;
+        }
+      } else if (available < 0) {
+        return false;
+      }
+    }
+
+    levels[index]     = level;
+    tags[index]       = tag;
+    messages[index]   = message;
+    throwables[index] = throwable;
+    threads[index]    = thread;
+    timestamps[index] = timestamp;
+
+    // A full volatile write, so that a reader that checked isEmpty() before parking is guaranteed
+    // to either see this record or be seen as parked by the writer.
+    sequences.set(index, position + 1);
+
+    return true;
+  }
+
+  /**
+   * Must only be called from the reading thread.
+   *
+   * @return The number of records passed to the consumer, at most {@code maxRecords}.
+   */
+  int drain(@NonNull Consumer consumer, int maxRecords) {
+    int count = 0;
+
+    while (count < maxRecords) {
+      int index = (int) (head & mask);
+
+      if (sequences.get(index) != head + 1) {
+        break;
+      }
+
+      consumer.accept(levels[index], tags[index], messages[index], throwables[index], threads[index], timestamps[index]);
+
+      tags[index]       = null;
+      messages[index]   = null;
+      throwables[index] = null;
+      threads[index]    = null;
+
+      sequences.lazySet(index, head + capacity);
+      head++;
+      count++;
+    }
+
+    return count;
+  }
+
+  /**
+   * @return The total number of records that have been enqueued, including ones that are still
+   *         being written.
+   */
+  long getWritePosition() {
+    return tail.get();
+  }
+
+  /**
+   * Must only be called from the reading thread.
+   *
+   * @return The total number of records that have been drained.
+   */
+  long getReadPosition() {
+    return head;
+  }
+
+  /**
+   * Must only be called from the reading thread.
+   */
+  boolean isEmpty() {
+    return sequences.get((int) (head & mask)) != head + 1;
+  }
+
+  interface Consumer {
+    void accept(char level, String tag, String message, @Nullable Throwable throwable, String thread, long timestamp);
+  }
+}
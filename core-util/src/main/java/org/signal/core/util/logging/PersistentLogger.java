@@ -16,53 +16,81 @@ import java.io.PrintStream;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
-
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes encrypted logs to disk.
+ *
+ * Logging threads only drop a compact record into a lock-free {@link LogRecordQueue}. A single
+ * background thread drains that queue, and formats and encrypts everything it drained as one
+ * entry, so a burst of logging costs one cipher operation and one flush rather than one per line.
+ *
+ * If the queue fills up, verbose, debug and info lines are dropped (and the number dropped is
+ * noted in the log), while warnings and errors wait up to {@link #MAX_BLOCK_TIME_MS} for space.
+ */
 @SuppressLint("LogNotSignal")
 public final class PersistentLogger extends Log.Logger {
 
   private static final String TAG     = PersistentLogger.class.getSimpleName();
 
-  private static final String LOG_V   = "V";
-  private static final String LOG_D   = "D";
-  private static final String LOG_I   = "I";
-  private static final String LOG_W   = "W";
-  private static final String LOG_E   = "E";
-  private static final String LOG_WTF = "A";
-
-  private static final String           LOG_DIRECTORY   = "log";
-  private static final String           FILENAME_PREFIX = "log-";
-  private static final int              MAX_LOG_FILES   = 7;
-  private static final int              MAX_LOG_SIZE    = 300 * 1024;
-  private static final SimpleDateFormat DATE_FORMAT     = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS zzz", Locale.US);
-
-  private final Context  context;
-  private final Executor executor;
-  private final byte[]   secret;
-  private final String   logTag;
+  private static final char LOG_V   = 'V';
+  private static final char LOG_D   = 'D';
+  private static final char LOG_I   = 'I';
+  private static final char LOG_W   = 'W';
+  private static final char LOG_E   = 'E';
+  private static final char LOG_WTF = 'A';
+
+  private static final String LOG_DIRECTORY     = "log";
+  private static final String FILENAME_PREFIX   = "log-";
+  private static final int    MAX_LOG_FILES     = 7;
+  private static final int    MAX_LOG_SIZE      = 300 * 1024;
+  private static final int    QUEUE_CAPACITY    = 8192;
+  private static final int    MAX_BATCH_RECORDS = 256;
+  private static final long   MAX_BLOCK_TIME_MS = 50;
+
+  private final Context          context;
+  private final byte[]           secret;
+  private final String           logTag;
+  private final LogRecordQueue   queue;
+  private final Queue<Task>      tasks;
+  private final AtomicBoolean    parked;
+  private final AtomicInteger    dropped;
+  private final Thread           drainThread;
+
+  private final ThreadLocal<String> cachedThreadString;
+
+  /** Only accessed on the drain thread. */
+  private final SimpleDateFormat dateFormat;
+  private final StringBuilder    batch;
 
   private LogFile.Writer writer;
-
-  private ThreadLocal<String> cachedThreadString;
+  private long           lastTimestamp;
+  private String         lastFormattedDate;
 
   public PersistentLogger(@NonNull Context context, @NonNull byte[] secret, @NonNull String logTag) {
     this.context            = context.getApplicationContext();
     this.secret             = secret;
     this.logTag             = logTag;
     this.cachedThreadString = new ThreadLocal<>();
-    this.executor           = Executors.newSingleThreadExecutor(r -> {
-      Thread thread = new Thread(r, "signal-PersistentLogger");
-      thread.setPriority(Thread.MIN_PRIORITY);
-      return thread;
-    });
-
-    executor.execute(this::initializeWriter);
+    this.queue              = new LogRecordQueue(QUEUE_CAPACITY);
+    this.tasks              = new ConcurrentLinkedQueue<>();
+    this.parked             = new AtomicBoolean(false);
+    this.dropped            = new AtomicInteger(0);
+    this.dateFormat         = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS zzz", Locale.US);
+    this.batch              = new StringBuilder();
+    this.lastTimestamp      = -1;
+    this.drainThread        = new Thread(this::drainLoop, "signal-PersistentLogger");
+
+    drainThread.setPriority(Thread.MIN_PRIORITY);
+    drainThread.start();
   }
 
   @Override
@@ -99,7 +127,7 @@ public final class PersistentLogger extends Log.Logger {
   public void blockUntilAllWritesFinished() {
     CountDownLatch latch = new CountDownLatch(1);
 
-    executor.execute(latch::countDown);
+    runOnDrainThread(latch::countDown);
 
     try {
       latch.await();
@@ -113,7 +141,7 @@ public final class PersistentLogger extends Log.Logger {
     CountDownLatch                latch = new CountDownLatch(1);
     AtomicReference<CharSequence> logs  = new AtomicReference<>();
 
-    executor.execute(() -> {
+    runOnDrainThread(() -> {
       StringBuilder builder = new StringBuilder();
 
       try {
@@ -155,10 +183,10 @@ public final class PersistentLogger extends Log.Logger {
   }
 
   @AnyThread
-  private void write(String level, String tag, String message, Throwable t) {
+  private void write(char level, String tag, String message, Throwable t) {
     String threadString = cachedThreadString.get();
 
-    if (cachedThreadString.get() == null) {
+    if (threadString == null) {
       if (Looper.myLooper() == Looper.getMainLooper()) {
         threadString = "main ";
       } else {
@@ -168,30 +196,152 @@ public final class PersistentLogger extends Log.Logger {
       cachedThreadString.set(threadString);
     }
 
-    final String finalThreadString = threadString;
+    long timestamp = System.currentTimeMillis();
 
-    executor.execute(() -> {
-      try {
-        if (writer == null) {
-          return;
-        }
+    if (!queue.offer(level, tag, message, t, threadString, timestamp)) {
+      if (level == LOG_V || level == LOG_D || level == LOG_I || !offerWithin(level, tag, message, t, threadString, timestamp, MAX_BLOCK_TIME_MS)) {
+        dropped.incrementAndGet();
+      }
+    }
 
-        if (writer.getLogSize() >= MAX_LOG_SIZE) {
-          writer.close();
-          writer = new LogFile.Writer(secret, createNewLogFile());
-          trimLogFilesOverMax();
-        }
+    wakeDrainThread();
+  }
 
-        for (String entry : buildLogEntries(level, tag, message, t, finalThreadString)) {
-          writer.writeEntry(entry);
-        }
+  /**
+   * Keeps retrying to enqueue a record until there's space or the timeout passes.
+   */
+  private boolean offerWithin(char level, String tag, String message, Throwable t, String threadString, long timestamp, long timeoutMs) {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
 
-      } catch (IOException e) {
-        android.util.Log.w(TAG, "Failed to write line. Deleting all logs and starting over.");
-        deleteAllLogs();
-        initializeWriter();
+    do {
+      wakeDrainThread();
+      Thread.yield();
+
+      if (queue.offer(level, tag, message, t, threadString, timestamp)) {
+        return true;
       }
-    });
+    } while (System.nanoTime() < deadline);
+
+    return false;
+  }
+
+  /**
+   * Runs the task on the drain thread once every record that has already been logged is written.
+   */
+  private void runOnDrainThread(@NonNull Runnable runnable) {
+    tasks.add(new Task(runnable, queue.getWritePosition()));
+    wakeDrainThread();
+  }
+
+  private void wakeDrainThread() {
+    if (parked.get() && parked.compareAndSet(true, false)) {
+      LockSupport.unpark(drainThread);
+    }
+  }
+
+  @WorkerThread
+  private void drainLoop() {
+    initializeWriter();
+
+    while (true) {
+      while (queue.drain(this::appendRecord, MAX_BATCH_RECORDS) > 0) {
+        appendDroppedCount();
+        writeBatch();
+      }
+
+      appendDroppedCount();
+      writeBatch();
+
+      Task task;
+      while ((task = tasks.peek()) != null && task.readyAt <= queue.getReadPosition()) {
+        tasks.remove();
+        task.runnable.run();
+      }
+
+      parked.set(true);
+
+      if (queue.isEmpty() && tasks.isEmpty()) {
+        LockSupport.park(this);
+      }
+
+      parked.set(false);
+    }
+  }
+
+  @WorkerThread
+  private void appendRecord(char level, String tag, String message, @Nullable Throwable t, String threadString, long timestamp) {
+    appendEntry(level, tag, message, timestamp, threadString);
+
+    if (t != null) {
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+      t.printStackTrace(new PrintStream(outputStream));
+
+      String   trace = new String(outputStream.toByteArray());
+      String[] lines = trace.split("\\n");
+
+      for (String line : lines) {
+        appendEntry(level, tag, line, timestamp, threadString);
+      }
+    }
+  }
+
+  @WorkerThread
+  private void appendDroppedCount() {
+    int count = dropped.getAndSet(0);
+
+    if (count > 0) {
+      appendEntry(LOG_W, TAG, "Dropped " + count + " log lines because the buffer was full.", System.currentTimeMillis(), "     ");
+    }
+  }
+
+  @WorkerThread
+  private void appendEntry(char level, String tag, String message, long timestamp, String threadString) {
+    if (batch.length() > 0) {
+      batch.append('\n');
+    }
+
+    batch.append('[').append(logTag).append("] [").append(threadString).append("] ")
+         .append(formatDate(timestamp)).append(' ')
+         .append(level).append(' ')
+         .append(tag).append(": ")
+         .append(message);
+  }
+
+  @WorkerThread
+  private void writeBatch() {
+    if (batch.length() == 0) {
+      return;
+    }
+
+    try {
+      if (writer == null) {
+        return;
+      }
+
+      if (writer.getLogSize() >= MAX_LOG_SIZE) {
+        writer.close();
+        writer = new LogFile.Writer(secret, createNewLogFile());
+        trimLogFilesOverMax();
+      }
+
+      writer.writeEntry(batch.toString());
+    } catch (IOException e) {
+      android.util.Log.w(TAG, "Failed to write lines. Deleting all logs and starting over.");
+      deleteAllLogs();
+      initializeWriter();
+    } finally {
+      batch.setLength(0);
+    }
+  }
+
+  @WorkerThread
+  private @NonNull String formatDate(long timestamp) {
+    if (timestamp != lastTimestamp) {
+      lastTimestamp     = timestamp;
+      lastFormattedDate = dateFormat.format(new Date(timestamp));
+    }
+
+    return lastFormattedDate;
   }
 
   private void trimLogFilesOverMax() throws IOException {
@@ -245,28 +395,13 @@ public final class PersistentLogger extends Log.Logger {
     return logDir;
   }
 
-  private List<String> buildLogEntries(String level, String tag, String message, Throwable t, String threadString) {
-    List<String> entries = new LinkedList<>();
-    Date         date    = new Date();
-
-    entries.add(buildEntry(level, tag, message, date, threadString));
-
-    if (t != null) {
-      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-      t.printStackTrace(new PrintStream(outputStream));
-
-      String   trace = new String(outputStream.toByteArray());
-      String[] lines = trace.split("\\n");
+  private static final class Task {
+    private final Runnable runnable;
+    private final long     readyAt;
 
-      for (String line : lines) {
-        entries.add(buildEntry(level, tag, line, date, threadString));
-      }
+    private Task(@NonNull Runnable runnable, long readyAt) {
+      this.runnable = runnable;
+      this.readyAt  = readyAt;
     }
-
-    return entries;
-  }
-
-  private String buildEntry(String level, String tag, String message, Date date, String threadString) {
-    return '[' + logTag + "] [" + threadString + "] " + DATE_FORMAT.format(date) + ' ' + level + ' ' + tag + ": " + message;
   }
 }
@@ -0,0 +1,107 @@
+package org.signal.core.util.tracing;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import org.signal.core.util.logging.LogFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Stores chunks of serialized trace packets in a set of rotating, encrypted files, using the same
+ * framing as the logs. Once there are more than {@code maxFiles} files, the oldest is deleted, so
+ * the trace kept on disk never grows past roughly {@code maxFiles * maxFileSize} bytes.
+ *
+ * Because a Trace proto is just a repeated field, concatenating serialized Traces produces a valid
+ * Trace, so chunks can be written and read back without ever parsing them.
+ */
+final class TraceSpill {
+
+  private static final String FILENAME_PREFIX = "trace-";
+
+  private final File   directory;
+  private final byte[] secret;
+  private final int    maxFiles;
+  private final long   maxFileSize;
+
+  private LogFile.Writer writer;
+  private int            fileIndex;
+
+  /**
+   * Deletes any trace files left over from a previous session.
+   */
+  @WorkerThread
+  TraceSpill(@NonNull File directory, @NonNull byte[] secret, int maxFiles, long maxFileSize) throws IOException {
+    this.directory   = directory;
+    this.secret      = secret;
+    this.maxFiles    = maxFiles;
+    this.maxFileSize = maxFileSize;
+
+    if (!directory.exists() && !directory.mkdirs()) {
+      throw new IOException("Unable to create trace directory.");
+    }
+
+    for (File file : getSortedFiles()) {
+      file.delete();
+    }
+  }
+
+  /**
+   * Appends a chunk of serialized packets, rotating to a new file if the current one is full.
+   */
+  @WorkerThread
+  synchronized void write(@NonNull byte[] packets) throws IOException {
+    if (writer == null || writer.getLogSize() >= maxFileSize) {
+      if (writer != null) {
+        writer.close();
+      }
+
+      writer = new LogFile.Writer(secret, new File(directory, String.format(Locale.US, "%s%08d", FILENAME_PREFIX, fileIndex++)));
+      trimFilesOverMax();
+    }
+
+    writer.writeEntry(packets);
+  }
+
+  /**
+   * Writes every stored chunk, oldest first, to the provided stream.
+   */
+  @WorkerThread
+  synchronized void readAll(@NonNull OutputStream outputStream) throws IOException {
+    for (File file : getSortedFiles()) {
+      LogFile.Reader reader = new LogFile.Reader(secret, file);
+
+      try {
+        byte[] chunk;
+        while ((chunk = reader.readEntryBytes()) != null) {
+          outputStream.write(chunk);
+        }
+      } finally {
+        reader.close();
+      }
+    }
+  }
+
+  private void trimFilesOverMax() {
+    File[] files = getSortedFiles();
+
+    for (int i = 0; i < files.length - maxFiles; i++) {
+      files[i].delete();
+    }
+  }
+
+  private @NonNull File[] getSortedFiles() {
+    File[] files = directory.listFiles((dir, name) -> name.startsWith(FILENAME_PREFIX));
+
+    if (files == null) {
+      return new File[0];
+    }
+
+    Arrays.sort(files, (o1, o2) -> o1.getName().compareTo(o2.getName()));
+    return files;
+  }
+}
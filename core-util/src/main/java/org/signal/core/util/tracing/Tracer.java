@@ -4,14 +4,20 @@ import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 
 import com.google.protobuf.ByteString;
 
+import org.signal.core.util.concurrent.SignalExecutors;
+import org.signal.core.util.logging.Log;
 import org.signal.core.util.tracing.TraceProtos.Trace;
 import org.signal.core.util.tracing.TraceProtos.TracePacket;
 import org.signal.core.util.tracing.TraceProtos.TrackDescriptor;
 import org.signal.core.util.tracing.TraceProtos.TrackEvent;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.Map;
@@ -19,12 +25,15 @@ import java.util.Queue;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * A class to create Perfetto-compatible traces. Currently keeps the entire trace in memory to
- * avoid weirdness with synchronizing to disk.
+ * A class to create Perfetto-compatible traces. By default keeps the entire trace in memory to
+ * avoid weirdness with synchronizing to disk. Long-running traces can instead be streamed to disk
+ * with {@link #enableStreaming(File, byte[])}.
  *
  * Some general info on how the Perfetto format works:
  * - The file format is just a Trace proto (see Trace.proto)
@@ -40,6 +49,12 @@ import java.util.concurrent.atomic.AtomicInteger;
  *
  * Serializing is just a matter of throwing all the TracePackets we have into a proto.
  *
+ * When streaming, the circular buffer is instead flushed to a {@link TraceSpill} in chunks of
+ * {@link #STREAMING_FLUSH_SIZE} packets. The buffer is still capped at
+ * {@link #STREAMING_MAX_BUFFER_SIZE} in case the disk can't keep up, and the spill files are
+ * rotated, so memory and disk use both stay fixed no matter how long the trace runs. Serializing
+ * then reads the spilled chunks back and appends whatever hasn't been flushed yet.
+ *
  * Note: This class aims to be largely-thread-safe, but prioritizes speed and memory efficiency
  * above all else. These methods are going to be called very quickly from every thread imaginable,
  * and we want to create as little overhead as possible. The idea being that it's ok if we don't,
@@ -55,25 +70,38 @@ public final class Tracer {
     private static final String DB_LOCK_NAME = "Database Lock";
   }
 
+  private static final String TAG = Tracer.class.getSimpleName();
+
   private static final Tracer INSTANCE = new Tracer();
 
   private static final int    TRUSTED_SEQUENCE_ID      = 1;
   private static final byte[] SYNCHRONIZATION_MARKER   = toByteArray(UUID.fromString("82477a76-b28d-42ba-81dc-33326d57a079"));
   private static final long   SYNCHRONIZATION_INTERVAL = TimeUnit.SECONDS.toNanos(3);
 
+  private static final int  STREAMING_FLUSH_SIZE      = 1_000;
+  private static final int  STREAMING_MAX_BUFFER_SIZE = 10_000;
+  private static final int  STREAMING_MAX_FILES       = 8;
+  private static final long STREAMING_MAX_FILE_SIZE   = 1024 * 1024;
+
   private final Clock                  clock;
   private final Map<Long, TracePacket> threadPackets;
   private final Queue<TracePacket>     eventPackets;
   private final AtomicInteger          eventCount;
+  private final AtomicBoolean          flushPending;
+  private final Executor               flushExecutor;
 
   private long lastSyncTime;
   private long maxBufferSize;
 
+  private volatile TraceSpill spill;
+
   private Tracer() {
     this.clock         = SystemClock::elapsedRealtimeNanos;
     this.threadPackets = new ConcurrentHashMap<>();
     this.eventPackets  = new ConcurrentLinkedQueue<>();
     this.eventCount    = new AtomicInteger(0);
+    this.flushPending  = new AtomicBoolean(false);
+    this.flushExecutor = SignalExecutors.newCachedSingleThreadExecutor("signal-Tracer");
     this.maxBufferSize = 3_500;
   }
 
@@ -81,10 +109,28 @@ public final class Tracer {
     return INSTANCE;
   }
 
+  /**
+   * Sets how many event packets are kept in memory. Ignored while streaming.
+   */
   public void setMaxBufferSize(long maxBufferSize) {
     this.maxBufferSize = maxBufferSize;
   }
 
+  /**
+   * Starts writing the trace to rotating, encrypted files in the provided directory, which lets
+   * the trace cover a much longer period of time without using more memory. Any trace files
+   * already in the directory are deleted. Packets recorded before this is called are kept.
+   */
+  @WorkerThread
+  public void enableStreaming(@NonNull File directory, @NonNull byte[] secret) {
+    try {
+      spill = new TraceSpill(directory, secret, STREAMING_MAX_FILES, STREAMING_MAX_FILE_SIZE);
+      requestFlush();
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to set up trace streaming. Keeping the trace in memory.", e);
+    }
+  }
+
   public void start(@NonNull String methodName) {
     start(methodName, Thread.currentThread().getId(), null);
   }
@@ -128,7 +174,47 @@ public final class Tracer {
     addPacket(forMethodEnd(methodName, clock.getTimeNanos(), trackId));
   }
 
+  /**
+   * Note: If streaming is enabled, this reads the trace back from disk.
+   */
   public @NonNull byte[] serialize() {
+    TraceSpill spill = this.spill;
+
+    if (spill == null) {
+      return buildTrace().toByteArray();
+    }
+
+    synchronized (spill) {
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+      try {
+        Trace.Builder threads = Trace.newBuilder();
+
+        for (TracePacket thread : threadPackets.values()) {
+          threads.addPacket(thread);
+        }
+
+        threads.build().writeTo(outputStream);
+        spill.readAll(outputStream);
+
+        Trace.Builder events = Trace.newBuilder();
+
+        for (TracePacket event : eventPackets) {
+          events.addPacket(event);
+        }
+
+        events.addPacket(forSynchronization(clock.getTimeNanos()));
+        events.build().writeTo(outputStream);
+
+        return outputStream.toByteArray();
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to read the streamed trace. Only including what's in memory.", e);
+        return buildTrace().toByteArray();
+      }
+    }
+  }
+
+  private @NonNull Trace buildTrace() {
     Trace.Builder trace = Trace.newBuilder();
 
     for (TracePacket thread : threadPackets.values()) {
@@ -141,7 +227,7 @@ public final class Tracer {
 
     trace.addPacket(forSynchronization(clock.getTimeNanos()));
 
-    return trace.build().toByteArray();
+    return trace.build();
   }
 
   /**
@@ -156,12 +242,61 @@ public final class Tracer {
   private void addPacket(@NonNull TracePacket packet) {
     eventPackets.add(packet);
 
-    int size = eventCount.incrementAndGet();
+    int  size    = eventCount.incrementAndGet();
+    long maxSize = spill != null ? STREAMING_MAX_BUFFER_SIZE : maxBufferSize;
 
-    for (int i = size; i > maxBufferSize; i--) {
+    for (int i = size; i > maxSize; i--) {
       eventPackets.poll();
       eventCount.decrementAndGet();
     }
+
+    if (size >= STREAMING_FLUSH_SIZE && spill != null) {
+      requestFlush();
+    }
+  }
+
+  private void requestFlush() {
+    if (flushPending.compareAndSet(false, true)) {
+      flushExecutor.execute(this::flush);
+    }
+  }
+
+  /**
+   * Moves everything currently in the buffer into the spill as a single chunk. Happens while
+   * holding the spill's lock so that {@link #serialize()} never sees packets that have been taken
+   * out of the buffer but not yet written.
+   */
+  @WorkerThread
+  private void flush() {
+    flushPending.set(false);
+
+    TraceSpill spill = this.spill;
+
+    synchronized (spill) {
+      Trace.Builder trace = Trace.newBuilder();
+      int           count = eventCount.get();
+
+      for (int i = 0; i < count; i++) {
+        TracePacket packet = eventPackets.poll();
+
+        if (packet == null) {
+          break;
+        }
+
+        eventCount.decrementAndGet();
+        trace.addPacket(packet);
+      }
+
+      if (trace.getPacketCount() == 0) {
+        return;
+      }
+
+      try {
+        spill.write(trace.build().toByteArray());
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to write trace packets to disk. Dropping them.", e);
+      }
+    }
   }
 
   private TracePacket forTrackId(long id) {
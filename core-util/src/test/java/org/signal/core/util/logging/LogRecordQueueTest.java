@@ -0,0 +1,116 @@
+package org.signal.core.util.logging;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class LogRecordQueueTest {
+
+  @Test
+  public void capacity_roundedUpToPowerOfTwo() {
+    assertEquals(8, new LogRecordQueue(5).capacity());
+    assertEquals(8192, new LogRecordQueue(8192).capacity());
+  }
+
+  @Test
+  public void offer_thenDrain_inOrder() {
+    LogRecordQueue queue   = new LogRecordQueue(8);
+    List<String>   drained = new ArrayList<>();
+
+    assertTrue(queue.offer('I', "Tag", "one", null, "main ", 1));
+    assertTrue(queue.offer('W', "Tag", "two", null, "main ", 2));
+
+    assertEquals(2, queue.drain((level, tag, message, throwable, thread, timestamp) -> drained.add(level + message + timestamp), 10));
+    assertEquals(2, drained.size());
+    assertEquals("Ione1", drained.get(0));
+    assertEquals("Wtwo2", drained.get(1));
+    assertTrue(queue.isEmpty());
+  }
+
+  @Test
+  public void offer_whenFull_returnsFalse() {
+    LogRecordQueue queue = new LogRecordQueue(4);
+
+    for (int i = 0; i < 4; i++) {
+      assertTrue(queue.offer('I', "Tag", "message", null, "main ", i));
+    }
+
+    assertFalse(queue.offer('I', "Tag", "message", null, "main ", 4));
+
+    assertEquals(1, queue.drain((level, tag, message, throwable, thread, timestamp) -> {}, 1));
+    assertTrue(queue.offer('I', "Tag", "message", null, "main ", 4));
+  }
+
+  @Test
+  public void drain_respectsMaxRecords() {
+    LogRecordQueue queue = new LogRecordQueue(8);
+
+    for (int i = 0; i < 5; i++) {
+      queue.offer('I', "Tag", "message", null, "main ", i);
+    }
+
+    assertEquals(3, queue.drain((level, tag, message, throwable, thread, timestamp) -> {}, 3));
+    assertEquals(3, queue.getReadPosition());
+    assertEquals(5, queue.getWritePosition());
+    assertEquals(2, queue.drain((level, tag, message, throwable, thread, timestamp) -> {}, 3));
+  }
+
+  @Test
+  public void manyWriters_singleReader_everyRecordDrainedOnceInPerThreadOrder() throws InterruptedException {
+    int            writers   = 4;
+    int            perWriter = 20_000;
+    LogRecordQueue queue     = new LogRecordQueue(256);
+    CountDownLatch start     = new CountDownLatch(1);
+    List<Thread>   threads   = new ArrayList<>();
+
+    for (int w = 0; w < writers; w++) {
+      String name   = String.valueOf(w);
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+
+        for (int i = 0; i < perWriter; i++) {
+          while (!queue.offer('I', "Tag", "message", null, name, i)) {
+            Thread.yield();
+          }
+        }
+      });
+
+      thread.start();
+      threads.add(thread);
+    }
+
+    long[] nextExpected = new long[writers];
+    int    total        = 0;
+
+    start.countDown();
+
+    while (total < writers * perWriter) {
+      total += queue.drain((level, tag, message, throwable, thread, timestamp) -> {
+        int writer = Integer.parseInt(thread);
+
+        assertEquals(nextExpected[writer], timestamp);
+        nextExpected[writer]++;
+      }, 100);
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertTrue(queue.isEmpty());
+
+    for (long count : nextExpected) {
+      assertEquals(perWriter, count);
+    }
+  }
+}
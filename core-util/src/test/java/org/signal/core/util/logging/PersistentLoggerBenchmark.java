@@ -0,0 +1,294 @@
+package org.signal.core.util.logging;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the write pipeline used by {@link PersistentLogger} against the one it replaced, which
+ * submitted one executor task per line and encrypted each line separately. Both write through the
+ * same {@link LogFile.Writer}.
+ *
+ * Each run is a burst of logging from several threads at once, sized to fit in the queue, which is
+ * the case the queue is tuned for. Like {@link PersistentLogger}, the queue pipeline drops lines
+ * rather than waiting if it does fill up, and reports how many it dropped.
+ *
+ * It asserts that the queue pipeline finishes writing sooner and writes a smaller file, and reports
+ * every measurement if it doesn't. Time spent in log calls is close enough between the two that
+ * it's only reported. Regular test runs skip it; run it with
+ * {@code ./gradlew :core-util:testDebugUnitTest -Pbenchmark}.
+ */
+public final class PersistentLoggerBenchmark {
+
+  private static final int    THREADS          = 4;
+  private static final int    LINES_PER_THREAD = 2_000;
+  private static final int    WARMUPS          = 5;
+  private static final int    RUNS             = 5;
+  private static final byte[] SECRET           = new byte[32];
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void writeThroughput() throws Exception {
+    for (int i = 0; i < WARMUPS; i++) {
+      run(new ExecutorPipeline(folder.newFile()));
+      run(new QueuePipeline(folder.newFile()));
+    }
+
+    long executorCallerNanos = 0;
+    long executorTotalMs     = 0;
+    long executorBytes       = 0;
+    long queueCallerNanos    = 0;
+    long queueTotalMs        = 0;
+    long queueBytes          = 0;
+    int  queueDropped        = 0;
+
+    for (int i = 0; i < RUNS; i++) {
+      File          executorFile = folder.newFile();
+      File          queueFile    = folder.newFile();
+      QueuePipeline queuePipeline = new QueuePipeline(queueFile);
+
+      Result executor = run(new ExecutorPipeline(executorFile));
+      Result queue    = run(queuePipeline);
+
+      assertEquals(THREADS * LINES_PER_THREAD, countLines(executorFile));
+      assertEquals(THREADS * LINES_PER_THREAD, countLines(queueFile) + queuePipeline.dropped);
+
+      executorCallerNanos += executor.callerNanosPerLine();
+      executorTotalMs     += executor.totalMs();
+      executorBytes       += executorFile.length();
+      queueCallerNanos    += queue.callerNanosPerLine();
+      queueTotalMs        += queue.totalMs();
+      queueBytes          += queueFile.length();
+      queueDropped        += queuePipeline.dropped;
+    }
+
+    String results = String.format(Locale.US, "[Time spent in log calls] Executor: %.2f us/line, Queue: %.2f us/line\n", executorCallerNanos / 1000f / RUNS, queueCallerNanos / 1000f / RUNS) +
+                     String.format(Locale.US, "[Time until written] Executor: %d ms, Queue: %d ms\n", executorTotalMs / RUNS, queueTotalMs / RUNS) +
+                     String.format(Locale.US, "[File size] Executor: %d KB, Queue: %d KB\n", executorBytes / 1024 / RUNS, queueBytes / 1024 / RUNS) +
+                     String.format(Locale.US, "[Dropped lines] Queue: %d", queueDropped);
+
+    assertTrue(results, queueTotalMs < executorTotalMs);
+    assertTrue(results, queueBytes < executorBytes);
+  }
+
+  private static Result run(Pipeline pipeline) throws InterruptedException {
+    CountDownLatch start       = new CountDownLatch(1);
+    List<Thread>   threads     = new ArrayList<>(THREADS);
+    long[]         callerNanos = new long[THREADS];
+
+    for (int t = 0; t < THREADS; t++) {
+      int    index  = t;
+      Thread thread = new Thread(() -> {
+        String threadString = String.format("%-5s", Thread.currentThread().getId());
+
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+
+        long begin = System.nanoTime();
+
+        for (int i = 0; i < LINES_PER_THREAD; i++) {
+          pipeline.write('I', "BenchmarkTag", "Processing envelope " + i, threadString);
+        }
+
+        callerNanos[index] = System.nanoTime() - begin;
+      });
+
+      thread.start();
+      threads.add(thread);
+    }
+
+    long begin = System.nanoTime();
+
+    start.countDown();
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    pipeline.finish();
+
+    long totalCallerNanos = 0;
+    for (long nanos : callerNanos) {
+      totalCallerNanos += nanos;
+    }
+
+    return new Result(totalCallerNanos / (THREADS * LINES_PER_THREAD), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+  }
+
+  private static int countLines(File file) throws IOException {
+    String contents = new LogFile.Reader(SECRET, file).readAll();
+    return contents.isEmpty() ? 0 : contents.split("\n").length;
+  }
+
+  private interface Pipeline {
+    void write(char level, String tag, String message, String threadString);
+    void finish() throws InterruptedException;
+  }
+
+  /**
+   * The previous implementation: format and encrypt each line in its own executor task.
+   */
+  private static final class ExecutorPipeline implements Pipeline {
+
+    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS zzz", Locale.US);
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final LogFile.Writer  writer;
+
+    ExecutorPipeline(File file) {
+      try {
+        this.writer = new LogFile.Writer(SECRET, file);
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    @Override
+    public void write(char level, String tag, String message, String threadString) {
+      executor.execute(() -> {
+        try {
+          writer.writeEntry("[test] [" + threadString + "] " + DATE_FORMAT.format(new Date()) + ' ' + level + ' ' + tag + ": " + message);
+        } catch (IOException e) {
+          throw new AssertionError(e);
+        }
+      });
+    }
+
+    @Override
+    public void finish() throws InterruptedException {
+      executor.shutdown();
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+      writer.close();
+    }
+  }
+
+  /**
+   * The current implementation: enqueue a record, and have a single thread format and encrypt
+   * everything it drains as one entry.
+   */
+  private static final class QueuePipeline implements Pipeline {
+
+    private final LogRecordQueue   queue      = new LogRecordQueue(8192);
+    private final AtomicBoolean    parked     = new AtomicBoolean(false);
+    private final AtomicBoolean    finished   = new AtomicBoolean(false);
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS zzz", Locale.US);
+    private final StringBuilder    batch      = new StringBuilder();
+    private final LogFile.Writer   writer;
+    private final Thread           drainThread;
+
+    private volatile int dropped;
+
+    QueuePipeline(File file) {
+      try {
+        this.writer = new LogFile.Writer(SECRET, file);
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
+
+      this.drainThread = new Thread(this::drainLoop);
+      this.drainThread.start();
+    }
+
+    @Override
+    public void write(char level, String tag, String message, String threadString) {
+      if (!queue.offer(level, tag, message, null, threadString, System.currentTimeMillis())) {
+        synchronized (this) {
+          dropped++;
+        }
+      }
+
+      wake();
+    }
+
+    @Override
+    public void finish() throws InterruptedException {
+      finished.set(true);
+      LockSupport.unpark(drainThread);
+      drainThread.join();
+      writer.close();
+    }
+
+    private void wake() {
+      if (parked.get() && parked.compareAndSet(true, false)) {
+        LockSupport.unpark(drainThread);
+      }
+    }
+
+    private void drainLoop() {
+      while (true) {
+        while (queue.drain(this::append, 256) > 0) {
+          try {
+            writer.writeEntry(batch.toString());
+          } catch (IOException e) {
+            throw new AssertionError(e);
+          }
+          batch.setLength(0);
+        }
+
+        if (finished.get() && queue.isEmpty()) {
+          return;
+        }
+
+        parked.set(true);
+
+        if (queue.isEmpty() && !finished.get()) {
+          LockSupport.park(this);
+        }
+
+        parked.set(false);
+      }
+    }
+
+    private void append(char level, String tag, String message, Throwable throwable, String threadString, long timestamp) {
+      if (batch.length() > 0) {
+        batch.append('\n');
+      }
+
+      batch.append("[test] [").append(threadString).append("] ")
+           .append(dateFormat.format(new Date(timestamp))).append(' ')
+           .append(level).append(' ')
+           .append(tag).append(": ")
+           .append(message);
+    }
+  }
+
+  private static final class Result {
+    private final long callerNanosPerLine;
+    private final long totalMs;
+
+    private Result(long callerNanosPerLine, long totalMs) {
+      this.callerNanosPerLine = callerNanosPerLine;
+      this.totalMs            = totalMs;
+    }
+
+    long callerNanosPerLine() {
+      return callerNanosPerLine;
+    }
+
+    long totalMs() {
+      return totalMs;
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package org.signal.core.util.tracing;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public final class TraceSpillTest {
+
+  private static final byte[] SECRET = new byte[32];
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void readAll_concatenatesChunksInOrder() throws IOException {
+    TraceSpill spill = new TraceSpill(folder.newFolder(), SECRET, 4, 1024);
+
+    spill.write(new byte[] { 1, 2 });
+    spill.write(new byte[] { 3 });
+    spill.write(new byte[] { 4, 5, 6 });
+
+    assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 6 }, readAll(spill));
+  }
+
+  @Test
+  public void write_overMaxFiles_dropsOldestChunks() throws IOException {
+    File       directory = folder.newFolder();
+    TraceSpill spill     = new TraceSpill(directory, SECRET, 2, 1);
+
+    for (byte i = 0; i < 5; i++) {
+      spill.write(new byte[] { i });
+    }
+
+    assertEquals(2, directory.listFiles().length);
+    assertArrayEquals(new byte[] { 3, 4 }, readAll(spill));
+  }
+
+  @Test
+  public void newSpill_deletesPreviousSession() throws IOException {
+    File directory = folder.newFolder();
+
+    new TraceSpill(directory, SECRET, 4, 1024).write(new byte[] { 1 });
+
+    TraceSpill spill = new TraceSpill(directory, SECRET, 4, 1024);
+    spill.write(new byte[] { 2 });
+
+    assertArrayEquals(new byte[] { 2 }, readAll(spill));
+  }
+
+  private static byte[] readAll(TraceSpill spill) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    spill.readAll(outputStream);
+    return outputStream.toByteArray();
+  }
+}
@@ -0,0 +1,112 @@
+package org.whispersystems.signalservice.api;
+
+import org.whispersystems.libsignal.InvalidKeyException;
+import org.whispersystems.libsignal.logging.Log;
+import org.whispersystems.libsignal.util.Pair;
+import org.whispersystems.libsignal.util.guava.Optional;
+import org.whispersystems.signalservice.api.crypto.UnidentifiedAccess;
+import org.whispersystems.signalservice.api.crypto.UntrustedIdentityException;
+import org.whispersystems.signalservice.api.messages.SendMessageResult;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
+import org.whispersystems.signalservice.internal.push.OutgoingPushMessageList;
+import org.whispersystems.signalservice.internal.push.SendMessageResponse;
+import org.whispersystems.signalservice.internal.push.http.CancelationSignal;
+import org.whispersystems.signalservice.internal.util.concurrent.FutureTransformers;
+import org.whispersystems.signalservice.internal.util.concurrent.ListenableFuture;
+import org.whispersystems.signalservice.internal.util.concurrent.PipelinedFanOut;
+
+import java.io.IOException;
+
+/**
+ * Sends a group message over the pipes, pipelined. Anything that can't go over a pipe, or fails
+ * to, takes the same blocking path (with its retries and REST fallback) as a single send.
+ */
+final class GroupSendStage implements PipelinedFanOut.Stage<Pair<SignalServiceAddress, Optional<UnidentifiedAccess>>, OutgoingPushMessageList, SendMessageResult> {
+
+  private static final String TAG = GroupSendStage.class.getSimpleName();
+
+  private final Transport         transport;
+  private final long              startTime;
+  private final long              timestamp;
+  private final byte[]            content;
+  private final boolean           online;
+  private final CancelationSignal cancelationSignal;
+
+  GroupSendStage(Transport transport, long startTime, long timestamp, byte[] content, boolean online, CancelationSignal cancelationSignal) {
+    this.transport         = transport;
+    this.startTime         = startTime;
+    this.timestamp         = timestamp;
+    this.content           = content;
+    this.online            = online;
+    this.cancelationSignal = cancelationSignal;
+  }
+
+  @Override
+  public OutgoingPushMessageList prepare(Pair<SignalServiceAddress, Optional<UnidentifiedAccess>> target)
+      throws IOException, UntrustedIdentityException
+  {
+    if (cancelationSignal != null && cancelationSignal.isCanceled()) {
+      throw new CancelationException();
+    }
+
+    if (!transport.hasPipe(target.second())) {
+      return null;
+    }
+
+    try {
+      return transport.encrypt(target.first(), target.second(), timestamp, content, online);
+    } catch (InvalidKeyException e) {
+      Log.w(TAG, e);
+      return null;
+    }
+  }
+
+  @Override
+  public ListenableFuture<SendMessageResult> send(Pair<SignalServiceAddress, Optional<UnidentifiedAccess>> target, OutgoingPushMessageList messages)
+      throws IOException
+  {
+    return FutureTransformers.map(transport.sendOverPipe(messages, target.second()),
+                                  response -> SendMessageResult.success(target.first(), target.second().isPresent(), response.getNeedsSync() || transport.isMultiDevice(), System.currentTimeMillis() - startTime));
+  }
+
+  @Override
+  public SendMessageResult fallback(Pair<SignalServiceAddress, Optional<UnidentifiedAccess>> target, OutgoingPushMessageList messages, Throwable cause)
+      throws IOException, UntrustedIdentityException
+  {
+    if (cause != null) {
+      Log.w(TAG, cause);
+      Log.w(TAG, "[sendMessage] Pipelined send failed, falling back...");
+    }
+
+    return transport.sendBlocking(target.first(), target.second(), timestamp, content, online, cancelationSignal, messages);
+  }
+
+  /**
+   * What a group send needs from {@link SignalServiceMessageSender}.
+   */
+  interface Transport {
+    boolean hasPipe(Optional<UnidentifiedAccess> unidentifiedAccess);
+
+    /**
+     * Hands messages to the pipe without waiting for the response.
+     *
+     * @throws IOException If the pipe is no longer available.
+     */
+    ListenableFuture<SendMessageResponse> sendOverPipe(OutgoingPushMessageList messages, Optional<UnidentifiedAccess> unidentifiedAccess)
+        throws IOException;
+
+    OutgoingPushMessageList encrypt(SignalServiceAddress recipient, Optional<UnidentifiedAccess> unidentifiedAccess, long timestamp, byte[] content, boolean online)
+        throws IOException, InvalidKeyException, UntrustedIdentityException;
+
+    /**
+     * Sends to a single recipient the blocking way, with its retries and REST fallback.
+     *
+     * @param pipeFailedMessages Messages that were already encrypted and failed to send over the
+     *                           pipe, or null.
+     */
+    SendMessageResult sendBlocking(SignalServiceAddress recipient, Optional<UnidentifiedAccess> unidentifiedAccess, long timestamp, byte[] content, boolean online, CancelationSignal cancelationSignal, OutgoingPushMessageList pipeFailedMessages)
+        throws IOException, UntrustedIdentityException;
+
+    boolean isMultiDevice();
+  }
+}
@@ -37,17 +37,18 @@ import org.whispersystems.signalservice.internal.util.JsonUtil;
 import org.whispersystems.signalservice.internal.util.Util;
 import org.whispersystems.signalservice.internal.util.concurrent.FutureTransformers;
 import org.whispersystems.signalservice.internal.util.concurrent.ListenableFuture;
+import org.whispersystems.signalservice.internal.websocket.RoundTripStats;
 import org.whispersystems.signalservice.internal.websocket.WebSocketConnection;
 import org.whispersystems.signalservice.internal.websocket.WebsocketResponse;
 import org.whispersystems.util.Base64;
 
 import java.io.IOException;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -150,18 +151,7 @@ public class SignalServiceMessagePipe {
       WebSocketResponseMessage response = createWebSocketResponse(request);
       try {
         if (isSignalServiceEnvelope(request)) {
-          Optional<String> timestampHeader = findHeader(request, SERVER_DELIVERED_TIMESTAMP_HEADER);
-          long             timestamp       = 0;
-
-          if (timestampHeader.isPresent()) {
-            try {
-              timestamp = Long.parseLong(timestampHeader.get());
-            } catch (NumberFormatException e) {
-              Log.w(TAG, "Failed to parse " + SERVER_DELIVERED_TIMESTAMP_HEADER);
-            }
-          }
-
-          SignalServiceEnvelope envelope = new SignalServiceEnvelope(request.getBody().toByteArray(), timestamp);
+          SignalServiceEnvelope envelope = createEnvelope(request);
 
           callback.onMessage(envelope);
           return Optional.of(envelope);
@@ -174,7 +164,56 @@ public class SignalServiceMessagePipe {
     }
   }
 
-  public Future<SendMessageResponse> send(OutgoingPushMessageList list, Optional<UnidentifiedAccess> unidentifiedAccess) throws IOException {
+  /**
+   * Similar to {@link #readOrEmpty(long, TimeUnit, MessagePipeCallback)}, except this waits for
+   * the first message and then takes up to {@code maxMessages - 1} more that are already queued
+   * locally. The callback gets the whole batch before any of it is acknowledged, so the batch can
+   * be written to durable storage in one go, and the acknowledgements are then sent back-to-back.
+   * If the callback throws, the envelopes aren't acknowledged, and the server will send them again.
+   *
+   * @return True if the server said its queue was empty somewhere in this batch. See
+   *         {@link #readOrEmpty(long, TimeUnit, MessagePipeCallback)} for when that happens.
+   */
+  public boolean readBatchOrEmpty(int maxMessages, long timeout, TimeUnit unit, BatchMessagePipeCallback callback)
+      throws TimeoutException, IOException
+  {
+    if (!credentialsProvider.isPresent()) {
+      throw new IllegalArgumentException("You can't read messages if you haven't specified credentials");
+    }
+
+    List<WebSocketRequestMessage> requests         = websocket.readRequests(maxMessages, unit.toMillis(timeout));
+    List<SignalServiceEnvelope>   envelopes        = new ArrayList<>(requests.size());
+    List<WebSocketRequestMessage> envelopeRequests = new ArrayList<>(requests.size());
+    boolean                       empty            = false;
+
+    for (WebSocketRequestMessage request : requests) {
+      if (isSignalServiceEnvelope(request)) {
+        try {
+          envelopes.add(createEnvelope(request));
+          envelopeRequests.add(request);
+          continue;
+        } catch (IOException e) {
+          Log.w(TAG, "Dropping envelope in request " + request.getId() + " (" + request.getBody().size() + " bytes), it failed to parse.", e);
+        }
+      } else if (isSocketEmptyRequest(request)) {
+        empty = true;
+      }
+
+      websocket.sendResponse(createWebSocketResponse(request));
+    }
+
+    if (envelopes.size() > 0) {
+      callback.onMessages(envelopes);
+    }
+
+    for (WebSocketRequestMessage request : envelopeRequests) {
+      websocket.sendResponse(createWebSocketResponse(request));
+    }
+
+    return empty;
+  }
+
+  public ListenableFuture<SendMessageResponse> send(OutgoingPushMessageList list, Optional<UnidentifiedAccess> unidentifiedAccess) throws IOException {
     List<String> headers = new LinkedList<String>() {{
       add("content-type:application/json");
     }};
@@ -309,6 +348,14 @@ public class SignalServiceMessagePipe {
     }
   }
 
+  /**
+   * @return Round trip times for requests sent over this pipe, such as message sends and profile
+   *         fetches, since it was created.
+   */
+  public RoundTripStats.Snapshot getRoundTripStats() {
+    return websocket.getRoundTripStats();
+  }
+
   /**
    * Close this connection to the server.
    */
@@ -320,6 +367,21 @@ public class SignalServiceMessagePipe {
     return "PUT".equals(message.getVerb()) && "/api/v1/message".equals(message.getPath());
   }
 
+  private SignalServiceEnvelope createEnvelope(WebSocketRequestMessage request) throws IOException {
+    Optional<String> timestampHeader = findHeader(request, SERVER_DELIVERED_TIMESTAMP_HEADER);
+    long             timestamp       = 0;
+
+    if (timestampHeader.isPresent()) {
+      try {
+        timestamp = Long.parseLong(timestampHeader.get());
+      } catch (NumberFormatException e) {
+        Log.w(TAG, "Failed to parse " + SERVER_DELIVERED_TIMESTAMP_HEADER);
+      }
+    }
+
+    return new SignalServiceEnvelope(request.getBody().toByteArray(), timestamp);
+  }
+
   private boolean isSocketEmptyRequest(WebSocketRequestMessage message) {
     return "PUT".equals(message.getVerb()) && "/api/v1/queue/empty".equals(message.getPath());
   }
@@ -365,6 +427,13 @@ public class SignalServiceMessagePipe {
     void onMessage(SignalServiceEnvelope envelope);
   }
 
+  /**
+   * For receiving a batch of messages at once. See {@link #readBatchOrEmpty(int, long, TimeUnit, BatchMessagePipeCallback)}.
+   */
+  public interface BatchMessagePipeCallback {
+    void onMessages(List<SignalServiceEnvelope> envelopes);
+  }
+
   private static class NullMessagePipeCallback implements MessagePipeCallback {
     @Override
     public void onMessage(SignalServiceEnvelope envelope) {}
@@ -90,6 +90,8 @@ import org.whispersystems.signalservice.internal.push.http.CancelationSignal;
 import org.whispersystems.signalservice.internal.push.http.ResumableUploadSpec;
 import org.whispersystems.signalservice.internal.util.StaticCredentialsProvider;
 import org.whispersystems.signalservice.internal.util.Util;
+import org.whispersystems.signalservice.internal.util.concurrent.ListenableFuture;
+import org.whispersystems.signalservice.internal.util.concurrent.PipelinedFanOut;
 import org.whispersystems.util.Base64;
 
 import java.io.IOException;
@@ -121,6 +123,9 @@ public class SignalServiceMessageSender {
 
   private static final int RETRY_COUNT = 4;
 
+  private static final int  PIPELINE_WINDOW          = 32;
+  private static final long PIPELINE_TIMEOUT_SECONDS = 10;
+
   private final PushServiceSocket                                   socket;
   private final SignalServiceProtocolStore                          store;
   private final SignalSessionLock                                   sessionLock;
@@ -183,7 +188,7 @@ public class SignalServiceMessageSender {
     this.unidentifiedPipe = new AtomicReference<>(unidentifiedPipe);
     this.isMultiDevice    = new AtomicBoolean(isMultiDevice);
     this.eventListener    = eventListener;
-    this.executor         = executor != null ? executor : Executors.newSingleThreadExecutor();
+    this.executor         = executor != null ? executor : Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
     this.maxEnvelopeSize  = maxEnvelopeSize;
   }
 
@@ -1366,17 +1371,21 @@ public class SignalServiceMessageSender {
   {
     enforceMaxContentSize(content);
 
-    long                                   startTime                  = System.currentTimeMillis();
-    List<Future<SendMessageResult>>        futureResults              = new LinkedList<>();
-    Iterator<SignalServiceAddress>         recipientIterator          = recipients.iterator();
-    Iterator<Optional<UnidentifiedAccess>> unidentifiedAccessIterator = unidentifiedAccess.iterator();
+    long                                                           startTime                  = System.currentTimeMillis();
+    List<Pair<SignalServiceAddress, Optional<UnidentifiedAccess>>> targets                    = new ArrayList<>(recipients.size());
+    Iterator<SignalServiceAddress>                                 recipientIterator          = recipients.iterator();
+    Iterator<Optional<UnidentifiedAccess>>                         unidentifiedAccessIterator = unidentifiedAccess.iterator();
 
     while (recipientIterator.hasNext()) {
-      SignalServiceAddress         recipient = recipientIterator.next();
-      Optional<UnidentifiedAccess> access    = unidentifiedAccessIterator.next();
-      futureResults.add(executor.submit(() -> sendMessage(recipient, access, timestamp, content, online, cancelationSignal)));
+      targets.add(new Pair<>(recipientIterator.next(), unidentifiedAccessIterator.next()));
     }
 
+    List<Future<SendMessageResult>> futureResults = new PipelinedFanOut<>(executor,
+                                                                          new GroupSendStage(new GroupSendTransport(), startTime, timestamp, content, online, cancelationSignal),
+                                                                          PIPELINE_WINDOW,
+                                                                          PIPELINE_TIMEOUT_SECONDS,
+                                                                          TimeUnit.SECONDS).send(targets);
+
     List<SendMessageResult> results = new ArrayList<>(futureResults.size());
     recipientIterator = recipients.iterator();
 
@@ -1432,6 +1441,23 @@ public class SignalServiceMessageSender {
                                         boolean                      online,
                                         CancelationSignal            cancelationSignal)
       throws UntrustedIdentityException, IOException
+  {
+    return sendMessage(recipient, unidentifiedAccess, timestamp, content, online, cancelationSignal, null);
+  }
+
+  /**
+   * @param pipeFailedMessages Messages that were already encrypted and failed to send over the pipe,
+   *                           or null. If present, the first attempt sends them over REST as-is
+   *                           rather than encrypting again.
+   */
+  private SendMessageResult sendMessage(SignalServiceAddress         recipient,
+                                        Optional<UnidentifiedAccess> unidentifiedAccess,
+                                        long                         timestamp,
+                                        byte[]                       content,
+                                        boolean                      online,
+                                        CancelationSignal            cancelationSignal,
+                                        OutgoingPushMessageList      pipeFailedMessages)
+      throws UntrustedIdentityException, IOException
   {
     enforceMaxContentSize(content);
 
@@ -1443,7 +1469,9 @@ public class SignalServiceMessageSender {
       }
 
       try {
-        OutgoingPushMessageList messages = getEncryptedMessages(socket, recipient, unidentifiedAccess, timestamp, content, online);
+        boolean                 retryOverRest = i == 0 && pipeFailedMessages != null;
+        OutgoingPushMessageList messages      = retryOverRest ? pipeFailedMessages
+                                                              : getEncryptedMessages(socket, recipient, unidentifiedAccess, timestamp, content, online);
 
         if (cancelationSignal != null && cancelationSignal.isCanceled()) {
           throw new CancelationException();
@@ -1452,7 +1480,9 @@ public class SignalServiceMessageSender {
         Optional<SignalServiceMessagePipe> pipe             = this.pipe.get();
         Optional<SignalServiceMessagePipe> unidentifiedPipe = this.unidentifiedPipe.get();
 
-        if (pipe.isPresent() && !unidentifiedAccess.isPresent()) {
+        if (retryOverRest) {
+          Log.i(TAG, "[sendMessage] Retrying over REST after the pipe failed.");
+        } else if (pipe.isPresent() && !unidentifiedAccess.isPresent()) {
           try {
             SendMessageResponse response = pipe.get().send(messages, Optional.absent()).get(10, TimeUnit.SECONDS);
             return SendMessageResult.success(recipient, false, response.getNeedsSync() || isMultiDevice.get(), System.currentTimeMillis() - startTime);
@@ -1500,6 +1530,49 @@ public class SignalServiceMessageSender {
     throw new IOException("Failed to resolve conflicts after 3 attempts!");
   }
 
+  private Optional<SignalServiceMessagePipe> getPipe(Optional<UnidentifiedAccess> unidentifiedAccess) {
+    return unidentifiedAccess.isPresent() ? unidentifiedPipe.get() : pipe.get();
+  }
+
+  private final class GroupSendTransport implements GroupSendStage.Transport {
+    @Override
+    public boolean hasPipe(Optional<UnidentifiedAccess> unidentifiedAccess) {
+      return getPipe(unidentifiedAccess).isPresent();
+    }
+
+    @Override
+    public ListenableFuture<SendMessageResponse> sendOverPipe(OutgoingPushMessageList messages, Optional<UnidentifiedAccess> unidentifiedAccess)
+        throws IOException
+    {
+      Optional<SignalServiceMessagePipe> pipe = getPipe(unidentifiedAccess);
+
+      if (!pipe.isPresent()) {
+        throw new IOException("Pipe is no longer available.");
+      }
+
+      return pipe.get().send(messages, unidentifiedAccess);
+    }
+
+    @Override
+    public OutgoingPushMessageList encrypt(SignalServiceAddress recipient, Optional<UnidentifiedAccess> unidentifiedAccess, long timestamp, byte[] content, boolean online)
+        throws IOException, InvalidKeyException, UntrustedIdentityException
+    {
+      return getEncryptedMessages(socket, recipient, unidentifiedAccess, timestamp, content, online);
+    }
+
+    @Override
+    public SendMessageResult sendBlocking(SignalServiceAddress recipient, Optional<UnidentifiedAccess> unidentifiedAccess, long timestamp, byte[] content, boolean online, CancelationSignal cancelationSignal, OutgoingPushMessageList pipeFailedMessages)
+        throws IOException, UntrustedIdentityException
+    {
+      return sendMessage(recipient, unidentifiedAccess, timestamp, content, online, cancelationSignal, pipeFailedMessages);
+    }
+
+    @Override
+    public boolean isMultiDevice() {
+      return isMultiDevice.get();
+    }
+  }
+
   private List<AttachmentPointer> createAttachmentPointers(Optional<List<SignalServiceAttachment>> attachments) throws IOException {
     List<AttachmentPointer> pointers = new LinkedList<>();
 
@@ -0,0 +1,198 @@
+package org.whispersystems.signalservice.internal.util.concurrent;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sends the same logical message to many recipients without tying up a thread per recipient while
+ * it waits on the network.
+ *
+ * Each recipient's payload is prepared on the supplied executor, so that preparation for different
+ * recipients runs in parallel, and is then handed to an asynchronous transport. At most
+ * {@code window} recipients are being prepared or waiting on a response at a time: a recipient
+ * takes a slot before it's handed to the executor, so no executor thread ever waits for one, and
+ * each response frees a slot as it arrives. Whenever a recipient can't be pipelined, or its
+ * pipelined send fails or times out, its {@link Stage#fallback} is run on the executor instead.
+ */
+public final class PipelinedFanOut<Recipient, Payload, Result> {
+
+  private static final ScheduledExecutorService TIMEOUTS = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread thread = new Thread(r, "pipelined-fan-out-timeouts");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Executor                          executor;
+  private final Stage<Recipient, Payload, Result> stage;
+  private final Semaphore                         window;
+  private final long                              timeoutMillis;
+
+  public PipelinedFanOut(Executor executor, Stage<Recipient, Payload, Result> stage, int window, long timeout, TimeUnit unit) {
+    this.executor      = executor;
+    this.stage         = stage;
+    this.window        = new Semaphore(window);
+    this.timeoutMillis = unit.toMillis(timeout);
+  }
+
+  /**
+   * Starts sending to every recipient, blocking while the window is full, and returns once the last
+   * one has been handed to the executor. If interrupted, the recipients that haven't been handed
+   * over yet fail with the {@link InterruptedException}, and the interrupt is kept.
+   *
+   * @return One future per recipient, in the same order as {@code recipients}. Each completes as
+   *         soon as that recipient's send does, or fails with whatever the stage threw.
+   */
+  public List<Future<Result>> send(List<Recipient> recipients) {
+    List<Future<Result>> results = new ArrayList<>(recipients.size());
+
+    for (Recipient recipient : recipients) {
+      SettableFuture<Result> result = new SettableFuture<>();
+      results.add(result);
+
+      try {
+        window.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        result.setException(e);
+        continue;
+      }
+
+      executor.execute(() -> prepareAndSend(recipient, result));
+    }
+
+    return results;
+  }
+
+  /**
+   * Runs with a slot in the window already taken, and gives it back unless a request is left in
+   * flight.
+   */
+  private void prepareAndSend(Recipient recipient, SettableFuture<Result> result) {
+    Payload payload;
+
+    try {
+      payload = stage.prepare(recipient);
+    } catch (Throwable t) {
+      window.release();
+      result.setException(t);
+      return;
+    }
+
+    if (payload == null) {
+      window.release();
+      fallback(recipient, null, null, result);
+      return;
+    }
+
+    ListenableFuture<Result> response;
+
+    try {
+      response = stage.send(recipient, payload);
+    } catch (IOException e) {
+      window.release();
+      fallback(recipient, payload, e, result);
+      return;
+    }
+
+    InFlight inFlight = new InFlight(recipient, payload, result);
+
+    inFlight.timeout = TIMEOUTS.schedule(() -> inFlight.onFailure(new TimeoutException()), timeoutMillis, TimeUnit.MILLISECONDS);
+    response.addListener(inFlight);
+  }
+
+  private void fallback(Recipient recipient, Payload payload, Throwable cause, SettableFuture<Result> result) {
+    try {
+      result.set(stage.fallback(recipient, payload, cause));
+    } catch (Throwable t) {
+      result.setException(t);
+    }
+  }
+
+  /**
+   * Settles a single pipelined request. Responses are delivered on the transport's own thread, so
+   * nothing here may block: a success completes the result directly, and a failure hands the
+   * fallback to the executor.
+   */
+  private final class InFlight implements ListenableFuture.Listener<Result> {
+
+    private final Recipient              recipient;
+    private final Payload                payload;
+    private final SettableFuture<Result> result;
+    private final AtomicBoolean          settled = new AtomicBoolean(false);
+
+    private volatile ScheduledFuture<?> timeout;
+
+    private InFlight(Recipient recipient, Payload payload, SettableFuture<Result> result) {
+      this.recipient = recipient;
+      this.payload   = payload;
+      this.result    = result;
+    }
+
+    @Override
+    public void onSuccess(Result value) {
+      if (settle()) {
+        result.set(value);
+      }
+    }
+
+    @Override
+    public void onFailure(ExecutionException e) {
+      onFailure(e.getCause() != null ? e.getCause() : e);
+    }
+
+    private void onFailure(Throwable cause) {
+      if (settle()) {
+        executor.execute(() -> fallback(recipient, payload, cause, result));
+      }
+    }
+
+    private boolean settle() {
+      if (!settled.compareAndSet(false, true)) {
+        return false;
+      }
+
+      ScheduledFuture<?> timeout = this.timeout;
+
+      if (timeout != null) {
+        timeout.cancel(false);
+      }
+
+      window.release();
+      return true;
+    }
+  }
+
+  public interface Stage<Recipient, Payload, Result> {
+    /**
+     * Builds a recipient's payload. Runs on the executor.
+     *
+     * @return The payload, or null if this recipient can't be pipelined and should go straight to
+     *         {@link #fallback}.
+     */
+    Payload prepare(Recipient recipient) throws Exception;
+
+    /**
+     * Hands a payload to the transport. Must not block waiting for the response.
+     */
+    ListenableFuture<Result> send(Recipient recipient, Payload payload) throws IOException;
+
+    /**
+     * Delivers to a recipient some other way. Runs on the executor, and is free to block.
+     *
+     * @param payload The payload that failed to send, or null if none was prepared.
+     * @param cause   Why the pipelined send failed, or null if it was never attempted.
+     */
+    Result fallback(Recipient recipient, Payload payload, Throwable cause) throws Exception;
+  }
+}
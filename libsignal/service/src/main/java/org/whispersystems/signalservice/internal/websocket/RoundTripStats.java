@@ -0,0 +1,117 @@
+package org.whispersystems.signalservice.internal.websocket;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free counters for how long requests sent over a websocket take to be answered.
+ *
+ * Round trips are bucketed by powers of two, so percentiles are reported as the upper bound of the
+ * bucket they fall in.
+ */
+public final class RoundTripStats {
+
+  private static final int BUCKETS = 16;
+
+  private final AtomicLong      responses   = new AtomicLong();
+  private final AtomicLong      failures    = new AtomicLong();
+  private final AtomicLong      totalMillis = new AtomicLong();
+  private final AtomicLong      maxMillis   = new AtomicLong();
+  private final AtomicLongArray buckets     = new AtomicLongArray(BUCKETS);
+
+  void onResponse(long roundTripMillis) {
+    long millis = Math.max(0, roundTripMillis);
+
+    responses.incrementAndGet();
+    totalMillis.addAndGet(millis);
+    buckets.incrementAndGet(bucketFor(millis));
+
+    long max = maxMillis.get();
+    while (millis > max && !maxMillis.compareAndSet(max, millis)) {
+      max = maxMillis.get();
+    }
+  }
+
+  void onFailure() {
+    failures.incrementAndGet();
+  }
+
+  public Snapshot getSnapshot() {
+    long[] counts = new long[BUCKETS];
+
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets.get(i);
+    }
+
+    return new Snapshot(responses.get(), failures.get(), totalMillis.get(), maxMillis.get(), counts);
+  }
+
+  private static int bucketFor(long millis) {
+    return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+  }
+
+  public static final class Snapshot {
+
+    private final long   responses;
+    private final long   failures;
+    private final long   totalMillis;
+    private final long   maxMillis;
+    private final long[] buckets;
+
+    private Snapshot(long responses, long failures, long totalMillis, long maxMillis, long[] buckets) {
+      this.responses   = responses;
+      this.failures    = failures;
+      this.totalMillis = totalMillis;
+      this.maxMillis   = maxMillis;
+      this.buckets     = buckets;
+    }
+
+    /**
+     * @return The number of requests that were answered.
+     */
+    public long getResponseCount() {
+      return responses;
+    }
+
+    /**
+     * @return The number of requests that were still waiting on a response when the connection closed.
+     */
+    public long getFailureCount() {
+      return failures;
+    }
+
+    public long getAverageMillis() {
+      return responses > 0 ? totalMillis / responses : 0;
+    }
+
+    public long getMaxMillis() {
+      return maxMillis;
+    }
+
+    /**
+     * @param percentile Between 0 and 100.
+     * @return An upper bound on the round trip time that the given percentage of requests beat.
+     */
+    public long getPercentileMillis(int percentile) {
+      long target = (long) Math.ceil(responses * percentile / 100.0);
+      long seen   = 0;
+
+      for (int i = 0; i < buckets.length; i++) {
+        seen += buckets[i];
+
+        if (seen >= target && seen > 0) {
+          return i < buckets.length - 1 ? Math.min((1L << i) - 1, maxMillis) : maxMillis;
+        }
+      }
+
+      return maxMillis;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.US, "responses: %d, failures: %d, avg: %d ms, p50: %d ms, p95: %d ms, max: %d ms",
+                           responses, failures, getAverageMillis(), getPercentileMillis(50), getPercentileMillis(95), maxMillis);
+    }
+  }
+}
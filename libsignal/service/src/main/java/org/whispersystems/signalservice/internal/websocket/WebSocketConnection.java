@@ -20,12 +20,12 @@ import org.whispersystems.signalservice.internal.util.concurrent.SettableFuture;
 import java.io.IOException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.Future;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -49,13 +49,24 @@ import static org.whispersystems.signalservice.internal.websocket.WebSocketProto
 import static org.whispersystems.signalservice.internal.websocket.WebSocketProtos.WebSocketRequestMessage;
 import static org.whispersystems.signalservice.internal.websocket.WebSocketProtos.WebSocketResponseMessage;
 
+/**
+ * A websocket that multiplexes requests and responses between many threads.
+ *
+ * Outstanding requests are tracked in a concurrent map keyed by id, and incoming requests are
+ * handed to readers through a blocking queue, so sending, answering and reading never wait on the
+ * connection's lock. That lock only guards connecting and disconnecting.
+ */
 public class WebSocketConnection extends WebSocketListener {
 
   private static final String TAG                       = WebSocketConnection.class.getSimpleName();
   private static final int    KEEPALIVE_TIMEOUT_SECONDS = 55;
 
-  private final LinkedList<WebSocketRequestMessage>              incomingRequests = new LinkedList<>();
-  private final Map<Long, OutgoingRequest> outgoingRequests = new HashMap<>();
+  /** Queued for readers when the connection is shut down, so blocked reads return right away. */
+  private static final WebSocketRequestMessage CLOSED = WebSocketRequestMessage.newBuilder().setPath("closed").build();
+
+  private final BlockingQueue<WebSocketRequestMessage> incomingRequests = new LinkedBlockingQueue<>();
+  private final ConcurrentMap<Long, OutgoingRequest>   outgoingRequests = new ConcurrentHashMap<>();
+  private final RoundTripStats                         roundTripStats   = new RoundTripStats();
 
   private final String                        wsUri;
   private final TrustStore                    trustStore;
@@ -67,10 +78,10 @@ public class WebSocketConnection extends WebSocketListener {
   private final Optional<Dns>                 dns;
   private final Optional<SignalProxy>         signalProxy;
 
-  private WebSocket           client;
-  private KeepAliveSender     keepAliveSender;
-  private int                 attempts;
-  private boolean             connected;
+  private volatile WebSocket       client;
+  private volatile boolean         connected;
+  private          KeepAliveSender keepAliveSender;
+  private          int             attempts;
 
   public WebSocketConnection(String httpUri,
                              TrustStore trustStore,
@@ -112,14 +123,7 @@ public class WebSocketConnection extends WebSocketListener {
         filledUri = wsUri;
       }
 
-      Pair<SSLSocketFactory, X509TrustManager> socketFactory = createTlsSocketFactory(trustStore);
-
-      OkHttpClient.Builder clientBuilder = new OkHttpClient.Builder()
-                                                           .sslSocketFactory(new Tls12SocketFactory(socketFactory.first()), socketFactory.second())
-                                                           .connectionSpecs(Util.immutableList(ConnectionSpec.RESTRICTED_TLS))
-                                                           .readTimeout(KEEPALIVE_TIMEOUT_SECONDS + 10, TimeUnit.SECONDS)
-                                                           .dns(dns.or(Dns.SYSTEM))
-                                                           .connectTimeout(KEEPALIVE_TIMEOUT_SECONDS + 10, TimeUnit.SECONDS);
+      OkHttpClient.Builder clientBuilder = newClientBuilder();
 
       for (Interceptor interceptor : interceptors) {
         clientBuilder.addInterceptor(interceptor);
@@ -141,11 +145,28 @@ public class WebSocketConnection extends WebSocketListener {
         listener.onConnecting();
       }
 
+      incomingRequests.remove(CLOSED);
+
       this.connected = false;
       this.client    = okHttpClient.newWebSocket(requestBuilder.build(), this);
     }
   }
 
+  /**
+   * The client every connection is made with, before interceptors and any proxy are added.
+   * Overridden by tests to talk to a local, unencrypted server.
+   */
+  OkHttpClient.Builder newClientBuilder() {
+    Pair<SSLSocketFactory, X509TrustManager> socketFactory = createTlsSocketFactory(trustStore);
+
+    return new OkHttpClient.Builder()
+                           .sslSocketFactory(new Tls12SocketFactory(socketFactory.first()), socketFactory.second())
+                           .connectionSpecs(Util.immutableList(ConnectionSpec.RESTRICTED_TLS))
+                           .readTimeout(KEEPALIVE_TIMEOUT_SECONDS + 10, TimeUnit.SECONDS)
+                           .dns(dns.or(Dns.SYSTEM))
+                           .connectTimeout(KEEPALIVE_TIMEOUT_SECONDS + 10, TimeUnit.SECONDS);
+  }
+
   public synchronized void disconnect() {
     Log.i(TAG, "disconnect()");
 
@@ -160,28 +181,64 @@ public class WebSocketConnection extends WebSocketListener {
       keepAliveSender = null;
     }
 
+    incomingRequests.offer(CLOSED);
     notifyAll();
   }
 
-  public synchronized WebSocketRequestMessage readRequest(long timeoutMillis)
+  public WebSocketRequestMessage readRequest(long timeoutMillis)
       throws TimeoutException, IOException
   {
     if (client == null) {
       throw new IOException("Connection closed!");
     }
 
-    long startTime = System.currentTimeMillis();
+    WebSocketRequestMessage request;
+
+    try {
+      request = incomingRequests.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      throw new AssertionError(e);
+    }
+
+    if (request == CLOSED) {
+      incomingRequests.offer(CLOSED);
+      throw new IOException("Connection closed!");
+    } else if (request == null) {
+      throw new TimeoutException("Timeout exceeded");
+    } else {
+      return request;
+    }
+  }
+
+  /**
+   * Waits for a request like {@link #readRequest(long)}, then also takes up to
+   * {@code maxRequests - 1} more that have already arrived, without waiting for any others.
+   */
+  public List<WebSocketRequestMessage> readRequests(int maxRequests, long timeoutMillis)
+      throws TimeoutException, IOException
+  {
+    List<WebSocketRequestMessage> requests = new ArrayList<>(Math.min(maxRequests, incomingRequests.size() + 1));
+    requests.add(readRequest(timeoutMillis));
+
+    while (requests.size() < maxRequests) {
+      WebSocketRequestMessage request = incomingRequests.poll();
+
+      if (request == null) {
+        break;
+      } else if (request == CLOSED) {
+        incomingRequests.offer(CLOSED);
+        break;
+      }
 
-    while (client != null && incomingRequests.isEmpty() && elapsedTime(startTime) < timeoutMillis) {
-      Util.wait(this, Math.max(1, timeoutMillis - elapsedTime(startTime)));
+      requests.add(request);
     }
 
-    if      (incomingRequests.isEmpty() && client == null) throw new IOException("Connection closed!");
-    else if (incomingRequests.isEmpty())                   throw new TimeoutException("Timeout exceeded");
-    else                                                   return incomingRequests.removeFirst();
+    return requests;
   }
 
-  public synchronized ListenableFuture<WebsocketResponse> sendRequest(WebSocketRequestMessage request) throws IOException {
+  public ListenableFuture<WebsocketResponse> sendRequest(WebSocketRequestMessage request) throws IOException {
+    WebSocket client = this.client;
+
     if (client == null || !connected) throw new IOException("No connection!");
 
     WebSocketMessage message = WebSocketMessage.newBuilder()
@@ -192,14 +249,27 @@ public class WebSocketConnection extends WebSocketListener {
     SettableFuture<WebsocketResponse> future = new SettableFuture<>();
     outgoingRequests.put(request.getId(), new OutgoingRequest(future, System.currentTimeMillis()));
 
+    // onClosed() may have drained the outgoing requests between our check above and the put, in
+    // which case nothing would ever complete this one. It clears the flag before draining, so
+    // checking again here catches that.
+    if (!connected || this.client != client) {
+      if (outgoingRequests.remove(request.getId()) != null) {
+        throw new IOException("No connection!");
+      }
+      return future;
+    }
+
     if (!client.send(ByteString.of(message.toByteArray()))) {
+      outgoingRequests.remove(request.getId());
       throw new IOException("Write failed!");
     }
 
     return future;
   }
 
-  public synchronized void sendResponse(WebSocketResponseMessage response) throws IOException {
+  public void sendResponse(WebSocketResponseMessage response) throws IOException {
+    WebSocket client = this.client;
+
     if (client == null) {
       throw new IOException("Connection closed!");
     }
@@ -244,22 +314,25 @@ public class WebSocketConnection extends WebSocketListener {
     }
   }
 
+  public RoundTripStats.Snapshot getRoundTripStats() {
+    return roundTripStats.getSnapshot();
+  }
+
   @Override
-  public synchronized void onMessage(WebSocket webSocket, ByteString payload) {
+  public void onMessage(WebSocket webSocket, ByteString payload) {
     try {
       WebSocketMessage message = WebSocketMessage.parseFrom(payload.toByteArray());
 
       if (message.getType().getNumber() == WebSocketMessage.Type.REQUEST_VALUE)  {
-        incomingRequests.add(message.getRequest());
+        incomingRequests.offer(message.getRequest());
       } else if (message.getType().getNumber() == WebSocketMessage.Type.RESPONSE_VALUE) {
-        OutgoingRequest listener = outgoingRequests.get(message.getResponse().getId());
+        OutgoingRequest listener = outgoingRequests.remove(message.getResponse().getId());
         if (listener != null) {
+          roundTripStats.onResponse(System.currentTimeMillis() - listener.getStartTimestamp());
           listener.getResponseFuture().set(new WebsocketResponse(message.getResponse().getStatus(),
                                                                  new String(message.getResponse().getBody().toByteArray())));
         }
       }
-
-      notifyAll();
     } catch (InvalidProtocolBufferException e) {
       Log.w(TAG, e);
     }
@@ -270,12 +343,13 @@ public class WebSocketConnection extends WebSocketListener {
     Log.i(TAG, "onClose()");
     this.connected = false;
 
-    Iterator<Map.Entry<Long, OutgoingRequest>> iterator = outgoingRequests.entrySet().iterator();
+    for (Long id : outgoingRequests.keySet()) {
+      OutgoingRequest request = outgoingRequests.remove(id);
 
-    while (iterator.hasNext()) {
-      Map.Entry<Long, OutgoingRequest> entry = iterator.next();
-      entry.getValue().getResponseFuture().setException(new IOException("Closed: " + code + ", " + reason));
-      iterator.remove();
+      if (request != null) {
+        roundTripStats.onFailure();
+        request.getResponseFuture().setException(new IOException("Closed: " + code + ", " + reason));
+      }
     }
 
     if (keepAliveSender != null) {
@@ -331,10 +405,6 @@ public class WebSocketConnection extends WebSocketListener {
     webSocket.close(1000, "OK");
   }
 
-  private long elapsedTime(long startTime) {
-    return System.currentTimeMillis() - startTime;
-  }
-
   private Pair<SSLSocketFactory, X509TrustManager> createTlsSocketFactory(TrustStore trustStore) {
     try {
       SSLContext     context       = SSLContext.getInstance("TLS");
@@ -0,0 +1,289 @@
+package org.whispersystems.signalservice.api;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.whispersystems.libsignal.IdentityKey;
+import org.whispersystems.libsignal.InvalidKeyException;
+import org.whispersystems.libsignal.ecc.Curve;
+import org.whispersystems.libsignal.util.Pair;
+import org.whispersystems.libsignal.util.guava.Optional;
+import org.whispersystems.signalservice.api.crypto.UnidentifiedAccess;
+import org.whispersystems.signalservice.api.crypto.UntrustedIdentityException;
+import org.whispersystems.signalservice.api.messages.SendMessageResult;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
+import org.whispersystems.signalservice.internal.push.OutgoingPushMessage;
+import org.whispersystems.signalservice.internal.push.OutgoingPushMessageList;
+import org.whispersystems.signalservice.internal.push.SendMessageResponse;
+import org.whispersystems.signalservice.internal.push.http.CancelationSignal;
+import org.whispersystems.signalservice.internal.util.concurrent.ListenableFuture;
+import org.whispersystems.signalservice.internal.util.concurrent.PipelinedFanOut;
+import org.whispersystems.signalservice.internal.util.concurrent.SettableFuture;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class GroupSendStageTest {
+
+  private static final long   TIMESTAMP = 1000;
+  private static final byte[] CONTENT   = new byte[] { 1, 2, 3 };
+
+  private ExecutorService executor;
+  private FakeTransport   transport;
+
+  @Before
+  public void setUp() {
+    executor  = Executors.newFixedThreadPool(4);
+    transport = new FakeTransport();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+    transport.responder.shutdownNow();
+  }
+
+  @Test
+  public void pipeAvailable_sendsEncryptedMessagesOverPipe() throws Exception {
+    List<SendMessageResult> results = send(recipients(5), null);
+
+    for (int i = 0; i < results.size(); i++) {
+      assertEquals(address(i), results.get(i).getAddress());
+      assertNotNull(results.get(i).getSuccess());
+      assertFalse(results.get(i).getSuccess().isUnidentified());
+      assertFalse(results.get(i).getSuccess().isNeedsSync());
+    }
+
+    assertEquals(5, transport.encrypted.size());
+    assertEquals(5, transport.sentOverPipe.size());
+    assertTrue(transport.sentBlocking.isEmpty());
+  }
+
+  @Test
+  public void pipeResponseNeedsSync_resultNeedsSync() throws Exception {
+    transport.needsSync = true;
+
+    assertTrue(send(recipients(1), null).get(0).getSuccess().isNeedsSync());
+  }
+
+  @Test
+  public void multiDevice_resultNeedsSync() throws Exception {
+    transport.multiDevice = true;
+
+    assertTrue(send(recipients(1), null).get(0).getSuccess().isNeedsSync());
+  }
+
+  @Test
+  public void noPipe_sendsBlockingWithoutEncryptingFirst() throws Exception {
+    transport.pipe = false;
+
+    List<SendMessageResult> results = send(recipients(3), null);
+
+    assertEquals(3, results.size());
+    assertTrue(transport.encrypted.isEmpty());
+    assertTrue(transport.sentOverPipe.isEmpty());
+    assertEquals(3, transport.sentBlocking.size());
+
+    for (int i = 0; i < 3; i++) {
+      assertTrue(transport.sentBlocking.containsKey(address(i)));
+      assertNull(transport.sentBlocking.get(address(i)).orNull());
+    }
+  }
+
+  @Test
+  public void pipeSendFails_fallsBackWithAlreadyEncryptedMessages() throws Exception {
+    transport.pipeFailure = new IOException("Rejected");
+
+    List<SendMessageResult> results = send(recipients(3), null);
+
+    assertEquals(3, results.size());
+
+    for (int i = 0; i < 3; i++) {
+      assertNotNull(results.get(i).getSuccess());
+      assertSame(transport.encrypted.get(address(i)), transport.sentBlocking.get(address(i)).get());
+    }
+
+    assertEquals(3, transport.encrypted.size());
+  }
+
+  @Test
+  public void pipeGoneBeforeSend_fallsBackWithAlreadyEncryptedMessages() throws Exception {
+    transport.pipeGone = true;
+
+    send(recipients(2), null);
+
+    for (int i = 0; i < 2; i++) {
+      assertSame(transport.encrypted.get(address(i)), transport.sentBlocking.get(address(i)).get());
+    }
+  }
+
+  @Test
+  public void invalidKey_sendsBlockingWithoutMessages() throws Exception {
+    transport.encryptFailure = new InvalidKeyException("Bad key");
+
+    send(recipients(2), null);
+
+    assertTrue(transport.sentOverPipe.isEmpty());
+    assertEquals(2, transport.sentBlocking.size());
+    assertFalse(transport.sentBlocking.get(address(0)).isPresent());
+  }
+
+  @Test
+  public void untrustedIdentity_failsThatRecipient() throws Exception {
+    transport.encryptFailure = new UntrustedIdentityException("Untrusted", "+15555550000", new IdentityKey(Curve.generateKeyPair().getPublicKey()));
+
+    List<Future<SendMessageResult>> results = fanOut(null).send(recipients(1));
+
+    try {
+      results.get(0).get(10, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof UntrustedIdentityException);
+    }
+
+    assertTrue(transport.sentBlocking.isEmpty());
+  }
+
+  @Test
+  public void canceled_sendsNothing() throws Exception {
+    List<Future<SendMessageResult>> results = fanOut(() -> true).send(recipients(2));
+
+    for (Future<SendMessageResult> result : results) {
+      try {
+        result.get(10, TimeUnit.SECONDS);
+        fail();
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof CancelationException);
+      }
+    }
+
+    assertTrue(transport.encrypted.isEmpty());
+    assertTrue(transport.sentOverPipe.isEmpty());
+    assertTrue(transport.sentBlocking.isEmpty());
+  }
+
+  private List<SendMessageResult> send(List<Pair<SignalServiceAddress, Optional<UnidentifiedAccess>>> recipients, CancelationSignal cancelationSignal)
+      throws Exception
+  {
+    List<SendMessageResult> results = new ArrayList<>(recipients.size());
+
+    for (Future<SendMessageResult> result : fanOut(cancelationSignal).send(recipients)) {
+      results.add(result.get(10, TimeUnit.SECONDS));
+    }
+
+    return results;
+  }
+
+  private PipelinedFanOut<Pair<SignalServiceAddress, Optional<UnidentifiedAccess>>, OutgoingPushMessageList, SendMessageResult> fanOut(CancelationSignal cancelationSignal) {
+    GroupSendStage stage = new GroupSendStage(transport, System.currentTimeMillis(), TIMESTAMP, CONTENT, false, cancelationSignal);
+
+    return new PipelinedFanOut<>(executor, stage, 32, 10, TimeUnit.SECONDS);
+  }
+
+  private static List<Pair<SignalServiceAddress, Optional<UnidentifiedAccess>>> recipients(int count) {
+    List<Pair<SignalServiceAddress, Optional<UnidentifiedAccess>>> recipients = new ArrayList<>(count);
+
+    for (int i = 0; i < count; i++) {
+      recipients.add(new Pair<>(address(i), Optional.<UnidentifiedAccess>absent()));
+    }
+
+    return recipients;
+  }
+
+  private static SignalServiceAddress address(int i) {
+    return new SignalServiceAddress(new UUID(0, i), "+155555" + (10000 + i));
+  }
+
+  /**
+   * Records what was encrypted and sent where. Pipe responses arrive on a separate thread, the way
+   * they do off a websocket.
+   */
+  private static final class FakeTransport implements GroupSendStage.Transport {
+
+    private final ExecutorService responder = Executors.newSingleThreadExecutor();
+
+    private final Map<SignalServiceAddress, OutgoingPushMessageList>           encrypted    = new ConcurrentHashMap<>();
+    private final List<OutgoingPushMessageList>                                sentOverPipe = Collections.synchronizedList(new ArrayList<>());
+    private final Map<SignalServiceAddress, Optional<OutgoingPushMessageList>> sentBlocking = new ConcurrentHashMap<>();
+
+    private volatile boolean   pipe = true;
+    private volatile boolean   pipeGone;
+    private volatile boolean   needsSync;
+    private volatile boolean   multiDevice;
+    private volatile Throwable pipeFailure;
+    private volatile Exception encryptFailure;
+
+    @Override
+    public boolean hasPipe(Optional<UnidentifiedAccess> unidentifiedAccess) {
+      return pipe;
+    }
+
+    @Override
+    public ListenableFuture<SendMessageResponse> sendOverPipe(OutgoingPushMessageList messages, Optional<UnidentifiedAccess> unidentifiedAccess)
+        throws IOException
+    {
+      if (pipeGone) {
+        throw new IOException("Pipe is no longer available.");
+      }
+
+      SettableFuture<SendMessageResponse> response = new SettableFuture<>();
+
+      sentOverPipe.add(messages);
+
+      responder.execute(() -> {
+        if (pipeFailure != null) {
+          response.setException(pipeFailure);
+        } else {
+          response.set(new SendMessageResponse(needsSync));
+        }
+      });
+
+      return response;
+    }
+
+    @Override
+    public OutgoingPushMessageList encrypt(SignalServiceAddress recipient, Optional<UnidentifiedAccess> unidentifiedAccess, long timestamp, byte[] content, boolean online)
+        throws InvalidKeyException, UntrustedIdentityException
+    {
+      if (encryptFailure instanceof InvalidKeyException) {
+        throw (InvalidKeyException) encryptFailure;
+      } else if (encryptFailure instanceof UntrustedIdentityException) {
+        throw (UntrustedIdentityException) encryptFailure;
+      }
+
+      OutgoingPushMessageList messages = new OutgoingPushMessageList(recipient.getIdentifier(), timestamp, Collections.<OutgoingPushMessage>emptyList(), online);
+
+      encrypted.put(recipient, messages);
+      return messages;
+    }
+
+    @Override
+    public SendMessageResult sendBlocking(SignalServiceAddress recipient, Optional<UnidentifiedAccess> unidentifiedAccess, long timestamp, byte[] content, boolean online, CancelationSignal cancelationSignal, OutgoingPushMessageList pipeFailedMessages) {
+      sentBlocking.put(recipient, Optional.fromNullable(pipeFailedMessages));
+      return SendMessageResult.success(recipient, unidentifiedAccess.isPresent(), isMultiDevice(), 0);
+    }
+
+    @Override
+    public boolean isMultiDevice() {
+      return multiDevice;
+    }
+  }
+}
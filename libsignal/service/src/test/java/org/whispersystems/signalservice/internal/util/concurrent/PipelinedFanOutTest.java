@@ -0,0 +1,385 @@
+package org.whispersystems.signalservice.internal.util.concurrent;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class PipelinedFanOutTest {
+
+  private static final int  GROUP_SIZE     = 1000;
+  private static final int  THREADS        = 16;
+  private static final int  WINDOW         = 32;
+  private static final long LATENCY_MILLIS = 20;
+
+  private ExecutorService executor;
+  private FakeServer      server;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(THREADS);
+    server   = new FakeServer(LATENCY_MILLIS);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+    server.shutdown();
+  }
+
+  @Test
+  public void results_areInRecipientOrder() throws Exception {
+    List<Future<String>> results = fanOut(new ServerStage(server), 10, TimeUnit.SECONDS).send(recipients(100));
+
+    for (int i = 0; i < results.size(); i++) {
+      assertEquals("sent:" + i, results.get(i).get());
+    }
+  }
+
+  @Test
+  public void inFlightRequests_neverExceedWindow() throws Exception {
+    awaitAll(fanOut(new ServerStage(server), 10, TimeUnit.SECONDS).send(recipients(500)));
+
+    assertEquals(500, server.getRequestCount());
+    assertTrue("Peak was " + server.getPeakInFlight(), server.getPeakInFlight() <= WINDOW);
+    assertTrue("Peak was " + server.getPeakInFlight(), server.getPeakInFlight() > 1);
+  }
+
+  @Test
+  public void failedSend_fallsBackWithPayload() throws Exception {
+    ServerStage stage = new ServerStage(server) {
+      @Override
+      public ListenableFuture<String> send(Integer recipient, String payload) throws IOException {
+        return recipient % 2 == 0 ? server.fail(new IOException("Rejected")) : super.send(recipient, payload);
+      }
+    };
+
+    List<Future<String>> results = fanOut(stage, 10, TimeUnit.SECONDS).send(recipients(50));
+
+    for (int i = 0; i < results.size(); i++) {
+      assertEquals(i % 2 == 0 ? "fallback:payload-" + i + ":IOException" : "sent:" + i, results.get(i).get());
+    }
+  }
+
+  @Test
+  public void unansweredSend_timesOutAndFallsBack() throws Exception {
+    ServerStage stage = new ServerStage(server) {
+      @Override
+      public ListenableFuture<String> send(Integer recipient, String payload) throws IOException {
+        return recipient == 3 ? new SettableFuture<>() : super.send(recipient, payload);
+      }
+    };
+
+    List<Future<String>> results = fanOut(stage, 200, TimeUnit.MILLISECONDS).send(recipients(10));
+
+    assertEquals("fallback:payload-3:TimeoutException", results.get(3).get(5, TimeUnit.SECONDS));
+    assertEquals("sent:4", results.get(4).get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void transportUnavailable_fallsBack() throws Exception {
+    ServerStage stage = new ServerStage(server) {
+      @Override
+      public ListenableFuture<String> send(Integer recipient, String payload) throws IOException {
+        throw new IOException("No connection!");
+      }
+    };
+
+    List<Future<String>> results = fanOut(stage, 10, TimeUnit.SECONDS).send(recipients(WINDOW * 2));
+
+    for (int i = 0; i < results.size(); i++) {
+      assertEquals("fallback:payload-" + i + ":IOException", results.get(i).get(5, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void nullPayload_goesStraightToFallback() throws Exception {
+    ServerStage stage = new ServerStage(server) {
+      @Override
+      public String prepare(Integer recipient) {
+        return recipient == 1 ? null : super.prepare(recipient);
+      }
+    };
+
+    List<Future<String>> results = fanOut(stage, 10, TimeUnit.SECONDS).send(recipients(3));
+
+    assertEquals("sent:0", results.get(0).get());
+    assertEquals("fallback:null:null", results.get(1).get());
+    assertEquals("sent:2", results.get(2).get());
+    assertEquals(2, server.getRequestCount());
+  }
+
+  @Test
+  public void prepareFailure_failsOnlyThatRecipient() throws Exception {
+    ServerStage stage = new ServerStage(server) {
+      @Override
+      public String prepare(Integer recipient) {
+        if (recipient == 2) throw new IllegalStateException("Untrusted");
+        return super.prepare(recipient);
+      }
+    };
+
+    List<Future<String>> results = fanOut(stage, 10, TimeUnit.SECONDS).send(recipients(4));
+
+    try {
+      results.get(2).get();
+      fail();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+
+    assertEquals("sent:3", results.get(3).get());
+  }
+
+  @Test
+  public void singleThread_fillsWindowBeforeAnyResponse_thenStallsUntilOneArrives() throws Exception {
+    ExecutorService                          single  = Executors.newSingleThreadExecutor();
+    ExecutorService                          caller  = Executors.newSingleThreadExecutor();
+    ManualStage                              stage   = new ManualStage();
+    PipelinedFanOut<Integer, String, String> fanOut  = new PipelinedFanOut<>(single, stage, WINDOW, 10, TimeUnit.SECONDS);
+    Future<List<Future<String>>>             sending = caller.submit(() -> fanOut.send(recipients(WINDOW * 2)));
+    List<SettableFuture<String>>             pending = new ArrayList<>();
+
+    try {
+      for (int i = 0; i < WINDOW; i++) {
+        pending.add(stage.awaitRequest());
+      }
+
+      assertFalse(sending.isDone());
+
+      for (int i = 0; i < WINDOW; i++) {
+        stage.answer(pending.get(i), "sent:" + i);
+        pending.add(stage.awaitRequest());
+      }
+
+      List<Future<String>> results = sending.get(10, TimeUnit.SECONDS);
+
+      for (int i = WINDOW; i < WINDOW * 2; i++) {
+        stage.answer(pending.get(i), "sent:" + i);
+      }
+
+      for (int i = 0; i < results.size(); i++) {
+        assertEquals("sent:" + i, results.get(i).get(10, TimeUnit.SECONDS));
+      }
+
+      assertEquals(WINDOW, stage.getPeakInFlight());
+    } finally {
+      single.shutdownNow();
+      caller.shutdownNow();
+    }
+  }
+
+  @Test
+  public void interruptedWhileWindowFull_failsTheRestAndKeepsTheInterrupt() throws Exception {
+    ManualStage          stage   = new ManualStage();
+    List<Future<String>> results = new ArrayList<>();
+    boolean[]            kept    = new boolean[1];
+
+    Thread caller = new Thread(() -> {
+      results.addAll(new PipelinedFanOut<>(executor, stage, WINDOW, 10, TimeUnit.SECONDS).send(recipients(WINDOW * 2)));
+      kept[0] = Thread.currentThread().isInterrupted();
+    });
+
+    caller.start();
+
+    for (int i = 0; i < WINDOW; i++) {
+      stage.awaitRequest();
+    }
+
+    caller.interrupt();
+    caller.join(10_000);
+
+    assertTrue(kept[0]);
+    assertEquals(WINDOW * 2, results.size());
+
+    for (int i = WINDOW; i < WINDOW * 2; i++) {
+      try {
+        results.get(i).get(10, TimeUnit.SECONDS);
+        fail();
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof InterruptedException);
+      }
+    }
+  }
+
+  /**
+   * Sends to a large group over a fake server with a fixed round trip. Sending one request per
+   * thread and blocking on each response can't do better than {@code GROUP_SIZE / THREADS} round
+   * trips, but the window only needs about {@code GROUP_SIZE / WINDOW} of them.
+   */
+  @Test
+  public void groupSendTime_beatsBlockingOnEachResponse() throws Exception {
+    long start = System.nanoTime();
+
+    awaitAll(fanOut(new ServerStage(server), 10, TimeUnit.SECONDS).send(recipients(GROUP_SIZE)));
+
+    long totalMillis         = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    long blockingLowerBound  = GROUP_SIZE / THREADS * LATENCY_MILLIS;
+    long pipelinedLowerBound = GROUP_SIZE / WINDOW * LATENCY_MILLIS;
+
+    assertEquals(GROUP_SIZE, server.getRequestCount());
+    assertTrue("Took " + totalMillis + " ms, can't be under " + pipelinedLowerBound + " ms", totalMillis >= pipelinedLowerBound);
+    assertTrue("Took " + totalMillis + " ms, blocking takes at least " + blockingLowerBound + " ms", totalMillis < blockingLowerBound);
+  }
+
+  private PipelinedFanOut<Integer, String, String> fanOut(ServerStage stage, long timeout, TimeUnit unit) {
+    return new PipelinedFanOut<>(executor, stage, WINDOW, timeout, unit);
+  }
+
+  private static List<Integer> recipients(int count) {
+    List<Integer> recipients = new ArrayList<>(count);
+
+    for (int i = 0; i < count; i++) {
+      recipients.add(i);
+    }
+
+    return recipients;
+  }
+
+  private static void awaitAll(List<Future<String>> futures) throws Exception {
+    for (Future<String> future : futures) {
+      future.get(30, TimeUnit.SECONDS);
+    }
+  }
+
+  private static class ServerStage implements PipelinedFanOut.Stage<Integer, String, String> {
+
+    private final FakeServer server;
+
+    private ServerStage(FakeServer server) {
+      this.server = server;
+    }
+
+    @Override
+    public String prepare(Integer recipient) {
+      return "payload-" + recipient;
+    }
+
+    @Override
+    public ListenableFuture<String> send(Integer recipient, String payload) throws IOException {
+      return server.request("sent:" + recipient);
+    }
+
+    @Override
+    public String fallback(Integer recipient, String payload, Throwable cause) {
+      return "fallback:" + payload + ":" + (cause != null ? cause.getClass().getSimpleName() : null);
+    }
+  }
+
+  /**
+   * Leaves every request unanswered until the test answers it, and checks on each send that no more
+   * than {@link #WINDOW} requests are waiting on a response.
+   */
+  private static final class ManualStage implements PipelinedFanOut.Stage<Integer, String, String> {
+
+    private final BlockingQueue<SettableFuture<String>> requests = new LinkedBlockingQueue<>();
+    private final AtomicInteger                         inFlight = new AtomicInteger();
+    private final AtomicInteger                         peak     = new AtomicInteger();
+
+    @Override
+    public String prepare(Integer recipient) {
+      return "payload-" + recipient;
+    }
+
+    @Override
+    public ListenableFuture<String> send(Integer recipient, String payload) {
+      SettableFuture<String> future = new SettableFuture<>();
+
+      peak.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+      requests.add(future);
+
+      return future;
+    }
+
+    @Override
+    public String fallback(Integer recipient, String payload, Throwable cause) {
+      throw new AssertionError("Unexpected fallback for " + recipient, cause);
+    }
+
+    SettableFuture<String> awaitRequest() throws InterruptedException {
+      SettableFuture<String> request = requests.poll(10, TimeUnit.SECONDS);
+
+      if (request == null) {
+        throw new AssertionError("No request was sent.");
+      }
+
+      return request;
+    }
+
+    void answer(SettableFuture<String> request, String response) {
+      inFlight.decrementAndGet();
+      request.set(response);
+    }
+
+    int getPeakInFlight() {
+      return peak.get();
+    }
+  }
+
+  /**
+   * Answers every request after a fixed delay, from its own thread, the way responses arrive off a
+   * websocket.
+   */
+  private static final class FakeServer {
+
+    private final ScheduledExecutorService responder = Executors.newSingleThreadScheduledExecutor();
+    private final long                     latencyMillis;
+    private final AtomicInteger            requests  = new AtomicInteger();
+    private final AtomicInteger            inFlight  = new AtomicInteger();
+    private final AtomicInteger            peak      = new AtomicInteger();
+
+    private FakeServer(long latencyMillis) {
+      this.latencyMillis = latencyMillis;
+    }
+
+    ListenableFuture<String> request(String response) {
+      SettableFuture<String> future = new SettableFuture<>();
+      int                    now    = inFlight.incrementAndGet();
+
+      requests.incrementAndGet();
+      peak.accumulateAndGet(now, Math::max);
+
+      responder.schedule(() -> {
+        inFlight.decrementAndGet();
+        future.set(response);
+      }, latencyMillis, TimeUnit.MILLISECONDS);
+
+      return future;
+    }
+
+    ListenableFuture<String> fail(Throwable throwable) {
+      SettableFuture<String> future = new SettableFuture<>();
+      responder.execute(() -> future.setException(throwable));
+      return future;
+    }
+
+    int getRequestCount() {
+      return requests.get();
+    }
+
+    int getPeakInFlight() {
+      return peak.get();
+    }
+
+    void shutdown() {
+      responder.shutdownNow();
+    }
+  }
+}
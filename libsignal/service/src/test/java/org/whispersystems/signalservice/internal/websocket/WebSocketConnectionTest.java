@@ -0,0 +1,347 @@
+package org.whispersystems.signalservice.internal.websocket;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.whispersystems.libsignal.util.guava.Optional;
+import org.whispersystems.signalservice.api.websocket.ConnectivityListener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.whispersystems.signalservice.internal.websocket.WebSocketProtos.WebSocketMessage;
+import static org.whispersystems.signalservice.internal.websocket.WebSocketProtos.WebSocketRequestMessage;
+import static org.whispersystems.signalservice.internal.websocket.WebSocketProtos.WebSocketResponseMessage;
+
+/**
+ * Runs {@link WebSocketConnection} against a local websocket server that answers requests after a
+ * random delay, so responses come back out of order.
+ */
+public final class WebSocketConnectionTest {
+
+  private static final String HANG_PATH = "/hang";
+
+  private final AtomicLong ids = new AtomicLong();
+
+  private MockWebServer       server;
+  private FakeServer          fakeServer;
+  private WebSocketConnection connection;
+  private CountDownLatch      connected;
+
+  @Before
+  public void setUp() throws Exception {
+    server     = new MockWebServer();
+    fakeServer = new FakeServer();
+    connected  = new CountDownLatch(1);
+
+    server.enqueue(new MockResponse().withWebSocketUpgrade(fakeServer));
+    server.start();
+
+    connection = new TestWebSocketConnection("http://" + server.getHostName() + ":" + server.getPort(), new ConnectedListener(connected));
+    connection.connect();
+
+    assertTrue(connected.await(5, TimeUnit.SECONDS));
+    assertTrue(fakeServer.opened.await(5, TimeUnit.SECONDS));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    connection.disconnect();
+    fakeServer.shutdown();
+    server.shutdown();
+  }
+
+  @Test
+  public void concurrentRequests_resolveToTheirOwnResponses() throws Exception {
+    int             threads   = 8;
+    int             perThread = 50;
+    ExecutorService executor  = Executors.newFixedThreadPool(threads);
+
+    List<Future<List<String>>> sends = new ArrayList<>(threads);
+
+    for (int t = 0; t < threads; t++) {
+      int thread = t;
+      sends.add(executor.submit(() -> {
+        List<PendingRequest> requests = new ArrayList<>(perThread);
+
+        for (int i = 0; i < perThread; i++) {
+          String path = "/" + thread + "/" + i;
+          requests.add(new PendingRequest(path, connection.sendRequest(request(path))));
+        }
+
+        List<String> mismatches = new ArrayList<>();
+
+        for (PendingRequest request : requests) {
+          WebsocketResponse response = request.future.get(10, TimeUnit.SECONDS);
+
+          if (response.getStatus() != 200 || !request.path.equals(response.getBody())) {
+            mismatches.add(request.path + " got " + response.getBody());
+          }
+        }
+
+        return mismatches;
+      }));
+    }
+
+    for (Future<List<String>> send : sends) {
+      assertEquals(Collections.emptyList(), send.get(30, TimeUnit.SECONDS));
+    }
+
+    executor.shutdown();
+
+    RoundTripStats.Snapshot stats = connection.getRoundTripStats();
+
+    assertEquals(threads * perThread, stats.getResponseCount());
+    assertEquals(0, stats.getFailureCount());
+    assertTrue(stats.getMaxMillis() >= stats.getPercentileMillis(50));
+  }
+
+  @Test
+  public void incomingRequests_areReadInArrivalOrder() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      fakeServer.push(request("/incoming/" + i));
+    }
+
+    for (int i = 0; i < 100; i++) {
+      assertEquals("/incoming/" + i, connection.readRequest(5000).getPath());
+    }
+  }
+
+  @Test
+  public void readRequests_takesQueuedRequestsWithoutWaiting() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      fakeServer.push(request("/incoming/" + i));
+    }
+
+    List<String> paths = new ArrayList<>();
+
+    while (paths.size() < 10) {
+      for (WebSocketRequestMessage request : connection.readRequests(4, 5000)) {
+        paths.add(request.getPath());
+      }
+    }
+
+    for (int i = 0; i < 10; i++) {
+      assertEquals("/incoming/" + i, paths.get(i));
+    }
+
+    fakeServer.push(request("/incoming/last"));
+
+    long                          start    = System.currentTimeMillis();
+    List<WebSocketRequestMessage> requests = connection.readRequests(4, 5000);
+
+    assertEquals(1, requests.size());
+    assertEquals("/incoming/last", requests.get(0).getPath());
+    assertTrue(System.currentTimeMillis() - start < 5000);
+  }
+
+  @Test
+  public void readRequest_timesOutWhenNothingArrives() throws Exception {
+    long start = System.currentTimeMillis();
+
+    try {
+      connection.readRequest(200);
+      fail();
+    } catch (TimeoutException e) {
+      assertTrue(System.currentTimeMillis() - start >= 150);
+    }
+  }
+
+  @Test
+  public void disconnect_wakesBlockedReaders() throws Exception {
+    ExecutorService                       executor = Executors.newFixedThreadPool(2);
+    List<Future<WebSocketRequestMessage>> readers  = new ArrayList<>();
+
+    for (int i = 0; i < 2; i++) {
+      readers.add(executor.submit(() -> connection.readRequest(TimeUnit.SECONDS.toMillis(30))));
+    }
+
+    Thread.sleep(100);
+    connection.disconnect();
+
+    for (Future<WebSocketRequestMessage> reader : readers) {
+      try {
+        reader.get(5, TimeUnit.SECONDS);
+        fail();
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof IOException);
+      }
+    }
+
+    executor.shutdown();
+  }
+
+  @Test
+  public void serverClose_failsOutstandingRequests() throws Exception {
+    server.enqueue(new MockResponse().withWebSocketUpgrade(new FakeServer()));
+
+    Future<WebsocketResponse> pending = connection.sendRequest(request(HANG_PATH));
+
+    assertTrue(fakeServer.hung.await(5, TimeUnit.SECONDS));
+    fakeServer.socket.close(1000, "Bye");
+
+    try {
+      pending.get(5, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+
+    assertEquals(1, connection.getRoundTripStats().getFailureCount());
+  }
+
+  private WebSocketRequestMessage request(String path) {
+    return WebSocketRequestMessage.newBuilder()
+                                  .setId(ids.incrementAndGet())
+                                  .setVerb("GET")
+                                  .setPath(path)
+                                  .build();
+  }
+
+  private static final class TestWebSocketConnection extends WebSocketConnection {
+
+    TestWebSocketConnection(String httpUri, ConnectivityListener listener) {
+      super(httpUri, null, Optional.absent(), "test", listener, Thread::sleep, Collections.emptyList(), Optional.absent(), Optional.absent());
+    }
+
+    @Override
+    OkHttpClient.Builder newClientBuilder() {
+      return new OkHttpClient.Builder();
+    }
+  }
+
+  private static final class PendingRequest {
+    private final String                    path;
+    private final Future<WebsocketResponse> future;
+
+    private PendingRequest(String path, Future<WebsocketResponse> future) {
+      this.path   = path;
+      this.future = future;
+    }
+  }
+
+  /**
+   * Answers each request with its own path as the body, after a random delay. Never answers
+   * {@link #HANG_PATH}.
+   */
+  private static final class FakeServer extends WebSocketListener {
+
+    private final ScheduledExecutorService responder = Executors.newScheduledThreadPool(4);
+    private final Random                   random    = new Random(1);
+    private final CountDownLatch           opened    = new CountDownLatch(1);
+    private final CountDownLatch           hung      = new CountDownLatch(1);
+
+    private volatile WebSocket socket;
+
+    @Override
+    public void onOpen(WebSocket webSocket, Response response) {
+      socket = webSocket;
+      opened.countDown();
+    }
+
+    @Override
+    public void onMessage(WebSocket webSocket, okio.ByteString bytes) {
+      try {
+        WebSocketMessage message = WebSocketMessage.parseFrom(bytes.toByteArray());
+
+        if (message.getType() != WebSocketMessage.Type.REQUEST) {
+          return;
+        }
+
+        WebSocketRequestMessage request = message.getRequest();
+
+        if (HANG_PATH.equals(request.getPath())) {
+          hung.countDown();
+          return;
+        }
+
+        WebSocketMessage response = WebSocketMessage.newBuilder()
+                                                    .setType(WebSocketMessage.Type.RESPONSE)
+                                                    .setResponse(WebSocketResponseMessage.newBuilder()
+                                                                                         .setId(request.getId())
+                                                                                         .setStatus(200)
+                                                                                         .setBody(ByteString.copyFromUtf8(request.getPath())))
+                                                    .build();
+
+        long delay;
+        synchronized (random) {
+          delay = random.nextInt(20);
+        }
+
+        responder.schedule(() -> webSocket.send(okio.ByteString.of(response.toByteArray())), delay, TimeUnit.MILLISECONDS);
+      } catch (InvalidProtocolBufferException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    @Override
+    public void onClosing(WebSocket webSocket, int code, String reason) {
+      webSocket.close(1000, "OK");
+    }
+
+    void push(WebSocketRequestMessage request) {
+      socket.send(okio.ByteString.of(WebSocketMessage.newBuilder()
+                                                     .setType(WebSocketMessage.Type.REQUEST)
+                                                     .setRequest(request)
+                                                     .build()
+                                                     .toByteArray()));
+    }
+
+    void shutdown() {
+      responder.shutdownNow();
+    }
+  }
+
+  private static final class ConnectedListener implements ConnectivityListener {
+
+    private final CountDownLatch connected;
+
+    private ConnectedListener(CountDownLatch connected) {
+      this.connected = connected;
+    }
+
+    @Override
+    public void onConnected() {
+      connected.countDown();
+    }
+
+    @Override
+    public void onConnecting() { }
+
+    @Override
+    public void onDisconnected() { }
+
+    @Override
+    public void onAuthenticationFailure() { }
+
+    @Override
+    public boolean onGenericFailure(Response response, Throwable throwable) {
+      return true;
+    }
+  }
+}
@@ -57,8 +57,42 @@ class BufferedPagingController<E> implements PagingController {
         activeController.onDataInvalidated();
       }
 
-      activeController = new FixedSizePagingController<>(dataSource, config, liveData, dataSource.size());
+      if (config.maxPrefetchPages() > 0 || config.maxResidentPages() > 0) {
+        activeController = new PrefetchingPagingController<>(dataSource, config, liveData, dataSource.size(), this::onDataInvalidated);
+      } else {
+        activeController = new FixedSizePagingController<>(dataSource, config, liveData, dataSource.size(), this::onDataInvalidated);
+      }
       activeController.onDataNeededAroundIndex(lastRequestedIndex);
     });
   }
+
+  @Override
+  public void onDataItemChanged(@NonNull Object key) {
+    if (!(dataSource instanceof PagedDataSource.Keyed)) {
+      onDataInvalidated();
+      return;
+    }
+
+    serializationExecutor.execute(() -> activeController.onDataItemChanged(key));
+  }
+
+  @Override
+  public void onDataItemInserted(@NonNull Object key, int position) {
+    if (!(dataSource instanceof PagedDataSource.Keyed)) {
+      onDataInvalidated();
+      return;
+    }
+
+    serializationExecutor.execute(() -> activeController.onDataItemInserted(key, position));
+  }
+
+  @Override
+  public void onDataItemRemoved(@NonNull Object key) {
+    if (!(dataSource instanceof PagedDataSource.Keyed)) {
+      onDataInvalidated();
+      return;
+    }
+
+    serializationExecutor.execute(() -> activeController.onDataItemRemoved(key));
+  }
 }
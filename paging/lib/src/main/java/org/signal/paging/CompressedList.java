@@ -3,41 +3,248 @@ package org.signal.paging;
 import androidx.annotation.NonNull;
 
 import java.util.AbstractList;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
- * A placeholder class for efficiently storing lists that are mostly empty space.
- * TODO [greyson][paging]
+ * A list for efficiently storing data sets that are mostly empty space, and for cheaply making
+ * modified copies of them.
+ *
+ * Items are stored in fixed-size chunks, and a chunk that has never held an item isn't allocated
+ * at all. Copying a list only copies its table of chunk references -- the chunks themselves are
+ * shared until one of the lists writes to them, at which point that list makes its own copy of
+ * the one chunk being written to. So publishing a new snapshot after loading a page only costs the
+ * chunks that page touched.
+ *
+ * Like {@link java.util.ArrayList}, it's not thread-safe to modify a list while reading it from
+ * another thread. Make a copy and modify that instead.
  */
 public class CompressedList<E> extends AbstractList<E> {
 
-  private final List<E> wrapped;
+  static final int CHUNK_SIZE = 64;
+
+  private Object[][] chunks;
+
+  /**
+   * The chunk owned by each list is marked with that list's current owner token. Any chunk that
+   * isn't marked with it may be shared with another list, and must be copied before writing.
+   */
+  private Object[] chunkOwners;
+  private Object   owner;
+
+  /** The number of empty slots at the start of the first chunk, so inserting at the front is cheap. */
+  private int offset;
+  private int size;
 
   public CompressedList(@NonNull List<E> source) {
-    this.wrapped = new ArrayList<>(source);
-  }
+    if (source instanceof CompressedList) {
+      CompressedList<E> other = (CompressedList<E>) source;
 
-  public CompressedList(int totalSize) {
-    this.wrapped = new ArrayList<>(totalSize);
+      this.chunks      = other.chunks.clone();
+      this.chunkOwners = new Object[chunks.length];
+      this.owner       = new Object();
+      this.offset      = other.offset;
+      this.size        = other.size;
 
-    for (int i = 0; i < totalSize; i++) {
-      wrapped.add(null);
+      other.owner = new Object();
+    } else {
+      this.chunks      = new Object[getChunkCount(source.size())][];
+      this.chunkOwners = new Object[chunks.length];
+      this.owner       = new Object();
+      this.size        = source.size();
+
+      for (int i = 0; i < size; i++) {
+        E item = source.get(i);
+
+        if (item != null) {
+          set(i, item);
+        }
+      }
     }
   }
 
+  public CompressedList(int totalSize) {
+    this.chunks      = new Object[getChunkCount(totalSize)][];
+    this.chunkOwners = new Object[chunks.length];
+    this.owner       = new Object();
+    this.size        = totalSize;
+  }
+
   @Override
   public int size() {
-    return wrapped.size();
+    return size;
   }
 
+  @SuppressWarnings("unchecked")
   @Override
   public E get(int index) {
-    return wrapped.get(index);
+    checkIndex(index, size);
+
+    int      position = index + offset;
+    Object[] chunk    = chunks[position / CHUNK_SIZE];
+
+    return chunk != null ? (E) chunk[position % CHUNK_SIZE] : null;
   }
 
+  @SuppressWarnings("unchecked")
   @Override
   public E set(int globalIndex, E element) {
-    return wrapped.set(globalIndex, element);
+    checkIndex(globalIndex, size);
+
+    int position = globalIndex + offset;
+
+    if (element == null && chunks[position / CHUNK_SIZE] == null) {
+      return null;
+    }
+
+    Object[] chunk    = getWritableChunk(position / CHUNK_SIZE);
+    E        previous = (E) chunk[position % CHUNK_SIZE];
+
+    chunk[position % CHUNK_SIZE] = element;
+
+    return previous;
+  }
+
+  @Override
+  public void add(int globalIndex, E element) {
+    checkIndex(globalIndex, size + 1);
+
+    if (globalIndex == 0) {
+      if (offset == 0) {
+        growAtStart();
+      }
+
+      offset--;
+      size++;
+    } else {
+      if (offset + size == chunks.length * CHUNK_SIZE) {
+        growAtEnd();
+      }
+
+      shiftRight(offset + globalIndex);
+      size++;
+    }
+
+    set(globalIndex, element);
+  }
+
+  @Override
+  public E remove(int globalIndex) {
+    E removed = set(globalIndex, null);
+
+    if (globalIndex == 0) {
+      offset++;
+      size--;
+
+      if (offset == CHUNK_SIZE) {
+        shrinkAtStart();
+      }
+    } else {
+      shiftLeft(offset + globalIndex);
+      size--;
+    }
+
+    return removed;
+  }
+
+  private @NonNull Object[] getWritableChunk(int chunkIndex) {
+    Object[] chunk = chunks[chunkIndex];
+
+    if (chunk == null) {
+      chunk = new Object[CHUNK_SIZE];
+    } else if (chunkOwners[chunkIndex] != owner) {
+      chunk = chunk.clone();
+    } else {
+      return chunk;
+    }
+
+    chunks[chunkIndex]      = chunk;
+    chunkOwners[chunkIndex] = owner;
+
+    return chunk;
+  }
+
+  /**
+   * Moves every item from the specified position onwards one slot to the right, leaving the slot
+   * at the position empty. Chunks that are empty and stay empty are skipped.
+   */
+  private void shiftRight(int position) {
+    int firstChunk = position / CHUNK_SIZE;
+    int lastChunk  = (offset + size) / CHUNK_SIZE;
+
+    for (int i = Math.min(lastChunk, chunks.length - 1); i >= firstChunk; i--) {
+      int    start = i == firstChunk ? position % CHUNK_SIZE : 0;
+      Object carry = i == firstChunk ? null : getPhysical((i * CHUNK_SIZE) - 1);
+
+      if (chunks[i] == null && carry == null) {
+        continue;
+      }
+
+      Object[] chunk = getWritableChunk(i);
+
+      System.arraycopy(chunk, start, chunk, start + 1, CHUNK_SIZE - start - 1);
+      chunk[start] = carry;
+    }
+  }
+
+  /**
+   * Moves every item after the specified position one slot to the left, overwriting the item at
+   * the position. Chunks that are empty and stay empty are skipped.
+   */
+  private void shiftLeft(int position) {
+    int firstChunk = position / CHUNK_SIZE;
+    int lastChunk  = (offset + size - 1) / CHUNK_SIZE;
+
+    for (int i = firstChunk; i <= lastChunk; i++) {
+      int    start = i == firstChunk ? position % CHUNK_SIZE : 0;
+      Object carry = i == lastChunk ? null : getPhysical((i + 1) * CHUNK_SIZE);
+
+      if (chunks[i] == null && carry == null) {
+        continue;
+      }
+
+      Object[] chunk = getWritableChunk(i);
+
+      System.arraycopy(chunk, start + 1, chunk, start, CHUNK_SIZE - start - 1);
+      chunk[CHUNK_SIZE - 1] = carry;
+    }
+  }
+
+  private Object getPhysical(int position) {
+    Object[] chunk = chunks[position / CHUNK_SIZE];
+    return chunk != null ? chunk[position % CHUNK_SIZE] : null;
+  }
+
+  private void growAtStart() {
+    Object[][] grownChunks = new Object[chunks.length + 1][];
+    Object[]   grownOwners = new Object[chunks.length + 1];
+
+    System.arraycopy(chunks, 0, grownChunks, 1, chunks.length);
+    System.arraycopy(chunkOwners, 0, grownOwners, 1, chunkOwners.length);
+
+    chunks      = grownChunks;
+    chunkOwners = grownOwners;
+    offset      = CHUNK_SIZE;
+  }
+
+  private void growAtEnd() {
+    chunks      = Arrays.copyOf(chunks, chunks.length + 1);
+    chunkOwners = Arrays.copyOf(chunkOwners, chunkOwners.length + 1);
+  }
+
+  private void shrinkAtStart() {
+    chunks      = Arrays.copyOfRange(chunks, 1, chunks.length);
+    chunkOwners = Arrays.copyOfRange(chunkOwners, 1, chunkOwners.length);
+    offset      = 0;
+  }
+
+  private static int getChunkCount(int size) {
+    return (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+  }
+
+  private static void checkIndex(int index, int size) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
   }
 }
@@ -13,7 +13,8 @@ class DataStatus {
   private static final Pools.Pool<BitSet> POOL = new Pools.SynchronizedPool<>(1);
 
   private final BitSet state;
-  private final int    size;
+
+  private int size;
 
   public static DataStatus obtain(int size) {
     BitSet bitset = POOL.acquire();
@@ -35,6 +36,10 @@ class DataStatus {
     state.set(startInclusive, endExclusive, true);
   }
 
+  void unmarkIndex(int index) {
+    state.clear(index);
+  }
+
   int getEarliestUnmarkedIndexInRange(int startInclusive, int endExclusive) {
     for (int i = startInclusive; i < endExclusive; i++) {
       if (!state.get(i)) {
@@ -53,6 +58,35 @@ class DataStatus {
     return -1;
   }
 
+  /**
+   * Makes room for a newly-inserted item at the specified position, shifting everything after it
+   * down by one. The new position is marked.
+   */
+  void insertState(int position) {
+    shift(position, position + 1);
+    state.set(position);
+    size++;
+  }
+
+  /**
+   * Removes the state for the item at the specified position, shifting everything after it up by
+   * one.
+   */
+  void removeState(int position) {
+    shift(position + 1, position);
+    size--;
+  }
+
+  private void shift(int from, int to) {
+    BitSet tail = state.get(from, Math.max(from, size));
+
+    state.clear(Math.min(from, to), size + 1);
+
+    for (int i = tail.nextSetBit(0); i >= 0; i = tail.nextSetBit(i + 1)) {
+      state.set(to + i);
+    }
+  }
+
   int size() {
     return size;
   }
@@ -1,22 +1,29 @@
 package org.signal.paging;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.lifecycle.MutableLiveData;
 
 import org.signal.core.util.concurrent.SignalExecutors;
 import org.signal.core.util.logging.Log;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executor;
 
 /**
  * The workhorse of managing page requests.
  *
  * A controller whose life focuses around one invalidation cycle of a data set, and therefore has
- * a fixed size throughout. It assumes that all interface methods are called on a single thread,
- * which allows it to keep track of pending requests in a thread-safe way, while spinning off
- * tasks to fetch data on its own executor.
+ * a fixed size throughout (apart from individual items inserted or removed via
+ * {@link #onDataItemInserted(Object, int)} and {@link #onDataItemRemoved(Object)}). It assumes
+ * that all interface methods are called on a single thread, which allows it to keep track of
+ * pending requests in a thread-safe way, while spinning off tasks to fetch data on its own
+ * executor.
  */
 class FixedSizePagingController<E> implements PagingController {
 
@@ -29,21 +36,51 @@ class FixedSizePagingController<E> implements PagingController {
   private final PagingConfig             config;
   private final MutableLiveData<List<E>> liveData;
   private final DataStatus               loadState;
+  private final Runnable                 invalidationRequest;
+  private final Map<Object, Integer>     keyToPosition;
+  private final List<PendingLoad>        pendingLoads;
+  private final Executor                 fetchExecutor;
 
   private List<E> data;
 
+  /**
+   * Added to every position in {@link #keyToPosition}, so that an insert at the top (by far the
+   * most common one) doesn't have to touch every key.
+   */
+  private int keyOffset;
+
   private volatile boolean invalidated;
 
+  /**
+   * @param invalidationRequest Called if an item-level change can't be applied in place, in which
+   *                            case the data set should be invalidated as a whole.
+   */
+  FixedSizePagingController(@NonNull PagedDataSource<E> dataSource,
+                            @NonNull PagingConfig config,
+                            @NonNull MutableLiveData<List<E>> liveData,
+                            int size,
+                            @NonNull Runnable invalidationRequest)
+  {
+    this(dataSource, config, liveData, size, invalidationRequest, FETCH_EXECUTOR);
+  }
+
+  @VisibleForTesting
   FixedSizePagingController(@NonNull PagedDataSource<E> dataSource,
                             @NonNull PagingConfig config,
                             @NonNull MutableLiveData<List<E>> liveData,
-                            int size)
+                            int size,
+                            @NonNull Runnable invalidationRequest,
+                            @NonNull Executor fetchExecutor)
   {
-    this.dataSource = dataSource;
-    this.config     = config;
-    this.liveData   = liveData;
-    this.loadState  = DataStatus.obtain(size);
-    this.data       = new CompressedList<>(loadState.size());
+    this.dataSource          = dataSource;
+    this.config              = config;
+    this.liveData            = liveData;
+    this.loadState           = DataStatus.obtain(size);
+    this.invalidationRequest = invalidationRequest;
+    this.fetchExecutor       = fetchExecutor;
+    this.keyToPosition       = new HashMap<>();
+    this.pendingLoads        = new ArrayList<>();
+    this.data                = new CompressedList<>(loadState.size());
   }
 
   /**
@@ -58,44 +95,64 @@ class FixedSizePagingController<E> implements PagingController {
       return;
     }
 
-    if (loadState.size() == 0) {
-      liveData.postValue(Collections.emptyList());
-      return;
-    }
+    final PendingLoad pendingLoad;
 
-    int leftPageBoundary  = (aroundIndex / config.pageSize()) * config.pageSize();
-    int rightPageBoundary = leftPageBoundary + config.pageSize();
-    int buffer            = config.bufferPages() * config.pageSize();
+    synchronized (loadState) {
+      if (loadState.size() == 0) {
+        liveData.postValue(Collections.emptyList());
+        return;
+      }
 
-    int leftLoadBoundary  = Math.max(0, leftPageBoundary - buffer);
-    int rightLoadBoundary = Math.min(loadState.size(), rightPageBoundary + buffer);
+      int leftPageBoundary  = (aroundIndex / config.pageSize()) * config.pageSize();
+      int rightPageBoundary = leftPageBoundary + config.pageSize();
+      int buffer            = config.bufferPages() * config.pageSize();
 
-    int loadStart = loadState.getEarliestUnmarkedIndexInRange(leftLoadBoundary, rightLoadBoundary);
+      int leftLoadBoundary  = Math.max(0, leftPageBoundary - buffer);
+      int rightLoadBoundary = Math.min(loadState.size(), rightPageBoundary + buffer);
 
-    if (loadStart < 0) {
-      if (DEBUG) Log.i(TAG, buildLog(aroundIndex, "loadStart < 0"));
-      return;
-    }
+      int loadStart = loadState.getEarliestUnmarkedIndexInRange(leftLoadBoundary, rightLoadBoundary);
+
+      if (loadStart < 0) {
+        if (DEBUG) Log.i(TAG, buildLog(aroundIndex, "loadStart < 0"));
+        return;
+      }
 
-    int loadEnd = loadState.getLatestUnmarkedIndexInRange(Math.max(leftLoadBoundary, loadStart), rightLoadBoundary) + 1;
+      int loadEnd = loadState.getLatestUnmarkedIndexInRange(Math.max(leftLoadBoundary, loadStart), rightLoadBoundary) + 1;
 
-    if (loadEnd <= loadStart) {
-      if (DEBUG) Log.i(TAG, buildLog(aroundIndex, "loadEnd <= loadStart, loadEnd: " + loadEnd + ", loadStart: " + loadStart));
-      return;
-    }
+      if (loadEnd <= loadStart) {
+        if (DEBUG) Log.i(TAG, buildLog(aroundIndex, "loadEnd <= loadStart, loadEnd: " + loadEnd + ", loadStart: " + loadStart));
+        return;
+      }
 
-    int totalSize = loadState.size();
+      int totalSize = loadState.size();
 
-    loadState.markRange(loadStart, loadEnd);
+      loadState.markRange(loadStart, loadEnd);
+      pendingLoad = new PendingLoad(loadStart, loadEnd);
+      pendingLoads.add(pendingLoad);
 
-    if (DEBUG) Log.i(TAG, buildLog(aroundIndex, "start: " + loadStart + ", end: " + loadEnd + ", totalSize: " + totalSize));
+      if (DEBUG) Log.i(TAG, buildLog(aroundIndex, "start: " + loadStart + ", end: " + loadEnd + ", totalSize: " + totalSize));
+    }
 
-    FETCH_EXECUTOR.execute(() -> {
+    fetchExecutor.execute(() -> {
       if (invalidated) {
         Log.w(TAG, buildLog(aroundIndex, "Invalidated! At beginning of load task."));
         return;
       }
 
+      final int loadStart;
+      final int loadEnd;
+
+      synchronized (loadState) {
+        pendingLoads.remove(pendingLoad);
+        loadStart = pendingLoad.start;
+        loadEnd   = pendingLoad.end;
+      }
+
+      if (loadEnd <= loadStart) {
+        if (DEBUG) Log.i(TAG, buildLog(aroundIndex, "Everything in the range was removed before the load ran."));
+        return;
+      }
+
       List<E> loaded = dataSource.load(loadStart, loadEnd - loadStart, () -> invalidated);
 
       if (invalidated) {
@@ -106,7 +163,14 @@ class FixedSizePagingController<E> implements PagingController {
       List<E> updated = new CompressedList<>(data);
 
       for (int i = 0, len = Math.min(loaded.size(), data.size() - loadStart); i < len; i++) {
-        updated.set(loadStart + i, loaded.get(i));
+        E item = loaded.get(i);
+
+        if (!trackKey(item, loadStart + i)) {
+          requestInvalidation("Loaded item is already present at a different position.");
+          return;
+        }
+
+        updated.set(loadStart + i, item);
       }
 
       data = updated;
@@ -120,11 +184,216 @@ class FixedSizePagingController<E> implements PagingController {
       return;
     }
 
+    synchronized (loadState) {
+      invalidated = true;
+      loadState.recycle();
+    }
+  }
+
+  @Override
+  public void onDataItemChanged(@NonNull Object key) {
+    fetchExecutor.execute(() -> {
+      Integer position = getPosition(key);
+
+      if (invalidated || position == null) {
+        return;
+      }
+
+      E item = getKeyedDataSource().load(key);
+
+      if (invalidated) {
+        return;
+      }
+
+      if (item == null) {
+        removeItem(key, position);
+        return;
+      }
+
+      List<E> updated = new CompressedList<>(data);
+      updated.set(position, item);
+
+      data = updated;
+      liveData.postValue(updated);
+    });
+  }
+
+  @Override
+  public void onDataItemInserted(@NonNull Object key, int position) {
+    fetchExecutor.execute(() -> {
+      if (invalidated) {
+        return;
+      }
+
+      if (keyToPosition.containsKey(key)) {
+        requestInvalidation("Inserted item is already present.");
+        return;
+      }
+
+      E item = getKeyedDataSource().load(key);
+
+      if (invalidated) {
+        return;
+      }
+
+      if (item == null) {
+        Log.w(TAG, "Inserted item could not be found. Ignoring.");
+        return;
+      }
+
+      if (position < 0 || position > data.size()) {
+        requestInvalidation("Inserted position is out of bounds.");
+        return;
+      }
+
+      synchronized (loadState) {
+        if (invalidated) {
+          return;
+        }
+        loadState.insertState(position);
+
+        for (PendingLoad pendingLoad : pendingLoads) {
+          pendingLoad.onInserted(position);
+        }
+      }
+
+      List<E> updated = new CompressedList<>(data);
+      updated.add(position, item);
+
+      shiftKeyPositions(position, 1);
+      keyToPosition.put(key, position - keyOffset);
+
+      data = updated;
+      liveData.postValue(updated);
+    });
+  }
+
+  @Override
+  public void onDataItemRemoved(@NonNull Object key) {
+    fetchExecutor.execute(() -> {
+      if (invalidated) {
+        return;
+      }
+
+      Integer position = getPosition(key);
+
+      if (position == null) {
+        requestInvalidation("Removed item was never loaded, so its position is unknown.");
+        return;
+      }
+
+      removeItem(key, position);
+    });
+  }
+
+  private void removeItem(@NonNull Object key, int position) {
+    synchronized (loadState) {
+      if (invalidated) {
+        return;
+      }
+      loadState.removeState(position);
+
+      for (PendingLoad pendingLoad : pendingLoads) {
+        pendingLoad.onRemoved(position);
+      }
+    }
+
+    List<E> updated = new CompressedList<>(data);
+    updated.remove(position);
+
+    keyToPosition.remove(key);
+    shiftKeyPositions(position + 1, -1);
+
+    data = updated;
+    liveData.postValue(updated);
+  }
+
+  /**
+   * Records the position of a newly-loaded item.
+   *
+   * @return False if the item is already known to be at a different position, meaning our view of
+   *         the data set no longer lines up with the data source.
+   */
+  private boolean trackKey(@Nullable E item, int position) {
+    if (item == null || !(dataSource instanceof PagedDataSource.Keyed)) {
+      return true;
+    }
+
+    Integer existing = keyToPosition.put(getKeyedDataSource().getKey(item), position - keyOffset);
+
+    return existing == null || existing + keyOffset == position;
+  }
+
+  private @Nullable Integer getPosition(@NonNull Object key) {
+    Integer position = keyToPosition.get(key);
+    return position != null ? position + keyOffset : null;
+  }
+
+  /**
+   * Moves every key at or after the provided position. Shifting from the top only needs the offset
+   * to change, but anywhere else we have to visit every key.
+   */
+  private void shiftKeyPositions(int fromPosition, int delta) {
+    if (fromPosition == 0) {
+      keyOffset += delta;
+      return;
+    }
+
+    for (Map.Entry<Object, Integer> entry : keyToPosition.entrySet()) {
+      if (entry.getValue() + keyOffset >= fromPosition) {
+        entry.setValue(entry.getValue() + delta);
+      }
+    }
+  }
+
+  /**
+   * Gives up on this controller. The data set will be invalidated and replaced as a whole.
+   */
+  private void requestInvalidation(@NonNull String reason) {
+    Log.w(TAG, reason + " Invalidating.");
     invalidated = true;
-    loadState.recycle();
+    invalidationRequest.run();
+  }
+
+  @SuppressWarnings("unchecked")
+  private @NonNull PagedDataSource.Keyed<Object, E> getKeyedDataSource() {
+    return (PagedDataSource.Keyed<Object, E>) dataSource;
   }
 
   private static String buildLog(int aroundIndex, String message) {
     return "onDataNeededAroundIndex(" + aroundIndex + ") " + message;
   }
+
+  /**
+   * The range of a load that's been requested but hasn't run yet. Its positions are marked as soon
+   * as it's requested, so an insert or remove queued ahead of it moves the range along with the
+   * marks, and the load picks up exactly the positions it owns.
+   */
+  private static final class PendingLoad {
+    private int start;
+    private int end;
+
+    private PendingLoad(int start, int end) {
+      this.start = start;
+      this.end   = end;
+    }
+
+    void onInserted(int position) {
+      if (position <= start) {
+        start++;
+        end++;
+      } else if (position < end) {
+        end++;
+      }
+    }
+
+    void onRemoved(int position) {
+      if (position < start) {
+        start--;
+        end--;
+      } else if (position < end) {
+        end--;
+      }
+    }
+  }
 }
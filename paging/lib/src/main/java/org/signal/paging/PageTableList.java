@@ -0,0 +1,47 @@
+package org.signal.paging;
+
+import androidx.annotation.NonNull;
+
+import java.util.AbstractList;
+
+/**
+ * An immutable snapshot of a paged data set, stored as a table of pages. Pages that aren't loaded
+ * are null, and read back as null items.
+ *
+ * Pages themselves are never modified once loaded, so a new snapshot only has to copy the table
+ * of page references, not the items.
+ */
+final class PageTableList<E> extends AbstractList<E> {
+
+  private final Object[][] pages;
+  private final int        pageSize;
+  private final int        size;
+
+  PageTableList(@NonNull Object[][] pages, int pageSize, int size) {
+    this.pages    = pages.clone();
+    this.pageSize = pageSize;
+    this.size     = size;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public E get(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+
+    Object[] page   = pages[index / pageSize];
+    int      offset = index % pageSize;
+
+    if (page == null || offset >= page.length) {
+      return null;
+    }
+
+    return (E) page[offset];
+  }
+}
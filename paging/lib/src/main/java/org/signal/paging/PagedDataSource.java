@@ -1,6 +1,8 @@
 package org.signal.paging;
 
+import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
 import java.util.List;
@@ -26,6 +28,27 @@ public interface PagedDataSource<T> {
   @WorkerThread
   @NonNull List<T> load(int start, int length, @NonNull CancellationSignal cancellationSignal);
 
+  /**
+   * An optional extension for data sources whose items have a stable key. Implementing it allows
+   * changes to individual items to be applied in place via
+   * {@link PagingController#onDataItemChanged(Object)} and friends, rather than reloading
+   * everything with {@link PagingController#onDataInvalidated()}.
+   */
+  interface Keyed<Key, T> extends PagedDataSource<T> {
+    /**
+     * @return The current version of the item with the specified key, or null if it no longer
+     *         belongs in this data set.
+     */
+    @WorkerThread
+    @Nullable T load(@NonNull Key key);
+
+    /**
+     * @return The key that identifies the provided item.
+     */
+    @AnyThread
+    @NonNull Key getKey(@NonNull T item);
+  }
+
   interface CancellationSignal {
     /**
      * @return True if the operation has been canceled, otherwise false.
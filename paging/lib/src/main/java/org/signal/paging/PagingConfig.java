@@ -12,11 +12,15 @@ public final class PagingConfig {
   private final int bufferPages;
   private final int startIndex;
   private final int pageSize;
+  private final int maxPrefetchPages;
+  private final int maxResidentPages;
 
   private PagingConfig(@NonNull Builder builder) {
-    this.bufferPages = builder.bufferPages;
-    this.startIndex  = builder.startIndex;
-    this.pageSize    = builder.pageSize;
+    this.bufferPages      = builder.bufferPages;
+    this.startIndex       = builder.startIndex;
+    this.pageSize         = builder.pageSize;
+    this.maxPrefetchPages = builder.maxPrefetchPages;
+    this.maxResidentPages = builder.maxResidentPages;
   }
 
   /**
@@ -42,10 +46,30 @@ public final class PagingConfig {
     return startIndex;
   }
 
+  /**
+   * @return The most pages that will be loaded ahead of the buffer in the direction the user is
+   *         scrolling. The faster the scroll, the more of these are used. Zero disables
+   *         prefetching, in which case only the buffer around the active position is loaded.
+   */
+  int maxPrefetchPages() {
+    return maxPrefetchPages;
+  }
+
+  /**
+   * @return The most pages that will be kept in memory at once. Pages furthest from the active
+   *         position are dropped first, and are simply loaded again if they're needed. Zero means
+   *         nothing is ever dropped.
+   */
+  int maxResidentPages() {
+    return maxResidentPages;
+  }
+
   public static class Builder {
-    private int bufferPages = 1;
-    private int startIndex  = 0;
-    private int pageSize    = 50;
+    private int bufferPages      = 1;
+    private int startIndex       = 0;
+    private int pageSize         = 50;
+    private int maxPrefetchPages = 0;
+    private int maxResidentPages = 0;
 
     public @NonNull Builder setBufferPages(int bufferPages) {
       if (bufferPages < 1) {
@@ -74,7 +98,31 @@ public final class PagingConfig {
       return this;
     }
 
+    public @NonNull Builder setMaxPrefetchPages(int maxPrefetchPages) {
+      if (maxPrefetchPages < 0) {
+        throw new IllegalArgumentException("You can't prefetch a negative number of pages! Requested: " + maxPrefetchPages);
+      }
+
+      this.maxPrefetchPages = maxPrefetchPages;
+      return this;
+    }
+
+    public @NonNull Builder setMaxResidentPages(int maxResidentPages) {
+      if (maxResidentPages < 0) {
+        throw new IllegalArgumentException("You can't keep a negative number of pages! Requested: " + maxResidentPages);
+      }
+
+      this.maxResidentPages = maxResidentPages;
+      return this;
+    }
+
     public @NonNull PagingConfig build() {
+      int windowPages = (2 * bufferPages) + 1 + maxPrefetchPages;
+
+      if (maxResidentPages > 0 && maxResidentPages < windowPages) {
+        throw new IllegalArgumentException("You must be able to keep at least the buffer and prefetch pages in memory! Requested: " + maxResidentPages + ", Required: " + windowPages);
+      }
+
       return new PagingConfig(this);
     }
   }
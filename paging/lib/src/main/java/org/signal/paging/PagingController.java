@@ -1,7 +1,34 @@
 package org.signal.paging;
 
+import androidx.annotation.NonNull;
 
 public interface PagingController {
   void onDataNeededAroundIndex(int aroundIndex);
   void onDataInvalidated();
+
+  /**
+   * Indicates that the item with the specified key has changed and should be reloaded. Only
+   * supported by {@link PagedDataSource.Keyed} data sources, otherwise it's treated as a full
+   * invalidation.
+   */
+  default void onDataItemChanged(@NonNull Object key) {
+    onDataInvalidated();
+  }
+
+  /**
+   * Indicates that an item with the specified key was inserted at the specified position. Only
+   * supported by {@link PagedDataSource.Keyed} data sources, otherwise it's treated as a full
+   * invalidation.
+   */
+  default void onDataItemInserted(@NonNull Object key, int position) {
+    onDataInvalidated();
+  }
+
+  /**
+   * Indicates that the item with the specified key was removed. Only supported by
+   * {@link PagedDataSource.Keyed} data sources, otherwise it's treated as a full invalidation.
+   */
+  default void onDataItemRemoved(@NonNull Object key) {
+    onDataInvalidated();
+  }
 }
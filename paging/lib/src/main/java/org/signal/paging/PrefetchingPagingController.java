@@ -0,0 +1,569 @@
+package org.signal.paging;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.lifecycle.MutableLiveData;
+
+import org.signal.core.util.concurrent.SignalExecutors;
+import org.signal.core.util.logging.Log;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * A controller for very large data sets that are scrolled quickly.
+ *
+ * Like {@link FixedSizePagingController}, it lives for a single invalidation cycle and assumes that
+ * all interface methods are called on a single thread. Unlike it, it:
+ *
+ * - Tracks how fast and in which direction the active position is moving, and loads extra pages
+ *   ahead of it so they're ready by the time the user gets there.
+ * - Always loads whatever is most important for the *latest* position. Pages that were wanted a
+ *   moment ago but have since been scrolled past are simply never loaded.
+ * - Drops the pages furthest from the active position once more than
+ *   {@link PagingConfig#maxResidentPages()} are in memory. They're loaded again if they're needed.
+ * - Publishes a {@link PageTableList}, so each update only copies a table of page references
+ *   rather than every item in the data set.
+ *
+ * For {@link PagedDataSource.Keyed} data sources, individual items can also be changed, inserted
+ * or removed in place. Those are applied on the calling thread.
+ */
+class PrefetchingPagingController<E> implements PagingController {
+
+  private static final String TAG = PrefetchingPagingController.class.getSimpleName();
+
+  private static final Executor FETCH_EXECUTOR = SignalExecutors.newCachedSingleThreadExecutor("signal-PrefetchingPagingController");
+  private static final boolean  DEBUG          = false;
+
+  /** How far ahead of the active position, in ms of scrolling at the current speed, to prefetch. */
+  private static final long  PREFETCH_HORIZON   = 500;
+  private static final float VELOCITY_SMOOTHING = 0.5f;
+
+  private final PagedDataSource<E>       dataSource;
+  private final PagingConfig             config;
+  private final MutableLiveData<List<E>> liveData;
+  private final Runnable                 invalidationRequest;
+  private final int                      pageSize;
+  private final Executor                 fetchExecutor;
+
+  @GuardedBy("this")
+  private final Map<Object, Integer> keyToPosition;
+
+  @GuardedBy("this")
+  private int size;
+
+  @GuardedBy("this")
+  private int pageCount;
+
+  @GuardedBy("this")
+  private Object[][] pages;
+
+  @GuardedBy("this")
+  private BitSet residentPages;
+
+  /** Incremented whenever items shift position, so loads that straddle a shift can be discarded. */
+  @GuardedBy("this")
+  private int layoutVersion;
+
+  @GuardedBy("this")
+  private int residentCount;
+
+  @GuardedBy("this")
+  private int currentPage;
+
+  @GuardedBy("this")
+  private int windowStart;
+
+  @GuardedBy("this")
+  private int windowEnd;
+
+  @GuardedBy("this")
+  private int direction;
+
+  @GuardedBy("this")
+  private boolean draining;
+
+  private int   lastPage;
+  private long  lastPageChangeTime;
+  private float velocity;
+
+  private volatile boolean invalidated;
+
+  /**
+   * @param invalidationRequest Called if an item-level change can't be applied in place, in which
+   *                            case the data set should be invalidated as a whole.
+   */
+  PrefetchingPagingController(@NonNull PagedDataSource<E> dataSource,
+                              @NonNull PagingConfig config,
+                              @NonNull MutableLiveData<List<E>> liveData,
+                              int size,
+                              @NonNull Runnable invalidationRequest)
+  {
+    this(dataSource, config, liveData, size, invalidationRequest, FETCH_EXECUTOR);
+  }
+
+  @VisibleForTesting
+  PrefetchingPagingController(@NonNull PagedDataSource<E> dataSource,
+                              @NonNull PagingConfig config,
+                              @NonNull MutableLiveData<List<E>> liveData,
+                              int size,
+                              @NonNull Runnable invalidationRequest,
+                              @NonNull Executor fetchExecutor)
+  {
+    this.dataSource          = dataSource;
+    this.config              = config;
+    this.liveData            = liveData;
+    this.invalidationRequest = invalidationRequest;
+    this.pageSize            = config.pageSize();
+    this.fetchExecutor       = fetchExecutor;
+    this.keyToPosition       = new HashMap<>();
+    this.size                = size;
+    this.pageCount           = getPageCount(size);
+    this.pages               = new Object[pageCount][];
+    this.residentPages       = new BitSet(pageCount);
+    this.lastPage            = -1;
+  }
+
+  @Override
+  public void onDataNeededAroundIndex(int aroundIndex) {
+    if (invalidated) {
+      Log.w(TAG, buildLog(aroundIndex, "Invalidated! At very beginning."));
+      return;
+    }
+
+    int page;
+
+    synchronized (this) {
+      if (size == 0) {
+        liveData.postValue(Collections.emptyList());
+        return;
+      }
+
+      page = Math.max(0, Math.min(pageCount - 1, aroundIndex / pageSize));
+    }
+
+    if (page == lastPage) {
+      return;
+    }
+
+    updateVelocity(page);
+
+    int prefetchPages = getPrefetchPages();
+    int behind        = config.bufferPages() + (velocity < 0 ? prefetchPages : 0);
+    int ahead         = config.bufferPages() + (velocity > 0 ? prefetchPages : 0);
+
+    synchronized (this) {
+      currentPage = page;
+      direction   = velocity < 0 ? -1 : 1;
+      windowStart = Math.max(0, page - behind);
+      windowEnd   = Math.min(pageCount, page + ahead + 1);
+
+      if (DEBUG) Log.i(TAG, buildLog(aroundIndex, "page: " + page + ", window: [" + windowStart + ", " + windowEnd + "), velocity: " + velocity + ", resident: " + residentCount));
+
+      if (evictDistantPages()) {
+        publish();
+      }
+
+      startDrain();
+    }
+  }
+
+  @Override
+  public void onDataInvalidated() {
+    invalidated = true;
+  }
+
+  @Override
+  public void onDataItemChanged(@NonNull Object key) {
+    synchronized (this) {
+      if (invalidated || !keyToPosition.containsKey(key)) {
+        return;
+      }
+    }
+
+    E item = getKeyedDataSource().load(key);
+
+    synchronized (this) {
+      Integer position = keyToPosition.get(key);
+
+      if (invalidated || position == null) {
+        return;
+      }
+
+      if (item == null) {
+        reflowPages(position, -1, null);
+        startDrain();
+      } else {
+        int      page    = position / pageSize;
+        Object[] updated = pages[page].clone();
+
+        updated[position % pageSize] = item;
+        pages[page] = updated;
+        keyToPosition.put(key, position);
+      }
+
+      publish();
+    }
+  }
+
+  @Override
+  public void onDataItemInserted(@NonNull Object key, int position) {
+    E item = getKeyedDataSource().load(key);
+
+    synchronized (this) {
+      if (invalidated) {
+        return;
+      }
+
+      if (item == null) {
+        Log.w(TAG, "Inserted item could not be found. Ignoring.");
+        return;
+      }
+
+      if (keyToPosition.containsKey(key) || position < 0 || position > size) {
+        requestInvalidation("Can't insert at " + position + ".");
+        return;
+      }
+
+      reflowPages(position, 1, item);
+      publish();
+      startDrain();
+    }
+  }
+
+  @Override
+  public void onDataItemRemoved(@NonNull Object key) {
+    synchronized (this) {
+      if (invalidated) {
+        return;
+      }
+
+      Integer position = keyToPosition.get(key);
+
+      if (position == null) {
+        requestInvalidation("Removed item was never loaded, so its position is unknown.");
+        return;
+      }
+
+      reflowPages(position, -1, null);
+      publish();
+      startDrain();
+    }
+  }
+
+  /**
+   * Loads missing pages one at a time until everything in the current window is loaded. The page
+   * to load is chosen fresh each time, so it always reflects the latest position.
+   */
+  private void drain() {
+    while (true) {
+      int page;
+      int start;
+      int length;
+      int version;
+
+      synchronized (this) {
+        page = invalidated || pageCount == 0 ? -1 : getNextMissingPage();
+
+        if (page < 0) {
+          draining = false;
+          return;
+        }
+
+        start   = page * pageSize;
+        length  = Math.min(pageSize, size - start);
+        version = layoutVersion;
+      }
+
+      List<E> loaded = dataSource.load(start, length, () -> invalidated);
+
+      synchronized (this) {
+        if (invalidated) {
+          Log.w(TAG, "Invalidated! Just after page " + page + " was loaded.");
+          draining = false;
+          return;
+        }
+
+        if (version != layoutVersion) {
+          Log.i(TAG, "Items shifted while page " + page + " was loading. Dropping it.");
+        } else if (isInWindow(page) || config.maxResidentPages() == 0 || residentCount < config.maxResidentPages()) {
+          Object[] items = loaded.toArray();
+
+          if (!trackKeys(items, start)) {
+            requestInvalidation("Loaded item is already present at a different position.");
+            draining = false;
+            return;
+          }
+
+          pages[page] = items;
+          residentPages.set(page);
+          residentCount++;
+          evictDistantPages();
+          publish();
+        } else if (DEBUG) {
+          Log.i(TAG, "Dropping page " + page + ", it was scrolled past while loading.");
+        }
+      }
+    }
+  }
+
+  @GuardedBy("this")
+  private void startDrain() {
+    if (!draining && pageCount > 0 && getNextMissingPage() >= 0) {
+      draining = true;
+      fetchExecutor.execute(this::drain);
+    }
+  }
+
+  /**
+   * @return The most important page in the window that isn't loaded yet, or -1 if there are none.
+   *         That's the current page, then its neighbors nearest-first, favoring the direction of
+   *         travel.
+   */
+  @GuardedBy("this")
+  private int getNextMissingPage() {
+    if (!residentPages.get(currentPage)) {
+      return currentPage;
+    }
+
+    int reach = Math.max(currentPage - windowStart, windowEnd - 1 - currentPage);
+
+    for (int distance = 1; distance <= reach; distance++) {
+      int ahead  = currentPage + (distance * direction);
+      int behind = currentPage - (distance * direction);
+
+      if (isInWindow(ahead) && !residentPages.get(ahead)) {
+        return ahead;
+      }
+
+      if (isInWindow(behind) && !residentPages.get(behind)) {
+        return behind;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Drops the pages furthest from the current page until we're within our resident page budget.
+   * Pages within the window are never dropped.
+   *
+   * @return True if anything was dropped.
+   */
+  @GuardedBy("this")
+  private boolean evictDistantPages() {
+    int     maxResident = config.maxResidentPages();
+    boolean evicted     = false;
+
+    while (maxResident > 0 && residentCount > maxResident) {
+      int first = residentPages.nextSetBit(0);
+      int last  = residentPages.previousSetBit(pageCount - 1);
+      int victim;
+
+      if (currentPage - first >= last - currentPage) {
+        victim = first;
+      } else {
+        victim = last;
+      }
+
+      if (isInWindow(victim)) {
+        break;
+      }
+
+      untrackKeys(pages[victim]);
+      pages[victim] = null;
+      residentPages.clear(victim);
+      residentCount--;
+      evicted = true;
+    }
+
+    return evicted;
+  }
+
+  /**
+   * Inserts or removes a single item at the specified position, moving everything after it
+   * forward or back by one. Pages are immutable, so every resident page after the position is
+   * rebuilt. A page that would need an item from a page that isn't resident is dropped.
+   *
+   * @param delta 1 to insert the provided item, -1 to remove the item at the position.
+   */
+  @GuardedBy("this")
+  private void reflowPages(int position, int delta, @Nullable Object inserted) {
+    int        newSize      = size + delta;
+    int        newPageCount = getPageCount(newSize);
+    Object[][] newPages     = new Object[newPageCount][];
+    BitSet     newResident  = new BitSet(newPageCount);
+    int        firstPage    = position / pageSize;
+
+    for (int page = 0; page < Math.min(firstPage, newPageCount); page++) {
+      newPages[page] = pages[page];
+      newResident.set(page, residentPages.get(page));
+    }
+
+    for (int page = firstPage; page < newPageCount; page++) {
+      int      start = page * pageSize;
+      Object[] items = new Object[Math.min(pageSize, newSize - start)];
+
+      if (fillFromPreviousLayout(items, start, position, delta, inserted)) {
+        newPages[page] = items;
+        newResident.set(page);
+      }
+    }
+
+    size          = newSize;
+    pageCount     = newPageCount;
+    pages         = newPages;
+    residentPages = newResident;
+    residentCount = newResident.cardinality();
+    currentPage   = Math.min(currentPage, Math.max(0, newPageCount - 1));
+    windowStart   = Math.min(windowStart, currentPage);
+    windowEnd     = Math.min(windowEnd, newPageCount);
+    layoutVersion++;
+
+    keyToPosition.clear();
+    for (int page = residentPages.nextSetBit(0); page >= 0; page = residentPages.nextSetBit(page + 1)) {
+      if (!trackKeys(pages[page], page * pageSize)) {
+        requestInvalidation("Item is present at more than one position.");
+        return;
+      }
+    }
+  }
+
+  /**
+   * Fills in a page of the new layout using the resident pages of the current one.
+   *
+   * @return False if any of the items it needs aren't resident.
+   */
+  @GuardedBy("this")
+  private boolean fillFromPreviousLayout(@NonNull Object[] items, int start, int position, int delta, @Nullable Object inserted) {
+    for (int i = 0; i < items.length; i++) {
+      int index = start + i;
+
+      if (delta > 0 && index == position) {
+        items[i] = inserted;
+        continue;
+      }
+
+      int      previousIndex = index < position ? index : index - delta;
+      Object[] previousPage  = pages[previousIndex / pageSize];
+      int      offset        = previousIndex % pageSize;
+
+      if (previousPage == null || offset >= previousPage.length) {
+        return false;
+      }
+
+      items[i] = previousPage[offset];
+    }
+
+    return true;
+  }
+
+  /**
+   * Records the positions of newly-resident items.
+   *
+   * @return False if an item is already known to be at a different position, meaning our view of
+   *         the data set no longer lines up with the data source.
+   */
+  @GuardedBy("this")
+  private boolean trackKeys(@NonNull Object[] items, int start) {
+    if (!(dataSource instanceof PagedDataSource.Keyed)) {
+      return true;
+    }
+
+    for (int i = 0; i < items.length; i++) {
+      if (items[i] == null) {
+        continue;
+      }
+
+      //noinspection unchecked
+      Integer existing = keyToPosition.put(getKeyedDataSource().getKey((E) items[i]), start + i);
+
+      if (existing != null && existing != start + i) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  @GuardedBy("this")
+  private void untrackKeys(@NonNull Object[] items) {
+    if (!(dataSource instanceof PagedDataSource.Keyed)) {
+      return;
+    }
+
+    for (Object item : items) {
+      if (item != null) {
+        //noinspection unchecked
+        keyToPosition.remove(getKeyedDataSource().getKey((E) item));
+      }
+    }
+  }
+
+  /**
+   * Gives up on this controller. The data set will be invalidated and replaced as a whole.
+   */
+  private void requestInvalidation(@NonNull String reason) {
+    Log.w(TAG, reason + " Invalidating.");
+    invalidated = true;
+    invalidationRequest.run();
+  }
+
+  @SuppressWarnings("unchecked")
+  private @NonNull PagedDataSource.Keyed<Object, E> getKeyedDataSource() {
+    return (PagedDataSource.Keyed<Object, E>) dataSource;
+  }
+
+  private int getPageCount(int size) {
+    return (size + pageSize - 1) / pageSize;
+  }
+
+  @GuardedBy("this")
+  private boolean isInWindow(int page) {
+    return page >= windowStart && page < windowEnd;
+  }
+
+  @GuardedBy("this")
+  private void publish() {
+    liveData.postValue(new PageTableList<>(pages, pageSize, size));
+  }
+
+  /**
+   * Updates our estimate of how fast the active position is moving, in items per ms. A change of
+   * direction resets the estimate, otherwise it's smoothed across page changes.
+   */
+  private void updateVelocity(int page) {
+    long now = System.currentTimeMillis();
+
+    if (lastPage >= 0) {
+      long    elapsed       = Math.max(1, now - lastPageChangeTime);
+      float   latest        = ((page - lastPage) * pageSize) / (float) elapsed;
+      boolean sameDirection = (latest > 0) == (velocity > 0);
+
+      velocity = sameDirection ? (velocity * VELOCITY_SMOOTHING) + (latest * (1 - VELOCITY_SMOOTHING)) : latest;
+    }
+
+    lastPage           = page;
+    lastPageChangeTime = now;
+  }
+
+  private int getPrefetchPages() {
+    if (config.maxPrefetchPages() == 0) {
+      return 0;
+    }
+
+    int pagesInHorizon = (int) Math.ceil((Math.abs(velocity) * PREFETCH_HORIZON) / pageSize);
+
+    return Math.min(config.maxPrefetchPages(), pagesInHorizon);
+  }
+
+  private static String buildLog(int aroundIndex, String message) {
+    return "onDataNeededAroundIndex(" + aroundIndex + ") " + message;
+  }
+}
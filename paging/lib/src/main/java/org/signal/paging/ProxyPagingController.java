@@ -2,6 +2,7 @@ package org.signal.paging;
 
 import android.util.Log;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 /**
@@ -27,6 +28,27 @@ public class ProxyPagingController implements PagingController {
     }
   }
 
+  @Override
+  public synchronized void onDataItemChanged(@NonNull Object key) {
+    if (proxied != null) {
+      proxied.onDataItemChanged(key);
+    }
+  }
+
+  @Override
+  public synchronized void onDataItemInserted(@NonNull Object key, int position) {
+    if (proxied != null) {
+      proxied.onDataItemInserted(key, position);
+    }
+  }
+
+  @Override
+  public synchronized void onDataItemRemoved(@NonNull Object key) {
+    if (proxied != null) {
+      proxied.onDataItemRemoved(key);
+    }
+  }
+
   /**
    * Updates the underlying controller to the one specified.
    */
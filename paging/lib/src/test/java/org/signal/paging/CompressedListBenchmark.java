@@ -0,0 +1,183 @@
+package org.signal.paging;
+
+import org.junit.Test;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares {@link CompressedList} against the plain {@link ArrayList}-backed implementation it
+ * replaced, using the same access pattern as {@link FixedSizePagingController}: copy the last
+ * snapshot, fill in a freshly-loaded page, publish.
+ *
+ * Each test asserts that {@link CompressedList} comes out ahead, and reports both measurements if
+ * it doesn't. Regular test runs skip it; run it with
+ * {@code ./gradlew :paging:testDebugUnitTest -Pbenchmark}.
+ */
+public class CompressedListBenchmark {
+
+  private static final int SIZE      = 500_000;
+  private static final int PAGE_SIZE = 25;
+  private static final int PUBLISHES = 50;
+  private static final int WARMUPS   = 3;
+
+  @Test
+  public void publishTime() {
+    for (int i = 0; i < WARMUPS; i++) {
+      publishPages(new ArrayListSnapshots());
+      publishPages(new CompressedListSnapshots());
+    }
+
+    long arrayListNanos      = time(new ArrayListSnapshots());
+    long compressedListNanos = time(new CompressedListSnapshots());
+
+    assertAhead("Publish time per page", compressedListNanos < arrayListNanos,
+                String.format(Locale.US, "%.1f us", arrayListNanos / 1000f / PUBLISHES),
+                String.format(Locale.US, "%.1f us", compressedListNanos / 1000f / PUBLISHES));
+  }
+
+  @Test
+  public void retainedMemory() {
+    long arrayListBytes      = retainedBytes(new ArrayListSnapshots());
+    long compressedListBytes = retainedBytes(new CompressedListSnapshots());
+
+    assertAhead("Retained memory, " + PUBLISHES + " snapshots", compressedListBytes < arrayListBytes,
+                formatBytes(arrayListBytes),
+                formatBytes(compressedListBytes));
+  }
+
+  @Test
+  public void snapshotsMatch() {
+    List<List<Integer>> expected = publishPages(new ArrayListSnapshots());
+    List<List<Integer>> actual   = publishPages(new CompressedListSnapshots());
+
+    assertEquals(expected.get(expected.size() - 1), actual.get(actual.size() - 1));
+    assertEquals(expected.get(PUBLISHES / 2), actual.get(PUBLISHES / 2));
+  }
+
+  private static long time(Snapshots snapshots) {
+    long start = System.nanoTime();
+    publishPages(snapshots);
+    return System.nanoTime() - start;
+  }
+
+  private static long retainedBytes(Snapshots snapshots) {
+    long before = usedMemory();
+
+    List<List<Integer>> retained = publishPages(snapshots);
+
+    long after = usedMemory();
+
+    assertEquals(PUBLISHES, retained.size());
+    return after - before;
+  }
+
+  /**
+   * Scrolls up from the bottom of the data set, one page at a time, keeping every snapshot.
+   */
+  private static List<List<Integer>> publishPages(Snapshots snapshots) {
+    List<List<Integer>> published = new ArrayList<>(PUBLISHES);
+    List<Integer>       current   = snapshots.create(SIZE);
+
+    for (int page = 0; page < PUBLISHES; page++) {
+      int start = SIZE - ((page + 1) * PAGE_SIZE);
+
+      current = snapshots.copy(current);
+
+      for (int i = start; i < start + PAGE_SIZE; i++) {
+        current.set(i, i);
+      }
+
+      published.add(current);
+    }
+
+    return published;
+  }
+
+  private static long usedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static String formatBytes(long bytes) {
+    return String.format(Locale.US, "%.2f MB", bytes / (1024f * 1024f));
+  }
+
+  private static void assertAhead(String name, boolean ahead, String arrayList, String compressedList) {
+    assertTrue(String.format(Locale.US, "[%s] ArrayList: %s, CompressedList: %s", name, arrayList, compressedList), ahead);
+  }
+
+  private interface Snapshots {
+    List<Integer> create(int size);
+    List<Integer> copy(List<Integer> source);
+  }
+
+  private static final class CompressedListSnapshots implements Snapshots {
+    @Override
+    public List<Integer> create(int size) {
+      return new CompressedList<>(size);
+    }
+
+    @Override
+    public List<Integer> copy(List<Integer> source) {
+      return new CompressedList<>(source);
+    }
+  }
+
+  private static final class ArrayListSnapshots implements Snapshots {
+    @Override
+    public List<Integer> create(int size) {
+      return new ArrayListCompressedList<>(size);
+    }
+
+    @Override
+    public List<Integer> copy(List<Integer> source) {
+      return new ArrayListCompressedList<>(source);
+    }
+  }
+
+  /**
+   * The previous implementation of {@link CompressedList}.
+   */
+  private static final class ArrayListCompressedList<E> extends AbstractList<E> {
+
+    private final List<E> wrapped;
+
+    ArrayListCompressedList(List<E> source) {
+      this.wrapped = new ArrayList<>(source);
+    }
+
+    ArrayListCompressedList(int totalSize) {
+      this.wrapped = new ArrayList<>(totalSize);
+
+      for (int i = 0; i < totalSize; i++) {
+        wrapped.add(null);
+      }
+    }
+
+    @Override
+    public int size() {
+      return wrapped.size();
+    }
+
+    @Override
+    public E get(int index) {
+      return wrapped.get(index);
+    }
+
+    @Override
+    public E set(int index, E element) {
+      return wrapped.set(index, element);
+    }
+  }
+}
@@ -0,0 +1,165 @@
+package org.signal.paging;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CompressedListTest {
+
+  @Test
+  public void newList_isAllNulls() {
+    CompressedList<String> list = new CompressedList<>(1000);
+
+    assertEquals(1000, list.size());
+    assertNull(list.get(0));
+    assertNull(list.get(999));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void get_outOfBounds_throws() {
+    new CompressedList<String>(10).get(10);
+  }
+
+  @Test
+  public void set_acrossChunks() {
+    CompressedList<Integer> list = new CompressedList<>(CompressedList.CHUNK_SIZE * 3);
+
+    for (int i = CompressedList.CHUNK_SIZE - 2; i < CompressedList.CHUNK_SIZE + 2; i++) {
+      list.set(i, i);
+    }
+
+    assertNull(list.get(CompressedList.CHUNK_SIZE - 3));
+    assertEquals(CompressedList.CHUNK_SIZE - 2, (int) list.get(CompressedList.CHUNK_SIZE - 2));
+    assertEquals(CompressedList.CHUNK_SIZE + 1, (int) list.get(CompressedList.CHUNK_SIZE + 1));
+    assertNull(list.get(CompressedList.CHUNK_SIZE + 2));
+  }
+
+  @Test
+  public void copy_setOnCopy_doesNotAffectOriginal() {
+    CompressedList<String> original = new CompressedList<>(200);
+    original.set(5, "a");
+
+    CompressedList<String> copy = new CompressedList<>(original);
+    copy.set(5, "b");
+    copy.set(150, "c");
+
+    assertEquals("a", original.get(5));
+    assertNull(original.get(150));
+    assertEquals("b", copy.get(5));
+    assertEquals("c", copy.get(150));
+  }
+
+  @Test
+  public void copy_setOnOriginal_doesNotAffectCopy() {
+    CompressedList<String> original = new CompressedList<>(200);
+    original.set(5, "a");
+
+    CompressedList<String> copy = new CompressedList<>(original);
+    original.set(5, "b");
+
+    assertEquals("b", original.get(5));
+    assertEquals("a", copy.get(5));
+  }
+
+  @Test
+  public void copy_fromOtherList() {
+    List<String> source = Arrays.asList("a", null, "c");
+
+    assertEquals(source, new CompressedList<>(source));
+  }
+
+  @Test
+  public void add_atStart() {
+    CompressedList<String> list = new CompressedList<>(Arrays.asList("b", "c"));
+
+    list.add(0, "a");
+
+    assertEquals(Arrays.asList("a", "b", "c"), list);
+  }
+
+  @Test
+  public void add_toEmptyList() {
+    CompressedList<String> list = new CompressedList<>(0);
+
+    list.add(0, "b");
+    list.add(1, "c");
+    list.add(0, "a");
+
+    assertEquals(Arrays.asList("a", "b", "c"), list);
+  }
+
+  @Test
+  public void remove_fromStart() {
+    CompressedList<String> list = new CompressedList<>(Arrays.asList("a", "b", "c"));
+
+    assertEquals("a", list.remove(0));
+    assertEquals(Arrays.asList("b", "c"), list);
+  }
+
+  @Test
+  public void addAndRemove_inMiddle_shiftAcrossChunks() {
+    List<Integer> source = new ArrayList<>();
+    for (int i = 0; i < CompressedList.CHUNK_SIZE * 2; i++) {
+      source.add(i);
+    }
+
+    CompressedList<Integer> list = new CompressedList<>(source);
+
+    list.add(10, -1);
+    source.add(10, -1);
+    assertEquals(source, list);
+
+    assertEquals(-1, (int) list.remove(10));
+    source.remove(10);
+    assertEquals(source, list);
+  }
+
+  @Test
+  public void randomOperations_matchArrayList() {
+    Random random = new Random(1);
+
+    for (int iteration = 0; iteration < 200; iteration++) {
+      int                     size      = random.nextInt(300);
+      List<Integer>           expected  = new ArrayList<>(Collections.nCopies(size, (Integer) null));
+      CompressedList<Integer> actual    = new CompressedList<>(size);
+      List<List<Integer>>     snapshots = new ArrayList<>();
+      List<List<Integer>>     copies    = new ArrayList<>();
+
+      for (int op = 0; op < 200; op++) {
+        int action = random.nextInt(8);
+
+        if (action < 3 && expected.size() > 0) {
+          int     index = random.nextInt(expected.size());
+          Integer value = random.nextInt(4) == 0 ? null : random.nextInt();
+
+          assertEquals(expected.set(index, value), actual.set(index, value));
+        } else if (action < 5) {
+          int index = random.nextBoolean() ? 0 : random.nextInt(expected.size() + 1);
+          int value = random.nextInt();
+
+          expected.add(index, value);
+          actual.add(index, value);
+        } else if (action < 7 && expected.size() > 0) {
+          int index = random.nextBoolean() ? 0 : random.nextInt(expected.size());
+
+          assertEquals(expected.remove(index), actual.remove(index));
+        } else {
+          snapshots.add(new ArrayList<>(expected));
+          copies.add(actual);
+          actual = new CompressedList<>(actual);
+        }
+
+        assertEquals(expected, actual);
+      }
+
+      assertEquals(snapshots, copies);
+    }
+  }
+}
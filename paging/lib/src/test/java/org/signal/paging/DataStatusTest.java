@@ -0,0 +1,69 @@
+package org.signal.paging;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class DataStatusTest {
+
+  @Test
+  public void insertState_shiftsLaterMarksAndMarksPosition() {
+    DataStatus status = DataStatus.obtain(10);
+    status.markRange(0, 1);
+    status.markRange(6, 8);
+
+    status.insertState(2);
+
+    assertEquals(11, status.size());
+    assertEquals(Arrays.asList(0, 2, 7, 8), getMarked(status));
+  }
+
+  @Test
+  public void removeState_shiftsLaterMarks() {
+    DataStatus status = DataStatus.obtain(10);
+    status.markRange(0, 1);
+    status.markRange(6, 8);
+
+    status.removeState(2);
+
+    assertEquals(9, status.size());
+    assertEquals(Arrays.asList(0, 5, 6), getMarked(status));
+  }
+
+  @Test
+  public void removeState_markedPosition_isDropped() {
+    DataStatus status = DataStatus.obtain(10);
+    status.markRange(2, 3);
+    status.markRange(9, 10);
+
+    status.removeState(2);
+
+    assertEquals(Arrays.asList(8), getMarked(status));
+  }
+
+  @Test
+  public void unmarkIndex_clearsOnlyThatIndex() {
+    DataStatus status = DataStatus.obtain(5);
+    status.markRange(0, 5);
+
+    status.unmarkIndex(3);
+
+    assertEquals(Arrays.asList(0, 1, 2, 4), getMarked(status));
+  }
+
+  private static List<Integer> getMarked(DataStatus status) {
+    List<Integer> marked = new ArrayList<>();
+
+    for (int i = 0; i < status.size(); i++) {
+      if (status.getEarliestUnmarkedIndexInRange(i, i + 1) < 0) {
+        marked.add(i);
+      }
+    }
+
+    return marked;
+  }
+}
@@ -0,0 +1,232 @@
+package org.signal.paging;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.signal.core.util.logging.Log;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class FixedSizePagingControllerTest {
+
+  private static final int PAGE_SIZE = 10;
+
+  private TestDataSource       dataSource;
+  private TestLiveData<String> liveData;
+  private TestExecutor         executor;
+  private int                  invalidationRequests;
+
+  private FixedSizePagingController<String> subject;
+
+  @Before
+  public void setUp() {
+    Log.initialize(new Log.Logger[0]);
+
+    dataSource           = new TestDataSource(30);
+    liveData             = new TestLiveData<>();
+    executor             = new TestExecutor();
+    invalidationRequests = 0;
+
+    PagingConfig config = new PagingConfig.Builder().setPageSize(PAGE_SIZE)
+                                                    .setBufferPages(1)
+                                                    .build();
+
+    subject = new FixedSizePagingController<>(dataSource, config, liveData, dataSource.size(), () -> invalidationRequests++, executor);
+  }
+
+  @Test
+  public void onDataNeededAroundIndex_loadsPageAndBuffer() {
+    subject.onDataNeededAroundIndex(0);
+    executor.runAll();
+
+    assertEquals(Arrays.asList(0), dataSource.getLoads());
+    assertEquals(dataSource.snapshot().subList(0, 20), liveData.getLatest().subList(0, 20));
+    assertNull(liveData.getLatest().get(20));
+  }
+
+  @Test
+  public void onDataNeededAroundIndex_alreadyRequested_doesNotLoadAgain() {
+    subject.onDataNeededAroundIndex(0);
+    subject.onDataNeededAroundIndex(5);
+    executor.runAll();
+
+    assertEquals(Arrays.asList(0), dataSource.getLoads());
+  }
+
+  @Test
+  public void onDataItemInserted_shiftsLaterItemsAndLoads() {
+    subject.onDataNeededAroundIndex(0);
+    executor.runAll();
+
+    dataSource.insert(5, "new");
+    subject.onDataItemInserted("new", 5);
+    executor.runAll();
+
+    assertEquals(31, liveData.getLatest().size());
+    assertEquals("new:0", liveData.getLatest().get(5));
+    assertEquals("k5:0", liveData.getLatest().get(6));
+    assertEquals("k19:0", liveData.getLatest().get(20));
+
+    subject.onDataNeededAroundIndex(25);
+    executor.runAll();
+
+    assertEquals(Arrays.asList(0, 21), dataSource.getLoads());
+    assertEquals(dataSource.snapshot(), liveData.getLatest());
+    assertEquals(0, invalidationRequests);
+  }
+
+  @Test
+  public void onDataItemRemoved_shiftsLaterItemsAndLoads() {
+    subject.onDataNeededAroundIndex(0);
+    executor.runAll();
+
+    dataSource.remove("k3");
+    subject.onDataItemRemoved("k3");
+    executor.runAll();
+
+    assertEquals(29, liveData.getLatest().size());
+    assertEquals("k4:0", liveData.getLatest().get(3));
+    assertNull(liveData.getLatest().get(19));
+
+    subject.onDataNeededAroundIndex(25);
+    executor.runAll();
+
+    assertEquals(Arrays.asList(0, 19), dataSource.getLoads());
+    assertEquals(dataSource.snapshot(), liveData.getLatest());
+    assertEquals(0, invalidationRequests);
+  }
+
+  @Test
+  public void onDataItemInserted_atTop_laterChangesAndRemovesFindTheirItems() {
+    subject.onDataNeededAroundIndex(0);
+    executor.runAll();
+
+    dataSource.insert(0, "new");
+    subject.onDataItemInserted("new", 0);
+    executor.runAll();
+
+    dataSource.change("k3");
+    subject.onDataItemChanged("k3");
+    dataSource.remove("k5");
+    subject.onDataItemRemoved("k5");
+    executor.runAll();
+
+    assertEquals("new:0", liveData.getLatest().get(0));
+    assertEquals("k3:1", liveData.getLatest().get(4));
+    assertEquals("k6:0", liveData.getLatest().get(6));
+    assertEquals(30, liveData.getLatest().size());
+    assertEquals(0, invalidationRequests);
+  }
+
+  @Test
+  public void onDataItemChanged_replacesItemInPlace() {
+    subject.onDataNeededAroundIndex(0);
+    executor.runAll();
+
+    dataSource.change("k3");
+    subject.onDataItemChanged("k3");
+    executor.runAll();
+
+    assertEquals("k3:1", liveData.getLatest().get(3));
+    assertEquals(30, liveData.getLatest().size());
+  }
+
+  @Test
+  public void onDataItemChanged_itemNoLongerPresent_removesIt() {
+    subject.onDataNeededAroundIndex(0);
+    executor.runAll();
+
+    dataSource.remove("k3");
+    subject.onDataItemChanged("k3");
+    executor.runAll();
+
+    assertEquals(29, liveData.getLatest().size());
+    assertEquals("k4:0", liveData.getLatest().get(3));
+  }
+
+  @Test
+  public void onDataItemRemoved_unknownKey_requestsInvalidation() {
+    subject.onDataNeededAroundIndex(0);
+    executor.runAll();
+
+    dataSource.remove("k25");
+    subject.onDataItemRemoved("k25");
+    executor.runAll();
+
+    assertEquals(1, invalidationRequests);
+
+    subject.onDataNeededAroundIndex(25);
+    executor.runAll();
+
+    assertEquals(Arrays.asList(0), dataSource.getLoads());
+  }
+
+  @Test
+  public void onDataItemInserted_duplicateKey_requestsInvalidation() {
+    subject.onDataNeededAroundIndex(0);
+    executor.runAll();
+
+    subject.onDataItemInserted("k3", 0);
+    executor.runAll();
+
+    assertEquals(1, invalidationRequests);
+  }
+
+  @Test
+  public void onDataItemInserted_outOfBounds_requestsInvalidation() {
+    dataSource.insert(30, "new");
+    subject.onDataItemInserted("new", 31);
+    executor.runAll();
+
+    assertEquals(1, invalidationRequests);
+  }
+
+  @Test
+  public void onDataNeededAroundIndex_loadedKeyAtDifferentPosition_requestsInvalidation() {
+    subject.onDataNeededAroundIndex(0);
+    executor.runAll();
+
+    dataSource.move("k5", 25);
+    subject.onDataNeededAroundIndex(25);
+    executor.runAll();
+
+    assertEquals(1, invalidationRequests);
+  }
+
+  @Test
+  public void onDataNeededAroundIndex_insertQueuedAheadOfLoad_loadFollowsTheShift() {
+    dataSource.insert(5, "new");
+    subject.onDataItemInserted("new", 5);
+    subject.onDataNeededAroundIndex(0);
+    executor.runAll();
+
+    assertEquals(Arrays.asList(0), dataSource.getLoads());
+    assertEquals(dataSource.snapshot().subList(0, 21), liveData.getLatest().subList(0, 21));
+
+    subject.onDataNeededAroundIndex(15);
+    executor.runAll();
+    subject.onDataNeededAroundIndex(25);
+    executor.runAll();
+
+    assertEquals(dataSource.snapshot(), liveData.getLatest());
+    assertEquals(0, invalidationRequests);
+  }
+
+  @Test
+  public void onDataNeededAroundIndex_removeQueuedAheadOfLoad_loadFollowsTheShift() {
+    subject.onDataNeededAroundIndex(0);
+    executor.runAll();
+
+    dataSource.remove("k3");
+    subject.onDataItemRemoved("k3");
+    subject.onDataNeededAroundIndex(25);
+    executor.runAll();
+
+    assertEquals(Arrays.asList(0, 19), dataSource.getLoads());
+
+    assertEquals(dataSource.snapshot(), liveData.getLatest());
+    assertEquals(0, invalidationRequests);
+  }
+}
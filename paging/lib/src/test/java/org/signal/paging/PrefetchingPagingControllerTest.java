@@ -0,0 +1,404 @@
+package org.signal.paging;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.signal.core.util.logging.Log;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PrefetchingPagingControllerTest {
+
+  private static final int PAGE_SIZE = 10;
+
+  private TestDataSource       dataSource;
+  private TestLiveData<String> liveData;
+  private TestExecutor         executor;
+  private int                  invalidationRequests;
+
+  @Before
+  public void setUp() {
+    Log.initialize(new Log.Logger[0]);
+
+    dataSource           = new TestDataSource(1000);
+    liveData             = new TestLiveData<>();
+    executor             = new TestExecutor();
+    invalidationRequests = 0;
+  }
+
+  @Test
+  public void onDataNeededAroundIndex_firstRequest_loadsCurrentPageThenBuffer() {
+    PrefetchingPagingController<String> subject = createController(1, 3, 0);
+
+    subject.onDataNeededAroundIndex(505);
+    executor.runAll();
+
+    assertEquals(Arrays.asList(500, 510, 490), dataSource.getLoads());
+    assertResident(49, 50, 51);
+    assertNotResident(48, 52);
+  }
+
+  @Test
+  public void onDataNeededAroundIndex_scrollingForward_prefetchesAhead() {
+    PrefetchingPagingController<String> subject = createController(1, 3, 0);
+
+    subject.onDataNeededAroundIndex(0);
+    executor.runAll();
+    subject.onDataNeededAroundIndex(10);
+    executor.runAll();
+
+    assertResident(0, 1, 2, 3, 4, 5);
+    assertNotResident(6);
+  }
+
+  @Test
+  public void onDataNeededAroundIndex_scrollingBackward_prefetchesBehind() {
+    PrefetchingPagingController<String> subject = createController(1, 3, 0);
+
+    subject.onDataNeededAroundIndex(505);
+    executor.runAll();
+    subject.onDataNeededAroundIndex(495);
+    executor.runAll();
+
+    assertResident(45, 46, 47, 48, 49, 50);
+    assertNotResident(44);
+  }
+
+  @Test
+  public void onDataNeededAroundIndex_prefetchDisabled_onlyLoadsBuffer() {
+    PrefetchingPagingController<String> subject = createController(1, 0, 0);
+
+    subject.onDataNeededAroundIndex(0);
+    executor.runAll();
+    subject.onDataNeededAroundIndex(10);
+    executor.runAll();
+
+    assertResident(0, 1, 2);
+    assertNotResident(3);
+  }
+
+  @Test
+  public void onDataNeededAroundIndex_overResidentBound_evictsFurthestPages() {
+    PrefetchingPagingController<String> subject = createController(1, 0, 5);
+
+    subject.onDataNeededAroundIndex(100);
+    executor.runAll();
+    subject.onDataNeededAroundIndex(200);
+    executor.runAll();
+    subject.onDataNeededAroundIndex(300);
+    executor.runAll();
+
+    assertEquals(5, countResidentPages());
+    assertResident(20, 21, 29, 30, 31);
+    assertNotResident(9, 10, 11, 19);
+  }
+
+  @Test
+  public void onDataNeededAroundIndex_evictedPageNeededAgain_isReloaded() {
+    PrefetchingPagingController<String> subject = createController(1, 0, 3);
+
+    subject.onDataNeededAroundIndex(100);
+    executor.runAll();
+    subject.onDataNeededAroundIndex(500);
+    executor.runAll();
+
+    assertNotResident(10);
+
+    dataSource.clearLoads();
+    subject.onDataNeededAroundIndex(100);
+    executor.runAll();
+
+    assertTrue(dataSource.getLoads().contains(100));
+    assertResident(9, 10, 11);
+    assertEquals(3, countResidentPages());
+  }
+
+  @Test
+  public void onDataNeededAroundIndex_noResidentBound_neverEvicts() {
+    PrefetchingPagingController<String> subject = createController(1, 0, 0);
+
+    for (int i = 0; i < 10; i++) {
+      subject.onDataNeededAroundIndex(i * 100);
+      executor.runAll();
+    }
+
+    assertEquals(2 + (9 * 3), countResidentPages());
+  }
+
+  @Test
+  public void onDataNeededAroundIndex_scrolledPastWhileLoading_skipsPagesNoLongerNeeded() {
+    PrefetchingPagingController<String> subject = createController(1, 0, 0);
+
+    dataSource.afterNextLoad(() -> subject.onDataNeededAroundIndex(905));
+
+    subject.onDataNeededAroundIndex(505);
+    executor.runAll();
+
+    assertEquals(Arrays.asList(500, 900, 910, 890), dataSource.getLoads());
+    assertResident(89, 90, 91);
+    assertNotResident(49, 51);
+  }
+
+  @Test
+  public void onDataNeededAroundIndex_scrolledPastWhileLoadingAndAtResidentBound_dropsLoadedPage() {
+    PrefetchingPagingController<String> subject = createController(1, 0, 3);
+
+    subject.onDataNeededAroundIndex(105);
+    executor.runAll();
+
+    dataSource.afterNextLoad(() -> subject.onDataNeededAroundIndex(905));
+
+    subject.onDataNeededAroundIndex(505);
+    executor.runAll();
+
+    assertNotResident(50);
+    assertResident(89, 90, 91);
+    assertEquals(3, countResidentPages());
+  }
+
+  @Test
+  public void onDataInvalidated_whileLoading_stopsLoading() {
+    PrefetchingPagingController<String> subject = createController(1, 3, 0);
+
+    dataSource.afterNextLoad(subject::onDataInvalidated);
+
+    subject.onDataNeededAroundIndex(505);
+    executor.runAll();
+
+    assertEquals(Arrays.asList(500), dataSource.getLoads());
+    assertNull(liveData.getLatest());
+
+    subject.onDataNeededAroundIndex(905);
+    executor.runAll();
+
+    assertEquals(Arrays.asList(500), dataSource.getLoads());
+    assertEquals(0, invalidationRequests);
+  }
+
+  @Test
+  public void onDataItemInserted_shiftsResidentPages() {
+    dataSource = new TestDataSource(30);
+    PrefetchingPagingController<String> subject = createController(1, 0, 0);
+
+    subject.onDataNeededAroundIndex(0);
+    executor.runAll();
+
+    dataSource.insert(5, "new");
+    subject.onDataItemInserted("new", 5);
+    executor.runAll();
+
+    assertEquals(31, liveData.getLatest().size());
+    assertEquals("new:0", liveData.getLatest().get(5));
+    assertResident(0, 1);
+    assertNotResident(2);
+
+    subject.onDataNeededAroundIndex(25);
+    executor.runAll();
+
+    assertEquals(dataSource.snapshot(), liveData.getLatest());
+    assertEquals(0, invalidationRequests);
+  }
+
+  @Test
+  public void onDataItemRemoved_shiftsResidentPages() {
+    dataSource = new TestDataSource(30);
+    PrefetchingPagingController<String> subject = createController(1, 0, 0);
+
+    subject.onDataNeededAroundIndex(0);
+    executor.runAll();
+
+    dataSource.remove("k3");
+    subject.onDataItemRemoved("k3");
+    executor.runAll();
+
+    assertEquals(29, liveData.getLatest().size());
+    assertEquals("k4:0", liveData.getLatest().get(3));
+    assertResident(0);
+
+    subject.onDataNeededAroundIndex(25);
+    executor.runAll();
+
+    assertEquals(dataSource.snapshot(), liveData.getLatest());
+    assertEquals(0, invalidationRequests);
+  }
+
+  @Test
+  public void onDataItemChanged_replacesItemInPlace() {
+    PrefetchingPagingController<String> subject = createController(1, 0, 0);
+
+    subject.onDataNeededAroundIndex(0);
+    executor.runAll();
+
+    dataSource.change("k3");
+    subject.onDataItemChanged("k3");
+
+    assertEquals("k3:1", liveData.getLatest().get(3));
+    assertEquals(1000, liveData.getLatest().size());
+  }
+
+  @Test
+  public void onDataItemChanged_itemNoLongerPresent_removesIt() {
+    PrefetchingPagingController<String> subject = createController(1, 0, 0);
+
+    subject.onDataNeededAroundIndex(0);
+    executor.runAll();
+
+    dataSource.remove("k3");
+    subject.onDataItemChanged("k3");
+    executor.runAll();
+
+    assertEquals(999, liveData.getLatest().size());
+    assertEquals("k4:0", liveData.getLatest().get(3));
+  }
+
+  @Test
+  public void onDataItemRemoved_unknownKey_requestsInvalidation() {
+    PrefetchingPagingController<String> subject = createController(1, 0, 0);
+
+    subject.onDataNeededAroundIndex(0);
+    executor.runAll();
+
+    dataSource.remove("k500");
+    subject.onDataItemRemoved("k500");
+
+    assertEquals(1, invalidationRequests);
+
+    dataSource.clearLoads();
+    subject.onDataNeededAroundIndex(505);
+    executor.runAll();
+
+    assertEquals(0, dataSource.getLoads().size());
+  }
+
+  @Test
+  public void onDataItemRemoved_evictedKey_requestsInvalidation() {
+    PrefetchingPagingController<String> subject = createController(1, 0, 3);
+
+    subject.onDataNeededAroundIndex(0);
+    executor.runAll();
+    subject.onDataNeededAroundIndex(505);
+    executor.runAll();
+
+    dataSource.remove("k3");
+    subject.onDataItemRemoved("k3");
+
+    assertEquals(1, invalidationRequests);
+  }
+
+  @Test
+  public void onDataItemInserted_duplicateKey_requestsInvalidation() {
+    PrefetchingPagingController<String> subject = createController(1, 0, 0);
+
+    subject.onDataNeededAroundIndex(0);
+    executor.runAll();
+
+    subject.onDataItemInserted("k3", 0);
+
+    assertEquals(1, invalidationRequests);
+  }
+
+  @Test
+  public void onDataNeededAroundIndex_loadedKeyAtDifferentPosition_requestsInvalidation() {
+    dataSource = new TestDataSource(30);
+    PrefetchingPagingController<String> subject = createController(1, 0, 0);
+
+    subject.onDataNeededAroundIndex(0);
+    executor.runAll();
+
+    dataSource.move("k5", 25);
+    subject.onDataNeededAroundIndex(25);
+    executor.runAll();
+
+    assertEquals(1, invalidationRequests);
+  }
+
+  @Test
+  public void onDataItemInserted_whileLoading_loadIsDroppedAndRetried() {
+    dataSource = new TestDataSource(30);
+    PrefetchingPagingController<String> subject = createController(1, 0, 0);
+
+    dataSource.afterNextLoad(() -> {
+      dataSource.insert(0, "new");
+      subject.onDataItemInserted("new", 0);
+    });
+
+    subject.onDataNeededAroundIndex(0);
+    executor.runAll();
+
+    assertEquals(Arrays.asList(0, 0, 10), dataSource.getLoads());
+    assertEquals(dataSource.snapshot().subList(0, 20), liveData.getLatest().subList(0, 20));
+    assertEquals(0, invalidationRequests);
+  }
+
+  @Test
+  public void onDataItemRemoved_whileLoading_loadIsDroppedAndRetried() {
+    dataSource = new TestDataSource(30);
+    PrefetchingPagingController<String> subject = createController(1, 0, 0);
+
+    subject.onDataNeededAroundIndex(0);
+    executor.runAll();
+
+    dataSource.clearLoads();
+    dataSource.afterNextLoad(() -> {
+      dataSource.remove("k3");
+      subject.onDataItemRemoved("k3");
+    });
+
+    subject.onDataNeededAroundIndex(25);
+    executor.runAll();
+
+    assertEquals(Arrays.asList(20, 20, 10), dataSource.getLoads());
+    assertEquals(dataSource.snapshot(), liveData.getLatest());
+    assertEquals(0, invalidationRequests);
+  }
+
+  private PrefetchingPagingController<String> createController(int bufferPages, int maxPrefetchPages, int maxResidentPages) {
+    PagingConfig config = new PagingConfig.Builder().setPageSize(PAGE_SIZE)
+                                                    .setBufferPages(bufferPages)
+                                                    .setMaxPrefetchPages(maxPrefetchPages)
+                                                    .setMaxResidentPages(maxResidentPages)
+                                                    .build();
+
+    return new PrefetchingPagingController<>(dataSource, config, liveData, dataSource.size(), () -> invalidationRequests++, executor);
+  }
+
+  private void assertResident(int... pages) {
+    List<String> data = liveData.getLatest();
+
+    assertNotNull(data);
+
+    for (int page : pages) {
+      for (int i = page * PAGE_SIZE; i < Math.min(data.size(), (page + 1) * PAGE_SIZE); i++) {
+        assertEquals("Page " + page, dataSource.snapshot().get(i), data.get(i));
+      }
+    }
+  }
+
+  private void assertNotResident(int... pages) {
+    List<String> data = liveData.getLatest();
+
+    assertNotNull(data);
+
+    for (int page : pages) {
+      assertNull("Page " + page, data.get(page * PAGE_SIZE));
+    }
+  }
+
+  private int countResidentPages() {
+    List<String> data  = liveData.getLatest();
+    int          count = 0;
+
+    for (int i = 0; i < data.size(); i += PAGE_SIZE) {
+      if (data.get(i) != null) {
+        count++;
+      }
+    }
+
+    return count;
+  }
+}
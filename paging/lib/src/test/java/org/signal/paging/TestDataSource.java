@@ -0,0 +1,122 @@
+package org.signal.paging;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A keyed data source backed by an in-memory list. Items are strings of the form "key:version", so
+ * that an item can change while keeping its key.
+ */
+final class TestDataSource implements PagedDataSource.Keyed<String, String> {
+
+  private final List<String>         keys     = new ArrayList<>();
+  private final Map<String, Integer> versions = new HashMap<>();
+  private final List<Integer>        loads    = new ArrayList<>();
+
+  private Runnable afterNextLoad;
+
+  TestDataSource(int size) {
+    for (int i = 0; i < size; i++) {
+      keys.add("k" + i);
+    }
+  }
+
+  @Override
+  public synchronized int size() {
+    return keys.size();
+  }
+
+  @Override
+  public @NonNull List<String> load(int start, int length, @NonNull CancellationSignal cancellationSignal) {
+    List<String> items = new ArrayList<>(length);
+    Runnable     after;
+
+    synchronized (this) {
+      loads.add(start);
+
+      for (int i = start; i < Math.min(keys.size(), start + length); i++) {
+        items.add(item(keys.get(i)));
+      }
+
+      after         = afterNextLoad;
+      afterNextLoad = null;
+    }
+
+    if (after != null) {
+      after.run();
+    }
+
+    return items;
+  }
+
+  @Override
+  public synchronized @Nullable String load(@NonNull String key) {
+    return keys.contains(key) ? item(key) : null;
+  }
+
+  @Override
+  public @NonNull String getKey(@NonNull String item) {
+    return item.substring(0, item.indexOf(':'));
+  }
+
+  synchronized void insert(int position, @NonNull String key) {
+    keys.add(position, key);
+  }
+
+  synchronized void remove(@NonNull String key) {
+    keys.remove(key);
+  }
+
+  synchronized void move(@NonNull String key, int position) {
+    keys.remove(key);
+    keys.add(position, key);
+  }
+
+  synchronized void change(@NonNull String key) {
+    versions.put(key, getVersion(key) + 1);
+  }
+
+  synchronized @NonNull String item(@NonNull String key) {
+    return key + ":" + getVersion(key);
+  }
+
+  /**
+   * @return The item at each position, as the data source currently has it.
+   */
+  synchronized @NonNull List<String> snapshot() {
+    List<String> items = new ArrayList<>(keys.size());
+    for (String key : keys) {
+      items.add(item(key));
+    }
+    return items;
+  }
+
+  /**
+   * @return The start position of every page load so far, in order.
+   */
+  synchronized @NonNull List<Integer> getLoads() {
+    return new ArrayList<>(loads);
+  }
+
+  synchronized void clearLoads() {
+    loads.clear();
+  }
+
+  /**
+   * Runs the provided task once the next page load has read its items, but before it returns
+   * them, as if something happened while the load was in flight.
+   */
+  synchronized void afterNextLoad(@NonNull Runnable task) {
+    afterNextLoad = task;
+  }
+
+  private int getVersion(@NonNull String key) {
+    Integer version = versions.get(key);
+    return version != null ? version : 0;
+  }
+}
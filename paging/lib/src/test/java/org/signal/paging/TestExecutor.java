@@ -0,0 +1,31 @@
+package org.signal.paging;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * An executor that holds on to tasks until they're explicitly run, so tests control exactly when
+ * loads happen.
+ */
+final class TestExecutor implements Executor {
+
+  private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+  @Override
+  public void execute(@NonNull Runnable task) {
+    tasks.add(task);
+  }
+
+  /**
+   * Runs every task, including any that are queued while running.
+   */
+  void runAll() {
+    Runnable task;
+    while ((task = tasks.poll()) != null) {
+      task.run();
+    }
+  }
+}
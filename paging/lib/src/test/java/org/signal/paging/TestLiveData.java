@@ -0,0 +1,28 @@
+package org.signal.paging;
+
+import androidx.lifecycle.MutableLiveData;
+
+import java.util.List;
+
+/**
+ * Keeps the last posted value, without needing a main thread to deliver it.
+ */
+final class TestLiveData<E> extends MutableLiveData<List<E>> {
+
+  private volatile List<E> latest;
+  private volatile int     postCount;
+
+  @Override
+  public void postValue(List<E> value) {
+    latest = value;
+    postCount++;
+  }
+
+  List<E> getLatest() {
+    return latest;
+  }
+
+  int getPostCount() {
+    return postCount;
+  }
+}